@@ -0,0 +1,129 @@
+package com.bf.sparkproject.benchmark;
+
+import com.bf.sparkproject.constant.Constants;
+import com.bf.sparkproject.spark.SessionAggrStatAccumulator;
+import com.bf.sparkproject.util.StringUtils;
+
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * 基准测试的输入数据
+ * <p>
+ * 所有的输入都按照作业中真实的格式来构造：
+ * 1、session聚合数据，就是aggregateBySession输出的key=value|key=value连接串
+ * 2、任务参数，就是filterSessionAndAggrStat中拼接出来的参数连接串
+ * 3、访问时间，就是user_visit_action表中的action_time
+ * 每一种数据都会生成一批，基准方法轮流使用，避免JIT把固定的输入常量折叠掉
+ */
+public class BenchmarkData {
+
+    public static final int SIZE = 1024;
+
+    private static final String[] KEYWORDS = new String[]{"火锅", "蛋糕", "重庆辣子鸡", "重庆小面",
+            "呷哺呷哺", "新辣道鱼火锅", "国贸大厦", "太古商场", "日本料理", "温泉"};
+
+    /**
+     * 生成session聚合数据
+     */
+    public static String[] aggrInfos(long seed) {
+        Random random = new Random(seed);
+        String[] aggrInfos = new String[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            StringBuilder keywords = new StringBuilder();
+            int keywordCount = 1 + random.nextInt(3);
+            for (int j = 0; j < keywordCount; j++) {
+                keywords.append(j == 0 ? "" : ",").append(KEYWORDS[random.nextInt(KEYWORDS.length)]);
+            }
+            StringBuilder categoryIds = new StringBuilder();
+            int categoryCount = 1 + random.nextInt(5);
+            for (int j = 0; j < categoryCount; j++) {
+                categoryIds.append(j == 0 ? "" : ",").append(random.nextInt(100));
+            }
+
+            aggrInfos[i] = Constants.FIELD_SESSION_ID + "=" + UUID.randomUUID().toString().replace("-", "") + "|"
+                    + Constants.FIELD_SEARCH_KEYWORDS + "=" + keywords + "|"
+                    + Constants.FIELD_CLICK_CATEGORY_IDS + "=" + categoryIds + "|"
+                    + Constants.FIELD_VISIT_LENGTH + "=" + random.nextInt(3600) + "|"
+                    + Constants.FIELD_STEP_LENGTH + "=" + (1 + random.nextInt(100)) + "|"
+                    + Constants.FIELD_START_TIME + "=" + actionTime(random) + "|"
+                    + Constants.FIELD_AGE + "=" + random.nextInt(60) + "|"
+                    + Constants.FIELD_PROFESSIONAL + "=professional" + random.nextInt(100) + "|"
+                    + Constants.FIELD_CITY + "=city" + random.nextInt(100) + "|"
+                    + Constants.FIELD_SEX + "=" + (random.nextBoolean() ? "male" : "female");
+        }
+        return aggrInfos;
+    }
+
+    /**
+     * 生成任务参数连接串，有的任务条件多，有的任务条件少
+     */
+    public static String[] parameters(long seed) {
+        Random random = new Random(seed);
+        String[] parameters = new String[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            int startAge = random.nextInt(40);
+            parameters[i] = Constants.PARAM_START_AGE + "=" + startAge + "|"
+                    + Constants.PARAM_END_AGE + "=" + (startAge + random.nextInt(20)) + "|"
+                    + Constants.PARAM_PROFESSIONALS + "=professional" + random.nextInt(100)
+                    + ",professional" + random.nextInt(100) + "|"
+                    + Constants.PARAM_CITIES + "=city" + random.nextInt(100) + ",city" + random.nextInt(100) + "|"
+                    + Constants.PARAM_SEX + "=" + (random.nextBoolean() ? "male" : "female") + "|"
+                    + Constants.PARAM_KEYWORDS + "=" + KEYWORDS[random.nextInt(KEYWORDS.length)]
+                    + "," + KEYWORDS[random.nextInt(KEYWORDS.length)] + "|"
+                    + Constants.PARAM_CATEGORY_IDS + "=" + random.nextInt(100) + "," + random.nextInt(100);
+        }
+        return parameters;
+    }
+
+    /**
+     * 生成访问时间
+     */
+    public static String[] actionTimes(long seed) {
+        Random random = new Random(seed);
+        String[] actionTimes = new String[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            actionTimes[i] = actionTime(random);
+        }
+        return actionTimes;
+    }
+
+    /**
+     * 生成session统计累加器的连接串，模拟累加了一段时间以后的状态
+     */
+    public static String[] statStrings(long seed) {
+        Random random = new Random(seed);
+        SessionAggrStatAccumulator accumulator = new SessionAggrStatAccumulator();
+        String[] fields = statFields();
+        String[] statStrings = new String[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            String stat = accumulator.zero("");
+            for (String field : fields) {
+                stat = StringUtils.setFieldInConcatString(stat, "\\|", field, String.valueOf(random.nextInt(100000)));
+            }
+            statStrings[i] = stat;
+        }
+        return statStrings;
+    }
+
+    /**
+     * 统计累加器中的所有区间
+     */
+    public static String[] statFields() {
+        return new String[]{Constants.SESSION_COUNT,
+                Constants.TIME_PERIOD_1s_3s, Constants.TIME_PERIOD_4s_6s, Constants.TIME_PERIOD_7s_9s,
+                Constants.TIME_PERIOD_10s_30s, Constants.TIME_PERIOD_30s_60s, Constants.TIME_PERIOD_1m_3m,
+                Constants.TIME_PERIOD_3m_10m, Constants.TIME_PERIOD_10m_30m, Constants.TIME_PERIOD_30m,
+                Constants.STEP_PERIOD_1_3, Constants.STEP_PERIOD_4_6, Constants.STEP_PERIOD_7_9,
+                Constants.STEP_PERIOD_10_30, Constants.STEP_PERIOD_30_60, Constants.STEP_PERIOD_60};
+    }
+
+    private static String actionTime(Random random) {
+        return "2018-04-" + pad(1 + random.nextInt(28)) + " "
+                + pad(random.nextInt(24)) + ":" + pad(random.nextInt(60)) + ":" + pad(random.nextInt(60));
+    }
+
+    private static String pad(int value) {
+        return value < 10 ? "0" + value : String.valueOf(value);
+    }
+}
@@ -0,0 +1,75 @@
+package com.bf.sparkproject.benchmark;
+
+import com.bf.sparkproject.constant.Constants;
+import com.bf.sparkproject.spark.SessionAggrStatAccumulator;
+import com.bf.sparkproject.util.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * key=value|key=value连接串的读写基准测试
+ * <p>
+ * 每个session在过滤阶段都要从聚合数据中提取多个字段，
+ * 每次累加器add的时候都要从统计连接串中读出一个值再写回去
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcatStringBenchmark {
+
+    private String[] aggrInfos;
+    private String[] statStrings;
+    private String[] statFields;
+    private SessionAggrStatAccumulator accumulator;
+    private int index;
+
+    @Setup
+    public void setup() {
+        aggrInfos = BenchmarkData.aggrInfos(1L);
+        statStrings = BenchmarkData.statStrings(2L);
+        statFields = BenchmarkData.statFields();
+        accumulator = new SessionAggrStatAccumulator();
+    }
+
+    private int next() {
+        index = (index + 1) & (BenchmarkData.SIZE - 1);
+        return index;
+    }
+
+    /**
+     * 提取位于连接串末尾的字段，最坏的情况
+     */
+    @Benchmark
+    public String getFieldFromConcatString() {
+        return StringUtils.getFieldFromConcatString(aggrInfos[next()], "\\|", Constants.FIELD_SEX);
+    }
+
+    @Benchmark
+    public String setFieldInConcatString() {
+        int i = next();
+        return StringUtils.setFieldInConcatString(statStrings[i], "\\|",
+                statFields[i & 15], "12345");
+    }
+
+    /**
+     * 累加器的一次add，也就是过滤函数中每个session要调用两到三次的操作
+     */
+    @Benchmark
+    public String accumulatorAdd() {
+        int i = next();
+        return accumulator.add(statStrings[i], statFields[i & 15]);
+    }
+}
@@ -0,0 +1,72 @@
+package com.bf.sparkproject.benchmark;
+
+import com.bf.sparkproject.util.DateUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 日期时间解析和格式化的基准测试
+ * <p>
+ * aggregateBySession中每一条访问行为都要解析一次action_time，每个session要格式化一次startTime
+ * parseTimeSeconds/formatTimeSeconds是替代SimpleDateFormat的版本，不创建Date对象，线程安全
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateUtilsBenchmark {
+
+    private String[] actionTimes;
+    private Date[] dates;
+    private long[] seconds;
+    private int index;
+
+    @Setup
+    public void setup() {
+        actionTimes = BenchmarkData.actionTimes(4L);
+        dates = new Date[actionTimes.length];
+        seconds = new long[actionTimes.length];
+        for (int i = 0; i < actionTimes.length; i++) {
+            dates[i] = DateUtils.parseTime(actionTimes[i]);
+            seconds[i] = dates[i].getTime() / 1000;
+        }
+    }
+
+    private int next() {
+        index = (index + 1) & (BenchmarkData.SIZE - 1);
+        return index;
+    }
+
+    @Benchmark
+    public Date parseTime() {
+        return DateUtils.parseTime(actionTimes[next()]);
+    }
+
+    @Benchmark
+    public String formatTime() {
+        return DateUtils.formatTime(dates[next()]);
+    }
+
+    @Benchmark
+    public long parseTimeSeconds() {
+        return DateUtils.parseTimeSeconds(actionTimes[next()]);
+    }
+
+    @Benchmark
+    public String formatTimeSeconds() {
+        return DateUtils.formatTimeSeconds(seconds[next()]);
+    }
+}
@@ -0,0 +1,84 @@
+package com.bf.sparkproject.benchmark;
+
+import com.bf.sparkproject.spark.SessionAggrStatBuckets;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * session聚合统计区间的基准测试
+ * <p>
+ * 每个session计入一次统计：两次二分查找，三次数组元素自增，
+ * 对比ConcatStringBenchmark.accumulatorAdd()，也就是原来每个区间都要解析、拼接一次统计连接串的做法
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionAggrStatBucketsBenchmark {
+
+    private long[] visitLengths;
+    private long[] stepLengths;
+    private SessionAggrStatBuckets defaultBuckets;
+    private SessionAggrStatBuckets fineBuckets;
+    private long[] defaultCounts;
+    private long[] fineCounts;
+    private int index;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(3L);
+        visitLengths = new long[BenchmarkData.SIZE];
+        stepLengths = new long[BenchmarkData.SIZE];
+        for (int i = 0; i < BenchmarkData.SIZE; i++) {
+            visitLengths[i] = random.nextInt(3600);
+            stepLengths[i] = 1 + random.nextInt(100);
+        }
+
+        defaultBuckets = SessionAggrStatBuckets.defaults();
+        defaultCounts = new long[defaultBuckets.size()];
+
+        //每分钟一个访问时长区间，每步一个访问步长区间，区间数是默认的十倍以上
+        long[] visitLengthEdges = new long[60];
+        for (int i = 0; i < visitLengthEdges.length; i++) {
+            visitLengthEdges[i] = i * 60L;
+        }
+        long[] stepLengthEdges = new long[100];
+        for (int i = 0; i < stepLengthEdges.length; i++) {
+            stepLengthEdges[i] = i + 1L;
+        }
+        fineBuckets = SessionAggrStatBuckets.of(visitLengthEdges, stepLengthEdges);
+        fineCounts = new long[fineBuckets.size()];
+    }
+
+    private int next() {
+        index = (index + 1) & (BenchmarkData.SIZE - 1);
+        return index;
+    }
+
+    @Benchmark
+    public long[] defaultBucketsAdd() {
+        int i = next();
+        defaultBuckets.add(defaultCounts, visitLengths[i], stepLengths[i]);
+        return defaultCounts;
+    }
+
+    @Benchmark
+    public long[] fineBucketsAdd() {
+        int i = next();
+        fineBuckets.add(fineCounts, visitLengths[i], stepLengths[i]);
+        return fineCounts;
+    }
+}
@@ -0,0 +1,67 @@
+package com.bf.sparkproject.benchmark;
+
+import com.bf.sparkproject.spark.SessionStatSketch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * session聚合统计sketch的基准测试
+ * <p>
+ * 每个符合条件的session都要计入一次sketch，和SessionAggrStatBucketsBenchmark对比，
+ * 可以看出在区间统计之外，额外计算分位数、不同的用户数和搜索词数的代价
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionStatSketchBenchmark {
+
+    private long[] visitLengths;
+    private long[] stepLengths;
+    private long[] userIds;
+    private RoaringBitmap[] keywordIds;
+    private SessionStatSketch sketch;
+    private int index;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(4L);
+        visitLengths = new long[BenchmarkData.SIZE];
+        stepLengths = new long[BenchmarkData.SIZE];
+        userIds = new long[BenchmarkData.SIZE];
+        keywordIds = new RoaringBitmap[BenchmarkData.SIZE];
+        for (int i = 0; i < BenchmarkData.SIZE; i++) {
+            visitLengths[i] = random.nextInt(3600);
+            stepLengths[i] = 1 + random.nextInt(100);
+            userIds[i] = random.nextInt(100000);
+            keywordIds[i] = RoaringBitmap.bitmapOf(random.nextInt(10), random.nextInt(10));
+        }
+        sketch = new SessionStatSketch(14);
+    }
+
+    private int next() {
+        index = (index + 1) & (BenchmarkData.SIZE - 1);
+        return index;
+    }
+
+    @Benchmark
+    public SessionStatSketch sketchAdd() {
+        int i = next();
+        sketch.add(visitLengths[i], stepLengths[i], userIds[i], keywordIds[i]);
+        return sketch;
+    }
+}
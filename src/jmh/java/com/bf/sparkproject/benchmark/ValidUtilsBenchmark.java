@@ -0,0 +1,80 @@
+package com.bf.sparkproject.benchmark;
+
+import com.bf.sparkproject.constant.Constants;
+import com.bf.sparkproject.util.ValidUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 过滤条件校验的基准测试
+ * <p>
+ * filterSessionAndAggrStat中每个session都要依次做between、in、equal校验
+ * sessionFilter把一个session的全部六个校验串起来，和过滤函数里的代码一致
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidUtilsBenchmark {
+
+    private String[] aggrInfos;
+    private String[] parameters;
+    private int index;
+
+    @Setup
+    public void setup() {
+        aggrInfos = BenchmarkData.aggrInfos(1L);
+        parameters = BenchmarkData.parameters(3L);
+    }
+
+    private int next() {
+        index = (index + 1) & (BenchmarkData.SIZE - 1);
+        return index;
+    }
+
+    @Benchmark
+    public boolean between() {
+        int i = next();
+        return ValidUtils.between(aggrInfos[i], Constants.FIELD_AGE,
+                parameters[i], Constants.PARAM_START_AGE, Constants.PARAM_END_AGE);
+    }
+
+    @Benchmark
+    public boolean in() {
+        int i = next();
+        return ValidUtils.in(aggrInfos[i], Constants.FIELD_CLICK_CATEGORY_IDS,
+                parameters[i], Constants.PARAM_CATEGORY_IDS);
+    }
+
+    @Benchmark
+    public boolean equal() {
+        int i = next();
+        return ValidUtils.equal(aggrInfos[i], Constants.FIELD_SEX,
+                parameters[i], Constants.PARAM_SEX);
+    }
+
+    @Benchmark
+    public boolean sessionFilter() {
+        int i = next();
+        String aggrInfo = aggrInfos[i];
+        String parameter = parameters[i];
+        return ValidUtils.between(aggrInfo, Constants.FIELD_AGE, parameter, Constants.PARAM_START_AGE, Constants.PARAM_END_AGE)
+                && ValidUtils.in(aggrInfo, Constants.FIELD_PROFESSIONAL, parameter, Constants.PARAM_PROFESSIONALS)
+                && ValidUtils.in(aggrInfo, Constants.FIELD_CITY, parameter, Constants.PARAM_CITIES)
+                && ValidUtils.equal(aggrInfo, Constants.FIELD_SEX, parameter, Constants.PARAM_SEX)
+                && ValidUtils.in(aggrInfo, Constants.FIELD_SEARCH_KEYWORDS, parameter, Constants.PARAM_KEYWORDS)
+                && ValidUtils.in(aggrInfo, Constants.FIELD_CLICK_CATEGORY_IDS, parameter, Constants.PARAM_CATEGORY_IDS);
+    }
+}
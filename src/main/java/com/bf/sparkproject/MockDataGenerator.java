@@ -0,0 +1,496 @@
+package com.bf.sparkproject;
+
+import com.bf.sparkproject.conf.ConfigurationManager;
+import com.bf.sparkproject.constant.Constants;
+import com.bf.sparkproject.util.DateUtils;
+import com.bf.sparkproject.util.StringUtils;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.Function2;
+import org.apache.spark.sql.DataFrame;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.SQLContext;
+import org.apache.spark.sql.SaveMode;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * 大数据量模拟数据生成程序
+ * <p>
+ * MockData是在driver端用一个ArrayList把所有数据构造出来，然后再parallelize出去的，
+ * 最多也就十万行左右，数据量再大一点，driver就OOM了，根本没办法拿来做性能测试
+ * <p>
+ * 这里的做法是：driver端只parallelize分区编号，真正的数据在每个executor上，
+ * 由每个分区各自的随机数生成器（seed + 分区编号）以迭代器的方式边生成边输出，不会在内存中堆积
+ * 同样的参数和seed，生成的数据是完全一样的，可以用来在不同版本的代码之间做性能对比
+ * <p>
+ * 可以配置的参数：
+ * 1、用户数量
+ * 2、每个用户的平均session数量
+ * 3、每个session的平均访问行为数量
+ * 4、Zipf倾斜因子，用来模拟热点用户、热点品类、热点搜索词（0表示均匀分布）
+ * 5、日期跨度
+ * <p>
+ * 生成的数据可以直接注册成临时表，也可以写成Parquet文件（按date分区）
+ */
+public class MockDataGenerator implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] SEARCH_KEYWORDS = new String[]{"火锅", "蛋糕", "重庆辣子鸡", "重庆小面",
+            "呷哺呷哺", "新辣道鱼火锅", "国贸大厦", "太古商场", "日本料理", "温泉"};
+    private static final String[] ACTIONS = new String[]{"search", "click", "order", "pay"};
+    private static final String[] SEXES = new String[]{"male", "female"};
+
+    private static final int CATEGORY_COUNT = 100;
+    private static final int PRODUCT_COUNT = 100;
+    private static final int PAGE_COUNT = 10;
+    private static final int CITY_COUNT = 10;
+    private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
+    private long users;
+    private int sessionsPerUser;
+    private int actionsPerSession;
+    private double skew;
+    private String[] dates;
+    private long seed;
+    private int partitions;
+
+    /**
+     * @param users             用户数量
+     * @param sessionsPerUser   每个用户的平均session数量
+     * @param actionsPerSession 每个session的平均访问行为数量
+     * @param skew              Zipf倾斜因子
+     * @param dateSpan          日期跨度（天）
+     * @param endDate           最后一天的日期（yyyy-MM-dd），为空则是今天
+     * @param seed              随机数种子
+     * @param partitions        生成数据的分区数量
+     */
+    public MockDataGenerator(long users, int sessionsPerUser, int actionsPerSession,
+                             double skew, int dateSpan, String endDate,
+                             long seed, int partitions) {
+        this.users = users;
+        this.sessionsPerUser = sessionsPerUser;
+        this.actionsPerSession = actionsPerSession;
+        this.skew = skew;
+        this.seed = seed;
+        this.partitions = partitions;
+        this.dates = buildDates(endDate, dateSpan);
+    }
+
+    /**
+     * 根据my.properties中的mock.*配置项创建生成器
+     *
+     * @return
+     */
+    public static MockDataGenerator fromConfig() {
+        return new MockDataGenerator(
+                ConfigurationManager.getLong(Constants.MOCK_USERS),
+                ConfigurationManager.getInteger(Constants.MOCK_SESSIONS_PER_USER),
+                ConfigurationManager.getInteger(Constants.MOCK_ACTIONS_PER_SESSION),
+                ConfigurationManager.getDouble(Constants.MOCK_ZIPF_SKEW),
+                ConfigurationManager.getInteger(Constants.MOCK_DATE_SPAN),
+                ConfigurationManager.getProperty(Constants.MOCK_END_DATE),
+                ConfigurationManager.getLong(Constants.MOCK_SEED),
+                ConfigurationManager.getInteger(Constants.MOCK_PARTITIONS));
+    }
+
+    /**
+     * 生成模拟数据，并注册成user_visit_action、user_info、product_info三张临时表
+     * 如果指定了parquetPath，那么先将数据写成Parquet文件，再基于Parquet文件注册临时表
+     *
+     * @param sc
+     * @param sqlContext
+     * @param parquetPath Parquet文件的根目录，为空则不写文件
+     */
+    public void mock(JavaSparkContext sc, SQLContext sqlContext, String parquetPath) {
+        DataFrame actionDF = generateActions(sc, sqlContext);
+        DataFrame userDF = generateUsers(sc, sqlContext);
+        DataFrame productDF = generateProducts(sc, sqlContext);
+
+        if (StringUtils.isNotEmpty(parquetPath)) {
+            String actionPath = parquetPath + "/" + Constants.TABLE_USER_VISIT_ACTION;
+            String userPath = parquetPath + "/" + Constants.TABLE_USER_INFO;
+            String productPath = parquetPath + "/" + Constants.TABLE_PRODUCT_INFO;
+
+            actionDF.write().mode(SaveMode.Overwrite).partitionBy("date").parquet(actionPath);
+            userDF.write().mode(SaveMode.Overwrite).parquet(userPath);
+            productDF.write().mode(SaveMode.Overwrite).parquet(productPath);
+
+            //按date分区写出的Parquet，读回来的时候date列会被挪到最后，这里恢复成原来的列顺序，
+            //getActionRDDByDateRange()之后是按下标读取各列的
+            String[] actionColumns = actionDF.columns();
+            actionDF = sqlContext.read().parquet(actionPath).select(actionColumns[0],
+                    Arrays.copyOfRange(actionColumns, 1, actionColumns.length));
+            userDF = sqlContext.read().parquet(userPath);
+            productDF = sqlContext.read().parquet(productPath);
+        }
+
+        actionDF.registerTempTable(Constants.TABLE_USER_VISIT_ACTION);
+        userDF.registerTempTable(Constants.TABLE_USER_INFO);
+        productDF.registerTempTable(Constants.TABLE_PRODUCT_INFO);
+    }
+
+    /**
+     * 生成用户访问行为数据
+     * 总的session数量是users * sessionsPerUser，平均分配到各个分区
+     * 每个session的用户按照Zipf分布抽取，所以会有少量的热点用户拥有大量的session
+     *
+     * @param sc
+     * @param sqlContext
+     * @return
+     */
+    public DataFrame generateActions(JavaSparkContext sc, SQLContext sqlContext) {
+        final long totalSessions = users * sessionsPerUser;
+
+        JavaRDD<Row> rowsRDD = partitionSeeds(sc).mapPartitionsWithIndex(
+                new Function2<Integer, Iterator<Integer>, Iterator<Row>>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public Iterator<Row> call(Integer index, Iterator<Integer> ignored) throws Exception {
+                        long sessions = rangeSize(totalSessions, index);
+                        return new ActionIterator(new Random(seed + index), sessions);
+                    }
+                }, false);
+
+        StructType schema = DataTypes.createStructType(Arrays.asList(
+                DataTypes.createStructField("date", DataTypes.StringType, true),
+                DataTypes.createStructField("user_id", DataTypes.LongType, true),
+                DataTypes.createStructField("session_id", DataTypes.StringType, true),
+                DataTypes.createStructField("page_id", DataTypes.LongType, true),
+                DataTypes.createStructField("action_time", DataTypes.StringType, true),
+                DataTypes.createStructField("search_keyword", DataTypes.StringType, true),
+                DataTypes.createStructField("click_category_id", DataTypes.LongType, true),
+                DataTypes.createStructField("click_product_id", DataTypes.LongType, true),
+                DataTypes.createStructField("order_category_ids", DataTypes.StringType, true),
+                DataTypes.createStructField("order_product_ids", DataTypes.StringType, true),
+                DataTypes.createStructField("pay_category_ids", DataTypes.StringType, true),
+                DataTypes.createStructField("pay_product_ids", DataTypes.StringType, true),
+                DataTypes.createStructField("city_id", DataTypes.LongType, true)));
+
+        return sqlContext.createDataFrame(rowsRDD, schema);
+    }
+
+    /**
+     * 生成用户信息数据，user_id从0到users-1，每个分区负责一段连续的user_id
+     *
+     * @param sc
+     * @param sqlContext
+     * @return
+     */
+    public DataFrame generateUsers(JavaSparkContext sc, SQLContext sqlContext) {
+        JavaRDD<Row> rowsRDD = partitionSeeds(sc).mapPartitionsWithIndex(
+                new Function2<Integer, Iterator<Integer>, Iterator<Row>>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public Iterator<Row> call(Integer index, Iterator<Integer> ignored) throws Exception {
+                        final Random random = new Random(~(seed + index));
+                        final long start = rangeStart(users, index);
+                        final long end = start + rangeSize(users, index);
+
+                        return new Iterator<Row>() {
+                            private long userid = start;
+
+                            @Override
+                            public boolean hasNext() {
+                                return userid < end;
+                            }
+
+                            @Override
+                            public Row next() {
+                                if (!hasNext()) {
+                                    throw new NoSuchElementException();
+                                }
+                                long id = userid++;
+                                return RowFactory.create(id, "user" + id, "name" + id,
+                                        random.nextInt(60),
+                                        "professional" + random.nextInt(100),
+                                        "city" + random.nextInt(100),
+                                        SEXES[random.nextInt(2)]);
+                            }
+
+                            @Override
+                            public void remove() {
+                                throw new UnsupportedOperationException();
+                            }
+                        };
+                    }
+                }, false);
+
+        StructType schema = DataTypes.createStructType(Arrays.asList(
+                DataTypes.createStructField("user_id", DataTypes.LongType, true),
+                DataTypes.createStructField("username", DataTypes.StringType, true),
+                DataTypes.createStructField("name", DataTypes.StringType, true),
+                DataTypes.createStructField("age", DataTypes.IntegerType, true),
+                DataTypes.createStructField("professional", DataTypes.StringType, true),
+                DataTypes.createStructField("city", DataTypes.StringType, true),
+                DataTypes.createStructField("sex", DataTypes.StringType, true)));
+
+        return sqlContext.createDataFrame(rowsRDD, schema);
+    }
+
+    /**
+     * 生成商品信息数据，商品数量很少，直接在driver端生成即可
+     *
+     * @param sc
+     * @param sqlContext
+     * @return
+     */
+    public DataFrame generateProducts(JavaSparkContext sc, SQLContext sqlContext) {
+        Random random = new Random(seed);
+        List<Row> rows = new ArrayList<Row>();
+        for (int i = 0; i < PRODUCT_COUNT; i++) {
+            long productId = i;
+            String extendInfo = "{\"product_status\": " + random.nextInt(2) + "}";
+            rows.add(RowFactory.create(productId, "product" + i, extendInfo));
+        }
+
+        StructType schema = DataTypes.createStructType(Arrays.asList(
+                DataTypes.createStructField("product_id", DataTypes.LongType, true),
+                DataTypes.createStructField("product_name", DataTypes.StringType, true),
+                DataTypes.createStructField("extend_info", DataTypes.StringType, true)));
+
+        return sqlContext.createDataFrame(sc.parallelize(rows, 1), schema);
+    }
+
+    /**
+     * driver端只parallelize分区编号，每个分区一个元素
+     */
+    private JavaRDD<Integer> partitionSeeds(JavaSparkContext sc) {
+        List<Integer> seeds = new ArrayList<Integer>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            seeds.add(i);
+        }
+        return sc.parallelize(seeds, partitions);
+    }
+
+    //将total平均分配到各个分区，计算第index个分区的起始位置和数量
+    private long rangeStart(long total, int index) {
+        return total / partitions * index + Math.min(index, total % partitions);
+    }
+
+    private long rangeSize(long total, int index) {
+        return total / partitions + (index < total % partitions ? 1 : 0);
+    }
+
+    /**
+     * 计算日期跨度内的所有日期
+     */
+    private static String[] buildDates(String endDate, int dateSpan) {
+        Calendar cal = Calendar.getInstance();
+        if (StringUtils.isNotEmpty(endDate)) {
+            try {
+                cal.setTime(DateUtils.DATE_FORMAT.parse(endDate));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        } else {
+            cal.setTime(new Date());
+        }
+
+        int span = Math.max(dateSpan, 1);
+        String[] dates = new String[span];
+        for (int i = span - 1; i >= 0; i--) {
+            dates[i] = DateUtils.formatDate(cal.getTime());
+            cal.add(Calendar.DAY_OF_YEAR, -1);
+        }
+        return dates;
+    }
+
+    /**
+     * 在executor端逐行生成访问行为数据的迭代器
+     * 一次只在内存中保留当前session的状态
+     */
+    private class ActionIterator implements Iterator<Row> {
+        private Random random;
+        private long remainingSessions;
+        private ZipfSampler userSampler;
+        private ZipfSampler categorySampler;
+        private ZipfSampler keywordSampler;
+
+        //当前session的状态
+        private String date;
+        private long userid;
+        private String sessionid;
+        private long cityId;
+        private Long clickCategoryId;
+        private int secondOfDay;
+        private int remainingActions;
+
+        ActionIterator(Random random, long sessions) {
+            this.random = random;
+            this.remainingSessions = sessions;
+            this.userSampler = new ZipfSampler(users, skew);
+            this.categorySampler = new ZipfSampler(CATEGORY_COUNT, skew);
+            this.keywordSampler = new ZipfSampler(SEARCH_KEYWORDS.length, skew);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (remainingActions == 0 && remainingSessions > 0) {
+                nextSession();
+            }
+            return remainingActions > 0;
+        }
+
+        private void nextSession() {
+            remainingSessions--;
+            date = dates[random.nextInt(dates.length)];
+            userid = userSampler.sample(random) - 1;
+            sessionid = new UUID(random.nextLong(), random.nextLong()).toString().replace("-", "");
+            cityId = random.nextInt(CITY_COUNT);
+            clickCategoryId = null;
+            secondOfDay = random.nextInt(SECONDS_PER_DAY);
+            //每个session的访问行为数量在[1, 2 * actionsPerSession - 1]之间均匀分布，平均值就是actionsPerSession
+            remainingActions = 1 + random.nextInt(Math.max(2 * actionsPerSession - 1, 1));
+        }
+
+        @Override
+        public Row next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            remainingActions--;
+
+            //session内的访问行为按时间先后排列，相邻两次行为间隔1到60秒
+            secondOfDay = Math.min(secondOfDay + 1 + random.nextInt(60), SECONDS_PER_DAY - 1);
+            String actionTime = date + " "
+                    + StringUtils.fulfuill(String.valueOf(secondOfDay / 3600)) + ":"
+                    + StringUtils.fulfuill(String.valueOf(secondOfDay / 60 % 60)) + ":"
+                    + StringUtils.fulfuill(String.valueOf(secondOfDay % 60));
+
+            long pageid = random.nextInt(PAGE_COUNT);
+            String searchKeyword = null;
+            Long clickProductId = null;
+            String orderCategoryIds = null;
+            String orderProductIds = null;
+            String payCategoryIds = null;
+            String payProductIds = null;
+
+            String action = ACTIONS[random.nextInt(ACTIONS.length)];
+            if ("search".equals(action)) {
+                searchKeyword = SEARCH_KEYWORDS[(int) keywordSampler.sample(random) - 1];
+            } else if ("click".equals(action)) {
+                if (clickCategoryId == null) {
+                    clickCategoryId = categorySampler.sample(random) - 1;
+                }
+                clickProductId = (long) random.nextInt(PRODUCT_COUNT);
+            } else if ("order".equals(action)) {
+                orderCategoryIds = String.valueOf(categorySampler.sample(random) - 1);
+                orderProductIds = String.valueOf(random.nextInt(PRODUCT_COUNT));
+            } else if ("pay".equals(action)) {
+                payCategoryIds = String.valueOf(categorySampler.sample(random) - 1);
+                payProductIds = String.valueOf(random.nextInt(PRODUCT_COUNT));
+            }
+
+            return RowFactory.create(date, userid, sessionid,
+                    pageid, actionTime, searchKeyword,
+                    clickCategoryId, clickProductId,
+                    orderCategoryIds, orderProductIds,
+                    payCategoryIds, payProductIds,
+                    cityId);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Zipf分布采样器，返回[1, n]之间的整数，1出现的概率最高
+     * <p>
+     * 使用的是Hörmann和Derflinger的rejection-inversion算法，不需要预先计算累积分布表，
+     * 内存占用是常量，n可以是上亿的用户数量
+     * exponent小于等于0的时候，退化成均匀分布
+     */
+    public static class ZipfSampler implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private long n;
+        private double exponent;
+        private double hIntegralX1;
+        private double hIntegralN;
+        private double s;
+
+        public ZipfSampler(long n, double exponent) {
+            this.n = n;
+            this.exponent = exponent;
+            if (exponent > 0) {
+                this.hIntegralX1 = hIntegral(1.5) - 1.0;
+                this.hIntegralN = hIntegral(n + 0.5);
+                this.s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+            }
+        }
+
+        public long sample(Random random) {
+            if (exponent <= 0) {
+                return 1 + (long) (random.nextDouble() * n);
+            }
+
+            while (true) {
+                double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+                double x = hIntegralInverse(u);
+
+                long k = (long) (x + 0.5);
+                if (k < 1) {
+                    k = 1;
+                } else if (k > n) {
+                    k = n;
+                }
+
+                if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                    return k;
+                }
+            }
+        }
+
+        private double hIntegral(double x) {
+            double logX = Math.log(x);
+            return helper2((1 - exponent) * logX) * logX;
+        }
+
+        private double h(double x) {
+            return Math.exp(-exponent * Math.log(x));
+        }
+
+        private double hIntegralInverse(double x) {
+            double t = x * (1 - exponent);
+            if (t < -1) {
+                t = -1;
+            }
+            return Math.exp(helper1(t) * x);
+        }
+
+        //log(1 + x) / x，x接近0的时候用泰勒展开保证精度
+        private static double helper1(double x) {
+            if (Math.abs(x) > 1e-8) {
+                return Math.log1p(x) / x;
+            }
+            return 1 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+        }
+
+        //(exp(x) - 1) / x，x接近0的时候用泰勒展开保证精度
+        private static double helper2(double x) {
+            if (Math.abs(x) > 1e-8) {
+                return Math.expm1(x) / x;
+            }
+            return 1 + x * 0.5 * (1 + x * 1.0 / 3.0 * (1 + 0.25 * x));
+        }
+    }
+}
@@ -114,4 +114,15 @@ public class ConfigurationManager {
         }
         return 0L;
     }
+
+    //获取Double类型的对象
+    public static Double getDouble(String key) {
+        try {
+            String property = getProperty(key);
+            return Double.valueOf(property);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return 0D;
+    }
 }
@@ -15,12 +15,74 @@ public interface Constants {
     String JDBC_USER = "jdbc.user";
     String JDBC_PASSWORD = "jdbc.password";
     String SPARK_LOCAL = "spark.local";
+    String MOCK_SCALABLE = "mock.scalable";
+    String MOCK_USERS = "mock.users";
+    String MOCK_SESSIONS_PER_USER = "mock.sessions.per.user";
+    String MOCK_ACTIONS_PER_SESSION = "mock.actions.per.session";
+    String MOCK_ZIPF_SKEW = "mock.zipf.skew";
+    String MOCK_DATE_SPAN = "mock.date.span";
+    String MOCK_END_DATE = "mock.end.date";
+    String MOCK_SEED = "mock.seed";
+    String MOCK_PARTITIONS = "mock.partitions";
+    String MOCK_PARQUET_PATH = "mock.parquet.path";
+    String SESSION_INDEX_ENABLED = "session.index.enabled";
+    String SESSION_INDEX_DIR = "session.index.dir";
+    String SESSION_INDEX_BUCKET_SIZE = "session.index.bucket.size";
+    String SESSION_PRUNE_ENABLED = "session.prune.enabled";
+    String SESSION_PRUNE_EXACT_LIMIT = "session.prune.exact.limit";
+    String SESSION_PRUNE_BLOOM_FPP = "session.prune.bloom.fpp";
+    String SESSION_AGGREGATE_MODE = "session.aggregate.mode";
+    String SESSION_CUBE_ENABLED = "session.cube.enabled";
+    String SESSION_VISIT_LENGTH_EDGES = "session.visit.length.edges";
+    String SESSION_STEP_LENGTH_EDGES = "session.step.length.edges";
+    String SESSION_SKETCH_ENABLED = "session.sketch.enabled";
+    String SESSION_SKETCH_PRECISION = "session.sketch.precision";
+    String SESSION_CACHE_ENABLED = "session.cache.enabled";
+    String SESSION_CACHE_DIR = "session.cache.dir";
+    String SESSION_CACHE_RETENTION_DAYS = "session.cache.retention.days";
+    String SESSION_SESSIONIZE_ENABLED = "session.sessionize.enabled";
+    String SESSION_SESSIONIZE_GAP_SECONDS = "session.sessionize.gap.seconds";
+    String DIMENSION_MAPPED_ENABLED = "dimension.mapped.enabled";
+    String DIMENSION_MAPPED_DIR = "dimension.mapped.dir";
+    String DIMENSION_MAPPED_LOCAL_DIR = "dimension.mapped.local.dir";
+    String RDD_STORAGE_LEVEL_PREFIX = "rdd.storage.level.";
+    String RDD_STORAGE_LEVEL_DEFAULT = "rdd.storage.level.default";
+    String RDD_CHECKPOINT_DIR = "rdd.checkpoint.dir";
+    String RDD_CHECKPOINT_MODE = "rdd.checkpoint.mode";
+    String RDD_CHECKPOINT_LINEAGE_DEPTH = "rdd.checkpoint.lineage.depth";
+    String TUNING_ENABLED = "tuning.enabled";
+    String TUNING_ACTION_TABLE_PATH = "tuning.action.table.path";
+    String TUNING_TARGET_BYTES_PER_TASK = "tuning.target.bytes.per.task";
+    String TUNING_MIN_PARTITIONS = "tuning.min.partitions";
+    String TUNING_MAX_PARTITIONS = "tuning.max.partitions";
+    String CONCURRENT_STAGE_THREADS = "concurrent.stage.threads";
+    String KAFKA_METADATA_BROKER_LIST = "kafka.metadata.broker.list";
+    String KAFKA_TOPICS = "kafka.topics";
+    String STREAMING_BATCH_SECONDS = "streaming.batch.seconds";
+    String STREAMING_CHECKPOINT_DIR = "streaming.checkpoint.dir";
+    String STREAMING_SESSION_IDLE_TIMEOUT_SECONDS = "streaming.session.idle.timeout.seconds";
+    String STREAMING_DEDUP_ENABLED = "streaming.dedup.enabled";
+    String STREAMING_DEDUP_PARTITIONS = "streaming.dedup.partitions";
+    String STREAMING_DEDUP_SLICE_SECONDS = "streaming.dedup.slice.seconds";
+    String STREAMING_DEDUP_RETENTION_SECONDS = "streaming.dedup.retention.seconds";
+    String STREAMING_DEDUP_EXPECTED_PER_SLICE = "streaming.dedup.expected.per.slice";
+    String STREAMING_DEDUP_FPP = "streaming.dedup.fpp";
+    String STREAMING_CLICK_TREND_ENABLED = "streaming.click.trend.enabled";
+    String STREAMING_CLICK_TREND_ALLOWED_LATENESS_SECONDS = "streaming.click.trend.allowed.lateness.seconds";
+    String STREAMING_CLICK_TREND_MAX_FUTURE_SECONDS = "streaming.click.trend.max.future.seconds";
+    String STREAMING_CLICK_TREND_PARTITIONS = "streaming.click.trend.partitions";
+    String STREAMING_CLICK_TREND_CHECKPOINT_BATCHES = "streaming.click.trend.checkpoint.batches";
+    String STREAMING_BACKPRESSURE_ENABLED = "streaming.backpressure.enabled";
+    String STREAMING_KAFKA_MAX_RATE_PER_PARTITION = "streaming.kafka.max.rate.per.partition";
+    String STREAMING_SINK_QUEUE_CAPACITY = "streaming.sink.queue.capacity";
+    String STREAMING_SINK_BATCH_SIZE = "streaming.sink.batch.size";
 
     /**
      * Spark作业相关的常量
      */
     String SPARK_APP_NAME_SESSION = "UserVisitSessionAnalyzeSpark";
     String SPARK_APP_NAME_PAGE = "PageOneStepConvertRateSpark";
+    String SPARK_APP_NAME_SESSION_STREAMING = "SessionStreamingSpark";
     String FIELD_SESSION_ID = "sessionid";
     String FIELD_SEARCH_KEYWORDS = "searchKeywords";
     String FIELD_CLICK_CATEGORY_IDS = "clickCategoryIds";
@@ -53,6 +115,14 @@ public interface Constants {
     String STEP_PERIOD_10_30 = "10_30";
     String STEP_PERIOD_30_60 = "30_60";
     String STEP_PERIOD_60 = "60";
+    String VISIT_LENGTH_P50 = "visit_length_p50";
+    String VISIT_LENGTH_P95 = "visit_length_p95";
+    String VISIT_LENGTH_P99 = "visit_length_p99";
+    String STEP_LENGTH_P50 = "step_length_p50";
+    String STEP_LENGTH_P95 = "step_length_p95";
+    String STEP_LENGTH_P99 = "step_length_p99";
+    String DISTINCT_USERS = "distinct_users";
+    String DISTINCT_KEYWORDS = "distinct_keywords";
 
     /**
      * 任务相关的常量
@@ -67,6 +137,16 @@ public interface Constants {
     String PARAM_KEYWORDS = "keywords";
     String PARAM_CATEGORY_IDS = "categoryIds";
     String PARAM_TARGET_PAGE_FLOW = "targetPageFlow";
+    String PARAM_VISIT_LENGTH_EDGES = "visitLengthEdges";
+    String PARAM_STEP_LENGTH_EDGES = "stepLengthEdges";
+
+    /**
+     * 维度表相关的常量
+     */
+    String TABLE_USER_VISIT_ACTION = "user_visit_action";
+    String TABLE_USER_INFO = "user_info";
+    String TABLE_PRODUCT_INFO = "product_info";
+    String TABLE_CITY_INFO = "city_info";
 
 
 }
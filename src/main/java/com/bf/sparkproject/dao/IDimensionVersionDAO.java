@@ -0,0 +1,19 @@
+package com.bf.sparkproject.dao;
+
+/**
+ * 维度表版本DAO接口
+ * <p>
+ * 维度表（user_info、product_info、city_info）每次由ETL刷新之后，会同步更新dimension_version表中对应的版本号
+ * Spark作业通过比较版本号，来判断driver端缓存的维度数据是否已经失效
+ */
+public interface IDimensionVersionDAO {
+
+    /**
+     * 根据维度表名查询当前版本号
+     *
+     * @param tableName 维度表名
+     * @return 版本号，如果没有登记过，返回0
+     */
+    long findVersion(String tableName);
+
+}
@@ -0,0 +1,27 @@
+package com.bf.sparkproject.dao;
+
+import com.bf.sparkproject.domain.ProductClickTrend;
+
+import java.util.List;
+
+/**
+ * 商品点击趋势DAO接口
+ */
+public interface IProductClickTrendDAO {
+
+    /**
+     * 保存每分钟的点击次数，已经存在的记录用新的点击次数覆盖
+     *
+     * @param productClickTrends
+     */
+    void upsert(List<ProductClickTrend> productClickTrends);
+
+    /**
+     * 查询某一分钟以及之后的点击趋势，实时作业重启的时候，用来恢复还没有关闭的分钟
+     *
+     * @param clickMinute 分钟（yyyy-MM-dd HH:mm）
+     * @return
+     */
+    List<ProductClickTrend> findSince(String clickMinute);
+
+}
@@ -0,0 +1,20 @@
+package com.bf.sparkproject.dao;
+
+import com.bf.sparkproject.domain.SessionAggrStat;
+
+import java.util.List;
+
+/**
+ * session聚合统计DAO接口
+ */
+public interface ISessionAggrStatDAO {
+
+    /**
+     * 保存一个任务的统计结果，任务之前的统计结果会被覆盖
+     *
+     * @param taskid
+     * @param sessionAggrStats
+     */
+    void replace(long taskid, List<SessionAggrStat> sessionAggrStats);
+
+}
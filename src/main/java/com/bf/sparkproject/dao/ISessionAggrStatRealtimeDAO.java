@@ -0,0 +1,27 @@
+package com.bf.sparkproject.dao;
+
+import com.bf.sparkproject.domain.SessionAggrStatRealtime;
+
+import java.util.List;
+
+/**
+ * 实时session聚合统计DAO接口
+ */
+public interface ISessionAggrStatRealtimeDAO {
+
+    /**
+     * 保存每天的session总数，已经存在的记录只保留较大的总数
+     *
+     * @param sessionAggrStats
+     */
+    void upsert(List<SessionAggrStatRealtime> sessionAggrStats);
+
+    /**
+     * 查询某一天以及之后的统计结果
+     *
+     * @param date 日期（yyyy-MM-dd）
+     * @return
+     */
+    List<SessionAggrStatRealtime> findSince(String date);
+
+}
@@ -0,0 +1,57 @@
+package com.bf.sparkproject.dao;
+
+import com.bf.sparkproject.domain.SessionCubeCell;
+
+import java.util.List;
+
+/**
+ * session立方体DAO接口
+ */
+public interface ISessionCubeDAO {
+
+    /**
+     * 删除某一天的所有单元格，以及构建完成的标记
+     *
+     * @param date
+     */
+    void deleteDay(String date);
+
+    /**
+     * 批量插入单元格
+     *
+     * @param cells
+     */
+    void insertBatch(List<SessionCubeCell> cells);
+
+    /**
+     * 标记某一天的立方体已经构建完成
+     *
+     * @param date
+     */
+    void markBuilt(String date);
+
+    /**
+     * 查询日期范围内已经构建完成的天数
+     *
+     * @param startDate
+     * @param endDate
+     * @return
+     */
+    int countBuiltDays(String startDate, String endDate);
+
+    /**
+     * 汇总日期范围内符合条件的所有单元格
+     *
+     * @param startDate     起始日期
+     * @param endDate       结束日期
+     * @param startAge      起始年龄，为null表示不限
+     * @param endAge        结束年龄，为null表示不限
+     * @param professionals 职业，为null表示不限
+     * @param cities        城市，为null表示不限
+     * @param sexes         性别，为null表示不限
+     * @return 汇总之后的统计结果，下标和默认区间（SessionAggrStatBuckets.defaults()）的统计项一致
+     */
+    long[] sum(String startDate, String endDate, Integer startAge, Integer endAge,
+               String[] professionals, String[] cities, String[] sexes);
+
+}
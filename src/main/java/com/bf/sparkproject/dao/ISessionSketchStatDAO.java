@@ -0,0 +1,20 @@
+package com.bf.sparkproject.dao;
+
+import com.bf.sparkproject.domain.SessionSketchStat;
+
+import java.util.List;
+
+/**
+ * session聚合统计sketch结果DAO接口
+ */
+public interface ISessionSketchStatDAO {
+
+    /**
+     * 保存一个任务的sketch结果，任务之前的结果会被覆盖
+     *
+     * @param taskid
+     * @param sessionSketchStats
+     */
+    void replace(long taskid, List<SessionSketchStat> sessionSketchStats);
+
+}
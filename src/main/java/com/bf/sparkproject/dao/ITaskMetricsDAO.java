@@ -0,0 +1,19 @@
+package com.bf.sparkproject.dao;
+
+import com.bf.sparkproject.domain.StageMetrics;
+
+import java.util.List;
+
+/**
+ * 任务运行指标DAO接口
+ */
+public interface ITaskMetricsDAO {
+
+    /**
+     * 批量插入stage运行指标
+     *
+     * @param stageMetricsList
+     */
+    void insertBatch(List<StageMetrics> stageMetricsList);
+
+}
@@ -1,6 +1,13 @@
 package com.bf.sparkproject.dao.impl;
 
+import com.bf.sparkproject.dao.IDimensionVersionDAO;
+import com.bf.sparkproject.dao.IProductClickTrendDAO;
+import com.bf.sparkproject.dao.ISessionAggrStatDAO;
+import com.bf.sparkproject.dao.ISessionAggrStatRealtimeDAO;
+import com.bf.sparkproject.dao.ISessionCubeDAO;
+import com.bf.sparkproject.dao.ISessionSketchStatDAO;
 import com.bf.sparkproject.dao.ITaskDAO;
+import com.bf.sparkproject.dao.ITaskMetricsDAO;
 
 /**
  * Created by wanglei on 2018/4/9.
@@ -14,4 +21,60 @@ public class DAOFactory {
     public static ITaskDAO getTaskDAO() {
         return new TaskDAOImpl();
     }
+
+    /**
+     * 获取维度表版本DAO
+     * @return
+     */
+    public static IDimensionVersionDAO getDimensionVersionDAO() {
+        return new DimensionVersionDAOImpl();
+    }
+
+    /**
+     * 获取任务运行指标DAO
+     * @return
+     */
+    public static ITaskMetricsDAO getTaskMetricsDAO() {
+        return new TaskMetricsDAOImpl();
+    }
+
+    /**
+     * 获取session聚合统计DAO
+     * @return
+     */
+    public static ISessionAggrStatDAO getSessionAggrStatDAO() {
+        return new SessionAggrStatDAOImpl();
+    }
+
+    /**
+     * 获取session立方体DAO
+     * @return
+     */
+    public static ISessionCubeDAO getSessionCubeDAO() {
+        return new SessionCubeDAOImpl();
+    }
+
+    /**
+     * 获取session聚合统计sketch结果DAO
+     * @return
+     */
+    public static ISessionSketchStatDAO getSessionSketchStatDAO() {
+        return new SessionSketchStatDAOImpl();
+    }
+
+    /**
+     * 获取实时session聚合统计DAO
+     * @return
+     */
+    public static ISessionAggrStatRealtimeDAO getSessionAggrStatRealtimeDAO() {
+        return new SessionAggrStatRealtimeDAOImpl();
+    }
+
+    /**
+     * 获取商品点击趋势DAO
+     * @return
+     */
+    public static IProductClickTrendDAO getProductClickTrendDAO() {
+        return new ProductClickTrendDAOImpl();
+    }
 }
@@ -0,0 +1,44 @@
+package com.bf.sparkproject.dao.impl;
+
+import com.bf.sparkproject.dao.IDimensionVersionDAO;
+import com.bf.sparkproject.jdbc.JDBCHelper;
+
+import java.sql.ResultSet;
+
+/**
+ * 维度表版本DAO实现类
+ * <p>
+ * 对应的MySQL表结构：
+ * create table dimension_version (
+ * table_name varchar(100) primary key,
+ * version bigint not null
+ * )
+ */
+public class DimensionVersionDAOImpl implements IDimensionVersionDAO {
+
+    /**
+     * 根据维度表名查询当前版本号
+     *
+     * @param tableName 维度表名
+     * @return 版本号
+     */
+    @Override
+    public long findVersion(String tableName) {
+        final long[] version = new long[]{0L};
+        String sql = "select version from dimension_version where table_name = ?";
+        Object[] params = new Object[]{tableName};
+
+        JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+        jdbcHelper.executeQuery(sql, params, new JDBCHelper.QueryCallback() {
+            @Override
+            public void process(ResultSet rs) throws Exception {
+                if (rs.next()) {
+                    version[0] = rs.getLong(1);
+                }
+            }
+        });
+
+        return version[0];
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.bf.sparkproject.dao.impl;
+
+import com.bf.sparkproject.dao.IProductClickTrendDAO;
+import com.bf.sparkproject.domain.ProductClickTrend;
+import com.bf.sparkproject.jdbc.JDBCHelper;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 商品点击趋势DAO实现类
+ * <p>
+ * 对应的MySQL表结构：
+ * create table product_click_trend (
+ * click_minute varchar(16) not null,
+ * product_id bigint not null,
+ * click_count bigint,
+ * primary key (click_minute, product_id)
+ * )
+ */
+public class ProductClickTrendDAOImpl implements IProductClickTrendDAO {
+
+    /**
+     * 保存每分钟的点击次数，已经存在的记录用新的点击次数覆盖
+     * 写入的是这一分钟到目前为止的总次数，而不是增量，同一个batch重放的时候，结果也是对的
+     * 总次数只增不减，不同executor异步写入的时候，较早的batch可能比较晚的batch后写入，所以只保留较大的值
+     *
+     * @param productClickTrends
+     */
+    @Override
+    public void upsert(List<ProductClickTrend> productClickTrends) {
+        String sql = "insert into product_click_trend(click_minute, product_id, click_count) values(?,?,?) "
+                + "on duplicate key update click_count = greatest(click_count, values(click_count))";
+        List<Object[]> paramsList = new ArrayList<Object[]>();
+        for (ProductClickTrend productClickTrend : productClickTrends) {
+            paramsList.add(new Object[]{productClickTrend.getClickMinute(),
+                    productClickTrend.getProductId(),
+                    productClickTrend.getClickCount()});
+        }
+        JDBCHelper.getInstance().executeBatch(sql, paramsList);
+    }
+
+    /**
+     * 查询某一分钟以及之后的点击趋势
+     *
+     * @param clickMinute 分钟（yyyy-MM-dd HH:mm）
+     * @return
+     */
+    @Override
+    public List<ProductClickTrend> findSince(String clickMinute) {
+        final List<ProductClickTrend> productClickTrends = new ArrayList<ProductClickTrend>();
+        String sql = "select click_minute, product_id, click_count from product_click_trend where click_minute >= ?";
+
+        JDBCHelper.getInstance().executeQuery(sql, new Object[]{clickMinute}, new JDBCHelper.QueryCallback() {
+            @Override
+            public void process(ResultSet rs) throws Exception {
+                while (rs.next()) {
+                    ProductClickTrend productClickTrend = new ProductClickTrend();
+                    productClickTrend.setClickMinute(rs.getString(1));
+                    productClickTrend.setProductId(rs.getLong(2));
+                    productClickTrend.setClickCount(rs.getLong(3));
+                    productClickTrends.add(productClickTrend);
+                }
+            }
+        });
+
+        return productClickTrends;
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.bf.sparkproject.dao.impl;
+
+import com.bf.sparkproject.dao.ISessionAggrStatDAO;
+import com.bf.sparkproject.domain.SessionAggrStat;
+import com.bf.sparkproject.jdbc.JDBCHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * session聚合统计DAO实现类
+ * <p>
+ * 对应的MySQL表结构：
+ * create table session_aggr_stat (
+ * task_id bigint not null,
+ * stat_key varchar(50) not null,
+ * session_count bigint,
+ * ratio double,
+ * primary key (task_id, stat_key)
+ * )
+ */
+public class SessionAggrStatDAOImpl implements ISessionAggrStatDAO {
+
+    /**
+     * 保存一个任务的统计结果，任务之前的统计结果会被覆盖
+     *
+     * @param taskid
+     * @param sessionAggrStats
+     */
+    @Override
+    public void replace(long taskid, List<SessionAggrStat> sessionAggrStats) {
+        JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+        //任务可能会被重新执行，先删除旧的结果
+        jdbcHelper.executeUpdate("delete from session_aggr_stat where task_id = ?", new Object[]{taskid});
+
+        String sql = "insert into session_aggr_stat(task_id, stat_key, session_count, ratio) values(?,?,?,?)";
+        List<Object[]> paramsList = new ArrayList<Object[]>();
+        for (SessionAggrStat sessionAggrStat : sessionAggrStats) {
+            paramsList.add(new Object[]{taskid,
+                    sessionAggrStat.getStatKey(),
+                    sessionAggrStat.getSessionCount(),
+                    sessionAggrStat.getRatio()});
+        }
+        jdbcHelper.executeBatch(sql, paramsList);
+    }
+
+}
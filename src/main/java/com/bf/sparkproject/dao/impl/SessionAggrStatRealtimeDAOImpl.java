@@ -0,0 +1,72 @@
+package com.bf.sparkproject.dao.impl;
+
+import com.bf.sparkproject.dao.ISessionAggrStatRealtimeDAO;
+import com.bf.sparkproject.domain.SessionAggrStatRealtime;
+import com.bf.sparkproject.jdbc.JDBCHelper;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 实时session聚合统计DAO实现类
+ * <p>
+ * 对应的MySQL表结构：
+ * create table session_aggr_stat_realtime (
+ * date varchar(10) not null,
+ * stat_key varchar(50) not null,
+ * session_count bigint,
+ * primary key (date, stat_key)
+ * )
+ */
+public class SessionAggrStatRealtimeDAOImpl implements ISessionAggrStatRealtimeDAO {
+
+    /**
+     * 保存每天的session总数，已经存在的记录用新的总数覆盖
+     * 写入的是这一天到目前为止的总数，而不是增量，task失败重试、推测执行的task、
+     * driver从checkpoint恢复之后重新计算的batch，把同一个batch的结果再写一遍的时候，结果也是对的
+     * 总数只增不减，不同executor异步写入的时候，较早的batch可能比较晚的batch后写入，所以只保留较大的值
+     *
+     * @param sessionAggrStats
+     */
+    @Override
+    public void upsert(List<SessionAggrStatRealtime> sessionAggrStats) {
+        String sql = "insert into session_aggr_stat_realtime(date, stat_key, session_count) values(?,?,?) "
+                + "on duplicate key update session_count = greatest(session_count, values(session_count))";
+        List<Object[]> paramsList = new ArrayList<Object[]>();
+        for (SessionAggrStatRealtime sessionAggrStat : sessionAggrStats) {
+            paramsList.add(new Object[]{sessionAggrStat.getDate(),
+                    sessionAggrStat.getStatKey(),
+                    sessionAggrStat.getSessionCount()});
+        }
+        JDBCHelper.getInstance().executeBatch(sql, paramsList);
+    }
+
+    /**
+     * 查询某一天以及之后的统计结果
+     *
+     * @param date 日期（yyyy-MM-dd）
+     * @return
+     */
+    @Override
+    public List<SessionAggrStatRealtime> findSince(String date) {
+        final List<SessionAggrStatRealtime> sessionAggrStats = new ArrayList<SessionAggrStatRealtime>();
+        String sql = "select date, stat_key, session_count from session_aggr_stat_realtime where date >= ?";
+
+        JDBCHelper.getInstance().executeQuery(sql, new Object[]{date}, new JDBCHelper.QueryCallback() {
+            @Override
+            public void process(ResultSet rs) throws Exception {
+                while (rs.next()) {
+                    SessionAggrStatRealtime sessionAggrStat = new SessionAggrStatRealtime();
+                    sessionAggrStat.setDate(rs.getString(1));
+                    sessionAggrStat.setStatKey(rs.getString(2));
+                    sessionAggrStat.setSessionCount(rs.getLong(3));
+                    sessionAggrStats.add(sessionAggrStat);
+                }
+            }
+        });
+
+        return sessionAggrStats;
+    }
+
+}
@@ -0,0 +1,199 @@
+package com.bf.sparkproject.dao.impl;
+
+import com.bf.sparkproject.dao.ISessionCubeDAO;
+import com.bf.sparkproject.domain.SessionCubeCell;
+import com.bf.sparkproject.jdbc.JDBCHelper;
+import com.bf.sparkproject.spark.SessionAggrStatBuckets;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * session立方体DAO实现类
+ * <p>
+ * 对应的MySQL表结构：
+ * create table session_cube (
+ * date varchar(10) not null,
+ * age int not null,
+ * professional varchar(50),
+ * city varchar(50),
+ * sex varchar(10),
+ * session_count bigint,
+ * visit_length_1s_3s bigint, visit_length_4s_6s bigint, visit_length_7s_9s bigint,
+ * visit_length_10s_30s bigint, visit_length_30s_60s bigint, visit_length_1m_3m bigint,
+ * visit_length_3m_10m bigint, visit_length_10m_30m bigint, visit_length_30m bigint,
+ * step_length_1_3 bigint, step_length_4_6 bigint, step_length_7_9 bigint,
+ * step_length_10_30 bigint, step_length_30_60 bigint, step_length_60 bigint,
+ * key idx_date (date)
+ * )
+ * <p>
+ * create table session_cube_day (
+ * date varchar(10) primary key,
+ * build_time bigint
+ * )
+ */
+public class SessionCubeDAOImpl implements ISessionCubeDAO {
+
+    //统计结果对应的列名，顺序和默认区间的统计项一致
+    private static final String[] COUNT_COLUMNS = countColumns();
+
+    /**
+     * 删除某一天的所有单元格，以及构建完成的标记
+     *
+     * @param date
+     */
+    @Override
+    public void deleteDay(String date) {
+        JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+        //先删除标记，保证删除的过程中不会有任务读到不完整的数据
+        jdbcHelper.executeUpdate("delete from session_cube_day where date = ?", new Object[]{date});
+        jdbcHelper.executeUpdate("delete from session_cube where date = ?", new Object[]{date});
+    }
+
+    /**
+     * 批量插入单元格
+     *
+     * @param cells
+     */
+    @Override
+    public void insertBatch(List<SessionCubeCell> cells) {
+        StringBuilder sql = new StringBuilder("insert into session_cube(date, age, professional, city, sex");
+        StringBuilder placeholders = new StringBuilder("?,?,?,?,?");
+        for (String column : COUNT_COLUMNS) {
+            sql.append(", ").append(column);
+            placeholders.append(",?");
+        }
+        sql.append(") values(").append(placeholders).append(")");
+
+        List<Object[]> paramsList = new ArrayList<Object[]>();
+        for (SessionCubeCell cell : cells) {
+            Object[] params = new Object[5 + COUNT_COLUMNS.length];
+            params[0] = cell.getDate();
+            params[1] = cell.getAge();
+            params[2] = cell.getProfessional();
+            params[3] = cell.getCity();
+            params[4] = cell.getSex();
+            for (int i = 0; i < COUNT_COLUMNS.length; i++) {
+                params[5 + i] = cell.getCounts()[i];
+            }
+            paramsList.add(params);
+        }
+
+        JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+        jdbcHelper.executeBatch(sql.toString(), paramsList);
+    }
+
+    /**
+     * 标记某一天的立方体已经构建完成
+     *
+     * @param date
+     */
+    @Override
+    public void markBuilt(String date) {
+        String sql = "insert into session_cube_day(date, build_time) values(?,?)";
+        JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+        jdbcHelper.executeUpdate(sql, new Object[]{date, System.currentTimeMillis()});
+    }
+
+    /**
+     * 查询日期范围内已经构建完成的天数
+     *
+     * @param startDate
+     * @param endDate
+     * @return
+     */
+    @Override
+    public int countBuiltDays(String startDate, String endDate) {
+        final int[] count = new int[1];
+        String sql = "select count(*) from session_cube_day where date >= ? and date <= ?";
+
+        JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+        jdbcHelper.executeQuery(sql, new Object[]{startDate, endDate}, new JDBCHelper.QueryCallback() {
+            @Override
+            public void process(ResultSet rs) throws Exception {
+                if (rs.next()) {
+                    count[0] = rs.getInt(1);
+                }
+            }
+        });
+
+        return count[0];
+    }
+
+    /**
+     * 汇总日期范围内符合条件的所有单元格
+     *
+     * @return 汇总之后的统计结果，下标和默认区间的统计项一致
+     */
+    @Override
+    public long[] sum(String startDate, String endDate, Integer startAge, Integer endAge,
+                      String[] professionals, String[] cities, String[] sexes) {
+        StringBuilder sql = new StringBuilder("select ");
+        for (int i = 0; i < COUNT_COLUMNS.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append("sum(").append(COUNT_COLUMNS[i]).append(")");
+        }
+        sql.append(" from session_cube where date >= ? and date <= ?");
+
+        List<Object> params = new ArrayList<Object>();
+        params.add(startDate);
+        params.add(endDate);
+        if (startAge != null && endAge != null) {
+            sql.append(" and age between ? and ?");
+            params.add(startAge);
+            params.add(endAge);
+        }
+        appendIn(sql, params, "professional", professionals);
+        appendIn(sql, params, "city", cities);
+        appendIn(sql, params, "sex", sexes);
+
+        //没有任何匹配的单元格的时候，sum的结果是null，也就是0
+        final long[] counts = new long[COUNT_COLUMNS.length];
+        JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+        jdbcHelper.executeQuery(sql.toString(), params.toArray(), new JDBCHelper.QueryCallback() {
+            @Override
+            public void process(ResultSet rs) throws Exception {
+                if (rs.next()) {
+                    for (int i = 0; i < counts.length; i++) {
+                        counts[i] = rs.getLong(i + 1);
+                    }
+                }
+            }
+        });
+
+        return counts;
+    }
+
+    private static void appendIn(StringBuilder sql, List<Object> params, String column, String[] values) {
+        if (values == null) {
+            return;
+        }
+        sql.append(" and ").append(column).append(" in (");
+        for (int i = 0; i < values.length; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+            params.add(values[i]);
+        }
+        sql.append(")");
+    }
+
+    private static String[] countColumns() {
+        //立方体只保存默认区间的统计结果
+        SessionAggrStatBuckets buckets = SessionAggrStatBuckets.defaults();
+        String[] keys = buckets.getKeys();
+        String[] columns = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            if (i == SessionAggrStatBuckets.SESSION_COUNT_INDEX) {
+                columns[i] = "session_count";
+            } else if (buckets.isVisitLengthIndex(i)) {
+                columns[i] = "visit_length_" + keys[i];
+            } else {
+                columns[i] = "step_length_" + keys[i];
+            }
+        }
+        return columns;
+    }
+
+}
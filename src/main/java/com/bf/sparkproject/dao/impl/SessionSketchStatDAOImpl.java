@@ -0,0 +1,45 @@
+package com.bf.sparkproject.dao.impl;
+
+import com.bf.sparkproject.dao.ISessionSketchStatDAO;
+import com.bf.sparkproject.domain.SessionSketchStat;
+import com.bf.sparkproject.jdbc.JDBCHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * session聚合统计sketch结果DAO实现类
+ * <p>
+ * 对应的MySQL表结构：
+ * create table session_sketch_stat (
+ * task_id bigint not null,
+ * stat_key varchar(50) not null,
+ * value double,
+ * primary key (task_id, stat_key)
+ * )
+ */
+public class SessionSketchStatDAOImpl implements ISessionSketchStatDAO {
+
+    /**
+     * 保存一个任务的sketch结果，任务之前的结果会被覆盖
+     *
+     * @param taskid
+     * @param sessionSketchStats
+     */
+    @Override
+    public void replace(long taskid, List<SessionSketchStat> sessionSketchStats) {
+        JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+        //任务可能会被重新执行，先删除旧的结果
+        jdbcHelper.executeUpdate("delete from session_sketch_stat where task_id = ?", new Object[]{taskid});
+
+        String sql = "insert into session_sketch_stat(task_id, stat_key, value) values(?,?,?)";
+        List<Object[]> paramsList = new ArrayList<Object[]>();
+        for (SessionSketchStat sessionSketchStat : sessionSketchStats) {
+            paramsList.add(new Object[]{taskid,
+                    sessionSketchStat.getStatKey(),
+                    sessionSketchStat.getValue()});
+        }
+        jdbcHelper.executeBatch(sql, paramsList);
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.bf.sparkproject.dao.impl;
+
+import com.bf.sparkproject.dao.ITaskMetricsDAO;
+import com.bf.sparkproject.domain.StageMetrics;
+import com.bf.sparkproject.jdbc.JDBCHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 任务运行指标DAO实现类
+ * <p>
+ * 对应的MySQL表结构：
+ * create table task_metrics (
+ * id bigint primary key auto_increment,
+ * task_id bigint not null,
+ * stage_id int not null,
+ * attempt_id int not null,
+ * stage_name varchar(255),
+ * num_tasks int,
+ * submission_time bigint,
+ * completion_time bigint,
+ * duration bigint,
+ * executor_run_time bigint,
+ * input_bytes bigint,
+ * input_records bigint,
+ * shuffle_read_bytes bigint,
+ * shuffle_read_records bigint,
+ * shuffle_write_bytes bigint,
+ * shuffle_write_records bigint,
+ * memory_bytes_spilled bigint,
+ * disk_bytes_spilled bigint,
+ * jvm_gc_time bigint,
+ * max_task_time bigint,
+ * median_task_time bigint,
+ * skew_ratio double,
+ * key idx_task_stage (task_id, stage_id)
+ * )
+ * <p>
+ * 比如，查询数据倾斜严重的stage：
+ * select * from task_metrics where skew_ratio > 5 order by max_task_time desc
+ */
+public class TaskMetricsDAOImpl implements ITaskMetricsDAO {
+
+    /**
+     * 批量插入stage运行指标
+     *
+     * @param stageMetricsList
+     */
+    @Override
+    public void insertBatch(List<StageMetrics> stageMetricsList) {
+        String sql = "insert into task_metrics(task_id, stage_id, attempt_id, stage_name, num_tasks, "
+                + "submission_time, completion_time, duration, executor_run_time, "
+                + "input_bytes, input_records, shuffle_read_bytes, shuffle_read_records, "
+                + "shuffle_write_bytes, shuffle_write_records, memory_bytes_spilled, disk_bytes_spilled, "
+                + "jvm_gc_time, max_task_time, median_task_time, skew_ratio) "
+                + "values(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+
+        List<Object[]> paramsList = new ArrayList<Object[]>();
+        for (StageMetrics metrics : stageMetricsList) {
+            Object[] params = new Object[]{metrics.getTaskid(),
+                    metrics.getStageId(),
+                    metrics.getAttemptId(),
+                    metrics.getStageName(),
+                    metrics.getNumTasks(),
+                    metrics.getSubmissionTime(),
+                    metrics.getCompletionTime(),
+                    metrics.getDuration(),
+                    metrics.getExecutorRunTime(),
+                    metrics.getInputBytes(),
+                    metrics.getInputRecords(),
+                    metrics.getShuffleReadBytes(),
+                    metrics.getShuffleReadRecords(),
+                    metrics.getShuffleWriteBytes(),
+                    metrics.getShuffleWriteRecords(),
+                    metrics.getMemoryBytesSpilled(),
+                    metrics.getDiskBytesSpilled(),
+                    metrics.getJvmGcTime(),
+                    metrics.getMaxTaskTime(),
+                    metrics.getMedianTaskTime(),
+                    metrics.getSkewRatio()};
+            paramsList.add(params);
+        }
+
+        JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+        jdbcHelper.executeBatch(sql, paramsList);
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.bf.sparkproject.domain;
+
+import java.io.Serializable;
+
+/**
+ * 商品点击趋势
+ * 一个商品在一分钟（按点击行为发生的时间）内的点击次数，对应一条记录
+ */
+public class ProductClickTrend implements Serializable {
+    private static final long serialVersionUID = 1L;
+    //点击发生的分钟（yyyy-MM-dd HH:mm）
+    private String clickMinute;
+    //商品id
+    private long productId;
+    //点击次数
+    private long clickCount;
+
+    public String getClickMinute() {
+        return clickMinute;
+    }
+
+    public void setClickMinute(String clickMinute) {
+        this.clickMinute = clickMinute;
+    }
+
+    public long getProductId() {
+        return productId;
+    }
+
+    public void setProductId(long productId) {
+        this.productId = productId;
+    }
+
+    public long getClickCount() {
+        return clickCount;
+    }
+
+    public void setClickCount(long clickCount) {
+        this.clickCount = clickCount;
+    }
+}
@@ -0,0 +1,51 @@
+package com.bf.sparkproject.domain;
+
+import java.io.Serializable;
+
+/**
+ * session聚合统计结果
+ * 一个任务的一个统计项（session总数、某个访问时长区间、某个访问步长区间），对应一条记录
+ */
+public class SessionAggrStat implements Serializable {
+    private static final long serialVersionUID = 1L;
+    //所属的分析任务id
+    private long taskid;
+    //统计项，比如session_count、1s_3s、4_6
+    private String statKey;
+    //session数量
+    private long sessionCount;
+    //占session总数的比例
+    private double ratio;
+
+    public long getTaskid() {
+        return taskid;
+    }
+
+    public void setTaskid(long taskid) {
+        this.taskid = taskid;
+    }
+
+    public String getStatKey() {
+        return statKey;
+    }
+
+    public void setStatKey(String statKey) {
+        this.statKey = statKey;
+    }
+
+    public long getSessionCount() {
+        return sessionCount;
+    }
+
+    public void setSessionCount(long sessionCount) {
+        this.sessionCount = sessionCount;
+    }
+
+    public double getRatio() {
+        return ratio;
+    }
+
+    public void setRatio(double ratio) {
+        this.ratio = ratio;
+    }
+}
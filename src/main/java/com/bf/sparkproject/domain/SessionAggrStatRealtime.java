@@ -0,0 +1,42 @@
+package com.bf.sparkproject.domain;
+
+import java.io.Serializable;
+
+/**
+ * 实时session聚合统计结果
+ * 一天的一个统计项（session总数、某个访问时长区间、某个访问步长区间），对应一条记录，
+ * 记录的是session开始在这一天、到目前为止已经关闭的session总数
+ */
+public class SessionAggrStatRealtime implements Serializable {
+    private static final long serialVersionUID = 1L;
+    //session开始的日期（yyyy-MM-dd）
+    private String date;
+    //统计项，比如session_count、1s_3s、4_6
+    private String statKey;
+    //到目前为止的session数量
+    private long sessionCount;
+
+    public String getDate() {
+        return date;
+    }
+
+    public void setDate(String date) {
+        this.date = date;
+    }
+
+    public String getStatKey() {
+        return statKey;
+    }
+
+    public void setStatKey(String statKey) {
+        this.statKey = statKey;
+    }
+
+    public long getSessionCount() {
+        return sessionCount;
+    }
+
+    public void setSessionCount(long sessionCount) {
+        this.sessionCount = sessionCount;
+    }
+}
@@ -0,0 +1,71 @@
+package com.bf.sparkproject.domain;
+
+import java.io.Serializable;
+
+/**
+ * session立方体的一个单元格
+ * 某一天，某个（年龄、职业、城市、性别）组合的所有session的聚合统计结果
+ */
+public class SessionCubeCell implements Serializable {
+    private static final long serialVersionUID = 1L;
+    //日期
+    private String date;
+    //年龄
+    private int age;
+    //职业
+    private String professional;
+    //城市
+    private String city;
+    //性别
+    private String sex;
+    //session总数以及各个访问时长、访问步长区间的session数，下标和默认区间（SessionAggrStatBuckets.defaults()）的统计项一致
+    private long[] counts;
+
+    public String getDate() {
+        return date;
+    }
+
+    public void setDate(String date) {
+        this.date = date;
+    }
+
+    public int getAge() {
+        return age;
+    }
+
+    public void setAge(int age) {
+        this.age = age;
+    }
+
+    public String getProfessional() {
+        return professional;
+    }
+
+    public void setProfessional(String professional) {
+        this.professional = professional;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public void setCity(String city) {
+        this.city = city;
+    }
+
+    public String getSex() {
+        return sex;
+    }
+
+    public void setSex(String sex) {
+        this.sex = sex;
+    }
+
+    public long[] getCounts() {
+        return counts;
+    }
+
+    public void setCounts(long[] counts) {
+        this.counts = counts;
+    }
+}
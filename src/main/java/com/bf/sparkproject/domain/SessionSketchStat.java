@@ -0,0 +1,41 @@
+package com.bf.sparkproject.domain;
+
+import java.io.Serializable;
+
+/**
+ * session聚合统计的sketch结果
+ * 一个任务的一个统计项（访问时长、访问步长的分位数，不同的用户数、搜索词数），对应一条记录
+ */
+public class SessionSketchStat implements Serializable {
+    private static final long serialVersionUID = 1L;
+    //所属的分析任务id
+    private long taskid;
+    //统计项，比如visit_length_p95、distinct_users
+    private String statKey;
+    //估算值
+    private double value;
+
+    public long getTaskid() {
+        return taskid;
+    }
+
+    public void setTaskid(long taskid) {
+        this.taskid = taskid;
+    }
+
+    public String getStatKey() {
+        return statKey;
+    }
+
+    public void setStatKey(String statKey) {
+        this.statKey = statKey;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public void setValue(double value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,232 @@
+package com.bf.sparkproject.domain;
+
+import java.io.Serializable;
+
+/**
+ * stage运行指标
+ * 一个stage的一次运行（attempt），对应一条记录，指标是这个stage所有task的指标之和
+ */
+public class StageMetrics implements Serializable, Cloneable {
+    private static final long serialVersionUID = 1L;
+    //所属的分析任务id
+    private long taskid;
+    //stage id
+    private int stageId;
+    //stage重试的次数
+    private int attemptId;
+    //stage名称，也就是触发stage的代码位置
+    private String stageName;
+    //task数量
+    private int numTasks;
+    //提交时间
+    private long submissionTime;
+    //完成时间
+    private long completionTime;
+    //stage耗时（毫秒）
+    private long duration;
+    //所有task的运行时间之和（毫秒）
+    private long executorRunTime;
+    //读取的输入数据字节数
+    private long inputBytes;
+    //读取的输入数据条数
+    private long inputRecords;
+    //shuffle read字节数
+    private long shuffleReadBytes;
+    //shuffle read条数
+    private long shuffleReadRecords;
+    //shuffle write字节数
+    private long shuffleWriteBytes;
+    //shuffle write条数
+    private long shuffleWriteRecords;
+    //溢写前在内存中的字节数
+    private long memoryBytesSpilled;
+    //溢写到磁盘的字节数
+    private long diskBytesSpilled;
+    //所有task的GC时间之和（毫秒）
+    private long jvmGcTime;
+    //最慢的task的耗时（毫秒）
+    private long maxTaskTime;
+    //task耗时的中位数（毫秒）
+    private long medianTaskTime;
+    //数据倾斜比例，最慢的task耗时 / task耗时的中位数
+    private double skewRatio;
+
+    public long getTaskid() {
+        return taskid;
+    }
+
+    public void setTaskid(long taskid) {
+        this.taskid = taskid;
+    }
+
+    public int getStageId() {
+        return stageId;
+    }
+
+    public void setStageId(int stageId) {
+        this.stageId = stageId;
+    }
+
+    public int getAttemptId() {
+        return attemptId;
+    }
+
+    public void setAttemptId(int attemptId) {
+        this.attemptId = attemptId;
+    }
+
+    public String getStageName() {
+        return stageName;
+    }
+
+    public void setStageName(String stageName) {
+        this.stageName = stageName;
+    }
+
+    public int getNumTasks() {
+        return numTasks;
+    }
+
+    public void setNumTasks(int numTasks) {
+        this.numTasks = numTasks;
+    }
+
+    public long getSubmissionTime() {
+        return submissionTime;
+    }
+
+    public void setSubmissionTime(long submissionTime) {
+        this.submissionTime = submissionTime;
+    }
+
+    public long getCompletionTime() {
+        return completionTime;
+    }
+
+    public void setCompletionTime(long completionTime) {
+        this.completionTime = completionTime;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public void setDuration(long duration) {
+        this.duration = duration;
+    }
+
+    public long getExecutorRunTime() {
+        return executorRunTime;
+    }
+
+    public void setExecutorRunTime(long executorRunTime) {
+        this.executorRunTime = executorRunTime;
+    }
+
+    public long getInputBytes() {
+        return inputBytes;
+    }
+
+    public void setInputBytes(long inputBytes) {
+        this.inputBytes = inputBytes;
+    }
+
+    public long getInputRecords() {
+        return inputRecords;
+    }
+
+    public void setInputRecords(long inputRecords) {
+        this.inputRecords = inputRecords;
+    }
+
+    public long getShuffleReadBytes() {
+        return shuffleReadBytes;
+    }
+
+    public void setShuffleReadBytes(long shuffleReadBytes) {
+        this.shuffleReadBytes = shuffleReadBytes;
+    }
+
+    public long getShuffleReadRecords() {
+        return shuffleReadRecords;
+    }
+
+    public void setShuffleReadRecords(long shuffleReadRecords) {
+        this.shuffleReadRecords = shuffleReadRecords;
+    }
+
+    public long getShuffleWriteBytes() {
+        return shuffleWriteBytes;
+    }
+
+    public void setShuffleWriteBytes(long shuffleWriteBytes) {
+        this.shuffleWriteBytes = shuffleWriteBytes;
+    }
+
+    public long getShuffleWriteRecords() {
+        return shuffleWriteRecords;
+    }
+
+    public void setShuffleWriteRecords(long shuffleWriteRecords) {
+        this.shuffleWriteRecords = shuffleWriteRecords;
+    }
+
+    public long getMemoryBytesSpilled() {
+        return memoryBytesSpilled;
+    }
+
+    public void setMemoryBytesSpilled(long memoryBytesSpilled) {
+        this.memoryBytesSpilled = memoryBytesSpilled;
+    }
+
+    public long getDiskBytesSpilled() {
+        return diskBytesSpilled;
+    }
+
+    public void setDiskBytesSpilled(long diskBytesSpilled) {
+        this.diskBytesSpilled = diskBytesSpilled;
+    }
+
+    public long getJvmGcTime() {
+        return jvmGcTime;
+    }
+
+    public void setJvmGcTime(long jvmGcTime) {
+        this.jvmGcTime = jvmGcTime;
+    }
+
+    public long getMaxTaskTime() {
+        return maxTaskTime;
+    }
+
+    public void setMaxTaskTime(long maxTaskTime) {
+        this.maxTaskTime = maxTaskTime;
+    }
+
+    public long getMedianTaskTime() {
+        return medianTaskTime;
+    }
+
+    public void setMedianTaskTime(long medianTaskTime) {
+        this.medianTaskTime = medianTaskTime;
+    }
+
+    public double getSkewRatio() {
+        return skewRatio;
+    }
+
+    public void setSkewRatio(double skewRatio) {
+        this.skewRatio = skewRatio;
+    }
+
+    /**
+     * 复制一份指标，批量执行的时候，同一个stage要给每个任务各记一条
+     */
+    public StageMetrics copy() {
+        try {
+            return (StageMetrics) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
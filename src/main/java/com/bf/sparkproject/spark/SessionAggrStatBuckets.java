@@ -0,0 +1,257 @@
+package com.bf.sparkproject.spark;
+
+import com.alibaba.fastjson.JSONObject;
+import com.bf.sparkproject.conf.ConfigurationManager;
+import com.bf.sparkproject.constant.Constants;
+import com.bf.sparkproject.util.ParamUtils;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * session聚合统计的区间定义
+ * <p>
+ * 访问时长、访问步长的区间都用排好序的边界数组表示，第i个区间是[edges[i], edges[i+1])，最后一个区间没有上限，
+ * 小于第一个边界的值不属于任何区间。比如访问步长的默认边界是{1, 4, 7, 10, 31, 61}，
+ * 对应1_3、4_6、7_9、10_30、30_60、60这6个区间
+ * <p>
+ * 边界的取值优先级：任务参数（visitLengthEdges、stepLengthEdges）> my.properties > 默认值
+ * 判断一个值属于哪个区间是一次二分查找，区间再多，每个session的代价也只是多比较几次
+ * <p>
+ * 统计结果用一个long数组表示，下标和getKeys()一一对应：
+ * 第0个是session总数，后面依次是各个访问时长区间、各个访问步长区间的session数
+ */
+public class SessionAggrStatBuckets implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final long[] DEFAULT_VISIT_LENGTH_EDGES = new long[]{1, 4, 7, 10, 31, 61, 181, 601, 1801};
+    public static final long[] DEFAULT_STEP_LENGTH_EDGES = new long[]{1, 4, 7, 10, 31, 61};
+
+    //默认区间沿用原来的统计项名称，MySQL中已有的统计结果、session立方体的列都是按照这些名称保存的
+    private static final String[] DEFAULT_KEYS = new String[]{
+            Constants.SESSION_COUNT,
+            Constants.TIME_PERIOD_1s_3s,
+            Constants.TIME_PERIOD_4s_6s,
+            Constants.TIME_PERIOD_7s_9s,
+            Constants.TIME_PERIOD_10s_30s,
+            Constants.TIME_PERIOD_30s_60s,
+            Constants.TIME_PERIOD_1m_3m,
+            Constants.TIME_PERIOD_3m_10m,
+            Constants.TIME_PERIOD_10m_30m,
+            Constants.TIME_PERIOD_30m,
+            Constants.STEP_PERIOD_1_3,
+            Constants.STEP_PERIOD_4_6,
+            Constants.STEP_PERIOD_7_9,
+            Constants.STEP_PERIOD_10_30,
+            Constants.STEP_PERIOD_30_60,
+            Constants.STEP_PERIOD_60};
+
+    public static final int SESSION_COUNT_INDEX = 0;
+
+    private static final SessionAggrStatBuckets DEFAULTS =
+            new SessionAggrStatBuckets(DEFAULT_VISIT_LENGTH_EDGES, DEFAULT_STEP_LENGTH_EDGES);
+
+    private long[] visitLengthEdges;
+    private long[] stepLengthEdges;
+    private String[] keys;
+
+    private SessionAggrStatBuckets(long[] visitLengthEdges, long[] stepLengthEdges) {
+        this.visitLengthEdges = visitLengthEdges;
+        this.stepLengthEdges = stepLengthEdges;
+        this.keys = isDefault() ? DEFAULT_KEYS : generateKeys(visitLengthEdges, stepLengthEdges);
+    }
+
+    /**
+     * 默认的区间，也就是原来写死的16个统计项
+     */
+    public static SessionAggrStatBuckets defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * 某个任务使用的区间
+     *
+     * @param taskParam 任务参数
+     * @return
+     */
+    public static SessionAggrStatBuckets forTask(JSONObject taskParam) {
+        long[] visitLengthEdges = parseEdges(ParamUtils.getParam(taskParam, Constants.PARAM_VISIT_LENGTH_EDGES));
+        if (visitLengthEdges == null) {
+            visitLengthEdges = parseEdges(ConfigurationManager.getProperty(Constants.SESSION_VISIT_LENGTH_EDGES));
+        }
+        long[] stepLengthEdges = parseEdges(ParamUtils.getParam(taskParam, Constants.PARAM_STEP_LENGTH_EDGES));
+        if (stepLengthEdges == null) {
+            stepLengthEdges = parseEdges(ConfigurationManager.getProperty(Constants.SESSION_STEP_LENGTH_EDGES));
+        }
+        return of(visitLengthEdges != null ? visitLengthEdges : DEFAULT_VISIT_LENGTH_EDGES,
+                stepLengthEdges != null ? stepLengthEdges : DEFAULT_STEP_LENGTH_EDGES);
+    }
+
+    /**
+     * 使用指定的边界
+     *
+     * @param visitLengthEdges 访问时长区间的边界（秒），必须严格递增
+     * @param stepLengthEdges  访问步长区间的边界，必须严格递增
+     * @return
+     */
+    public static SessionAggrStatBuckets of(long[] visitLengthEdges, long[] stepLengthEdges) {
+        checkEdges(visitLengthEdges);
+        checkEdges(stepLengthEdges);
+        return new SessionAggrStatBuckets(visitLengthEdges.clone(), stepLengthEdges.clone());
+    }
+
+    /**
+     * 是否是默认的区间
+     */
+    public boolean isDefault() {
+        return Arrays.equals(visitLengthEdges, DEFAULT_VISIT_LENGTH_EDGES)
+                && Arrays.equals(stepLengthEdges, DEFAULT_STEP_LENGTH_EDGES);
+    }
+
+    /**
+     * 统计项的个数，也就是统计结果数组的长度
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    public String[] getKeys() {
+        return keys.clone();
+    }
+
+    public long[] getVisitLengthEdges() {
+        return visitLengthEdges.clone();
+    }
+
+    public long[] getStepLengthEdges() {
+        return stepLengthEdges.clone();
+    }
+
+    /**
+     * 某个下标是否是访问时长区间
+     */
+    public boolean isVisitLengthIndex(int index) {
+        return index > SESSION_COUNT_INDEX && index <= visitLengthEdges.length;
+    }
+
+    /**
+     * 访问时长所在区间的下标
+     *
+     * @param visitLength 访问时长（秒）
+     * @return 不在任何区间中的话，返回-1
+     */
+    public int visitLengthIndex(long visitLength) {
+        int bucket = bucketOf(visitLengthEdges, visitLength);
+        return bucket >= 0 ? 1 + bucket : -1;
+    }
+
+    /**
+     * 访问步长所在区间的下标
+     *
+     * @param stepLength 访问步长
+     * @return 不在任何区间中的话，返回-1
+     */
+    public int stepLengthIndex(long stepLength) {
+        int bucket = bucketOf(stepLengthEdges, stepLength);
+        return bucket >= 0 ? 1 + visitLengthEdges.length + bucket : -1;
+    }
+
+    /**
+     * 将一个session计入统计结果
+     *
+     * @param counts      统计结果
+     * @param visitLength 访问时长（秒）
+     * @param stepLength  访问步长
+     */
+    public void add(long[] counts, long visitLength, long stepLength) {
+        counts[SESSION_COUNT_INDEX]++;
+        int visitLengthIndex = visitLengthIndex(visitLength);
+        if (visitLengthIndex >= 0) {
+            counts[visitLengthIndex]++;
+        }
+        int stepLengthIndex = stepLengthIndex(stepLength);
+        if (stepLengthIndex >= 0) {
+            counts[stepLengthIndex]++;
+        }
+    }
+
+    /**
+     * 转换成key=value|key=value格式的连接串
+     *
+     * @param counts 统计结果
+     * @return
+     */
+    public String toConcatString(long[] counts) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0) {
+                builder.append("|");
+            }
+            builder.append(keys[i]).append("=").append(counts[i]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 二分查找value所在的区间，也就是最后一个<=value的边界的下标
+     * 循环的次数只和边界的个数有关（log2(n)），循环体中的比较会被编译成条件传送指令，没有难以预测的分支
+     *
+     * @return 小于第一个边界的话，返回-1
+     */
+    static int bucketOf(long[] edges, long value) {
+        int base = 0;
+        int n = edges.length;
+        while (n > 1) {
+            int half = n >>> 1;
+            base = edges[base + half] <= value ? base + half : base;
+            n -= half;
+        }
+        return edges[base] <= value ? base : -1;
+    }
+
+    /**
+     * 解析逗号分隔的边界
+     *
+     * @return 参数为空的话，返回null
+     */
+    static long[] parseEdges(String param) {
+        if (param == null || param.trim().length() == 0) {
+            return null;
+        }
+        String[] values = param.split(",");
+        long[] edges = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            edges[i] = Long.valueOf(values[i].trim());
+        }
+        checkEdges(edges);
+        return edges;
+    }
+
+    private static void checkEdges(long[] edges) {
+        if (edges.length == 0) {
+            throw new IllegalArgumentException("bucket edges must not be empty");
+        }
+        for (int i = 1; i < edges.length; i++) {
+            if (edges[i] <= edges[i - 1]) {
+                throw new IllegalArgumentException("bucket edges must be strictly increasing: "
+                        + Arrays.toString(edges));
+            }
+        }
+    }
+
+    //自定义区间的统计项名称：访问时长是 4s_6s、1801s_ 这样的格式，访问步长是 4_6、61_ 这样的格式
+    private static String[] generateKeys(long[] visitLengthEdges, long[] stepLengthEdges) {
+        String[] keys = new String[1 + visitLengthEdges.length + stepLengthEdges.length];
+        keys[SESSION_COUNT_INDEX] = Constants.SESSION_COUNT;
+        for (int i = 0; i < visitLengthEdges.length; i++) {
+            keys[1 + i] = visitLengthEdges[i] + "s_"
+                    + (i + 1 < visitLengthEdges.length ? (visitLengthEdges[i + 1] - 1) + "s" : "");
+        }
+        for (int i = 0; i < stepLengthEdges.length; i++) {
+            keys[1 + visitLengthEdges.length + i] = stepLengthEdges[i] + "_"
+                    + (i + 1 < stepLengthEdges.length ? String.valueOf(stepLengthEdges[i + 1] - 1) : "");
+        }
+        return keys;
+    }
+}
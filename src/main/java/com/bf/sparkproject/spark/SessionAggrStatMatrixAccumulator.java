@@ -0,0 +1,45 @@
+package com.bf.sparkproject.spark;
+
+import org.apache.spark.AccumulatorParam;
+
+/**
+ * 多个任务的session聚合统计Accumulator
+ * <p>
+ * 值是一个long[N][buckets]的矩阵，第i行是第i个任务的统计结果（格式见SessionAggrStatBuckets）
+ * 和SessionAggrStatAccumulator不同，这里每个task先在本地的矩阵中计数，一个分区只调用一次add()，
+ * 合并的时候只是逐个元素相加，不需要解析、拼接字符串
+ */
+public class SessionAggrStatMatrixAccumulator implements AccumulatorParam<long[][]> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 和初始值形状一样的全0矩阵
+     */
+    @Override
+    public long[][] zero(long[][] initialValue) {
+        long[][] zero = new long[initialValue.length][];
+        for (int i = 0; i < initialValue.length; i++) {
+            zero[i] = new long[initialValue[i].length];
+        }
+        return zero;
+    }
+
+    /**
+     * 将m2累加到m1上
+     */
+    @Override
+    public long[][] addInPlace(long[][] m1, long[][] m2) {
+        for (int i = 0; i < m1.length; i++) {
+            for (int j = 0; j < m1[i].length; j++) {
+                m1[i][j] += m2[i][j];
+            }
+        }
+        return m1;
+    }
+
+    @Override
+    public long[][] addAccumulator(long[][] m1, long[][] m2) {
+        return addInPlace(m1, m2);
+    }
+}
@@ -0,0 +1,166 @@
+package com.bf.sparkproject.spark;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.bf.sparkproject.MockDataGenerator;
+import com.bf.sparkproject.constant.Constants;
+import com.bf.sparkproject.domain.StageMetrics;
+import com.bf.sparkproject.spark.monitor.StageMetricsListener;
+import com.bf.sparkproject.spark.session.SessionKryoRegistrator;
+import com.bf.sparkproject.util.DateUtils;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.sql.DataFrame;
+import org.apache.spark.sql.SQLContext;
+import org.apache.spark.storage.StorageLevel;
+
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * session分析作业的本地性能测试程序
+ * <p>
+ * 在local[N]模式下启动Spark，用MockDataGenerator按照固定的seed生成指定规模的数据，
+ * 然后完整的跑一遍session分析的流程（UserVisitSessionAnalyzeSpark.analyzeSession），
+ * 通过StageMetricsListener收集每个stage的耗时、shuffle读写字节数、GC时间，
+ * 最后输出一份JSON格式的报告，方便在不同的提交之间对比
+ * <p>
+ * 参数都是key=value的格式，不指定的使用默认值：
+ * threads=4 users=10000 sessionsPerUser=10 actionsPerSession=20 skew=1.1 dateSpan=1
+ * seed=20180409 partitions=16 taskParam={...} output=session-benchmark.json
+ * <p>
+ * 生成数据的耗时不计算在内：数据生成之后先缓存起来并触发一次计算，然后才开始计时
+ */
+public class SessionBenchmark {
+
+    private static final String END_DATE = "2018-04-09";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseArgs(args);
+
+        int threads = Integer.valueOf(option(options, "threads", "4"));
+        long users = Long.valueOf(option(options, "users", "10000"));
+        int sessionsPerUser = Integer.valueOf(option(options, "sessionsPerUser", "10"));
+        int actionsPerSession = Integer.valueOf(option(options, "actionsPerSession", "20"));
+        double skew = Double.valueOf(option(options, "skew", "1.1"));
+        int dateSpan = Integer.valueOf(option(options, "dateSpan", "1"));
+        long seed = Long.valueOf(option(options, "seed", "20180409"));
+        int partitions = Integer.valueOf(option(options, "partitions", String.valueOf(threads * 4)));
+        String output = option(options, "output", "session-benchmark.json");
+
+        SparkConf conf = new SparkConf()
+                .setAppName(Constants.SPARK_APP_NAME_SESSION + "Benchmark")
+                .setMaster("local[" + threads + "]")
+                .set("spark.default.parallelism", String.valueOf(partitions))
+                .set("spark.sql.shuffle.partitions", String.valueOf(partitions))
+                .set("spark.serializer", "org.apache.spark.serializer.KryoSerializer")
+                .set("spark.kryo.registrator", SessionKryoRegistrator.class.getName())
+                .set("spark.ui.enabled", "false");
+        JavaSparkContext sc = new JavaSparkContext(conf);
+        SQLContext sqlContext = new SQLContext(sc.sc());
+
+        StageMetricsListener listener = new StageMetricsListener();
+        sc.sc().addSparkListener(listener);
+
+        //生成数据，并缓存起来，保证计时的只是session分析本身
+        MockDataGenerator generator = new MockDataGenerator(users, sessionsPerUser, actionsPerSession,
+                skew, dateSpan, END_DATE, seed, partitions);
+        generator.mock(sc, sqlContext, null);
+        DataFrame actionDF = sqlContext.table(Constants.TABLE_USER_VISIT_ACTION)
+                .persist(StorageLevel.MEMORY_AND_DISK());
+        long actionCount = actionDF.count();
+        sqlContext.table(Constants.TABLE_USER_INFO).persist(StorageLevel.MEMORY_AND_DISK()).count();
+
+        JSONObject taskParam = options.containsKey("taskParam")
+                ? JSONObject.parseObject(options.get("taskParam"))
+                : defaultTaskParam(dateSpan);
+
+        //开始计时
+        listener.reset();
+        String jobGroup = "session-benchmark";
+        sc.setJobGroup(jobGroup, "session benchmark");
+
+        long startTime = System.currentTimeMillis();
+        String result = UserVisitSessionAnalyzeSpark.analyzeSession(sc, sqlContext, taskParam);
+        long wallTime = System.currentTimeMillis() - startTime;
+
+        listener.awaitJobs(sc.statusTracker().getJobIdsForGroup(jobGroup), 60 * 1000L);
+        List<StageMetrics> stages = listener.getStageMetrics();
+        StageMetrics total = StageMetricsListener.sum(stages);
+
+        JSONObject config = new JSONObject();
+        config.put("threads", threads);
+        config.put("users", users);
+        config.put("sessionsPerUser", sessionsPerUser);
+        config.put("actionsPerSession", actionsPerSession);
+        config.put("skew", skew);
+        config.put("dateSpan", dateSpan);
+        config.put("seed", seed);
+        config.put("partitions", partitions);
+        config.put("taskParam", taskParam);
+
+        JSONObject report = new JSONObject();
+        report.put("config", config);
+        report.put("records", actionCount);
+        report.put("wallTimeMs", wallTime);
+        report.put("recordsPerSec", wallTime > 0 ? actionCount * 1000L / wallTime : 0L);
+        report.put("gcTimeMs", total.getJvmGcTime());
+        report.put("shuffleReadBytes", total.getShuffleReadBytes());
+        report.put("shuffleWriteBytes", total.getShuffleWriteBytes());
+        report.put("memoryBytesSpilled", total.getMemoryBytesSpilled());
+        report.put("diskBytesSpilled", total.getDiskBytesSpilled());
+        report.put("stages", JSON.toJSON(stages));
+        report.put("result", result);
+
+        String json = JSON.toJSONString(report, true);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(output), "UTF-8");
+        try {
+            writer.write(json);
+        } finally {
+            writer.close();
+        }
+        System.out.println(json);
+
+        sc.close();
+    }
+
+    /**
+     * 默认的任务参数：覆盖生成数据的整个日期范围，不做任何过滤
+     */
+    private static JSONObject defaultTaskParam(int dateSpan) throws Exception {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(DateUtils.DATE_FORMAT.parse(END_DATE));
+        cal.add(Calendar.DAY_OF_YEAR, -(Math.max(dateSpan, 1) - 1));
+
+        JSONObject taskParam = new JSONObject();
+        JSONArray startDate = new JSONArray();
+        startDate.add(DateUtils.formatDate(cal.getTime()));
+        JSONArray endDate = new JSONArray();
+        endDate.add(END_DATE);
+        taskParam.put(Constants.PARAM_START_DATE, startDate);
+        taskParam.put(Constants.PARAM_END_DATE, endDate);
+        return taskParam;
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index > 0) {
+                options.put(arg.substring(0, index), arg.substring(index + 1));
+            }
+        }
+        return options;
+    }
+
+    private static String option(Map<String, String> options, String key, String defaultValue) {
+        String value = options.get(key);
+        return value != null ? value : defaultValue;
+    }
+}
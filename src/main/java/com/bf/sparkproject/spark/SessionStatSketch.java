@@ -0,0 +1,311 @@
+package com.bf.sparkproject.spark;
+
+import com.bf.sparkproject.conf.ConfigurationManager;
+import com.bf.sparkproject.constant.Constants;
+import com.clearspring.analytics.stream.cardinality.CardinalityMergeException;
+import com.clearspring.analytics.stream.cardinality.HyperLogLogPlus;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * session聚合统计的概要数据结构（sketch）
+ * <p>
+ * 固定的区间统计回答不了“访问时长的p95是多少”、“有多少个不同的用户”这样的问题，
+ * 精确计算的话，又要把符合条件的session再遍历一遍，或者把所有的值都收集到driver端
+ * <p>
+ * 这里在过滤、区间统计的同一次遍历中，顺便把符合条件的session放进几个可以合并的概要数据结构：
+ * 1、访问时长、访问步长：按值计数的直方图（ValueCounter）
+ * 访问时长是整数秒、访问步长是很小的整数，不同的值最多只有几千个，直接按值计数，占用的空间也很小，
+ * 而且直方图之间按值相加就可以合并，算出来的分位数是精确的
+ * 2、不同的用户数：HyperLogLog++，精度参数为p的话，固定占用2^p个寄存器，相对误差约为1.04/sqrt(2^p)
+ * 3、不同的搜索词数：搜索词在session聚合数据中已经是字典编号了，编号的范围很小，
+ * 直接用RoaringBitmap按位OR求并集，结果是精确的，比HyperLogLog更省事
+ * <p>
+ * 每个分区先在本地累加，分区结束的时候通过SessionStatSketchAccumulator在driver端合并
+ * HyperLogLogPlus本身不适合直接用Java序列化，直方图大部分槽位都是空的，所以这里自定义了序列化，只传输紧凑的内容
+ */
+public class SessionStatSketch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    //HyperLogLog++稀疏表示的精度，不同的用户数不多的时候，稀疏表示的结果几乎是精确的
+    private static final int SPARSE_PRECISION = 25;
+
+    private static final double[] QUANTILES = new double[]{0.5, 0.95, 0.99};
+
+    //统计结果中的统计项，顺序和toConcatString()一致
+    private static final String[] KEYS = new String[]{
+            Constants.VISIT_LENGTH_P50,
+            Constants.VISIT_LENGTH_P95,
+            Constants.VISIT_LENGTH_P99,
+            Constants.STEP_LENGTH_P50,
+            Constants.STEP_LENGTH_P95,
+            Constants.STEP_LENGTH_P99,
+            Constants.DISTINCT_USERS,
+            Constants.DISTINCT_KEYWORDS};
+
+    private static final Set<String> KEY_SET = new HashSet<String>(Arrays.asList(KEYS));
+
+    private int precision;
+
+    private transient ValueCounter visitLengthCounter;
+    private transient ValueCounter stepLengthCounter;
+    private transient HyperLogLogPlus userIds;
+    private transient RoaringBitmap keywordIds;
+
+    /**
+     * @param precision HyperLogLog++的精度参数
+     */
+    public SessionStatSketch(int precision) {
+        this.precision = precision;
+        this.visitLengthCounter = new ValueCounter();
+        this.stepLengthCounter = new ValueCounter();
+        this.userIds = new HyperLogLogPlus(precision, SPARSE_PRECISION);
+        this.keywordIds = new RoaringBitmap();
+    }
+
+    /**
+     * 按照配置创建
+     *
+     * @return 配置中关闭了sketch的话，返回null
+     */
+    public static SessionStatSketch fromConfig() {
+        if (!ConfigurationManager.getBoolean(Constants.SESSION_SKETCH_ENABLED)) {
+            return null;
+        }
+        return new SessionStatSketch(ConfigurationManager.getInteger(Constants.SESSION_SKETCH_PRECISION));
+    }
+
+    /**
+     * 参数一样的空sketch，用于累加器的初始值
+     */
+    public SessionStatSketch emptyCopy() {
+        return new SessionStatSketch(precision);
+    }
+
+    /**
+     * 是否是sketch的统计项
+     */
+    public static boolean isSketchKey(String key) {
+        return KEY_SET.contains(key);
+    }
+
+    /**
+     * 将一个session放进sketch
+     *
+     * @param visitLength 访问时长（秒）
+     * @param stepLength  访问步长
+     * @param userId      用户id
+     * @param keywordIds  搜索词的字典编号
+     */
+    public void add(long visitLength, long stepLength, long userId, RoaringBitmap keywordIds) {
+        visitLengthCounter.add(visitLength, 1L);
+        stepLengthCounter.add(stepLength, 1L);
+        userIds.offerHashed(mix(userId));
+        if (keywordIds != null && !keywordIds.isEmpty()) {
+            this.keywordIds.or(keywordIds);
+        }
+    }
+
+    /**
+     * 将另一个sketch合并进来
+     */
+    public void merge(SessionStatSketch other) {
+        visitLengthCounter.addAll(other.visitLengthCounter);
+        stepLengthCounter.addAll(other.stepLengthCounter);
+        try {
+            userIds.addAll(other.userIds);
+        } catch (CardinalityMergeException e) {
+            throw new IllegalStateException("cannot merge sketches with different precisions", e);
+        }
+        keywordIds.or(other.keywordIds);
+    }
+
+    /**
+     * 转换成key=value|key=value格式的连接串
+     */
+    public String toConcatString() {
+        StringBuilder builder = new StringBuilder();
+        appendQuantiles(builder, 0, visitLengthCounter);
+        appendQuantiles(builder, QUANTILES.length, stepLengthCounter);
+        builder.append(Constants.DISTINCT_USERS).append("=").append(userIds.cardinality()).append("|");
+        builder.append(Constants.DISTINCT_KEYWORDS).append("=").append(keywordIds.getCardinality());
+        return builder.toString();
+    }
+
+    private static void appendQuantiles(StringBuilder builder, int keyOffset, ValueCounter counter) {
+        //没有任何session的时候，分位数记为0
+        long[] values = counter.quantiles(QUANTILES);
+        for (int i = 0; i < QUANTILES.length; i++) {
+            builder.append(KEYS[keyOffset + i]).append("=").append(values[i]).append("|");
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        visitLengthCounter.write(out);
+        stepLengthCounter.write(out);
+        byte[] userIdBytes = userIds.getBytes();
+        out.writeInt(userIdBytes.length);
+        out.write(userIdBytes);
+        out.writeObject(keywordIds);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        visitLengthCounter = ValueCounter.read(in);
+        stepLengthCounter = ValueCounter.read(in);
+        byte[] userIdBytes = new byte[in.readInt()];
+        in.readFully(userIdBytes);
+        userIds = HyperLogLogPlus.Builder.build(userIdBytes);
+        keywordIds = (RoaringBitmap) in.readObject();
+    }
+
+    //MurmurHash3的64位finalizer，HyperLogLog要求输入的hash值每一位都足够随机，连续的user_id不能直接使用
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * 按值计数的直方图，用开放寻址哈希表实现，key和计数都是基本类型，计数的时候没有任何对象分配
+     * 装填因子超过3/4的时候，容量翻倍
+     */
+    static class ValueCounter {
+
+        private static final int INITIAL_CAPACITY = 64;
+
+        private long[] values = new long[INITIAL_CAPACITY];
+        private long[] counts = new long[INITIAL_CAPACITY];
+        private int size;
+        private long total;
+
+        /**
+         * 给某个值加上计数
+         */
+        void add(long value, long count) {
+            if (count <= 0) {
+                return;
+            }
+            if (size + 1 > values.length / 4 * 3) {
+                resize(values.length * 2);
+            }
+            int mask = values.length - 1;
+            int slot = (int) mix(value) & mask;
+            while (counts[slot] != 0 && values[slot] != value) {
+                slot = (slot + 1) & mask;
+            }
+            if (counts[slot] == 0) {
+                values[slot] = value;
+                size++;
+            }
+            counts[slot] += count;
+            total += count;
+        }
+
+        /**
+         * 按值相加，合并另一个直方图
+         */
+        void addAll(ValueCounter other) {
+            for (int slot = 0; slot < other.values.length; slot++) {
+                if (other.counts[slot] != 0) {
+                    add(other.values[slot], other.counts[slot]);
+                }
+            }
+        }
+
+        /**
+         * 精确的分位数（nearest-rank）：排序之后第ceil(q * total)个值
+         *
+         * @param quantiles 分位点，必须从小到大排列
+         * @return 没有任何值的时候，全部是0
+         */
+        long[] quantiles(double[] quantiles) {
+            long[] result = new long[quantiles.length];
+            if (total == 0) {
+                return result;
+            }
+
+            long[] sortedValues = new long[size];
+            int index = 0;
+            for (int slot = 0; slot < values.length; slot++) {
+                if (counts[slot] != 0) {
+                    sortedValues[index++] = values[slot];
+                }
+            }
+            Arrays.sort(sortedValues);
+
+            long cumulative = 0L;
+            int valueIndex = 0;
+            for (int i = 0; i < quantiles.length; i++) {
+                long rank = Math.max(1L, (long) Math.ceil(quantiles[i] * total));
+                while (cumulative < rank) {
+                    cumulative += count(sortedValues[valueIndex++]);
+                }
+                result[i] = sortedValues[valueIndex - 1];
+            }
+            return result;
+        }
+
+        long total() {
+            return total;
+        }
+
+        private long count(long value) {
+            int mask = values.length - 1;
+            int slot = (int) mix(value) & mask;
+            while (values[slot] != value || counts[slot] == 0) {
+                slot = (slot + 1) & mask;
+            }
+            return counts[slot];
+        }
+
+        private void resize(int capacity) {
+            long[] oldValues = values;
+            long[] oldCounts = counts;
+            values = new long[capacity];
+            counts = new long[capacity];
+            size = 0;
+            total = 0L;
+            for (int slot = 0; slot < oldValues.length; slot++) {
+                if (oldCounts[slot] != 0) {
+                    add(oldValues[slot], oldCounts[slot]);
+                }
+            }
+        }
+
+        /**
+         * 只写出不为0的（值，计数）
+         */
+        void write(ObjectOutputStream out) throws IOException {
+            out.writeInt(size);
+            for (int slot = 0; slot < values.length; slot++) {
+                if (counts[slot] != 0) {
+                    out.writeLong(values[slot]);
+                    out.writeLong(counts[slot]);
+                }
+            }
+        }
+
+        static ValueCounter read(ObjectInputStream in) throws IOException {
+            ValueCounter counter = new ValueCounter();
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                long value = in.readLong();
+                counter.add(value, in.readLong());
+            }
+            return counter;
+        }
+    }
+}
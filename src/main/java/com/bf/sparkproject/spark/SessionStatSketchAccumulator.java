@@ -0,0 +1,42 @@
+package com.bf.sparkproject.spark;
+
+import org.apache.spark.AccumulatorParam;
+
+/**
+ * 多个任务的session聚合统计sketch的Accumulator
+ * <p>
+ * 值是一个SessionStatSketch[N]，第i个元素是第i个任务的sketch
+ * 和SessionAggrStatMatrixAccumulator一样，每个task先在本地累加，一个分区只调用一次add()
+ */
+public class SessionStatSketchAccumulator implements AccumulatorParam<SessionStatSketch[]> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 参数和初始值一样的空sketch
+     */
+    @Override
+    public SessionStatSketch[] zero(SessionStatSketch[] initialValue) {
+        SessionStatSketch[] zero = new SessionStatSketch[initialValue.length];
+        for (int i = 0; i < initialValue.length; i++) {
+            zero[i] = initialValue[i].emptyCopy();
+        }
+        return zero;
+    }
+
+    /**
+     * 将s2合并到s1上
+     */
+    @Override
+    public SessionStatSketch[] addInPlace(SessionStatSketch[] s1, SessionStatSketch[] s2) {
+        for (int i = 0; i < s1.length; i++) {
+            s1[i].merge(s2[i]);
+        }
+        return s1;
+    }
+
+    @Override
+    public SessionStatSketch[] addAccumulator(SessionStatSketch[] s1, SessionStatSketch[] s2) {
+        return addInPlace(s1, s2);
+    }
+}
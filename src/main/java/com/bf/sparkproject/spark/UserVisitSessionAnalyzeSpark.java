@@ -6,26 +6,48 @@ import com.bf.sparkproject.conf.ConfigurationManager;
 import com.bf.sparkproject.constant.Constants;
 import com.bf.sparkproject.dao.ITaskDAO;
 import com.bf.sparkproject.dao.impl.DAOFactory;
+import com.bf.sparkproject.domain.SessionAggrStat;
+import com.bf.sparkproject.domain.SessionSketchStat;
 import com.bf.sparkproject.domain.Task;
+import com.bf.sparkproject.spark.cache.SessionCache;
+import com.bf.sparkproject.spark.concurrent.ConcurrentStageRunner;
+import com.bf.sparkproject.spark.cube.SessionCube;
+import com.bf.sparkproject.spark.dimension.DimensionCache;
+import com.bf.sparkproject.spark.dimension.MappedDimension;
+import com.bf.sparkproject.spark.dimension.MappedDimensionFile;
+import com.bf.sparkproject.spark.index.SessionIndex;
+import com.bf.sparkproject.spark.lifecycle.RDDLifecycleManager;
+import com.bf.sparkproject.spark.tuning.ParallelismTuner;
+import com.bf.sparkproject.spark.session.*;
 import com.bf.sparkproject.util.*;
 import org.apache.spark.Accumulator;
 import org.apache.spark.SparkConf;
-import org.apache.spark.SparkContext;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
 import org.apache.spark.api.java.function.Function;
+import org.apache.spark.api.java.function.Function2;
+import org.apache.spark.api.java.function.PairFlatMapFunction;
 import org.apache.spark.api.java.function.PairFunction;
+import org.apache.spark.api.java.function.VoidFunction;
+import org.apache.spark.broadcast.Broadcast;
 import org.apache.spark.sql.DataFrame;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.SQLContext;
-import org.apache.spark.sql.hive.HiveContext;
-import org.apache.spark.storage.StorageLevel;
 import scala.Tuple2;
 
 import java.awt.image.RasterOp;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
 
 /**
  * Created by wanglei on 2018/4/9.
@@ -51,10 +73,46 @@ import java.util.Iterator;
  */
 
 public class UserVisitSessionAnalyzeSpark {
-    public static void main(String[] args) {
+
+    //缓存的行为数据在RDDLifecycleManager中的名字
+    private static final String SESSION_ACTION_RDD = "session_action";
+    //批量执行的时候，填充session缓存和统计的job所在的fair scheduler pool
+    private static final String STAGE_POOL_SESSION_CACHE = "session_cache";
+    private static final String STAGE_POOL_SESSION_STAT = "session_stat";
+
+    public static void main(String[] args) throws Exception {
+        //创建需要使用的DAO组件
+        ITaskDAO taskDAO = DAOFactory.getTaskDAO();
+
+        //首先得查询出来指定的任务,并获取任务的查询参数
+        //可以一次传入多个任务id，日期范围相同的任务，只扫描、聚合一次行为数据
+        List<Long> taskIds = new ArrayList<Long>();
+        List<JSONObject> taskParams = new ArrayList<JSONObject>();
+        for (long taskId : ParamUtils.getTaskIdsFromArgs(args)) {
+            Task task = taskDAO.findById(taskId);
+            if (task == null) {
+                //这里做一次判断，如果没有taskid，为了程序不报错，直接跳过
+                System.out.println(new Date() + ": cannot find this task with id [" + taskId + "].");
+                continue;
+            }
+            JSONObject taskParam = JSONObject.parseObject(task.getTask_param());
+
+            //只按照日期和用户属性筛选的任务，直接对session立方体求和，不需要启动Spark作业
+            String aggrStat = SessionCube.query(taskParam);
+            if (aggrStat != null) {
+                persistAggrStat(taskId, aggrStat);
+                continue;
+            }
+
+            taskIds.add(taskId);
+            taskParams.add(taskParam);
+        }
+        if (taskIds.isEmpty()) {
+            return;
+        }
+
         SparkConf conf = new SparkConf()
                 .setAppName(Constants.SPARK_APP_NAME_SESSION)
-                .set("spark.default.parallelism", "100")
                 .set("spark.storage.memoryFraction", "0.5")
                 .set("spark.shuffle.file.buffer", "64")
                 .set("spark.shuffle.memoryFraction", "0.3")
@@ -62,6 +120,9 @@ public class UserVisitSessionAnalyzeSpark {
                 .set("spark.shuffle.io.maxRetries", "60")
                 .set("spark.shuffle.io.retryWait", "60")
                 .set("spark.serializer", "org.apache.spark.serializer.KryoSerializer")
+                .set("spark.kryo.registrator", SessionKryoRegistrator.class.getName())
+                //批量执行的时候，不同日期范围的分析并发提交job，按pool公平的分配资源
+                .set("spark.scheduler.mode", "FAIR")
 //                .registerKryoClasses(new Class[]{CategorySo})
                 .setMaster("local");
         SparkUtils.setMaster(conf);
@@ -69,27 +130,42 @@ public class UserVisitSessionAnalyzeSpark {
         JavaSparkContext sc = new JavaSparkContext(conf);
 
         //sc.sc()  从JavaSparkContext中取出它对应的那个SparkContext
-        SQLContext sqlContext = getSQLContext(sc.sc());
+        SQLContext sqlContext = SparkUtils.getSQLContext(sc.sc());
 
 
         //生成模拟测试数据
         SparkUtils.mockData(sc, sqlContext);
 
-        //创建需要使用的DAO组件
-        ITaskDAO taskDAO = DAOFactory.getTaskDAO();
+        //收集每个stage的运行指标，写入task_metrics表
+        //批量执行的时候，stage是所有任务共享的，每个任务各记一条
+        SparkUtils.registerTaskMetricsListener(sc, taskIds);
 
+        //执行session分析
+        List<String> aggrStats = taskParams.size() == 1
+                ? Collections.singletonList(analyzeSession(sc, sqlContext, taskParams.get(0)))
+                : analyzeSessions(sc, sqlContext, taskParams);
 
-        //首先得查询出来指定的任务,并获取任务的查询参数
-        long taskId = ParamUtils.getTaskIdFromArgs(args);
-        Task task = taskDAO.findById(taskId);
-        if (task == null) {
-            //这里做一次判断，如果没有taskid，为了程序不报错，直接return返回
-            System.out.println(new Date() + ": cannot find this task with id [" + taskId + "].");
-            return;
+        //将统计结果写入MySQL
+        for (int i = 0; i < taskIds.size(); i++) {
+            persistAggrStat(taskIds.get(i), aggrStats.get(i));
         }
 
-        JSONObject taskParam = JSONObject.parseObject(task.getTask_param());
+        //关闭上下文
+        sc.close();
+    }
 
+    /**
+     * 执行session分析的完整流程
+     * 从按日期范围查询行为数据开始，到session聚合、过滤和统计结束
+     * main方法和本地性能测试程序都是调用这个方法
+     *
+     * @param sc
+     * @param sqlContext
+     * @param taskParam  任务参数
+     * @return session聚合统计的结果连接串
+     */
+    static String analyzeSession(JavaSparkContext sc, SQLContext sqlContext, JSONObject taskParam)
+            throws Exception {
         //如果要进行session粒度的数据聚合
         //首先要从user_visit_action表中，查询出来指定日期范围内的行为数据
         /**
@@ -104,235 +180,400 @@ public class UserVisitSessionAnalyzeSpark {
          * 重构完以后，actionRDD，就只在最开始，使用一次，用来生成sessionid为key的RDD
          */
 
+        //DataFrame方式：聚合、过滤、统计全部用DataFrame的算子实现，用于和下面的RDD方式对比
+        if ("dataframe".equals(ConfigurationManager.getProperty(Constants.SESSION_AGGREGATE_MODE))) {
+            return SessionDataFrameAnalyzer.analyze(sqlContext, taskParam);
+        }
 
-        //如果要根据用户在创建任务时指定的参数，来进行数据过滤和筛选
-        JavaRDD<Row> actionRDD = getActionRDDByDateRange(sqlContext, taskParam);
-
-        //这里从最原始的actionRDD进行了一次转换，生成了以sessionid为key，action为value的键值对RDD
-        JavaPairRDD<String, Row> session2ActionRDD = getSession2ActionRDD(actionRDD);
-
-        /**
-         * 持久化，很简单，就是对RDD调用persist()方法，并传入一个持久化级别
-         *
-         * 如果是persist(StorageLevel.MEMORY ONLY()),纯内存，无序列化，那么就可以用cache()方法来替代
-         * StorageLevel.MEMORY_ONLY_SER()，第二选择
-         * StorageLevel.MEMORY_AND_DISK()，第三选择
-         * StorageLevel.MEMORY_AND_DISK_SER()，第四选择
-         * StorageLevel.DISK_ONLY()，第五选择
-         *
-         * 如果内存充足，要使用双副本高可靠机制
-         * 选择后缀带_2的策略
-         * StorageLevel.MEMORY_ONLY_2()
-         */
-        session2ActionRDD = session2ActionRDD.persist(StorageLevel.MEMORY_ONLY());
-        session2ActionRDD.checkpoint();
-
-        //首先，可以将行为数据，按照session_id进行groupByKey分组
-        //此时的数据的粒度就是session粒度了，然后呢，可以将session粒度的数据
-        //与用户信息数据，进行join
-        //然后就可以获取到session粒度的数据，同时呢，数据里面还包含了session对应的user的信息
-        //到这里为止，获取的数据是<sessionid,(sessionid,searchKeywords,clickCategoryIds,age,professional,city,sex)>
-        JavaPairRDD<String, String> sessionid2AggrInfoRDD = aggregateBySession(sc, sqlContext, session2ActionRDD);
-
-        //接着，就要针对session粒度的聚合数据，按照使用者指定的筛选参数进行数据过滤
-        //相当于我们自己编写的算子，是要访问外面的任务参数对象的
-        //所以，大家记得我们之前说的，匿名内部类(算子函数)，访问外部对象，是要给外部对象使用final修饰的
+        RDDLifecycleManager rddLifecycleManager = RDDLifecycleManager.getInstance(sc.sc());
+        SessionDictionaries dictionaries;
+        Broadcast<SessionDictionaries> dictionariesBroadcast;
+        SessionFilter sessionFilter;
+        JavaPairRDD<SessionId, SessionAggrInfo> sessionid2AggrInfoRDD;
+
+        //如果任务有搜索词、品类的筛选条件，并且日期范围内的session索引都已经构建好了
+        //那么直接从索引中读取可能匹配的session，不需要扫描和聚合原始的行为数据
+        //索引是按天构建的，跨越零点的session在多天的任务中会按天拆开统计，见SessionIndex的注释
+        SessionIndex sessionIndex = SessionIndex.open(sc, sqlContext, taskParam);
+        //否则，如果开启了跨作业的session缓存，那么每一天只需要聚合一次，之后的作业直接读取聚合好的session
+        SessionCache sessionCache = sessionIndex == null ? SessionCache.open(sc, sqlContext, taskParam) : null;
+        if (sessionIndex != null) {
+            dictionaries = SessionDictionaries.build(sqlContext, sessionIndex.getKeywords());
+            dictionariesBroadcast = sc.broadcast(dictionaries);
+            sessionFilter = SessionFilter.compile(taskParam, dictionaries);
+            sessionid2AggrInfoRDD = sessionIndex.lookup(dictionariesBroadcast);
+        } else if (sessionCache != null) {
+            sessionCache.fill();
+            dictionaries = SessionDictionaries.build(sqlContext, sessionCache.getKeywords());
+            dictionariesBroadcast = sc.broadcast(dictionaries);
+            sessionFilter = SessionFilter.compile(taskParam, dictionaries);
+            sessionid2AggrInfoRDD = sessionCache.load(dictionariesBroadcast);
+        } else {
+            //如果要根据用户在创建任务时指定的参数，来进行数据过滤和筛选
+            JavaRDD<Row> actionRDD = getActionRDDByDateRange(sqlContext, taskParam);
+
+            //搜索词、职业、城市、性别的字典，整个流程中只使用字典编号，输出的时候才还原成字符串
+            dictionaries = SessionDictionaries.build(sqlContext, taskParam);
+            dictionariesBroadcast = sc.broadcast(dictionaries);
+
+            //筛选条件在driver端编译好，职业、城市等都转换成字典编号
+            sessionFilter = SessionFilter.compile(taskParam, dictionaries);
+
+            //这里从最原始的actionRDD进行了一次转换，将每一行数据编码成紧凑格式的SessionAction
+            //session2ActionRDD在裁剪的时候还要被读取一次，缓存的是SessionAction，而不是Row
+            JavaRDD<SessionAction> session2ActionRDD = getSession2ActionRDD(actionRDD, dictionariesBroadcast);
+            //不裁剪，或者只按用户条件裁剪的话，行为数据只会被session聚合读取一次，持久化只会白白占用内存
+            boolean actionsReadTwice = SessionPruner.readsActions(sessionFilter);
+
+            /**
+             * 持久化，很简单，就是对RDD调用persist()方法，并传入一个持久化级别
+             *
+             * 如果是persist(StorageLevel.MEMORY ONLY()),纯内存，无序列化，那么就可以用cache()方法来替代
+             * StorageLevel.MEMORY_ONLY_SER()，第二选择
+             * StorageLevel.MEMORY_AND_DISK()，第三选择
+             * StorageLevel.MEMORY_AND_DISK_SER()，第四选择
+             * StorageLevel.DISK_ONLY()，第五选择
+             *
+             * 如果内存充足，要使用双副本高可靠机制
+             * 选择后缀带_2的策略
+             * StorageLevel.MEMORY_ONLY_2()
+             *
+             * SessionAction配合Kryo（SessionActionSerializer），序列化之后每条数据只有几十个字节，
+             * 比直接缓存Row对象小得多，反序列化的开销也很小，所以默认使用MEMORY_ONLY_SER
+             * 也可以通过rdd.storage.level.session_action配置成OFF_HEAP（需要配置spark.externalBlockStore.url），
+             * 数据放在Tachyon中，不占用executor的堆内存，也不会给GC带来压力
+             *
+             * 持久化级别、checkpoint、释放都交给RDDLifecycleManager统一管理
+             */
+            if (actionsReadTwice) {
+                session2ActionRDD = rddLifecycleManager.persist(SESSION_ACTION_RDD, session2ActionRDD);
+            }
 
-        //重构，同时进行过滤和统计
-        Accumulator<String> sessionAggrStatAccumulator = sc.accumulator("", new SessionAggrStatAccumulator());
+            //在聚合之前，先根据筛选条件把一定不符合条件的session的行为裁剪掉
+            //筛选条件越严格，后面shuffle和join的数据就越少
+            SessionPruner sessionPruner = SessionPruner.plan(sc, sqlContext, sessionFilter,
+                    dictionariesBroadcast, session2ActionRDD);
+            if (sessionPruner != null) {
+                System.out.println(new Date() + ": " + sessionPruner);
+                session2ActionRDD = pruneActions(session2ActionRDD, sc.broadcast(sessionPruner));
+            }
 
-        filterSessionAndAggrStat(sessionid2AggrInfoRDD, taskParam, sessionAggrStatAccumulator);
+            //之后只有session聚合的map端stage还会读取行为数据，这个stage一结束就释放缓存，
+            //同一个job中reduce端的聚合、过滤、统计就可以使用释放出来的内存
+            if (actionsReadTwice) {
+                rddLifecycleManager.releaseAfter(SESSION_ACTION_RDD, 1);
+            }
 
+            //首先，可以将行为数据，按照session_id进行groupByKey分组
+            //此时的数据的粒度就是session粒度了，然后呢，可以将session粒度的数据
+            //与用户信息数据，进行join
+            //然后就可以获取到session粒度的数据，同时呢，数据里面还包含了session对应的user的信息
+            //到这里为止，获取的数据是<sessionid,(sessionid,searchKeywords,clickCategoryIds,age,professional,city,sex)>
+            sessionid2AggrInfoRDD = aggregateBySession(sc, sqlContext, session2ActionRDD, dictionariesBroadcast);
+        }
 
-        //关闭上下文
-        sc.close();
+        //接着，就要针对session粒度的聚合数据，按照使用者指定的筛选参数进行数据过滤，同时进行聚合统计
+        //统计的区间可以在任务参数或者配置文件中自定义，结果计入long数组，和批量执行的时候是同一套逻辑
+        //同一次遍历中，还会计算访问时长、访问步长的分位数，以及不同的用户数、搜索词数
+        SessionAggrStatBuckets buckets = SessionAggrStatBuckets.forTask(taskParam);
+        SessionStatSketch sketch = SessionStatSketch.fromConfig();
+        SessionStatSketch[] sketches = sketch != null ? new SessionStatSketch[]{sketch} : null;
+        long[][] counts = aggrStatForTasks(sc, sessionid2AggrInfoRDD,
+                new SessionFilter[]{sessionFilter}, new SessionAggrStatBuckets[]{buckets}, sketches);
+        rddLifecycleManager.releaseAll();
+
+        return concatAggrStat(buckets, counts[0], sketches != null ? sketches[0] : null);
     }
 
     /**
-     * 过滤session数据，并进行聚合统计
+     * 批量执行多个任务的session分析
+     * <p>
+     * 平台上的分析任务，往往是对同样的几天数据，用不同的筛选条件反复分析
+     * 如果一个一个的执行，每个任务都要扫描一遍行为数据，做一次session聚合的shuffle和user_info的join
+     * 这里把日期范围相同的任务放在一起，只聚合一次session，然后对每个session依次判断N个任务的筛选条件，
+     * 统计结果计入一个long[N][buckets]的累加器，扫描和shuffle的代价只付一次
+     * 每个任务可以有自己的统计区间，矩阵的每一行长度可以不一样
+     * <p>
+     * 一批任务的筛选条件各不相同，没法裁剪行为数据，所以批量执行的时候不使用SessionPruner和session索引，
+     * 但是开启了跨作业的session缓存的话，同样直接读取缓存中聚合好的session
      *
-     * @param sessionid2AggrInfoRDD
-     * @param taskParam
-     * @param sessionAggrStatAccumulator
+     * @param sc
+     * @param sqlContext
+     * @param taskParams 多个任务的参数
+     * @return 每个任务的session聚合统计结果连接串，顺序和taskParams一致
      */
-    private static JavaPairRDD<String, String> filterSessionAndAggrStat(
-            JavaPairRDD<String, String> sessionid2AggrInfoRDD,
-            JSONObject taskParam,
-            final Accumulator<String> sessionAggrStatAccumulator) {
-        //为了使用我们后面的ValieUtils，所以，首先将所有的筛选参数拼接成一个连接串
-        //此外，这里其实大家不要觉得是多次一举
-        //其实我们是给后面的性能优化埋下了一个伏笔
-        String startAge = ParamUtils.getParam(taskParam, Constants.PARAM_START_DATE);
-        String endAge = ParamUtils.getParam(taskParam, Constants.PARAM_END_AGE);
-        String professionals = ParamUtils.getParam(taskParam, Constants.PARAM_PROFESSIONALS);
-        String cities = ParamUtils.getParam(taskParam, Constants.PARAM_CITIES);
-        String sex = ParamUtils.getParam(taskParam, Constants.PARAM_SEX);
-        String keywords = ParamUtils.getParam(taskParam, Constants.PARAM_KEYWORDS);
-        String categoryIds = ParamUtils.getParam(taskParam, Constants.PARAM_CATEGORY_IDS);
-
-        String _parameter = (startAge != null ? Constants.PARAM_START_AGE + "=" + startAge + "|" : "")
-                + (endAge != null ? Constants.PARAM_END_AGE + "=" + endAge + "|" : "")
-                + (professionals != null ? Constants.PARAM_PROFESSIONALS + "=" + professionals + "|" : "")
-                + (cities != null ? Constants.PARAM_CITIES + "=" + sex + "|" : "")
-                + (sex != null ? Constants.PARAM_SEX + "=" + sex + "|" : "")
-                + (keywords != null ? Constants.PARAM_KEYWORDS + "=" + keywords + "|" : "")
-                + (categoryIds != null ? Constants.PARAM_CATEGORY_IDS + "=" + categoryIds : "");
-        if (_parameter.endsWith("\\|")) {
-            _parameter = _parameter.substring(0, _parameter.length() - 1);
+    static List<String> analyzeSessions(final JavaSparkContext sc, final SQLContext sqlContext,
+                                        final List<JSONObject> taskParams) throws Exception {
+        final String[] aggrStats = new String[taskParams.size()];
+
+        //按照日期范围分组
+        Map<String, List<Integer>> dateRange2TaskIndexes = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < taskParams.size(); i++) {
+            String dateRange = ParamUtils.getParam(taskParams.get(i), Constants.PARAM_START_DATE) + ","
+                    + ParamUtils.getParam(taskParams.get(i), Constants.PARAM_END_DATE);
+            List<Integer> taskIndexes = dateRange2TaskIndexes.get(dateRange);
+            if (taskIndexes == null) {
+                taskIndexes = new ArrayList<Integer>();
+                dateRange2TaskIndexes.put(dateRange, taskIndexes);
+            }
+            taskIndexes.add(i);
         }
 
-        final String parameter = _parameter;
-
-        //根据筛选参数进行过滤
-        JavaPairRDD<String, String> filteredSessionid2AggrInfoRDD = sessionid2AggrInfoRDD.filter(
-                new Function<Tuple2<String, String>, Boolean>() {
-                    private static final long serialVersionUID = 1L;
-
-                    @Override
-                    public Boolean call(Tuple2<String, String> tuple) throws Exception {
-                        //首先，从tuple中，获取聚合数据
-                        String aggrInfo = tuple._2;
-
-
-                        //接着，依次按照筛选条件进行过滤
-                        //按照年龄范围进行过滤（startAge,endAge）
-                        if (!ValidUtils.between(aggrInfo, Constants.FIELD_AGE, parameter, Constants.PARAM_START_AGE, Constants.PARAM_END_AGE)) {
-                            return false;
-                        }
-
-                        //按照职业范围进行过滤（professionals）
-                        //互联网，IT，软件
-                        //互联网
-                        if (!ValidUtils.in(aggrInfo, Constants.FIELD_PROFESSIONAL, parameter, Constants.PARAM_PROFESSIONALS)) {
-                            return false;
-                        }
-
-                        //按照城市范围进行过滤(cities)
-                        //北上广深
-                        //成都
-                        if (!ValidUtils.in(aggrInfo, Constants.FIELD_CITY, parameter, Constants.PARAM_CITIES)) {
-                            return false;
-                        }
-
-                        //按照性别进行过滤
-                        //男/女
-                        //男，女
-                        if (!ValidUtils.equal(aggrInfo, Constants.FIELD_SEX, parameter, Constants.PARAM_SEX)) {
-                            return false;
-                        }
-
-                        //按照搜索词进行过滤
-                        //我们的session可能搜索了  火锅，蛋糕，烧烤
-                        //我们的筛选条件可能是  火锅，串串香，iphone手机
-                        //那么，in这个校验方法，主要判定session搜索的词中，有任何一个，与筛选条件中
-                        //任何一个搜索词相当，即通过
-                        if (!ValidUtils.in(aggrInfo, Constants.FIELD_SEARCH_KEYWORDS, parameter, Constants.PARAM_KEYWORDS)) {
-                            return false;
+        /**
+         * 不同日期范围的组之间互相独立，由ConcurrentStageRunner并发执行，每组分成两个阶段：
+         * 1、cache：打开并填充跨作业的session缓存
+         * 同一天的缓存只能由一个线程构建（临时目录是按applicationId命名的），所以各组的cache阶段依次执行
+         * 2、stat：依赖本组的cache阶段，聚合session并统计，和其他组的阶段并发执行
+         * 任何一组失败，其他组的job都会被取消
+         */
+        ConcurrentStageRunner runner = new ConcurrentStageRunner(sc, "session-batch");
+        ConcurrentStageRunner.Stage<SessionCache> previousCacheStage = null;
+        for (Map.Entry<String, List<Integer>> entry : dateRange2TaskIndexes.entrySet()) {
+            final String dateRange = entry.getKey();
+            final List<Integer> taskIndexes = entry.getValue();
+            //同一组的任务，日期范围都一样，查询行为数据、构建字典用第一个任务的参数就可以了
+            final JSONObject taskParam = taskParams.get(taskIndexes.get(0));
+
+            final ConcurrentStageRunner.Stage<SessionCache> cacheStage = runner.submit(
+                    "session cache " + dateRange, STAGE_POOL_SESSION_CACHE, new Callable<SessionCache>() {
+                        @Override
+                        public SessionCache call() throws Exception {
+                            SessionCache sessionCache = SessionCache.open(sc, sqlContext, taskParam);
+                            if (sessionCache != null) {
+                                sessionCache.fill();
+                            }
+                            return sessionCache;
                         }
+                    }, previousCacheStage != null
+                            ? new ConcurrentStageRunner.Stage<?>[]{previousCacheStage}
+                            : new ConcurrentStageRunner.Stage<?>[0]);
+            previousCacheStage = cacheStage;
+
+            runner.submit("session stat " + dateRange, STAGE_POOL_SESSION_STAT, new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    analyzeSessionGroup(sc, sqlContext, taskParams, taskIndexes, cacheStage.get(), aggrStats);
+                    return null;
+                }
+            }, cacheStage);
+        }
+        runner.await();
 
-                        //按照点击品类id进行过滤
-                        if (!ValidUtils.in(aggrInfo, Constants.FIELD_CLICK_CATEGORY_IDS, parameter, Constants.PARAM_CATEGORY_IDS)) {
-                            return false;
-                        }
+        return Arrays.asList(aggrStats);
+    }
 
-                        //如果经过了之前的多个过滤条件之后，程序能走到这里
-                        //那么就说明，该session是通过了用户指定的筛选条件的，也就是需要保留的session'
-                        //那么就要对session的访问时长和步长，进行统计，根据session对应的范围
-                        //进行相应的累加计数
+    /**
+     * 对日期范围相同的一组任务，聚合一次session，统计每个任务的结果
+     *
+     * @param sc
+     * @param sqlContext
+     * @param taskParams   所有任务的参数
+     * @param taskIndexes  这一组任务在taskParams中的下标
+     * @param sessionCache 填充好的session缓存，没有开启的话为null
+     * @param aggrStats    每个任务的session聚合统计结果连接串，这一组任务的结果写在对应的下标上
+     */
+    private static void analyzeSessionGroup(JavaSparkContext sc, SQLContext sqlContext, List<JSONObject> taskParams,
+                                            List<Integer> taskIndexes, SessionCache sessionCache,
+                                            String[] aggrStats) throws IOException {
+        JSONObject taskParam = taskParams.get(taskIndexes.get(0));
+        SessionDictionaries dictionaries = sessionCache != null
+                ? SessionDictionaries.build(sqlContext, sessionCache.getKeywords())
+                : SessionDictionaries.build(sqlContext, taskParam);
+        Broadcast<SessionDictionaries> dictionariesBroadcast = sc.broadcast(dictionaries);
+
+        SessionFilter[] sessionFilters = new SessionFilter[taskIndexes.size()];
+        SessionAggrStatBuckets[] buckets = new SessionAggrStatBuckets[taskIndexes.size()];
+        SessionStatSketch[] sketches = null;
+        for (int i = 0; i < sessionFilters.length; i++) {
+            sessionFilters[i] = SessionFilter.compile(taskParams.get(taskIndexes.get(i)), dictionaries);
+            buckets[i] = SessionAggrStatBuckets.forTask(taskParams.get(taskIndexes.get(i)));
+            SessionStatSketch sketch = SessionStatSketch.fromConfig();
+            if (sketch != null) {
+                if (sketches == null) {
+                    sketches = new SessionStatSketch[sessionFilters.length];
+                }
+                sketches[i] = sketch;
+            }
+        }
 
-                        //主要走到这一步，那么就是需要计数的session
-                        sessionAggrStatAccumulator.add(Constants.SESSION_COUNT);
+        JavaPairRDD<SessionId, SessionAggrInfo> sessionid2AggrInfoRDD = sessionCache != null
+                ? sessionCache.load(dictionariesBroadcast)
+                : aggregateBySession(sc, sqlContext,
+                getSession2ActionRDD(getActionRDDByDateRange(sqlContext, taskParam), dictionariesBroadcast),
+                dictionariesBroadcast);
+        long[][] counts = aggrStatForTasks(sc, sessionid2AggrInfoRDD, sessionFilters, buckets, sketches);
 
-                        //计算出session的访问时长和访问步长的范围，并进行相应的累加
-                        long visitLength = Long.valueOf(StringUtils.getFieldFromConcatString(aggrInfo, "\\|", Constants.FIELD_VISIT_LENGTH));
-                        long stepLength = Long.valueOf(StringUtils.getFieldFromConcatString(aggrInfo, "\\|", Constants.FIELD_STEP_LENGTH));
+        for (int i = 0; i < sessionFilters.length; i++) {
+            aggrStats[taskIndexes.get(i)] = concatAggrStat(buckets[i], counts[i],
+                    sketches != null ? sketches[i] : null);
+        }
+    }
 
-                        calculateVisitLength(visitLength);
+    /**
+     * 一次遍历session数据，同时过滤、统计一个或多个任务的结果
+     *
+     * @param sc
+     * @param sessionid2AggrInfoRDD
+     * @param sessionFilters        每个任务编译好的筛选条件
+     * @param buckets               每个任务的统计区间
+     * @param sketches              每个任务的空sketch，为null表示不计算sketch；
+     *                              不为null的话，统计完成之后，第i个元素会被替换成第i个任务合并好的sketch
+     * @return long[N][buckets]，第i行是第i个任务的统计结果
+     */
+    private static long[][] aggrStatForTasks(JavaSparkContext sc,
+                                             JavaPairRDD<SessionId, SessionAggrInfo> sessionid2AggrInfoRDD,
+                                             SessionFilter[] sessionFilters,
+                                             final SessionAggrStatBuckets[] buckets,
+                                             SessionStatSketch[] sketches) {
+        final Broadcast<SessionFilter[]> sessionFiltersBroadcast = sc.broadcast(sessionFilters);
+        final Accumulator<long[][]> sessionAggrStatAccumulator = sc.accumulator(
+                newCounts(buckets), new SessionAggrStatMatrixAccumulator());
+        final Accumulator<SessionStatSketch[]> sessionStatSketchAccumulator = sketches != null
+                ? sc.accumulator(sketches, new SessionStatSketchAccumulator()) : null;
+
+        sessionid2AggrInfoRDD.foreachPartition(new VoidFunction<Iterator<Tuple2<SessionId, SessionAggrInfo>>>() {
+            private static final long serialVersionUID = 1L;
 
-                        return null;
-                    }
+            @Override
+            public void call(Iterator<Tuple2<SessionId, SessionAggrInfo>> iterator) throws Exception {
+                SessionFilter[] sessionFilters = sessionFiltersBroadcast.value();
+                //先在本地计数，一个分区只累加一次
+                long[][] counts = newCounts(buckets);
+                SessionStatSketch[] sketches = sessionStatSketchAccumulator != null
+                        ? sessionStatSketchAccumulator.zero() : null;
 
-                    /**
-                     * 计算访问时长范围
-                     * @param visitLength
-                     */
-                    private void calculateVisitLength(long visitLength) {
-                        if (visitLength >= 1 && visitLength <= 3) {
-                            sessionAggrStatAccumulator.add(Constants.TIME_PERIOD_1s_3s);
-                        } else if (visitLength >= 4 && visitLength <= 6) {
-                            sessionAggrStatAccumulator.add(Constants.TIME_PERIOD_4s_6s);
-                        } else if (visitLength >= 7 && visitLength <= 9) {
-                            sessionAggrStatAccumulator.add(Constants.TIME_PERIOD_7s_9s);
-                        } else if (visitLength >= 10 && visitLength <= 30) {
-                            sessionAggrStatAccumulator.add(Constants.TIME_PERIOD_10s_30s);
-                        } else if (visitLength > 30 && visitLength <= 60) {
-                            sessionAggrStatAccumulator.add(Constants.TIME_PERIOD_30s_60s);
-                        } else if (visitLength > 60 && visitLength <= 180) {
-                            sessionAggrStatAccumulator.add(Constants.TIME_PERIOD_1m_3m);
-                        } else if (visitLength > 180 && visitLength <= 600) {
-                            sessionAggrStatAccumulator.add(Constants.TIME_PERIOD_3m_10m);
-                        } else if (visitLength > 600 && visitLength <= 1800) {
-                            sessionAggrStatAccumulator.add(Constants.TIME_PERIOD_10m_30m);
-                        } else if (visitLength > 1800) {
-                            sessionAggrStatAccumulator.add(Constants.TIME_PERIOD_30m);
+                while (iterator.hasNext()) {
+                    SessionAggrInfo aggrInfo = iterator.next()._2;
+                    long visitLength = aggrInfo.getVisitLength();
+                    long stepLength = aggrInfo.getStepLength();
+                    for (int i = 0; i < sessionFilters.length; i++) {
+                        if (sessionFilters[i].accept(aggrInfo)) {
+                            buckets[i].add(counts[i], visitLength, stepLength);
+                            if (sketches != null) {
+                                sketches[i].add(visitLength, stepLength,
+                                        aggrInfo.getUserId(), aggrInfo.getSearchKeywordIds());
+                            }
                         }
                     }
+                }
 
-                    /**
-                     * 计算访问步长范围
-                     * @param stepLength
-                     */
-                    private void calculateStepLength(long stepLength) {
-                        if (stepLength >= 1 && stepLength <= 3) {
-                            sessionAggrStatAccumulator.add(Constants.STEP_PERIOD_1_3);
-                        } else if (stepLength >= 4 && stepLength <= 6) {
-                            sessionAggrStatAccumulator.add(Constants.STEP_PERIOD_4_6);
-                        } else if (stepLength >= 7 && stepLength <= 9) {
-                            sessionAggrStatAccumulator.add(Constants.STEP_PERIOD_7_9);
-                        } else if (stepLength >= 10 && stepLength <= 30) {
-                            sessionAggrStatAccumulator.add(Constants.STEP_PERIOD_10_30);
-                        } else if (stepLength > 30 && stepLength <= 60) {
-                            sessionAggrStatAccumulator.add(Constants.STEP_PERIOD_30_60);
-                        } else if (stepLength > 60) {
-                            sessionAggrStatAccumulator.add(Constants.STEP_PERIOD_60);
-                        }
-                    }
+                sessionAggrStatAccumulator.add(counts);
+                if (sketches != null) {
+                    sessionStatSketchAccumulator.add(sketches);
+                }
+            }
+        });
 
+        sessionFiltersBroadcast.unpersist(false);
+        if (sketches != null) {
+            SessionStatSketch[] mergedSketches = sessionStatSketchAccumulator.value();
+            System.arraycopy(mergedSketches, 0, sketches, 0, sketches.length);
+        }
+        return sessionAggrStatAccumulator.value();
+    }
 
-                });
+    //区间统计的结果连接串，计算了sketch的话，sketch的统计项接在后面
+    private static String concatAggrStat(SessionAggrStatBuckets buckets, long[] counts, SessionStatSketch sketch) {
+        String aggrStat = buckets.toConcatString(counts);
+        return sketch != null ? aggrStat + "|" + sketch.toConcatString() : aggrStat;
+    }
 
-        return filteredSessionid2AggrInfoRDD;
+    //每个任务一行，长度是任务的统计项个数
+    private static long[][] newCounts(SessionAggrStatBuckets[] buckets) {
+        long[][] counts = new long[buckets.length][];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = new long[buckets[i].size()];
+        }
+        return counts;
     }
 
+    /**
+     * 将session聚合统计的结果写入MySQL，同时计算各个区间占session总数的比例
+     * sketch的统计项（分位数、不同的用户数等）不是session数，单独写入session_sketch_stat表
+     *
+     * @param taskid   任务id
+     * @param aggrStat 统计结果连接串
+     */
+    private static void persistAggrStat(long taskid, String aggrStat) {
+        String sessionCountValue = StringUtils.getFieldFromConcatString(aggrStat, "\\|", Constants.SESSION_COUNT);
+        long sessionCount = sessionCountValue != null ? Long.valueOf(sessionCountValue) : 0L;
+
+        List<SessionAggrStat> sessionAggrStats = new ArrayList<SessionAggrStat>();
+        List<SessionSketchStat> sessionSketchStats = new ArrayList<SessionSketchStat>();
+        for (String field : aggrStat.split("\\|")) {
+            String[] keyValue = field.split("=");
+            if (keyValue.length != 2) {
+                continue;
+            }
+            if (SessionStatSketch.isSketchKey(keyValue[0])) {
+                SessionSketchStat sessionSketchStat = new SessionSketchStat();
+                sessionSketchStat.setTaskid(taskid);
+                sessionSketchStat.setStatKey(keyValue[0]);
+                sessionSketchStat.setValue(Double.valueOf(keyValue[1]));
+                sessionSketchStats.add(sessionSketchStat);
+                continue;
+            }
+            long count = Long.valueOf(keyValue[1]);
+
+            SessionAggrStat sessionAggrStat = new SessionAggrStat();
+            sessionAggrStat.setTaskid(taskid);
+            sessionAggrStat.setStatKey(keyValue[0]);
+            sessionAggrStat.setSessionCount(count);
+            sessionAggrStat.setRatio(sessionCount > 0
+                    ? NumberUtils.formatDouble((double) count / (double) sessionCount, 2) : 0D);
+            sessionAggrStats.add(sessionAggrStat);
+        }
 
-    private static JavaPairRDD<String, Row> getSession2ActionRDD(JavaRDD<Row> actionRDD) {
-        return actionRDD.mapToPair(new PairFunction<Row, String, Row>() {
-            @Override
-            public Tuple2<String, Row> call(Row row) throws Exception {
+        DAOFactory.getSessionAggrStatDAO().replace(taskid, sessionAggrStats);
+        if (!sessionSketchStats.isEmpty()) {
+            DAOFactory.getSessionSketchStatDAO().replace(taskid, sessionSketchStats);
+        }
+    }
 
-                return new Tuple2<String, Row>(row.getString(2), row);
+    /**
+     * 裁剪掉一定不属于符合条件的session的行为
+     *
+     * @param session2ActionRDD
+     * @param sessionPrunerBroadcast 裁剪器
+     * @return
+     */
+    private static JavaRDD<SessionAction> pruneActions(JavaRDD<SessionAction> session2ActionRDD,
+                                                       final Broadcast<SessionPruner> sessionPrunerBroadcast) {
+        return session2ActionRDD.filter(new Function<SessionAction, Boolean>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Boolean call(SessionAction action) throws Exception {
+                return sessionPrunerBroadcast.value().accept(action);
             }
         });
-
     }
 
-
     /**
-     * 获取SQLContext
-     * 如果是在本地测试环境的话，那么就生成SQLContext对象
-     * 如果是在生产环境运行的话，那么就生成HiveContext对象
+     * 将行为数据编码成SessionAction
+     * 开启了session.sessionize.enabled的话（数据源没有session_id），按照不活跃的时间间隔重新切分session
      *
-     * @param sc
+     * @param actionRDD
+     * @param dictionariesBroadcast
      * @return
      */
-    private static SQLContext getSQLContext(SparkContext sc) {
-        boolean local = ConfigurationManager.getBoolean(Constants.SPARK_APP_NAME_SESSION);
-        if (local) {
-            return new SQLContext(sc);
-        } else {
-            return new HiveContext(sc);
-        }
+    public static JavaRDD<SessionAction> getSession2ActionRDD(
+            JavaRDD<Row> actionRDD,
+            final Broadcast<SessionDictionaries> dictionariesBroadcast) {
+        JavaRDD<SessionAction> session2ActionRDD = actionRDD.map(new Function<Row, SessionAction>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public SessionAction call(Row row) throws Exception {
+                return SessionAction.fromRow(row, dictionariesBroadcast.value().getKeywords());
+            }
+        });
 
+        if (ConfigurationManager.getBoolean(Constants.SESSION_SESSIONIZE_ENABLED)) {
+            session2ActionRDD = Sessionizer.sessionize(session2ActionRDD,
+                    ConfigurationManager.getLong(Constants.SESSION_SESSIONIZE_GAP_SECONDS));
+        }
+        return session2ActionRDD;
     }
 
     /**
@@ -356,8 +597,8 @@ public class UserVisitSessionAnalyzeSpark {
      * @param taskParam
      * @return
      */
-    private static JavaRDD<Row> getActionRDDByDateRange(SQLContext sqlContext, JSONObject taskParam) {
-        String startDate = ParamUtils.getParam(taskParam, Constants.PARAM_END_DATE);
+    public static JavaRDD<Row> getActionRDDByDateRange(SQLContext sqlContext, JSONObject taskParam) {
+        String startDate = ParamUtils.getParam(taskParam, Constants.PARAM_START_DATE);
         String endDate = ParamUtils.getParam(taskParam, Constants.PARAM_END_DATE);
 
         String sql = "select * from user_visit_action where date >='" + startDate + "' and date <= '" + endDate + "' ";
@@ -369,10 +610,12 @@ public class UserVisitSessionAnalyzeSpark {
          * 比如说，Spark SQL默认就给第一个stage设置了20个task，但是根据你的数据量以及算法的复杂度
          * 实际上，你需要1000个task去并行执行
          *
-         * 所以说，在这里，就可以对Spark SQL刚刚查询出来的RDD执行repartition重分区操作
+         * 所以说，在这里，就可以对Spark SQL刚刚查询出来的RDD执行重分区操作
+         * 分区数不再写死，而是由ParallelismTuner根据日期范围内的数据量估算，
+         * 同时调整当前线程后面session聚合的shuffle分区数
          */
-        //return actionDF.javaRDD().repartition(1000)
-        return df.javaRDD();
+        int partitions = ParallelismTuner.tune(sqlContext, startDate, endDate);
+        return ParallelismTuner.resize(df.javaRDD(), partitions);
 
     }
 
@@ -381,158 +624,191 @@ public class UserVisitSessionAnalyzeSpark {
      *
      * @return
      */
-    private static JavaPairRDD<String, String> aggregateBySession(
+    public static JavaPairRDD<SessionId, SessionAggrInfo> aggregateBySession(
             JavaSparkContext sc,
             SQLContext sqlContext,
-            JavaPairRDD<String, Row> sessionid2actionRDD) {
-        //对行为数据按session粒度进行分组
-        JavaPairRDD<String, Iterable<Row>> sessionid2ActionsRDD = sessionid2actionRDD.groupByKey();
-
-        //对每一个session分组进行聚合，将session中所有的搜索词和点击品类都聚合起来
-        JavaPairRDD<Long, String> userid2PartAggrInfoRDD = sessionid2ActionsRDD.mapToPair(new PairFunction<Tuple2<String, Iterable<Row>>, Long, String>() {
-            private static final long serialVersionUID = 1L;
-
-            @Override
-            public Tuple2<Long, String> call(Tuple2<String, Iterable<Row>> tuple) throws Exception {
-                String sessionid = tuple._1;
-                Iterator<Row> iterator = tuple._2.iterator();
-                StringBuffer searchKeywordsBuffer = new StringBuffer("");
-                StringBuffer clickCategoryIdsBuffer = new StringBuffer("");
-
-                Long userid = null;
-
-                //session的起始时间和结束时间
-                Date startTime = null;
-                Date endTime = null;
-
-                //sessionde的访问步长
-                int stepLength = 0;
+            JavaRDD<SessionAction> session2ActionRDD,
+            final Broadcast<SessionDictionaries> dictionariesBroadcast) throws IOException {
+        //对行为数据按session粒度进行聚合
+        //key是打包成两个long的SessionId，shuffle的时候只需要写16个字节，散列和比较也不需要逐个字符的处理
+        //这里不再使用groupByKey，而是使用combineByKey，在map端就把同一个session的行为聚合成一个SessionAggrInfo，
+        //搜索词和点击品类保存在RoaringBitmap中，shuffle的只是各个分区的部分聚合结果，reduce端用bitmap的OR合并
+        JavaPairRDD<SessionId, SessionAggrInfo> sessionid2PartAggrInfoRDD = session2ActionRDD.mapToPair(
+                new PairFunction<SessionAction, SessionId, SessionAction>() {
+                    private static final long serialVersionUID = 1L;
 
-                //遍历session所有的访问行为
-                while (iterator.hasNext()) {
-                    //提取每个访问行为的搜索词字段和点击品类字段
-                    Row row = iterator.next();
-                    if (userid == null) {
-                        userid = row.getLong(1);
-                    }
-                    String searchKeyword = row.getString(5);
-                    Long clickCategoryId = row.getLong(6);
-
-                    //实际上，这里要对数据说明一下
-                    //并不是每一行访问行为都有searchKeyword和clickCategoryId两个字段的
-                    //其实，只有搜索行为，是有searchKeyword字段的
-                    //只有点击品类的行为，是有clickCategoryId字段的
-                    //所以，任何一行行为数据，都不可能两个字段都有，所以数据是可能出现null值的
-
-                    //我们决定是否将搜索词和点击品类id拼接到字符串中去
-                    //首先要满足：不能是null值
-                    //其次，之前的字符串中还没有搜索词或者点击品类id
-
-                    if (StringUtils.isNotEmpty(searchKeyword)) {
-                        if (!searchKeywordsBuffer.toString().contains(searchKeyword)) {
-                            searchKeywordsBuffer.append(searchKeyword + ",");
-                        }
+                    @Override
+                    public Tuple2<SessionId, SessionAction> call(SessionAction action) throws Exception {
+                        return new Tuple2<SessionId, SessionAction>(action.getSessionId(), action);
                     }
+                }).combineByKey(
+                new Function<SessionAction, SessionAggrInfo>() {
+                    private static final long serialVersionUID = 1L;
 
-                    if (clickCategoryId != null) {
-                        if (clickCategoryIdsBuffer.toString().contains(String.valueOf(clickCategoryId))) {
-                            clickCategoryIdsBuffer.append(clickCategoryId + ",");
-                        }
+                    @Override
+                    public SessionAggrInfo call(SessionAction action) throws Exception {
+                        return SessionAggrInfo.create(action);
                     }
+                },
+                new Function2<SessionAggrInfo, SessionAction, SessionAggrInfo>() {
+                    private static final long serialVersionUID = 1L;
 
-                    //计算session开始和结束时间
-                    //这个计算开始时间和结束时间的逻辑挺特别的，学习一下
-                    Date actionTime = DateUtils.parseTime(row.getString(4));
-
-                    if (startTime == null) {
-                        startTime = actionTime;
-                    }
-                    if (endTime == null) {
-                        endTime = actionTime;
-                    }
-                    if (actionTime.before(startTime)) {
-                        startTime = actionTime;
-                    }
-                    if (actionTime.after(endTime)) {
-                        endTime = actionTime;
+                    @Override
+                    public SessionAggrInfo call(SessionAggrInfo aggrInfo, SessionAction action) throws Exception {
+                        return aggrInfo.add(action);
                     }
-                    //计算访问步长
-                    stepLength++;
-                }
+                },
+                new Function2<SessionAggrInfo, SessionAggrInfo, SessionAggrInfo>() {
+                    private static final long serialVersionUID = 1L;
 
-                String searchKeywords = StringUtils.trimComma(searchKeywordsBuffer.toString());
-                String clickCategoryIds = StringUtils.trimComma(clickCategoryIdsBuffer.toString());
-
-                //计算session访问时长（秒）
-                long visitLength = (endTime.getTime() - startTime.getTime()) / 1000;
-
-                //大家思考一下，
-                //我们返回的数据格式，即使<sessionid,partAggrInfo>
-                //但是，这一步聚合完了以后，其实，我们是还需要将每一行数据，跟对应的的用户信息进行聚合
-                //问题就来了，如果是跟用户信息进行聚合的话，那么key，就不应该是sessionid
-                //就应该是userid，才能够跟<userid,Row>格式的用户信息进行聚合
-                //如果我们这里直接返回<sessionid,partAggrInfo>，还得再做一次mapToPair算子
-                //将RDD映射成<userid,partAggrInfo>的格式，那么就多此一举
-
-                //所以，我们这里其实可以直接，返回的数据格式，就是<userid,partAggrInfo>
-                //然后跟用户信息join的时候，将partAggrInfo关联上userinfo
-                //然后再直接将返回的Tuple的key设置成sessionid
-                //最后的数据格式，还是<sessionid,fullAggrInfo>
-
-                //聚合数据，用什么样的格式进行拼接？
-                //我们这里统一定义，使用key=value|key=value
-                String partAggrInfo = Constants.FIELD_SESSION_ID + "=" + sessionid + "|"
-                        + Constants.FIELD_SEARCH_KEYWORDS + "=" + searchKeywords + "|"
-                        + Constants.FIELD_CLICK_CATEGORY_IDS + "=" + clickCategoryIds
-                        + Constants.FIELD_VISIT_LENGTH + "=" + visitLength + "|"
-                        + Constants.FIELD_STEP_LENGTH + "=" + stepLength + "|"
-                        + Constants.FIELD_START_TIME + "=" + DateUtils.formatTime(startTime);
-                return new Tuple2<Long, String>(userid, partAggrInfo);
-            }
-        });
-        //查询所有用户数据，并映射成<userid,Row>格式
-        String sql = "select * from user_info";
-        JavaRDD<Row> userInfoRDD = sqlContext.sql(sql).javaRDD();
-        JavaPairRDD<Long, Row> user2InfoRDD = userInfoRDD.mapToPair(
-                new PairFunction<Row, Long, Row>() {
                     @Override
-                    public Tuple2<Long, Row> call(Row row) throws Exception {
+                    public SessionAggrInfo call(SessionAggrInfo aggrInfo1, SessionAggrInfo aggrInfo2) throws Exception {
+                        return aggrInfo1.merge(aggrInfo2);
+                    }
+                },
+                new SessionIdPartitioner(ParallelismTuner.aggregatePartitions(sqlContext)));
+
+        //user_info写成了内存映射维度文件的话，每个分区直接在映射的文件上按user_id查找用户信息，
+        //不需要再按user_id做一次shuffle，executor的堆内存中也不需要放下整个维度表
+        //key还是sessionid，分区方式不变
+        final MappedDimension userInfoDimension = DimensionCache.getInstance()
+                .getMappedDimension(sc, sqlContext, Constants.TABLE_USER_INFO);
+        if (userInfoDimension != null) {
+            return sessionid2PartAggrInfoRDD.mapPartitionsToPair(
+                    new PairFlatMapFunction<Iterator<Tuple2<SessionId, SessionAggrInfo>>, SessionId, SessionAggrInfo>() {
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        public Iterable<Tuple2<SessionId, SessionAggrInfo>> call(
+                                final Iterator<Tuple2<SessionId, SessionAggrInfo>> iterator) throws Exception {
+                            final MappedDimensionFile userInfoFile = userInfoDimension.open();
+                            SessionDictionaries dictionaries = dictionariesBroadcast.value();
+                            //维度文件中字符串池的下标 -> 字典编号，每个分区只转换一次
+                            final int[] professionalIds = encodePool(dictionaries.getProfessionals(),
+                                    userInfoFile.getPool(MappedDimension.POOL_PROFESSIONALS));
+                            final int[] cityIds = encodePool(dictionaries.getCities(),
+                                    userInfoFile.getPool(MappedDimension.POOL_CITIES));
+                            final int[] sexIds = encodePool(dictionaries.getSexes(),
+                                    userInfoFile.getPool(MappedDimension.POOL_SEXES));
+
+                            //和join一样，找不到用户信息的session直接丢弃
+                            return new Iterable<Tuple2<SessionId, SessionAggrInfo>>() {
+                                @Override
+                                public Iterator<Tuple2<SessionId, SessionAggrInfo>> iterator() {
+                                    return new Iterator<Tuple2<SessionId, SessionAggrInfo>>() {
+                                        private Tuple2<SessionId, SessionAggrInfo> next = advance();
+
+                                        private Tuple2<SessionId, SessionAggrInfo> advance() {
+                                            while (iterator.hasNext()) {
+                                                Tuple2<SessionId, SessionAggrInfo> tuple = iterator.next();
+                                                SessionAggrInfo aggrInfo = tuple._2;
+                                                long record = userInfoFile.find(aggrInfo.getUserId());
+                                                if (record < 0) {
+                                                    continue;
+                                                }
+                                                aggrInfo.setAge(userInfoFile.getInt(record, MappedDimension.USER_AGE));
+                                                aggrInfo.setProfessionalId(decodePool(professionalIds,
+                                                        userInfoFile.getInt(record, MappedDimension.USER_PROFESSIONAL)));
+                                                aggrInfo.setCityId(decodePool(cityIds,
+                                                        userInfoFile.getInt(record, MappedDimension.USER_CITY)));
+                                                aggrInfo.setSexId(decodePool(sexIds,
+                                                        userInfoFile.getInt(record, MappedDimension.USER_SEX)));
+                                                return tuple;
+                                            }
+                                            return null;
+                                        }
+
+                                        @Override
+                                        public boolean hasNext() {
+                                            return next != null;
+                                        }
+
+                                        @Override
+                                        public Tuple2<SessionId, SessionAggrInfo> next() {
+                                            if (next == null) {
+                                                throw new NoSuchElementException();
+                                            }
+                                            Tuple2<SessionId, SessionAggrInfo> result = next;
+                                            next = advance();
+                                            return result;
+                                        }
+
+                                        @Override
+                                        public void remove() {
+                                            throw new UnsupportedOperationException();
+                                        }
+                                    };
+                                }
+                            };
+                        }
+                    }, true);
+        }
+
+        //我们这里直接返回<userid,partAggrInfo>格式的数据
+        //然后跟用户信息join的时候，将partAggrInfo关联上userinfo
+        //然后再直接将返回的Tuple的key设置成sessionid
+        //最后的数据格式，还是<sessionid,fullAggrInfo>
+        JavaPairRDD<Long, SessionAggrInfo> userid2PartAggrInfoRDD = sessionid2PartAggrInfoRDD.mapToPair(
+                new PairFunction<Tuple2<SessionId, SessionAggrInfo>, Long, SessionAggrInfo>() {
+                    private static final long serialVersionUID = 1L;
 
-                        return new Tuple2<Long, Row>(row.getLong(0), row);
+                    @Override
+                    public Tuple2<Long, SessionAggrInfo> call(Tuple2<SessionId, SessionAggrInfo> tuple) throws Exception {
+                        return new Tuple2<Long, SessionAggrInfo>(tuple._2.getUserId(), tuple._2);
                     }
                 });
+        //查询所有用户数据，并映射成<userid,Row>格式
+        //用户数据从维度表缓存中获取，不再每次都去执行select * from user_info
+        JavaPairRDD<Long, Row> user2InfoRDD = DimensionCache.getInstance()
+                .getPairRDD(sqlContext, Constants.TABLE_USER_INFO, 0);
         /**
          * 这里就可以说一下，比较适合采用reduce join转换为map join的方式
          */
 
         //将session粒度聚合数据，与用户信息进行join
-        JavaPairRDD<Long, Tuple2<String, Row>> userid2FullInfoRDD = userid2PartAggrInfoRDD.join(user2InfoRDD);
+        JavaPairRDD<Long, Tuple2<SessionAggrInfo, Row>> userid2FullInfoRDD = userid2PartAggrInfoRDD.join(user2InfoRDD);
 
         //对join起来的数据进行拼接，并且返回<sessionid,fullAggrInfo>格式的数据
-        JavaPairRDD<String, String> sessionid2FullAggrInfoRDD = userid2FullInfoRDD.mapToPair(new PairFunction<Tuple2<Long, Tuple2<String, Row>>, String, String>() {
+        //职业、城市、性别都转换成字典编号
+        JavaPairRDD<SessionId, SessionAggrInfo> sessionid2FullAggrInfoRDD = userid2FullInfoRDD.mapToPair(new PairFunction<Tuple2<Long, Tuple2<SessionAggrInfo, Row>>, SessionId, SessionAggrInfo>() {
             private static final long serialVersionUID = 1L;
 
             @Override
-            public Tuple2<String, String> call(Tuple2<Long, Tuple2<String, Row>> tuple) throws Exception {
-                String partAggrInfo = tuple._2._1;
+            public Tuple2<SessionId, SessionAggrInfo> call(Tuple2<Long, Tuple2<SessionAggrInfo, Row>> tuple) throws Exception {
+                SessionAggrInfo aggrInfo = tuple._2._1;
                 Row userInfoRow = tuple._2._2;
-                String sessionid = StringUtils.getFieldFromConcatString(partAggrInfo, "\\|", Constants.FIELD_SESSION_ID);
-
-                int age = userInfoRow.getInt(3);
-                String professional = userInfoRow.getString(4);
-                String city = userInfoRow.getString(5);
-                String sex = userInfoRow.getString(6);
-
-                String fullAggrInfo = partAggrInfo + "|"
-                        + Constants.FIELD_AGE + "=" + age + "|"
-                        + Constants.FIELD_PROFESSIONAL + "=" + professional + "|"
-                        + Constants.FIELD_CITY + "=" + city + "|"
-                        + Constants.FIELD_SEX + "=" + sex;
-                return new Tuple2<String, String>(sessionid, fullAggrInfo);
+                SessionDictionaries dictionaries = dictionariesBroadcast.value();
+
+                aggrInfo.setAge(userInfoRow.getInt(3));
+                aggrInfo.setProfessionalId(dictionaries.getProfessionals().encode(userInfoRow.getString(4)));
+                aggrInfo.setCityId(dictionaries.getCities().encode(userInfoRow.getString(5)));
+                aggrInfo.setSexId(dictionaries.getSexes().encode(userInfoRow.getString(6)));
+
+                return new Tuple2<SessionId, SessionAggrInfo>(aggrInfo.getSessionId(), aggrInfo);
             }
         });
 
         return sessionid2FullAggrInfoRDD;
     }
 
+    /**
+     * 将维度文件的字符串池转换成字典编号
+     *
+     * @param dictionary 字典
+     * @param pool       字符串池
+     * @return 字符串池的下标 -> 字典编号
+     */
+    private static int[] encodePool(StringDictionary dictionary, String[] pool) {
+        int[] ids = new int[pool.length];
+        for (int i = 0; i < pool.length; i++) {
+            ids[i] = dictionary.encode(pool[i]);
+        }
+        return ids;
+    }
+
+    //字符串池的下标是-1的话，说明维度表中的值是null
+    private static int decodePool(int[] ids, int index) {
+        return index < 0 ? StringDictionary.NO_ID : ids[index];
+    }
+
 }
@@ -0,0 +1,334 @@
+package com.bf.sparkproject.spark.cache;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.bf.sparkproject.conf.ConfigurationManager;
+import com.bf.sparkproject.constant.Constants;
+import com.bf.sparkproject.spark.UserVisitSessionAnalyzeSpark;
+import com.bf.sparkproject.spark.dimension.DimensionCache;
+import com.bf.sparkproject.spark.index.SessionIndexSchema;
+import com.bf.sparkproject.spark.session.SessionAggrInfo;
+import com.bf.sparkproject.spark.session.SessionDictionaries;
+import com.bf.sparkproject.spark.session.SessionId;
+import com.bf.sparkproject.spark.session.StringDictionary;
+import com.bf.sparkproject.util.DateUtils;
+import com.bf.sparkproject.util.ParamUtils;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.api.java.function.PairFunction;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SQLContext;
+import org.apache.spark.sql.SaveMode;
+import scala.Tuple2;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 跨Spark作业共享的session聚合数据缓存
+ * <p>
+ * 每个分析任务都是一个单独的Spark作业，作业中persist的session2ActionRDD、聚合好的session数据，作业结束就没有了
+ * 而平台上的任务往往是对同样的几天数据反复分析，每个任务都要重新扫描行为数据、做一次session聚合的shuffle和user_info的join
+ * <p>
+ * StorageLevel.OFF_HEAP虽然把block放在了Tachyon中，但是block是按作业隔离的，作业结束的时候就会被删除，别的作业用不上
+ * 所以这里把每一天聚合好的session数据显式的写成文件：
+ * 1、${session.cache.dir}/${date}/${version}/sessions：当天所有session的聚合数据，parquet格式，列和session索引的sessions文件一样
+ * 2、${session.cache.dir}/${date}/${version}/keywords：当天所有的搜索词，每行一个，用于构建字典，不需要再扫描行为数据
+ * 3、${session.cache.dir}/${date}/${version}/_SUCCESS：写入完成的标记
+ * <p>
+ * 聚合数据中带着session所属用户的年龄、职业、城市、性别，这些是从user_info中join过来的，
+ * 所以目录中的${version}是user_info的版本标识（DimensionCache.getVersionTag()），user_info刷新之后，
+ * 版本标识变了，就会重新聚合，不会读到旧的用户信息；旧版本的目录和所在的日期一起过期删除
+ * <p>
+ * 每一天的session都是单独聚合的，如果一个session跨越了零点，在多天的任务中会在两天中各算一次，
+ * 而且每一天的访问时长、访问步长只包含这一天的行为，和直接按日期范围扫描行为数据的结果相比，会有极少量的差异
+ * （和SessionCubeBuilder、session索引一样）；只有一天的任务，结果和扫描行为数据是一样的
+ * <p>
+ * 目录通过Hadoop FileSystem访问：配置成tachyon://host:19998/path的话，数据在Tachyon的内存中，所有作业共享
+ * （tachyon-client中的tachyon.hadoop.TFS已经通过ServiceLoader注册了tachyon://）；
+ * 配置成本地路径的话，就是普通的本地文件，用于本地测试
+ * <p>
+ * 和session索引一样，字符串都保存原始值，读取的时候按照当前作业的字典重新编码
+ * 超过session.cache.retention.days天的日期不会被缓存，已经缓存的，在下一次打开缓存的时候被删除
+ */
+public class SessionCache {
+
+    public static final String SESSIONS = "sessions";
+    public static final String KEYWORDS = "keywords";
+    public static final String SUCCESS = "_SUCCESS";
+
+    private static final String TMP_SUFFIX = ".tmp-";
+
+    private JavaSparkContext sc;
+    private SQLContext sqlContext;
+    private FileSystem fs;
+    private String dir;
+    private String version;
+    private List<String> dates;
+
+    private SessionCache(JavaSparkContext sc, SQLContext sqlContext, FileSystem fs, String dir, String version,
+                         List<String> dates) {
+        this.sc = sc;
+        this.sqlContext = sqlContext;
+        this.fs = fs;
+        this.dir = dir;
+        this.version = version;
+        this.dates = dates;
+    }
+
+    /**
+     * 判断任务能否使用缓存，能的话返回缓存组件，同时删除过期的缓存
+     *
+     * @param sc
+     * @param sqlContext
+     * @param taskParam  任务参数
+     * @return 缓存被关闭，或者日期范围内有已经过期的日期的话，返回null
+     */
+    public static SessionCache open(JavaSparkContext sc, SQLContext sqlContext, JSONObject taskParam)
+            throws IOException {
+        if (!ConfigurationManager.getBoolean(Constants.SESSION_CACHE_ENABLED)) {
+            return null;
+        }
+
+        List<String> dates = DateUtils.getDatesBetween(
+                ParamUtils.getParam(taskParam, Constants.PARAM_START_DATE),
+                ParamUtils.getParam(taskParam, Constants.PARAM_END_DATE));
+        if (dates.isEmpty()) {
+            return null;
+        }
+
+        String dir = ConfigurationManager.getProperty(Constants.SESSION_CACHE_DIR);
+        FileSystem fs = new Path(dir).getFileSystem(sc.hadoopConfiguration());
+
+        String oldestDate = oldestDate();
+        evict(fs, dir, oldestDate);
+        //日期是按顺序排列的，第一天没有过期，后面的都不会过期
+        if (oldestDate != null && dates.get(0).compareTo(oldestDate) < 0) {
+            return null;
+        }
+
+        String version = DimensionCache.getInstance().getVersionTag(sc, sqlContext, Constants.TABLE_USER_INFO);
+        return new SessionCache(sc, sqlContext, fs, dir, version, dates);
+    }
+
+    /**
+     * 聚合日期范围内还没有缓存的日期，写入缓存
+     * 每一天单独聚合，和session索引一样，session按天划分，跨越零点的session会被拆开（见类的注释）
+     */
+    public void fill() throws IOException {
+        for (String date : dates) {
+            if (!fs.exists(new Path(dayDir(date), SUCCESS))) {
+                System.out.println(new Date() + ": building session cache for " + date);
+                build(date);
+            }
+        }
+    }
+
+    /**
+     * 日期范围内所有的搜索词，用于构建字典
+     *
+     * @return
+     */
+    public List<String> getKeywords() throws IOException {
+        List<String> keywords = new ArrayList<String>();
+        for (String date : dates) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    fs.open(new Path(dayDir(date), KEYWORDS)), "UTF-8"));
+            try {
+                String keyword;
+                while ((keyword = reader.readLine()) != null) {
+                    keywords.add(keyword);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return keywords;
+    }
+
+    /**
+     * 读取日期范围内所有的session，调用之前必须先fill()
+     *
+     * @param dictionariesBroadcast 字典
+     * @return <sessionid,fullAggrInfo>格式的数据，格式和UserVisitSessionAnalyzeSpark.aggregateBySession()的结果一样，
+     * 跨越零点的session会按天拆成多个
+     */
+    public JavaPairRDD<SessionId, SessionAggrInfo> load(Broadcast<SessionDictionaries> dictionariesBroadcast) {
+        String[] paths = new String[dates.size()];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = dayDir(dates.get(i)) + "/" + SESSIONS;
+        }
+
+        String[] columns = SessionIndexSchema.SESSION_COLUMNS;
+        return sqlContext.read()
+                .parquet(paths)
+                .select(columns[0], Arrays.copyOfRange(columns, 1, columns.length))
+                .javaRDD()
+                .mapToPair(new ToAggrInfoFunction(dictionariesBroadcast));
+    }
+
+    /**
+     * 聚合某一天的session，写入缓存
+     * 先写到临时目录，写完之后再整体rename，其他作业不会读到写了一半的数据
+     *
+     * @param date 日期（yyyy-MM-dd）
+     */
+    private void build(String date) throws IOException {
+        JSONObject taskParam = new JSONObject();
+        JSONArray dateParam = new JSONArray();
+        dateParam.add(date);
+        taskParam.put(Constants.PARAM_START_DATE, dateParam);
+        taskParam.put(Constants.PARAM_END_DATE, dateParam);
+
+        //和session分析作业完全一样的聚合流程
+        SessionDictionaries dictionaries = SessionDictionaries.build(sqlContext, taskParam);
+        final Broadcast<SessionDictionaries> dictionariesBroadcast = sc.broadcast(dictionaries);
+
+        JavaRDD<Row> actionRDD = UserVisitSessionAnalyzeSpark.getActionRDDByDateRange(sqlContext, taskParam);
+        JavaRDD<Row> sessionRowRDD = UserVisitSessionAnalyzeSpark.aggregateBySession(sc, sqlContext,
+                UserVisitSessionAnalyzeSpark.getSession2ActionRDD(actionRDD, dictionariesBroadcast),
+                dictionariesBroadcast)
+                .values()
+                .map(new ToSessionRowFunction(dictionariesBroadcast));
+
+        Path dayPath = new Path(dayDir(date));
+        Path tmpPath = new Path(dayDir(date) + TMP_SUFFIX + sc.sc().applicationId());
+        fs.delete(tmpPath, true);
+
+        sqlContext.createDataFrame(sessionRowRDD, SessionIndexSchema.SESSION_SCHEMA)
+                .write()
+                .mode(SaveMode.Overwrite)
+                .parquet(tmpPath + "/" + SESSIONS);
+
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                fs.create(new Path(tmpPath, KEYWORDS), true), "UTF-8"));
+        try {
+            StringDictionary keywords = dictionaries.getKeywords();
+            for (int i = 0; i < keywords.size(); i++) {
+                writer.write(keywords.decode(i));
+                writer.newLine();
+            }
+        } finally {
+            writer.close();
+        }
+
+        fs.create(new Path(tmpPath, SUCCESS), true).close();
+        dictionariesBroadcast.unpersist(false);
+
+        publish(tmpPath, dayPath);
+    }
+
+    /**
+     * 把写完的临时目录rename成这一天的缓存目录
+     * 多个作业可能同时构建同一天的缓存，rename是原子的，谁先rename成功就用谁的，完整的目录任何时候都不能删除：
+     * 1、rename之前已经有完整的目录了，直接用它的
+     * 2、没有_SUCCESS标记的目录是异常中断留下的，删除之后再rename
+     * 3、rename失败的话，再检查一次_SUCCESS，是另一个作业在这期间抢先rename了，同样直接用它的
+     * 目标目录已经存在的时候，HDFS的rename会把临时目录移动到目标目录下面，而不是失败，这种情况下把移进去的目录删掉
+     *
+     * @param tmpPath 临时目录
+     * @param dayPath 这一天的缓存目录
+     */
+    private void publish(Path tmpPath, Path dayPath) throws IOException {
+        Path successPath = new Path(dayPath, SUCCESS);
+        if (!fs.exists(successPath)) {
+            if (fs.exists(dayPath) && !fs.exists(successPath)) {
+                fs.delete(dayPath, true);
+            }
+            if (fs.rename(tmpPath, dayPath)) {
+                fs.delete(new Path(dayPath, tmpPath.getName()), true);
+            }
+        }
+        fs.delete(tmpPath, true);
+
+        if (!fs.exists(successPath)) {
+            throw new IOException("failed to publish session cache " + dayPath);
+        }
+    }
+
+    private String dayDir(String date) {
+        return dir + "/" + date + "/" + version;
+    }
+
+    /**
+     * 按照session.cache.retention.days计算没有过期的最早日期
+     *
+     * @return 不需要过期的话，返回null
+     */
+    private static String oldestDate() {
+        Integer retentionDays = ConfigurationManager.getInteger(Constants.SESSION_CACHE_RETENTION_DAYS);
+        return retentionDays != null && retentionDays > 0 ? DateUtils.getDateBefore(retentionDays) : null;
+    }
+
+    /**
+     * 删除过期日期的缓存，包括其中各个user_info版本的缓存，以及异常中断的作业留下的临时目录
+     * 目录名是日期，日期格式是yyyy-MM-dd，所以可以直接按字符串比较
+     */
+    private static void evict(FileSystem fs, String dir, String oldestDate) throws IOException {
+        Path dirPath = new Path(dir);
+        if (oldestDate == null || !fs.exists(dirPath)) {
+            return;
+        }
+        for (FileStatus status : fs.listStatus(dirPath)) {
+            String name = status.getPath().getName();
+            if (status.isDirectory() && name.compareTo(oldestDate) < 0) {
+                System.out.println(new Date() + ": evicting session cache " + name);
+                fs.delete(status.getPath(), true);
+            }
+        }
+    }
+
+    /*
+     * 以下的算子函数必须是静态内部类，如果写成匿名内部类，会持有外部的SessionCache对象，导致task无法序列化
+     */
+
+    /**
+     * 将session聚合数据转换成sessions文件中的一行，缓存不需要序号和分桶，都是0
+     */
+    private static class ToSessionRowFunction implements Function<SessionAggrInfo, Row> {
+        private static final long serialVersionUID = 1L;
+
+        private Broadcast<SessionDictionaries> dictionariesBroadcast;
+
+        ToSessionRowFunction(Broadcast<SessionDictionaries> dictionariesBroadcast) {
+            this.dictionariesBroadcast = dictionariesBroadcast;
+        }
+
+        @Override
+        public Row call(SessionAggrInfo aggrInfo) throws Exception {
+            return SessionIndexSchema.toSessionRow(0, Integer.MAX_VALUE, aggrInfo, dictionariesBroadcast.value());
+        }
+    }
+
+    /**
+     * 将sessions文件中的一行还原成<sessionid,fullAggrInfo>
+     */
+    private static class ToAggrInfoFunction implements PairFunction<Row, SessionId, SessionAggrInfo> {
+        private static final long serialVersionUID = 1L;
+
+        private Broadcast<SessionDictionaries> dictionariesBroadcast;
+
+        ToAggrInfoFunction(Broadcast<SessionDictionaries> dictionariesBroadcast) {
+            this.dictionariesBroadcast = dictionariesBroadcast;
+        }
+
+        @Override
+        public Tuple2<SessionId, SessionAggrInfo> call(Row row) throws Exception {
+            SessionAggrInfo aggrInfo = SessionIndexSchema.fromSessionRow(row, dictionariesBroadcast.value());
+            return new Tuple2<SessionId, SessionAggrInfo>(aggrInfo.getSessionId(), aggrInfo);
+        }
+    }
+}
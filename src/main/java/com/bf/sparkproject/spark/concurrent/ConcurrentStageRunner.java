@@ -0,0 +1,175 @@
+package com.bf.sparkproject.spark.concurrent;
+
+import com.bf.sparkproject.conf.ConfigurationManager;
+import com.bf.sparkproject.constant.Constants;
+import org.apache.spark.api.java.JavaSparkContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 在driver端并发执行互相独立的分析阶段
+ * <p>
+ * driver提交action是同步的，一个action执行完，才会提交下一个，
+ * 即使集群上还有空闲的executor，后面互相独立的分析也只能排队等着，总耗时是所有阶段之和
+ * <p>
+ * 这里每个阶段在driver的一个线程中执行：
+ * 1、阶段之间的依赖是显式声明的，阶段开始之前先等待它依赖的阶段完成，依赖的阶段失败了，它也失败
+ * 2、每个阶段的job放在自己的fair scheduler pool中（需要spark.scheduler.mode=FAIR），
+ * 大的阶段不会把小的阶段饿死
+ * 3、所有阶段的job属于同一个job group，任何一个阶段失败，就取消整个job group和其他还没完成的阶段，
+ * await()抛出第一个失败的原因
+ * <p>
+ * 阶段按提交的顺序开始执行，依赖的阶段必须先提交，所以线程数再少也不会死锁
+ * 调用线程已经设置了job group的话（比如SessionBenchmark），沿用调用线程的job group
+ */
+public class ConcurrentStageRunner {
+
+    private static final String JOB_GROUP_ID = "spark.jobGroup.id";
+    private static final String SCHEDULER_POOL = "spark.scheduler.pool";
+
+    private JavaSparkContext sc;
+    private String jobGroup;
+    private ExecutorService executor;
+    private List<Stage<?>> stages = new ArrayList<Stage<?>>();
+    private Throwable failure;
+
+    /**
+     * @param sc
+     * @param name 名称，用作job group的前缀
+     */
+    public ConcurrentStageRunner(JavaSparkContext sc, String name) {
+        this.sc = sc;
+        String callerJobGroup = sc.getLocalProperty(JOB_GROUP_ID);
+        this.jobGroup = callerJobGroup != null ? callerJobGroup : name + "-" + UUID.randomUUID();
+        //线程是在提交阶段的时候由调用线程创建的，会继承调用线程的local property
+        this.executor = Executors.newFixedThreadPool(ConfigurationManager.getInteger(Constants.CONCURRENT_STAGE_THREADS));
+    }
+
+    /**
+     * 提交一个阶段
+     *
+     * @param name         阶段名称，用作job的描述
+     * @param pool         fair scheduler pool
+     * @param body         阶段的逻辑
+     * @param dependencies 依赖的阶段
+     * @return
+     */
+    public synchronized <T> Stage<T> submit(final String name,
+                                            final String pool,
+                                            final Callable<T> body,
+                                            final Stage<?>... dependencies) {
+        Future<T> future = executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                try {
+                    for (Stage<?> dependency : dependencies) {
+                        dependency.future.get();
+                    }
+                    sc.setJobGroup(jobGroup, name, true);
+                    sc.setLocalProperty(SCHEDULER_POOL, pool);
+                    return body.call();
+                } catch (Exception e) {
+                    fail(e);
+                    throw e;
+                } catch (Error e) {
+                    fail(e);
+                    throw e;
+                } finally {
+                    sc.setLocalProperty(SCHEDULER_POOL, null);
+                }
+            }
+        });
+        Stage<T> stage = new Stage<T>(name, future);
+        stages.add(stage);
+        //已经有阶段失败了的话，fail()取消不到这个新提交的阶段，这里直接取消
+        if (failure != null) {
+            future.cancel(true);
+        }
+        return stage;
+    }
+
+    /**
+     * 等待所有阶段完成
+     * 有阶段失败的话，抛出第一个失败的阶段的异常
+     */
+    public void await() throws Exception {
+        List<Stage<?>> submittedStages;
+        synchronized (this) {
+            submittedStages = new ArrayList<Stage<?>>(stages);
+        }
+        try {
+            for (Stage<?> stage : submittedStages) {
+                try {
+                    stage.future.get();
+                } catch (Exception e) {
+                    //第一个失败的阶段已经取消了其他阶段，这里只需要等所有阶段都结束
+                    fail(e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Throwable firstFailure;
+        synchronized (this) {
+            firstFailure = failure;
+        }
+        if (firstFailure instanceof ExecutionException && firstFailure.getCause() != null) {
+            firstFailure = firstFailure.getCause();
+        }
+        if (firstFailure instanceof Exception) {
+            throw (Exception) firstFailure;
+        }
+        if (firstFailure instanceof Error) {
+            throw (Error) firstFailure;
+        }
+    }
+
+    //记录第一个失败，取消整个job group和其他阶段
+    private void fail(Throwable e) {
+        //submit()可能同时在添加阶段，在锁里复制一份再遍历
+        List<Stage<?>> submittedStages;
+        synchronized (this) {
+            if (failure != null) {
+                return;
+            }
+            failure = e;
+            submittedStages = new ArrayList<Stage<?>>(stages);
+        }
+        sc.cancelJobGroup(jobGroup);
+        for (Stage<?> stage : submittedStages) {
+            stage.future.cancel(true);
+        }
+    }
+
+    /**
+     * 一个阶段
+     */
+    public static class Stage<T> {
+        private String name;
+        private Future<T> future;
+
+        Stage(String name, Future<T> future) {
+            this.name = name;
+            this.future = future;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 阶段的结果，在依赖它的阶段中调用的时候，它一定已经完成了
+         */
+        public T get() throws Exception {
+            return future.get();
+        }
+    }
+}
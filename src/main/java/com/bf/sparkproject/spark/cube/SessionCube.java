@@ -0,0 +1,78 @@
+package com.bf.sparkproject.spark.cube;
+
+import com.alibaba.fastjson.JSONObject;
+import com.bf.sparkproject.conf.ConfigurationManager;
+import com.bf.sparkproject.constant.Constants;
+import com.bf.sparkproject.dao.ISessionCubeDAO;
+import com.bf.sparkproject.dao.impl.DAOFactory;
+import com.bf.sparkproject.spark.SessionAggrStatBuckets;
+import com.bf.sparkproject.util.DateUtils;
+import com.bf.sparkproject.util.ParamUtils;
+
+/**
+ * session立方体的查询组件
+ * <p>
+ * 任务只按照日期、年龄、职业、城市、性别筛选，并且日期范围内每一天的立方体都已经构建好了（SessionCubeBuilder），
+ * 那么直接在MySQL中对符合条件的单元格求和，就得到了任务的统计结果，不需要启动Spark作业
+ */
+public class SessionCube {
+
+    private SessionCube() {
+
+    }
+
+    /**
+     * 尝试从立方体中查询任务的统计结果
+     *
+     * @param taskParam 任务参数
+     * @return 和SessionAggrStatBuckets.toConcatString()格式一样的连接串，任务不能通过立方体回答的话，返回null
+     */
+    public static String query(JSONObject taskParam) {
+        if (!ConfigurationManager.getBoolean(Constants.SESSION_CUBE_ENABLED)) {
+            return null;
+        }
+
+        //搜索词、点击品类是session的行为属性，立方体中没有
+        if (ParamUtils.getParam(taskParam, Constants.PARAM_KEYWORDS) != null
+                || ParamUtils.getParam(taskParam, Constants.PARAM_CATEGORY_IDS) != null) {
+            return null;
+        }
+
+        //立方体中只有默认区间的统计结果
+        if (!SessionAggrStatBuckets.forTask(taskParam).isDefault()) {
+            return null;
+        }
+
+        String startDate = ParamUtils.getParam(taskParam, Constants.PARAM_START_DATE);
+        String endDate = ParamUtils.getParam(taskParam, Constants.PARAM_END_DATE);
+        int days = DateUtils.getDatesBetween(startDate, endDate).size();
+        if (days == 0) {
+            return null;
+        }
+
+        //日期范围内，只要有一天的立方体还没有构建好，就不能使用立方体
+        ISessionCubeDAO sessionCubeDAO = DAOFactory.getSessionCubeDAO();
+        if (sessionCubeDAO.countBuiltDays(startDate, endDate) != days) {
+            return null;
+        }
+
+        Integer startAge = null;
+        Integer endAge = null;
+        String startAgeParam = ParamUtils.getParam(taskParam, Constants.PARAM_START_AGE);
+        String endAgeParam = ParamUtils.getParam(taskParam, Constants.PARAM_END_AGE);
+        if (startAgeParam != null && endAgeParam != null) {
+            startAge = Integer.valueOf(startAgeParam);
+            endAge = Integer.valueOf(endAgeParam);
+        }
+
+        long[] counts = sessionCubeDAO.sum(startDate, endDate, startAge, endAge,
+                split(ParamUtils.getParam(taskParam, Constants.PARAM_PROFESSIONALS)),
+                split(ParamUtils.getParam(taskParam, Constants.PARAM_CITIES)),
+                split(ParamUtils.getParam(taskParam, Constants.PARAM_SEX)));
+        return SessionAggrStatBuckets.defaults().toConcatString(counts);
+    }
+
+    private static String[] split(String param) {
+        return param != null ? param.split(",") : null;
+    }
+}
@@ -0,0 +1,161 @@
+package com.bf.sparkproject.spark.cube;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.bf.sparkproject.constant.Constants;
+import com.bf.sparkproject.dao.ISessionCubeDAO;
+import com.bf.sparkproject.dao.impl.DAOFactory;
+import com.bf.sparkproject.domain.SessionCubeCell;
+import com.bf.sparkproject.spark.SessionAggrStatBuckets;
+import com.bf.sparkproject.spark.UserVisitSessionAnalyzeSpark;
+import com.bf.sparkproject.spark.session.SessionAggrInfo;
+import com.bf.sparkproject.spark.session.SessionDictionaries;
+import com.bf.sparkproject.spark.session.SessionKryoRegistrator;
+import com.bf.sparkproject.util.DateUtils;
+import com.bf.sparkproject.util.SparkUtils;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.Function2;
+import org.apache.spark.api.java.function.PairFunction;
+import org.apache.spark.api.java.function.VoidFunction;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SQLContext;
+import scala.Tuple2;
+import scala.Tuple4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * session立方体构建作业
+ * <p>
+ * 大部分分析任务，只按照日期、年龄、职业、城市、性别筛选session，这些都是user_info中的属性
+ * 那么每一天的session，可以预先按照（年龄、职业、城市、性别）分组，把每一组的session总数、
+ * 各个访问时长、访问步长区间的session数都统计好，写入MySQL的session_cube表
+ * 这样的任务就不需要再运行Spark作业，直接对立方体的单元格求和就可以了（见SessionCube）
+ * <p>
+ * 每一天的session都是单独聚合的，如果一个session跨越了零点，会在两天中各算一次，
+ * 和直接按日期范围扫描行为数据的结果相比，会有极少量的差异
+ * <p>
+ * 注意，立方体中保存的是构建时的用户信息，user_info更新之后，需要重新构建受影响日期的立方体
+ * <p>
+ * 参数：需要构建立方体的日期（yyyy-MM-dd），可以有多个，不指定的话构建昨天的立方体
+ */
+public class SessionCubeBuilder {
+
+    public static void main(String[] args) throws Exception {
+        SparkConf conf = new SparkConf()
+                .setAppName(Constants.SPARK_APP_NAME_SESSION + "CubeBuilder")
+                .set("spark.serializer", "org.apache.spark.serializer.KryoSerializer")
+                .set("spark.kryo.registrator", SessionKryoRegistrator.class.getName());
+        SparkUtils.setMaster(conf);
+
+        JavaSparkContext sc = new JavaSparkContext(conf);
+        SQLContext sqlContext = SparkUtils.getSQLContext(sc.sc());
+        SparkUtils.mockData(sc, sqlContext);
+
+        List<String> dates = new ArrayList<String>();
+        for (String arg : args) {
+            dates.add(arg);
+        }
+        if (dates.isEmpty()) {
+            dates.add(DateUtils.getYesterdayDate());
+        }
+
+        for (String date : dates) {
+            build(sc, sqlContext, date);
+        }
+
+        sc.close();
+    }
+
+    /**
+     * 构建某一天的session立方体，已经存在的数据会被覆盖
+     *
+     * @param sc
+     * @param sqlContext
+     * @param date       日期（yyyy-MM-dd）
+     */
+    public static void build(JavaSparkContext sc, SQLContext sqlContext, final String date) throws IOException {
+        ISessionCubeDAO sessionCubeDAO = DAOFactory.getSessionCubeDAO();
+        sessionCubeDAO.deleteDay(date);
+
+        JSONObject taskParam = new JSONObject();
+        JSONArray dateParam = new JSONArray();
+        dateParam.add(date);
+        taskParam.put(Constants.PARAM_START_DATE, dateParam);
+        taskParam.put(Constants.PARAM_END_DATE, dateParam);
+
+        //和session分析作业完全一样的聚合流程
+        SessionDictionaries dictionaries = SessionDictionaries.build(sqlContext, taskParam);
+        final Broadcast<SessionDictionaries> dictionariesBroadcast = sc.broadcast(dictionaries);
+        //立方体的列是固定的，只统计默认区间
+        final SessionAggrStatBuckets buckets = SessionAggrStatBuckets.defaults();
+
+        JavaRDD<Row> actionRDD = UserVisitSessionAnalyzeSpark.getActionRDDByDateRange(sqlContext, taskParam);
+        JavaRDD<SessionAggrInfo> aggrInfoRDD = UserVisitSessionAnalyzeSpark.aggregateBySession(sc, sqlContext,
+                UserVisitSessionAnalyzeSpark.getSession2ActionRDD(actionRDD, dictionariesBroadcast),
+                dictionariesBroadcast).values();
+
+        //按照<age,professional,city,sex>分组统计，key中的职业、城市、性别都是字典编号
+        JavaPairRDD<Tuple4<Integer, Integer, Integer, Integer>, long[]> cellRDD = aggrInfoRDD.mapToPair(
+                new PairFunction<SessionAggrInfo, Tuple4<Integer, Integer, Integer, Integer>, long[]>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public Tuple2<Tuple4<Integer, Integer, Integer, Integer>, long[]> call(
+                            SessionAggrInfo aggrInfo) throws Exception {
+                        long[] counts = new long[buckets.size()];
+                        buckets.add(counts, aggrInfo.getVisitLength(), aggrInfo.getStepLength());
+                        return new Tuple2<Tuple4<Integer, Integer, Integer, Integer>, long[]>(
+                                new Tuple4<Integer, Integer, Integer, Integer>(aggrInfo.getAge(),
+                                        aggrInfo.getProfessionalId(), aggrInfo.getCityId(), aggrInfo.getSexId()),
+                                counts);
+                    }
+                }).reduceByKey(new Function2<long[], long[], long[]>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public long[] call(long[] counts1, long[] counts2) throws Exception {
+                for (int i = 0; i < counts1.length; i++) {
+                    counts1[i] += counts2[i];
+                }
+                return counts1;
+            }
+        });
+
+        //每个分区批量写入MySQL
+        cellRDD.foreachPartition(new VoidFunction<Iterator<Tuple2<Tuple4<Integer, Integer, Integer, Integer>, long[]>>>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void call(Iterator<Tuple2<Tuple4<Integer, Integer, Integer, Integer>, long[]>> iterator)
+                    throws Exception {
+                SessionDictionaries dictionaries = dictionariesBroadcast.value();
+                List<SessionCubeCell> cells = new ArrayList<SessionCubeCell>();
+                while (iterator.hasNext()) {
+                    Tuple2<Tuple4<Integer, Integer, Integer, Integer>, long[]> tuple = iterator.next();
+                    SessionCubeCell cell = new SessionCubeCell();
+                    cell.setDate(date);
+                    cell.setAge(tuple._1._1());
+                    cell.setProfessional(dictionaries.getProfessionals().decode(tuple._1._2()));
+                    cell.setCity(dictionaries.getCities().decode(tuple._1._3()));
+                    cell.setSex(dictionaries.getSexes().decode(tuple._1._4()));
+                    cell.setCounts(tuple._2);
+                    cells.add(cell);
+                }
+                if (!cells.isEmpty()) {
+                    DAOFactory.getSessionCubeDAO().insertBatch(cells);
+                }
+            }
+        });
+
+        //所有单元格都写入之后，才标记构建完成
+        sessionCubeDAO.markBuilt(date);
+    }
+}
@@ -0,0 +1,254 @@
+package com.bf.sparkproject.spark.dimension;
+
+import com.bf.sparkproject.conf.ConfigurationManager;
+import com.bf.sparkproject.constant.Constants;
+import com.bf.sparkproject.dao.IDimensionVersionDAO;
+import com.bf.sparkproject.dao.impl.DAOFactory;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.PairFunction;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.sql.DataFrame;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SQLContext;
+import org.apache.spark.storage.StorageLevel;
+import scala.Tuple2;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 维度表缓存组件
+ * <p>
+ * 常驻的driver进程中，会先后运行多个分析作业（session分析、品类分析、商品分析、区域分析）
+ * 这些作业都要用到user_info、product_info、city_info这些维度表，如果每个作业都自己去执行select * from xxx
+ * 那么每次运行都要重新扫描一遍维度表
+ * <p>
+ * 所以这里做一个driver端的维度表缓存，全局单例，所有作业都通过它来获取维度数据：
+ * 1、维度表第一次被访问的时候，以MEMORY_AND_DISK_SER级别，缓存成Spark SQL的列式存储格式
+ * 2、广播变量的版本（key -> Row的map），只有在某个作业真正需要做map join的时候，才去构建
+ * 3、每次访问的时候，都会去dimension_version表查询一下维度表的版本号，版本号变了，就释放旧的缓存，重新加载
+ * 4、维度表比较大的时候，可以写成内存映射的维度文件（MappedDimension），executor在page cache上二分查找，不占用堆内存
+ * <p>
+ * 这样，维度表在每次刷新之后，只会被扫描一次，而不是每个task、每个作业都扫描一次
+ */
+public class DimensionCache {
+
+    private static DimensionCache instance = null;
+
+    //获取单例
+    public static DimensionCache getInstance() {
+        if (instance == null) {
+            synchronized (DimensionCache.class) {
+                if (instance == null) {
+                    instance = new DimensionCache();
+                }
+            }
+        }
+        return instance;
+    }
+
+    //维度表名 -> 缓存条目
+    private Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    private IDimensionVersionDAO dimensionVersionDAO = DAOFactory.getDimensionVersionDAO();
+
+    private DimensionCache() {
+
+    }
+
+    /**
+     * 获取缓存的维度表DataFrame
+     *
+     * @param sqlContext
+     * @param tableName  维度表名
+     * @return
+     */
+    public synchronized DataFrame getTable(SQLContext sqlContext, String tableName) {
+        return refresh(sqlContext, tableName).dataFrame;
+    }
+
+    /**
+     * 获取以指定列为key的维度数据PairRDD，用于reduce join
+     * 数据直接从缓存的列式存储中读取，不会再去扫描源表
+     *
+     * @param sqlContext
+     * @param tableName  维度表名
+     * @param keyIndex   key所在的列（必须是bigint类型）
+     * @return
+     */
+    public JavaPairRDD<Long, Row> getPairRDD(SQLContext sqlContext, String tableName, int keyIndex) {
+        return getTable(sqlContext, tableName).javaRDD().mapToPair(new KeyByColumnFunction(keyIndex));
+    }
+
+    /**
+     * 获取维度数据的广播变量，用于map join
+     * 广播变量是懒加载的，只有第一次调用的时候才会collect到driver端并广播出去
+     * 同一个版本的维度数据，只会广播一次
+     *
+     * @param sc
+     * @param sqlContext
+     * @param tableName  维度表名
+     * @param keyIndex   key所在的列（必须是bigint类型）
+     * @return
+     */
+    public synchronized Broadcast<Map<Long, Row>> getBroadcast(JavaSparkContext sc,
+                                                              SQLContext sqlContext,
+                                                              String tableName,
+                                                              int keyIndex) {
+        Entry entry = refresh(sqlContext, tableName);
+
+        if (entry.broadcast == null || entry.broadcastKeyIndex != keyIndex) {
+            if (entry.broadcast != null) {
+                entry.broadcast.unpersist();
+            }
+
+            Map<Long, Row> rows = new HashMap<Long, Row>();
+            for (Row row : entry.dataFrame.collect()) {
+                rows.put(row.getLong(keyIndex), row);
+            }
+
+            entry.broadcast = sc.broadcast(rows);
+            entry.broadcastKeyIndex = keyIndex;
+        }
+
+        return entry.broadcast;
+    }
+
+    /**
+     * 获取维度表的内存映射维度文件，用于不占用executor堆内存的map join
+     * 每个版本的维度表只写一次文件，文件名中带着版本标识（getVersionTag()），多个作业、多个driver进程之间共享
+     *
+     * @param sc
+     * @param sqlContext
+     * @param tableName  维度表名
+     * @return 配置中关闭了内存映射维度文件的话，返回null
+     */
+    public synchronized MappedDimension getMappedDimension(JavaSparkContext sc,
+                                                           SQLContext sqlContext,
+                                                           String tableName) throws IOException {
+        if (!ConfigurationManager.getBoolean(Constants.DIMENSION_MAPPED_ENABLED)) {
+            return null;
+        }
+
+        Entry entry = refresh(sqlContext, tableName);
+
+        if (entry.mappedDimension == null) {
+            String dir = ConfigurationManager.getProperty(Constants.DIMENSION_MAPPED_DIR);
+            entry.mappedDimension = MappedDimension.write(new Path(dir).getFileSystem(sc.hadoopConfiguration()),
+                    dir, tableName + "-" + versionTag(sc, entry) + ".dim",
+                    ConfigurationManager.getProperty(Constants.DIMENSION_MAPPED_LOCAL_DIR),
+                    tableName, entry.dataFrame);
+        }
+
+        return entry.mappedDimension;
+    }
+
+    /**
+     * 获取维度表当前版本的标识，用于给依赖维度数据的持久化文件命名，维度表刷新之后，标识就变了
+     * 本地模式下，维度表是每次生成的模拟数据，没有版本号，用application id代替版本号
+     *
+     * @param sc
+     * @param sqlContext
+     * @param tableName  维度表名
+     * @return
+     */
+    public synchronized String getVersionTag(JavaSparkContext sc, SQLContext sqlContext, String tableName) {
+        return versionTag(sc, refresh(sqlContext, tableName));
+    }
+
+    private static String versionTag(JavaSparkContext sc, Entry entry) {
+        return ConfigurationManager.getBoolean(Constants.SPARK_LOCAL)
+                ? sc.sc().applicationId() : String.valueOf(entry.version);
+    }
+
+    /**
+     * 主动让某个维度表的缓存失效
+     *
+     * @param tableName 维度表名
+     */
+    public synchronized void invalidate(String tableName) {
+        Entry entry = entries.remove(tableName);
+        if (entry != null) {
+            entry.release();
+        }
+    }
+
+    /**
+     * 检查维度表的版本号，如果缓存不存在或者已经过期，就重新加载
+     *
+     * @param sqlContext
+     * @param tableName
+     * @return
+     */
+    private Entry refresh(SQLContext sqlContext, String tableName) {
+        //本地模式下，维度表都是模拟数据生成的临时表，没有版本号，加载一次即可
+        long version = ConfigurationManager.getBoolean(Constants.SPARK_LOCAL)
+                ? 0L : dimensionVersionDAO.findVersion(tableName);
+
+        Entry entry = entries.get(tableName);
+        if (entry != null && entry.version == version && entry.sqlContext == sqlContext) {
+            return entry;
+        }
+
+        if (entry != null) {
+            entry.release();
+        }
+
+        //以序列化的列式存储格式缓存维度表，并立即触发一次扫描，将数据物化到缓存中
+        DataFrame dataFrame = sqlContext.table(tableName).persist(StorageLevel.MEMORY_AND_DISK_SER());
+        dataFrame.count();
+
+        entry = new Entry(sqlContext, version, dataFrame);
+        entries.put(tableName, entry);
+
+        return entry;
+    }
+
+    /**
+     * 以指定列为key的映射函数
+     * 必须是静态内部类，如果写成匿名内部类，会持有外部的DimensionCache对象，导致task无法序列化
+     */
+    private static class KeyByColumnFunction implements PairFunction<Row, Long, Row> {
+        private static final long serialVersionUID = 1L;
+
+        private int keyIndex;
+
+        KeyByColumnFunction(int keyIndex) {
+            this.keyIndex = keyIndex;
+        }
+
+        @Override
+        public Tuple2<Long, Row> call(Row row) throws Exception {
+            return new Tuple2<Long, Row>(row.getLong(keyIndex), row);
+        }
+    }
+
+    /**
+     * 缓存条目
+     */
+    private static class Entry {
+        private SQLContext sqlContext;
+        private long version;
+        private DataFrame dataFrame;
+        private Broadcast<Map<Long, Row>> broadcast;
+        private int broadcastKeyIndex = -1;
+        private MappedDimension mappedDimension;
+
+        Entry(SQLContext sqlContext, long version, DataFrame dataFrame) {
+            this.sqlContext = sqlContext;
+            this.version = version;
+            this.dataFrame = dataFrame;
+        }
+
+        //释放缓存的列式数据和广播变量
+        void release() {
+            dataFrame.unpersist(false);
+            if (broadcast != null) {
+                broadcast.unpersist();
+            }
+        }
+    }
+}
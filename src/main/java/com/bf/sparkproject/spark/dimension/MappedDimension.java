@@ -0,0 +1,287 @@
+package com.bf.sparkproject.spark.dimension;
+
+import com.alibaba.fastjson.JSONObject;
+import com.bf.sparkproject.constant.Constants;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.deploy.SparkHadoopUtil;
+import org.apache.spark.sql.DataFrame;
+import org.apache.spark.sql.Row;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 内存映射维度文件的句柄
+ * <p>
+ * driver端在维度表每次刷新之后，把维度表写成一个MappedDimensionFile，放在配置的目录中（可以是HDFS）
+ * 句柄本身只包含表名和文件路径，可以直接在算子中使用，序列化到executor的时候只有几十个字节
+ * <p>
+ * executor端第一次open()的时候：
+ * 1、文件在本地文件系统上，就直接映射
+ * 2、否则先复制到本机的本地目录，同一台机器上的所有executor共用这一份本地文件，复制之后通过rename原子的放到位
+ * 打开之后的文件在executor JVM中按表名缓存，之后的task直接复用同一个映射
+ * <p>
+ * 目前支持两个维度表：
+ * user_info：user_id -> 年龄、职业、城市、性别，职业、城市、性别保存字符串池中的下标
+ * product_info：product_id -> 商品状态、商品名称，商品名称几乎都不一样，直接保存在定长的记录中
+ */
+public class MappedDimension implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * user_info的记录：年龄、职业、城市、性别，各占4个字节，字符串池的下标，null是-1
+     */
+    public static final int USER_AGE = 0;
+    public static final int USER_PROFESSIONAL = 4;
+    public static final int USER_CITY = 8;
+    public static final int USER_SEX = 12;
+    private static final int USER_WIDTH = 16;
+
+    /**
+     * user_info的字符串池
+     */
+    public static final int POOL_PROFESSIONALS = 0;
+    public static final int POOL_CITIES = 1;
+    public static final int POOL_SEXES = 2;
+
+    /**
+     * product_info的记录：商品状态占4个字节（extend_info中没有的话是-1），之后是定长的商品名称
+     */
+    public static final int PRODUCT_STATUS = 0;
+    public static final int PRODUCT_NAME = 4;
+
+    //executor JVM中已经打开的维度文件，表名 -> 打开的文件
+    private static final Map<String, Opened> OPENED = new HashMap<String, Opened>();
+
+    private String tableName;
+    private String path;
+    private String localDir;
+
+    private MappedDimension(String tableName, String path, String localDir) {
+        this.tableName = tableName;
+        this.path = path;
+        this.localDir = localDir;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * 在driver端把维度表写成维度文件，同一个文件已经存在的话，直接复用
+     *
+     * @param fs        维度文件所在的文件系统
+     * @param dir       维度文件所在的目录
+     * @param fileName  维度文件名，里面要带上维度表的版本号
+     * @param localDir  executor复制维度文件的本地目录
+     * @param tableName 维度表名
+     * @param dataFrame 维度表
+     * @return
+     */
+    public static MappedDimension write(FileSystem fs, String dir, String fileName, String localDir,
+                                        String tableName, DataFrame dataFrame) throws IOException {
+        Path path = new Path(dir, fileName);
+        if (!fs.exists(path)) {
+            //先写到临时文件，写完之后再rename，其他作业不会读到写了一半的文件
+            Path tmpPath = new Path(dir, fileName + ".tmp-" + System.nanoTime());
+            try {
+                if (Constants.TABLE_USER_INFO.equals(tableName)) {
+                    writeUserInfo(fs, tmpPath, dataFrame);
+                } else if (Constants.TABLE_PRODUCT_INFO.equals(tableName)) {
+                    writeProductInfo(fs, tmpPath, dataFrame);
+                } else {
+                    throw new IllegalArgumentException("no mapped layout for dimension table: " + tableName);
+                }
+                //其他作业先写完了也没关系，文件内容是一样的
+                if (!fs.rename(tmpPath, path) && !fs.exists(path)) {
+                    throw new IOException("cannot rename " + tmpPath + " to " + path);
+                }
+            } finally {
+                fs.delete(tmpPath, false);
+            }
+        }
+        return new MappedDimension(tableName, fs.makeQualified(path).toString(), localDir);
+    }
+
+    /**
+     * user_info按user_id排序之后写入，user_id重复的话，只保留第一条
+     */
+    private static void writeUserInfo(FileSystem fs, Path path, DataFrame dataFrame) throws IOException {
+        String[] professionals = distinct(dataFrame, "professional");
+        String[] cities = distinct(dataFrame, "city");
+        String[] sexes = distinct(dataFrame, "sex");
+        Map<String, Integer> professionalIndexes = indexes(professionals);
+        Map<String, Integer> cityIndexes = indexes(cities);
+        Map<String, Integer> sexIndexes = indexes(sexes);
+
+        MappedDimensionFile.Writer writer = new MappedDimensionFile.Writer(fs.create(path, true), USER_WIDTH,
+                new String[][]{professionals, cities, sexes});
+        try {
+            //toLocalIterator()每次只把一个分区拉到driver端，driver端不需要放下整个维度表
+            Iterator<Row> rows = dataFrame.select("user_id", "age", "professional", "city", "sex")
+                    .sort("user_id").javaRDD().toLocalIterator();
+            while (rows.hasNext()) {
+                Row row = rows.next();
+                long userId = row.getLong(0);
+                Long lastKey = writer.getLastKey();
+                if (lastKey != null && lastKey == userId) {
+                    continue;
+                }
+                writer.add(userId, ByteBuffer.allocate(USER_WIDTH)
+                        .putInt(row.getInt(1))
+                        .putInt(index(professionalIndexes, row.getString(2)))
+                        .putInt(index(cityIndexes, row.getString(3)))
+                        .putInt(index(sexIndexes, row.getString(4)))
+                        .array());
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * product_info按product_id排序之后写入，商品名称的宽度是所有商品名称中最长的那个
+     */
+    private static void writeProductInfo(FileSystem fs, Path path, DataFrame dataFrame) throws IOException {
+        DataFrame products = dataFrame.select("product_id", "product_name", "extend_info").sort("product_id");
+
+        int maxNameBytes = 0;
+        Iterator<Row> rows = products.javaRDD().toLocalIterator();
+        while (rows.hasNext()) {
+            String productName = rows.next().getString(1);
+            if (productName != null) {
+                maxNameBytes = Math.max(maxNameBytes, productName.getBytes(UTF_8).length);
+            }
+        }
+        int width = PRODUCT_NAME + 2 + maxNameBytes;
+
+        MappedDimensionFile.Writer writer = new MappedDimensionFile.Writer(fs.create(path, true), width,
+                new String[0][]);
+        try {
+            rows = products.javaRDD().toLocalIterator();
+            while (rows.hasNext()) {
+                Row row = rows.next();
+                long productId = row.getLong(0);
+                Long lastKey = writer.getLastKey();
+                if (lastKey != null && lastKey == productId) {
+                    continue;
+                }
+                byte[] value = new byte[width];
+                ByteBuffer.wrap(value).putInt(PRODUCT_STATUS, productStatus(row.getString(2)));
+                MappedDimensionFile.Writer.putString(value, PRODUCT_NAME,
+                        row.isNullAt(1) ? null : row.getString(1).getBytes(UTF_8), maxNameBytes);
+                writer.add(productId, value);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    //extend_info形如{"product_status": 0}
+    private static int productStatus(String extendInfo) {
+        if (extendInfo == null) {
+            return -1;
+        }
+        Integer productStatus = JSONObject.parseObject(extendInfo).getInteger("product_status");
+        return productStatus == null ? -1 : productStatus;
+    }
+
+    //某一列所有不同的非null值，排好序，作为字符串池
+    private static String[] distinct(DataFrame dataFrame, String column) {
+        TreeSet<String> values = new TreeSet<String>();
+        List<Row> rows = dataFrame.select(column).distinct().collectAsList();
+        for (Row row : rows) {
+            if (!row.isNullAt(0)) {
+                values.add(row.getString(0));
+            }
+        }
+        return values.toArray(new String[values.size()]);
+    }
+
+    private static Map<String, Integer> indexes(String[] pool) {
+        Map<String, Integer> indexes = new HashMap<String, Integer>();
+        for (int i = 0; i < pool.length; i++) {
+            indexes.put(pool[i], i);
+        }
+        return indexes;
+    }
+
+    private static int index(Map<String, Integer> indexes, String value) {
+        return value == null ? -1 : indexes.get(value);
+    }
+
+    /**
+     * 在executor端打开维度文件，同一个JVM中只会打开一次
+     *
+     * @return
+     */
+    public MappedDimensionFile open() throws IOException {
+        synchronized (OPENED) {
+            Opened opened = OPENED.get(tableName);
+            if (opened != null && opened.path.equals(path)) {
+                return opened.file;
+            }
+            //维度表换了版本，旧文件的映射不再被引用，之后由GC回收
+            MappedDimensionFile file = MappedDimensionFile.open(localize());
+            OPENED.put(tableName, new Opened(path, file));
+            return file;
+        }
+    }
+
+    /**
+     * 把维度文件复制到本机的本地目录
+     */
+    private File localize() throws IOException {
+        Path remotePath = new Path(path);
+        FileSystem fs = remotePath.getFileSystem(SparkHadoopUtil.get().conf());
+        if ("file".equals(fs.getUri().getScheme())) {
+            return new File(remotePath.toUri().getPath());
+        }
+
+        File localFile = new File(localDir, remotePath.getName());
+        if (localFile.exists()) {
+            return localFile;
+        }
+        localFile.getParentFile().mkdirs();
+        File tmpFile = File.createTempFile(remotePath.getName(), ".tmp", localFile.getParentFile());
+        try {
+            fs.copyToLocalFile(false, remotePath, new Path(tmpFile.getAbsolutePath()), true);
+            //同一台机器上的多个executor可能同时在复制，rename是原子的，谁先完成都一样
+            if (!tmpFile.renameTo(localFile) && !localFile.exists()) {
+                throw new IOException("cannot rename " + tmpFile + " to " + localFile);
+            }
+        } finally {
+            tmpFile.delete();
+        }
+        return localFile;
+    }
+
+    /**
+     * 已经打开的维度文件
+     */
+    private static class Opened {
+        private String path;
+        private MappedDimensionFile file;
+
+        Opened(String path, MappedDimensionFile file) {
+            this.path = path;
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.bf.sparkproject.spark.dimension;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * 内存映射的维度文件
+ * <p>
+ * 维度表以广播变量的形式做map join的时候，每个executor JVM都要反序列化出一份完整的Map<Long, Row>，
+ * 用户多、executor多的时候，光是维度表就要占用几个GB的堆内存，GC停顿也很长
+ * <p>
+ * 这里把维度表写成一个不可变的、按key排好序的定长记录文件，维度表每次刷新之后只写一次：
+ * 1、文件头：magic、文件头长度、值的宽度、字符串池
+ * 2、记录：8字节的key + 定长的值，按key严格升序排列，记录数由文件长度算出来
+ * 取值较少的字符串（比如职业、城市、性别）放在文件头的字符串池中，值里面只保存池中的下标
+ * <p>
+ * executor通过FileChannel.map把文件映射到内存，查找的时候直接在映射的内存上做二分查找，
+ * 数据在操作系统的page cache中，同一台机器上的所有executor共享一份，堆内存中只有很小的字符串池
+ * 映射的内存是只读的，查找只使用绝对位置的读取，多个task线程可以安全的共享
+ */
+public class MappedDimensionFile {
+
+    private static final int MAGIC = 0x44494D31;
+    private static final int KEY_WIDTH = 8;
+    //一个MappedByteBuffer最多只能映射2GB，记录区按1GB分段映射
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private int valueWidth;
+    private int recordWidth;
+    private long count;
+    private String[][] pools;
+    private int recordsPerSegment;
+    private MappedByteBuffer[] segments;
+
+    private MappedDimensionFile() {
+
+    }
+
+    /**
+     * 打开维度文件，并映射到内存
+     *
+     * @param file 本地文件
+     * @return
+     */
+    public static MappedDimensionFile open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            if (randomAccessFile.readInt() != MAGIC) {
+                throw new IOException("not a dimension file: " + file);
+            }
+            int headerLength = randomAccessFile.readInt();
+            byte[] header = new byte[headerLength];
+            randomAccessFile.readFully(header);
+
+            MappedDimensionFile dimensionFile = new MappedDimensionFile();
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+            dimensionFile.valueWidth = in.readInt();
+            dimensionFile.recordWidth = KEY_WIDTH + dimensionFile.valueWidth;
+            dimensionFile.pools = new String[in.readInt()][];
+            for (int i = 0; i < dimensionFile.pools.length; i++) {
+                String[] pool = new String[in.readInt()];
+                for (int j = 0; j < pool.length; j++) {
+                    pool[j] = in.readUTF();
+                }
+                dimensionFile.pools[i] = pool;
+            }
+
+            long recordsOffset = 8L + headerLength;
+            long recordsLength = randomAccessFile.length() - recordsOffset;
+            if (recordsLength % dimensionFile.recordWidth != 0) {
+                throw new IOException("truncated dimension file: " + file);
+            }
+            dimensionFile.count = recordsLength / dimensionFile.recordWidth;
+
+            //每一段都是整数条记录，一条记录不会跨段
+            dimensionFile.recordsPerSegment = (int) (SEGMENT_SIZE / dimensionFile.recordWidth);
+            int segmentCount = (int) ((dimensionFile.count + dimensionFile.recordsPerSegment - 1)
+                    / dimensionFile.recordsPerSegment);
+            dimensionFile.segments = new MappedByteBuffer[segmentCount];
+            FileChannel channel = randomAccessFile.getChannel();
+            for (int i = 0; i < segmentCount; i++) {
+                long first = (long) i * dimensionFile.recordsPerSegment;
+                long records = Math.min(dimensionFile.recordsPerSegment, dimensionFile.count - first);
+                dimensionFile.segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        recordsOffset + first * dimensionFile.recordWidth, records * dimensionFile.recordWidth);
+            }
+            return dimensionFile;
+        } finally {
+            //映射建立之后，关闭文件不影响已经映射的内存
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * 记录数
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * 字符串池
+     *
+     * @param index 第几个字符串池
+     * @return
+     */
+    public String[] getPool(int index) {
+        return pools[index];
+    }
+
+    /**
+     * 二分查找key所在的记录
+     *
+     * @param key
+     * @return 记录的下标，不存在的话，返回-1
+     */
+    public long find(long key) {
+        long low = 0;
+        long high = count - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            long midKey = segment(mid).getLong(position(mid));
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 读取记录的值中的int字段
+     *
+     * @param record 记录的下标
+     * @param offset 字段在值中的偏移量
+     */
+    public int getInt(long record, int offset) {
+        return segment(record).getInt(position(record) + KEY_WIDTH + offset);
+    }
+
+    /**
+     * 读取记录的值中的字符串字段（2字节的长度 + UTF-8编码的字节）
+     *
+     * @param record 记录的下标
+     * @param offset 字段在值中的偏移量
+     */
+    public String getString(long record, int offset) {
+        MappedByteBuffer segment = segment(record);
+        int position = position(record) + KEY_WIDTH + offset;
+        int length = segment.getShort(position);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = segment.get(position + 2 + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    private MappedByteBuffer segment(long record) {
+        return segments[(int) (record / recordsPerSegment)];
+    }
+
+    private int position(long record) {
+        return (int) (record % recordsPerSegment) * recordWidth;
+    }
+
+    /**
+     * 维度文件的写入器，记录必须按key严格升序写入
+     */
+    public static class Writer {
+
+        private DataOutputStream out;
+        private int valueWidth;
+        private long records;
+        private long lastKey;
+
+        /**
+         * @param out        输出流，close()的时候会被关闭
+         * @param valueWidth 值的宽度（字节）
+         * @param pools      字符串池
+         */
+        public Writer(OutputStream out, int valueWidth, String[][] pools) throws IOException {
+            ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(headerBytes);
+            header.writeInt(valueWidth);
+            header.writeInt(pools.length);
+            for (String[] pool : pools) {
+                header.writeInt(pool.length);
+                for (String value : pool) {
+                    header.writeUTF(value);
+                }
+            }
+            header.flush();
+
+            this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+            this.out.writeInt(MAGIC);
+            this.out.writeInt(headerBytes.size());
+            headerBytes.writeTo(this.out);
+            this.valueWidth = valueWidth;
+        }
+
+        /**
+         * 写入一条记录
+         *
+         * @param key   必须比上一条记录的key大
+         * @param value 长度必须等于valueWidth
+         */
+        public void add(long key, byte[] value) throws IOException {
+            if (records > 0 && key <= lastKey) {
+                throw new IllegalArgumentException("keys must be unique and ascending: " + lastKey + ", " + key);
+            }
+            if (value.length != valueWidth) {
+                throw new IllegalArgumentException("value width must be " + valueWidth + ": " + value.length);
+            }
+            out.writeLong(key);
+            out.write(value);
+            records++;
+            lastKey = key;
+        }
+
+        /**
+         * 上一条写入的记录的key，用于跳过重复的key
+         *
+         * @return 还没有写入任何记录的话，返回null
+         */
+        public Long getLastKey() {
+            return records > 0 ? lastKey : null;
+        }
+
+        public void close() throws IOException {
+            out.close();
+        }
+
+        /**
+         * 将字符串字段写进值中：2字节的长度 + UTF-8编码的字节，null的长度是-1
+         * 字段占用的宽度是固定的2 + maxBytes，没有用完的部分补0
+         *
+         * @param value    值
+         * @param offset   字段在值中的偏移量
+         * @param bytes    UTF-8编码的字节，null表示字段的值是null
+         * @param maxBytes 字段中字符串的最大字节数
+         */
+        public static void putString(byte[] value, int offset, byte[] bytes, int maxBytes) {
+            if (bytes == null) {
+                value[offset] = (byte) 0xFF;
+                value[offset + 1] = (byte) 0xFF;
+                return;
+            }
+            //长度是有符号的2个字节，负数表示null
+            if (bytes.length > maxBytes || bytes.length > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("string longer than " + Math.min(maxBytes, Short.MAX_VALUE)
+                        + " bytes");
+            }
+            value[offset] = (byte) (bytes.length >>> 8);
+            value[offset + 1] = (byte) bytes.length;
+            System.arraycopy(bytes, 0, value, offset + 2, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.bf.sparkproject.spark.index;
+
+import com.alibaba.fastjson.JSONObject;
+import com.bf.sparkproject.conf.ConfigurationManager;
+import com.bf.sparkproject.constant.Constants;
+import com.bf.sparkproject.spark.session.SessionAggrInfo;
+import com.bf.sparkproject.spark.session.SessionDictionaries;
+import com.bf.sparkproject.spark.session.SessionId;
+import com.bf.sparkproject.util.DateUtils;
+import com.bf.sparkproject.util.ParamUtils;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.api.java.function.PairFunction;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.sql.DataFrame;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SQLContext;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import scala.Tuple2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.apache.spark.sql.functions.col;
+
+/**
+ * session索引的查询组件
+ * <p>
+ * 任务带有搜索词或者点击品类的筛选条件，并且日期范围内每一天都已经构建好了索引（SessionIndexBuilder），
+ * 那么就不需要扫描、聚合原始的行为数据：
+ * 1、从index文件中读取筛选条件中的搜索词、品类对应的bitmap
+ * 2、多个搜索词之间、多个品类之间做OR，搜索词和品类之间做AND，得到可能匹配的session序号
+ * 3、只读取这些序号所在的桶，再按序号过滤出匹配的session
+ * <p>
+ * 索引只负责按照搜索词、品类预先筛选，其他的条件（年龄、职业等）仍然由SessionFilter判断
+ * <p>
+ * 索引是按天构建的，每一天的session都是单独聚合的，如果一个session跨越了零点，在多天的任务中会在两天中各算一次，
+ * 而且每一天的访问时长、访问步长只包含这一天的行为，和直接按日期范围扫描行为数据的结果相比，会有极少量的差异
+ * （和SessionCubeBuilder一样）；只有一天的任务，扫描原始数据同样只包含这一天的行为，结果是一样的
+ */
+public class SessionIndex {
+
+    private JavaSparkContext sc;
+    private SQLContext sqlContext;
+    private List<String> dates;
+    private Set<String> keywords;
+    private Set<String> categoryIds;
+
+    private SessionIndex(JavaSparkContext sc, SQLContext sqlContext, List<String> dates,
+                         Set<String> keywords, Set<String> categoryIds) {
+        this.sc = sc;
+        this.sqlContext = sqlContext;
+        this.dates = dates;
+        this.keywords = keywords;
+        this.categoryIds = categoryIds;
+    }
+
+    /**
+     * 判断任务能否使用索引，能的话返回索引查询组件
+     *
+     * @param sc
+     * @param sqlContext
+     * @param taskParam  任务参数
+     * @return 不能使用索引的话，返回null
+     */
+    public static SessionIndex open(JavaSparkContext sc, SQLContext sqlContext, JSONObject taskParam)
+            throws Exception {
+        if (!ConfigurationManager.getBoolean(Constants.SESSION_INDEX_ENABLED)) {
+            return null;
+        }
+
+        Set<String> keywords = splitParam(ParamUtils.getParam(taskParam, Constants.PARAM_KEYWORDS), false);
+        Set<String> categoryIds = splitParam(ParamUtils.getParam(taskParam, Constants.PARAM_CATEGORY_IDS), true);
+        //没有搜索词和品类的筛选条件，索引没有任何用处
+        if (keywords == null && categoryIds == null) {
+            return null;
+        }
+
+        List<String> dates = DateUtils.getDatesBetween(
+                ParamUtils.getParam(taskParam, Constants.PARAM_START_DATE),
+                ParamUtils.getParam(taskParam, Constants.PARAM_END_DATE));
+        if (dates.isEmpty()) {
+            return null;
+        }
+
+        //日期范围内，只要有一天的索引还没有构建好，就不能使用索引
+        for (String date : dates) {
+            Path success = new Path(SessionIndexSchema.dayDir(date), SessionIndexSchema.SUCCESS);
+            FileSystem fs = success.getFileSystem(sc.hadoopConfiguration());
+            if (!fs.exists(success)) {
+                return null;
+            }
+        }
+
+        return new SessionIndex(sc, sqlContext, dates, keywords, categoryIds);
+    }
+
+    /**
+     * 日期范围内所有的搜索词，用于构建字典
+     *
+     * @return
+     */
+    public List<String> getKeywords() {
+        List<String> values = new ArrayList<String>();
+        for (String date : dates) {
+            for (Row row : readIndex(date)
+                    .where(col("type").equalTo(SessionIndexSchema.TYPE_KEYWORD))
+                    .select("value")
+                    .collect()) {
+                values.add(row.getString(0));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * 查询匹配搜索词、品类筛选条件的session
+     *
+     * @param dictionariesBroadcast 字典
+     * @return <sessionid,fullAggrInfo>格式的数据，格式和UserVisitSessionAnalyzeSpark.aggregateBySession()的结果一样，
+     * 跨越零点的session会按天拆成多个（见类的注释）
+     */
+    public JavaPairRDD<SessionId, SessionAggrInfo> lookup(
+            Broadcast<SessionDictionaries> dictionariesBroadcast) {
+        List<JavaRDD<Row>> dayRDDs = new ArrayList<JavaRDD<Row>>();
+        for (String date : dates) {
+            RoaringBitmap ordinals = matchOrdinals(date);
+            if (ordinals.isEmpty()) {
+                continue;
+            }
+
+            //只读取包含匹配的session的桶
+            int bucketSize = SessionIndexSchema.bucketSize();
+            Set<Integer> buckets = new TreeSet<Integer>();
+            IntIterator iterator = ordinals.getIntIterator();
+            while (iterator.hasNext()) {
+                buckets.add(iterator.next() / bucketSize);
+            }
+
+            DataFrame sessionDF = sqlContext.read()
+                    .parquet(SessionIndexSchema.dayDir(date) + "/" + SessionIndexSchema.SESSIONS)
+                    .where(col("bucket").isin(buckets.toArray()));
+
+            String[] columns = SessionIndexSchema.SESSION_COLUMNS;
+            JavaRDD<Row> dayRDD = sessionDF
+                    .select(columns[0], Arrays.copyOfRange(columns, 1, columns.length))
+                    .javaRDD()
+                    .filter(new OrdinalFilter(ordinals));
+            dayRDDs.add(dayRDD);
+        }
+
+        JavaRDD<Row> sessionRowRDD = dayRDDs.isEmpty()
+                ? sc.<Row>emptyRDD()
+                : sc.union(dayRDDs.get(0), dayRDDs.subList(1, dayRDDs.size()));
+
+        return sessionRowRDD.mapToPair(new ToAggrInfoFunction(dictionariesBroadcast));
+    }
+
+    /**
+     * 计算某一天匹配筛选条件的session序号
+     * 多个搜索词之间、多个品类之间是OR，搜索词和品类之间是AND
+     *
+     * @param date 日期
+     * @return
+     */
+    private RoaringBitmap matchOrdinals(String date) {
+        Set<String> values = new LinkedHashSet<String>();
+        if (keywords != null) {
+            values.addAll(keywords);
+        }
+        if (categoryIds != null) {
+            values.addAll(categoryIds);
+        }
+
+        RoaringBitmap keywordOrdinals = new RoaringBitmap();
+        RoaringBitmap categoryOrdinals = new RoaringBitmap();
+        for (Row row : readIndex(date)
+                .where(col("value").isin(values.toArray()))
+                .select("type", "value", "bitmap")
+                .collect()) {
+            String type = row.getString(0);
+            String value = row.getString(1);
+            if (SessionIndexSchema.TYPE_KEYWORD.equals(type) && keywords != null && keywords.contains(value)) {
+                keywordOrdinals.or(SessionIndexSchema.fromBytes((byte[]) row.get(2)));
+            } else if (SessionIndexSchema.TYPE_CATEGORY.equals(type) && categoryIds != null
+                    && categoryIds.contains(value)) {
+                categoryOrdinals.or(SessionIndexSchema.fromBytes((byte[]) row.get(2)));
+            }
+        }
+
+        if (keywords != null && categoryIds != null) {
+            return RoaringBitmap.and(keywordOrdinals, categoryOrdinals);
+        }
+        return keywords != null ? keywordOrdinals : categoryOrdinals;
+    }
+
+    private DataFrame readIndex(String date) {
+        return sqlContext.read().parquet(SessionIndexSchema.dayDir(date) + "/" + SessionIndexSchema.INDEX);
+    }
+
+    /**
+     * 解析逗号分隔的参数
+     *
+     * @param param   参数值
+     * @param numeric 是否是数字（品类id），数字会被规范化，不是数字的取值会被丢弃
+     * @return 没有指定参数的话，返回null
+     */
+    private static Set<String> splitParam(String param, boolean numeric) {
+        if (param == null) {
+            return null;
+        }
+
+        Set<String> values = new LinkedHashSet<String>();
+        for (String value : param.split(",")) {
+            if (!numeric) {
+                values.add(value);
+                continue;
+            }
+            try {
+                values.add(String.valueOf(Long.valueOf(value.trim())));
+            } catch (NumberFormatException e) {
+                //不是数字的品类id，不可能匹配
+            }
+        }
+        return values;
+    }
+
+    /*
+     * 以下的算子函数必须是静态内部类，如果写成匿名内部类，会持有外部的SessionIndex对象，导致task无法序列化
+     */
+
+    /**
+     * 按session序号过滤
+     */
+    private static class OrdinalFilter implements Function<Row, Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private RoaringBitmap ordinals;
+
+        OrdinalFilter(RoaringBitmap ordinals) {
+            this.ordinals = ordinals;
+        }
+
+        @Override
+        public Boolean call(Row row) throws Exception {
+            return ordinals.contains(row.getInt(0));
+        }
+    }
+
+    /**
+     * 将sessions文件中的一行还原成<sessionid,fullAggrInfo>
+     */
+    private static class ToAggrInfoFunction implements PairFunction<Row, SessionId, SessionAggrInfo> {
+        private static final long serialVersionUID = 1L;
+
+        private Broadcast<SessionDictionaries> dictionariesBroadcast;
+
+        ToAggrInfoFunction(Broadcast<SessionDictionaries> dictionariesBroadcast) {
+            this.dictionariesBroadcast = dictionariesBroadcast;
+        }
+
+        @Override
+        public Tuple2<SessionId, SessionAggrInfo> call(Row row) throws Exception {
+            SessionAggrInfo aggrInfo = SessionIndexSchema.fromSessionRow(row, dictionariesBroadcast.value());
+            return new Tuple2<SessionId, SessionAggrInfo>(aggrInfo.getSessionId(), aggrInfo);
+        }
+    }
+}
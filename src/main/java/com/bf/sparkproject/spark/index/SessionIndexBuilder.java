@@ -0,0 +1,220 @@
+package com.bf.sparkproject.spark.index;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.bf.sparkproject.constant.Constants;
+import com.bf.sparkproject.spark.UserVisitSessionAnalyzeSpark;
+import com.bf.sparkproject.spark.session.SessionAggrInfo;
+import com.bf.sparkproject.spark.session.SessionDictionaries;
+import com.bf.sparkproject.spark.session.SessionId;
+import com.bf.sparkproject.spark.session.SessionKryoRegistrator;
+import com.bf.sparkproject.util.DateUtils;
+import com.bf.sparkproject.util.SparkUtils;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.api.java.function.Function2;
+import org.apache.spark.api.java.function.PairFlatMapFunction;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.SQLContext;
+import org.apache.spark.sql.SaveMode;
+import org.apache.spark.storage.StorageLevel;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import scala.Tuple2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * session索引构建作业
+ * <p>
+ * 分析人员总是在同样的几天里面，按照某几个搜索词、某几个品类反复的筛选session
+ * 每个任务都要把日期范围内所有的行为数据重新扫描、聚合一遍，才能判断哪些session搜索过这些词、点击过这些品类
+ * <p>
+ * 所以每天对前一天的数据构建一次索引（格式见SessionIndexSchema）：
+ * 1、把当天所有的session聚合好（和session分析作业的聚合逻辑完全一样），按照session id排序后编上序号，写入sessions文件
+ * 2、对每个搜索词、每个品类id，构建包含它的session序号的RoaringBitmap，写入index文件
+ * <p>
+ * 带有搜索词、品类筛选条件的任务，就可以先对bitmap做OR/AND，只读取匹配的session所在的桶（见SessionIndex）
+ * <p>
+ * 注意，索引中保存的是构建时的用户信息，user_info更新之后，需要重新构建受影响日期的索引
+ * <p>
+ * 参数：需要构建索引的日期（yyyy-MM-dd），可以有多个，不指定的话构建昨天的索引
+ */
+public class SessionIndexBuilder {
+
+    public static void main(String[] args) throws Exception {
+        SparkConf conf = new SparkConf()
+                .setAppName(Constants.SPARK_APP_NAME_SESSION + "IndexBuilder")
+                .set("spark.serializer", "org.apache.spark.serializer.KryoSerializer")
+                .set("spark.kryo.registrator", SessionKryoRegistrator.class.getName());
+        SparkUtils.setMaster(conf);
+
+        JavaSparkContext sc = new JavaSparkContext(conf);
+        SQLContext sqlContext = SparkUtils.getSQLContext(sc.sc());
+        SparkUtils.mockData(sc, sqlContext);
+
+        List<String> dates = new ArrayList<String>();
+        for (String arg : args) {
+            dates.add(arg);
+        }
+        if (dates.isEmpty()) {
+            dates.add(DateUtils.getYesterdayDate());
+        }
+
+        for (String date : dates) {
+            build(sc, sqlContext, date);
+        }
+
+        sc.close();
+    }
+
+    /**
+     * 构建某一天的session索引，已经存在的索引会被覆盖
+     *
+     * @param sc
+     * @param sqlContext
+     * @param date       日期（yyyy-MM-dd）
+     */
+    public static void build(JavaSparkContext sc, SQLContext sqlContext, String date) throws Exception {
+        String dayDir = SessionIndexSchema.dayDir(date);
+        Path dayPath = new Path(dayDir);
+        FileSystem fs = dayPath.getFileSystem(sc.hadoopConfiguration());
+        //先删除旧的索引，包括_SUCCESS标记，保证构建的过程中，查询不会读到不完整的索引
+        fs.delete(dayPath, true);
+
+        JSONObject taskParam = new JSONObject();
+        JSONArray dateParam = new JSONArray();
+        dateParam.add(date);
+        taskParam.put(Constants.PARAM_START_DATE, dateParam);
+        taskParam.put(Constants.PARAM_END_DATE, dateParam);
+
+        //和session分析作业完全一样的聚合流程
+        SessionDictionaries dictionaries = SessionDictionaries.build(sqlContext, taskParam);
+        final Broadcast<SessionDictionaries> dictionariesBroadcast = sc.broadcast(dictionaries);
+
+        JavaRDD<Row> actionRDD = UserVisitSessionAnalyzeSpark.getActionRDDByDateRange(sqlContext, taskParam);
+        JavaRDD<SessionAggrInfo> aggrInfoRDD = UserVisitSessionAnalyzeSpark.aggregateBySession(sc, sqlContext,
+                UserVisitSessionAnalyzeSpark.getSession2ActionRDD(actionRDD, dictionariesBroadcast),
+                dictionariesBroadcast).values();
+
+        //按照session id排序之后再编号，同样的数据，每次构建出来的序号都是一样的
+        JavaPairRDD<SessionAggrInfo, Long> ordinalRDD = aggrInfoRDD
+                .keyBy(new Function<SessionAggrInfo, SessionId>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public SessionId call(SessionAggrInfo aggrInfo) throws Exception {
+                        return aggrInfo.getSessionId();
+                    }
+                })
+                .sortByKey()
+                .values()
+                .zipWithIndex()
+                .persist(StorageLevel.MEMORY_AND_DISK_SER());
+
+        //写入sessions文件，按照序号分桶
+        final int bucketSize = SessionIndexSchema.bucketSize();
+        JavaRDD<Row> sessionRowRDD = ordinalRDD.map(new Function<Tuple2<SessionAggrInfo, Long>, Row>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Row call(Tuple2<SessionAggrInfo, Long> tuple) throws Exception {
+                return SessionIndexSchema.toSessionRow(toOrdinal(tuple._2), bucketSize,
+                        tuple._1, dictionariesBroadcast.value());
+            }
+        });
+        sqlContext.createDataFrame(sessionRowRDD, SessionIndexSchema.SESSION_SCHEMA)
+                .write()
+                .mode(SaveMode.Overwrite)
+                .partitionBy("bucket")
+                .parquet(dayDir + "/" + SessionIndexSchema.SESSIONS);
+
+        //构建倒排索引：(type, value) -> session序号的bitmap
+        //先在map端把同一个搜索词/品类的序号合并成bitmap，shuffle的只是各个分区的部分bitmap
+        JavaPairRDD<Tuple2<String, String>, RoaringBitmap> postingRDD = ordinalRDD.flatMapToPair(
+                new PairFlatMapFunction<Tuple2<SessionAggrInfo, Long>, Tuple2<String, String>, Integer>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public Iterable<Tuple2<Tuple2<String, String>, Integer>> call(
+                            Tuple2<SessionAggrInfo, Long> tuple) throws Exception {
+                        SessionAggrInfo aggrInfo = tuple._1;
+                        Integer ordinal = toOrdinal(tuple._2);
+                        SessionDictionaries dictionaries = dictionariesBroadcast.value();
+                        List<Tuple2<Tuple2<String, String>, Integer>> postings =
+                                new ArrayList<Tuple2<Tuple2<String, String>, Integer>>();
+
+                        IntIterator keywordIterator = aggrInfo.getSearchKeywordIds().getIntIterator();
+                        while (keywordIterator.hasNext()) {
+                            String keyword = dictionaries.getKeywords().decode(keywordIterator.next());
+                            postings.add(new Tuple2<Tuple2<String, String>, Integer>(
+                                    new Tuple2<String, String>(SessionIndexSchema.TYPE_KEYWORD, keyword), ordinal));
+                        }
+
+                        IntIterator categoryIterator = aggrInfo.getClickCategoryIds().getIntIterator();
+                        while (categoryIterator.hasNext()) {
+                            String categoryId = String.valueOf(categoryIterator.next());
+                            postings.add(new Tuple2<Tuple2<String, String>, Integer>(
+                                    new Tuple2<String, String>(SessionIndexSchema.TYPE_CATEGORY, categoryId), ordinal));
+                        }
+
+                        return postings;
+                    }
+                }).aggregateByKey(new RoaringBitmap(),
+                new Function2<RoaringBitmap, Integer, RoaringBitmap>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public RoaringBitmap call(RoaringBitmap bitmap, Integer ordinal) throws Exception {
+                        bitmap.add(ordinal);
+                        return bitmap;
+                    }
+                },
+                new Function2<RoaringBitmap, RoaringBitmap, RoaringBitmap>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public RoaringBitmap call(RoaringBitmap bitmap1, RoaringBitmap bitmap2) throws Exception {
+                        bitmap1.or(bitmap2);
+                        return bitmap1;
+                    }
+                });
+
+        JavaRDD<Row> indexRowRDD = postingRDD.map(new Function<Tuple2<Tuple2<String, String>, RoaringBitmap>, Row>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Row call(Tuple2<Tuple2<String, String>, RoaringBitmap> tuple) throws Exception {
+                RoaringBitmap bitmap = tuple._2;
+                return RowFactory.create(tuple._1._1, tuple._1._2,
+                        bitmap.getCardinality(), SessionIndexSchema.toBytes(bitmap));
+            }
+        });
+        //索引的行数只有搜索词和品类的个数那么多，写成一个文件即可
+        sqlContext.createDataFrame(indexRowRDD, SessionIndexSchema.INDEX_SCHEMA)
+                .coalesce(1)
+                .write()
+                .mode(SaveMode.Overwrite)
+                .parquet(dayDir + "/" + SessionIndexSchema.INDEX);
+
+        ordinalRDD.unpersist(false);
+
+        //最后写入完成标记
+        fs.create(new Path(dayPath, SessionIndexSchema.SUCCESS), true).close();
+    }
+
+    private static int toOrdinal(long index) {
+        if (index > Integer.MAX_VALUE) {
+            throw new IllegalStateException("too many sessions in one day: " + index);
+        }
+        return (int) index;
+    }
+}
@@ -0,0 +1,201 @@
+package com.bf.sparkproject.spark.index;
+
+import com.bf.sparkproject.conf.ConfigurationManager;
+import com.bf.sparkproject.constant.Constants;
+import com.bf.sparkproject.spark.session.SessionAggrInfo;
+import com.bf.sparkproject.spark.session.SessionDictionaries;
+import com.bf.sparkproject.spark.session.SessionId;
+import com.bf.sparkproject.spark.session.StringDictionary;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * session索引的存储格式
+ * <p>
+ * 每一天的索引都保存在 ${session.index.dir}/${date}/ 目录下：
+ * 1、sessions：当天所有session的聚合数据，parquet格式，每个session有一个从0开始的序号（ordinal），
+ * 按照 ordinal / ${session.index.bucket.size} 分桶，每个桶是一个单独的目录（bucket=N）
+ * 2、index：倒排索引，parquet格式，每一行是 (type, value) -> 包含它的所有session序号组成的RoaringBitmap
+ * type是keyword（搜索词）或者category（点击品类id）
+ * 3、_SUCCESS：索引构建完成的标记
+ * <p>
+ * 字符串都以原始值保存（而不是字典编号），因为字典是每次运行作业的时候临时构建的
+ */
+public class SessionIndexSchema {
+
+    public static final String TYPE_KEYWORD = "keyword";
+    public static final String TYPE_CATEGORY = "category";
+
+    public static final String SESSIONS = "sessions";
+    public static final String INDEX = "index";
+    public static final String SUCCESS = "_SUCCESS";
+
+    /**
+     * 查询session数据时使用的列，顺序和fromSessionRow()中读取的顺序一致
+     */
+    public static final String[] SESSION_COLUMNS = new String[]{"ordinal", "session_id", "user_id",
+            "search_keywords", "click_category_ids", "step_length", "start_time", "end_time",
+            "age", "professional", "city", "sex"};
+
+    public static final StructType SESSION_SCHEMA = DataTypes.createStructType(Arrays.asList(
+            DataTypes.createStructField("ordinal", DataTypes.IntegerType, false),
+            DataTypes.createStructField("session_id", DataTypes.StringType, false),
+            DataTypes.createStructField("user_id", DataTypes.LongType, false),
+            DataTypes.createStructField("search_keywords", DataTypes.StringType, true),
+            DataTypes.createStructField("click_category_ids", DataTypes.StringType, true),
+            DataTypes.createStructField("step_length", DataTypes.LongType, false),
+            DataTypes.createStructField("start_time", DataTypes.LongType, false),
+            DataTypes.createStructField("end_time", DataTypes.LongType, false),
+            DataTypes.createStructField("age", DataTypes.IntegerType, false),
+            DataTypes.createStructField("professional", DataTypes.StringType, true),
+            DataTypes.createStructField("city", DataTypes.StringType, true),
+            DataTypes.createStructField("sex", DataTypes.StringType, true),
+            DataTypes.createStructField("bucket", DataTypes.IntegerType, false)));
+
+    public static final StructType INDEX_SCHEMA = DataTypes.createStructType(Arrays.asList(
+            DataTypes.createStructField("type", DataTypes.StringType, false),
+            DataTypes.createStructField("value", DataTypes.StringType, false),
+            DataTypes.createStructField("cardinality", DataTypes.IntegerType, false),
+            DataTypes.createStructField("bitmap", DataTypes.BinaryType, false)));
+
+    private SessionIndexSchema() {
+
+    }
+
+    /**
+     * 某一天的索引目录
+     */
+    public static String dayDir(String date) {
+        return ConfigurationManager.getProperty(Constants.SESSION_INDEX_DIR) + "/" + date;
+    }
+
+    /**
+     * 每个桶的session数量
+     */
+    public static int bucketSize() {
+        int bucketSize = ConfigurationManager.getInteger(Constants.SESSION_INDEX_BUCKET_SIZE);
+        return bucketSize > 0 ? bucketSize : 10000;
+    }
+
+    /**
+     * 将session聚合数据转换成sessions文件中的一行
+     *
+     * @param ordinal      session序号
+     * @param bucketSize   每个桶的session数量
+     * @param aggrInfo     session聚合数据
+     * @param dictionaries 字典
+     * @return
+     */
+    public static Row toSessionRow(int ordinal, int bucketSize,
+                                   SessionAggrInfo aggrInfo, SessionDictionaries dictionaries) {
+        StringBuilder keywords = new StringBuilder();
+        IntIterator keywordIterator = aggrInfo.getSearchKeywordIds().getIntIterator();
+        while (keywordIterator.hasNext()) {
+            if (keywords.length() > 0) {
+                keywords.append(",");
+            }
+            keywords.append(dictionaries.getKeywords().decode(keywordIterator.next()));
+        }
+
+        StringBuilder categoryIds = new StringBuilder();
+        IntIterator categoryIterator = aggrInfo.getClickCategoryIds().getIntIterator();
+        while (categoryIterator.hasNext()) {
+            if (categoryIds.length() > 0) {
+                categoryIds.append(",");
+            }
+            categoryIds.append(categoryIterator.next());
+        }
+
+        return RowFactory.create(ordinal,
+                aggrInfo.getSessionId().toString(),
+                aggrInfo.getUserId(),
+                keywords.toString(),
+                categoryIds.toString(),
+                aggrInfo.getStepLength(),
+                aggrInfo.getStartTime(),
+                aggrInfo.getEndTime(),
+                aggrInfo.getAge(),
+                dictionaries.getProfessionals().decode(aggrInfo.getProfessionalId()),
+                dictionaries.getCities().decode(aggrInfo.getCityId()),
+                dictionaries.getSexes().decode(aggrInfo.getSexId()),
+                ordinal / bucketSize);
+    }
+
+    /**
+     * 将按SESSION_COLUMNS查询出来的一行数据还原成session聚合数据
+     *
+     * @param row          按SESSION_COLUMNS查询出来的一行数据
+     * @param dictionaries 字典
+     * @return
+     */
+    public static SessionAggrInfo fromSessionRow(Row row, SessionDictionaries dictionaries) {
+        SessionAggrInfo aggrInfo = new SessionAggrInfo();
+        aggrInfo.setSessionId(SessionId.parse(row.getString(1)));
+        aggrInfo.setUserId(row.getLong(2));
+
+        RoaringBitmap keywordIds = new RoaringBitmap();
+        for (String keyword : split(row.getString(3))) {
+            int keywordId = dictionaries.getKeywords().encode(keyword);
+            if (keywordId != StringDictionary.NO_ID) {
+                keywordIds.add(keywordId);
+            }
+        }
+        aggrInfo.setSearchKeywordIds(keywordIds);
+
+        RoaringBitmap categoryIds = new RoaringBitmap();
+        for (String categoryId : split(row.getString(4))) {
+            categoryIds.add(Integer.valueOf(categoryId));
+        }
+        aggrInfo.setClickCategoryIds(categoryIds);
+
+        aggrInfo.setStepLength(row.getLong(5));
+        aggrInfo.setStartTime(row.getLong(6));
+        aggrInfo.setEndTime(row.getLong(7));
+        aggrInfo.setAge(row.getInt(8));
+        aggrInfo.setProfessionalId(dictionaries.getProfessionals().encode(row.getString(9)));
+        aggrInfo.setCityId(dictionaries.getCities().encode(row.getString(10)));
+        aggrInfo.setSexId(dictionaries.getSexes().encode(row.getString(11)));
+        return aggrInfo;
+    }
+
+    /**
+     * RoaringBitmap序列化成字节数组
+     */
+    public static byte[] toBytes(RoaringBitmap bitmap) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(bitmap.serializedSizeInBytes());
+            bitmap.serialize(new DataOutputStream(bytes));
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 从字节数组反序列化RoaringBitmap
+     */
+    public static RoaringBitmap fromBytes(byte[] bytes) {
+        try {
+            RoaringBitmap bitmap = new RoaringBitmap();
+            bitmap.deserialize(new DataInputStream(new ByteArrayInputStream(bytes)));
+            return bitmap;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String[] split(String value) {
+        return value == null || value.length() == 0 ? new String[0] : value.split(",");
+    }
+}
@@ -0,0 +1,361 @@
+package com.bf.sparkproject.spark.lifecycle;
+
+import com.bf.sparkproject.conf.ConfigurationManager;
+import com.bf.sparkproject.constant.Constants;
+import com.bf.sparkproject.util.NumberUtils;
+import org.apache.spark.JavaSparkListener;
+import org.apache.spark.SparkContext;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.executor.TaskMetrics;
+import org.apache.spark.rdd.RDD;
+import org.apache.spark.scheduler.SparkListenerStageCompleted;
+import org.apache.spark.scheduler.SparkListenerStageSubmitted;
+import org.apache.spark.scheduler.SparkListenerTaskEnd;
+import org.apache.spark.scheduler.StageInfo;
+import org.apache.spark.storage.BlockId;
+import org.apache.spark.storage.BlockStatus;
+import org.apache.spark.storage.RDDBlockId;
+import org.apache.spark.storage.RDDInfo;
+import org.apache.spark.storage.StorageLevel;
+import scala.Tuple2;
+import scala.collection.JavaConversions;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 多stage作业中，被多次使用的RDD的生命周期管理
+ * <p>
+ * 原来的做法是：RDD的持久化级别写死在代码里，checkpoint要靠外面有没有设置checkpoint目录，
+ * 持久化之后也从来不unpersist，常驻的driver中，前一个任务缓存的数据一直占着executor的storage内存，
+ * 直到被LRU挤出去，后面stage的shuffle只能往磁盘上溢写
+ * <p>
+ * 这里对每个要被多次使用的RDD起一个名字，统一管理：
+ * 1、持久化级别：优先使用rdd.storage.level.${名字}，没有配置的话，使用rdd.storage.level.default
+ * 2、截断血统：血统的深度（最长的依赖链上的RDD个数）达到rdd.checkpoint.lineage.depth的时候，
+ * 按照rdd.checkpoint.mode做checkpoint，并立即执行一次count()触发：
+ * reliable：写到rdd.checkpoint.dir，checkpoint的job读取的是刚刚缓存的数据，不会把血统再多算一遍
+ * local：只保存在executor本地的缓存中，不需要checkpoint目录，但是executor挂掉之后数据就无法恢复，
+ * 释放之后也不能再使用
+ * 3、自动释放：releaseAfter(name, n)之后，再有n个读取这个RDD的stage成功完成，就立即unpersist，
+ * 不需要等到整个job结束，同一个job后面的reduce端stage就可以使用释放出来的内存
+ * 4、报告：每个RDD被读取的分区数、实际计算的分区数（缓存未命中）、命中率、被挤出缓存的分区数、占用的内存和磁盘
+ * <p>
+ * 释放是在listener bus线程中，根据stage完成的事件做的，而事件是异步投递的，
+ * 所以releaseAfter()的时候，会给之后提交的job设置一个local property，
+ * 只有带着这个标记的stage才会被计数，之前的stage的事件即使晚到了，也不会被算进去
+ * <p>
+ * 每个SparkContext只注册一个listener，通过getInstance()获取
+ */
+public class RDDLifecycleManager extends JavaSparkListener {
+
+    //stage提交的时候带着的标记，值是releaseAfter()的序号
+    private static final String EPOCH_PROPERTY = "sparkproject.rdd.lifecycle.epoch";
+
+    private static RDDLifecycleManager instance = null;
+
+    /**
+     * 获取SparkContext对应的管理器，第一次获取的时候会注册listener，并设置checkpoint目录
+     *
+     * @param sc
+     * @return
+     */
+    public static synchronized RDDLifecycleManager getInstance(SparkContext sc) {
+        if (instance == null || instance.sc != sc) {
+            instance = new RDDLifecycleManager(sc);
+            sc.addSparkListener(instance);
+        }
+        return instance;
+    }
+
+    private SparkContext sc;
+    private String checkpointMode;
+    private int checkpointLineageDepth;
+    private long epoch;
+
+    //名字 -> 管理的RDD
+    private Map<String, ManagedRDD> managedRDDs = new LinkedHashMap<String, ManagedRDD>();
+    //RDD id -> 管理的RDD
+    private Map<Integer, ManagedRDD> managedRDDsById = new HashMap<Integer, ManagedRDD>();
+    //stage id -> 提交的时候带着的标记
+    private Map<Integer, Long> stageEpochs = new HashMap<Integer, Long>();
+
+    private RDDLifecycleManager(SparkContext sc) {
+        this.sc = sc;
+        this.checkpointMode = ConfigurationManager.getProperty(Constants.RDD_CHECKPOINT_MODE);
+        this.checkpointLineageDepth = ConfigurationManager.getInteger(Constants.RDD_CHECKPOINT_LINEAGE_DEPTH);
+
+        String checkpointDir = ConfigurationManager.getProperty(Constants.RDD_CHECKPOINT_DIR);
+        if (checkpointDir != null && !checkpointDir.isEmpty() && sc.getCheckpointDir().isEmpty()) {
+            sc.setCheckpointDir(checkpointDir);
+        }
+    }
+
+    /**
+     * 按照配置持久化一个RDD，血统太深的话，同时做checkpoint
+     * 同名的RDD已经存在的话，先释放旧的
+     *
+     * @param name 名字
+     * @param rdd
+     * @return 持久化之后的RDD
+     */
+    public <T> JavaRDD<T> persist(String name, JavaRDD<T> rdd) {
+        release(name);
+
+        String level = ConfigurationManager.getProperty(Constants.RDD_STORAGE_LEVEL_PREFIX + name);
+        if (level == null || level.isEmpty()) {
+            level = ConfigurationManager.getProperty(Constants.RDD_STORAGE_LEVEL_DEFAULT);
+        }
+        StorageLevel storageLevel = StorageLevel.fromString(level);
+        rdd = rdd.persist(storageLevel);
+
+        ManagedRDD managedRDD = new ManagedRDD(name, rdd.rdd(), storageLevel, lineageDepth(rdd.rdd()));
+        synchronized (this) {
+            managedRDDs.put(name, managedRDD);
+            managedRDDsById.put(rdd.id(), managedRDD);
+        }
+
+        if (managedRDD.lineageDepth >= checkpointLineageDepth) {
+            if ("reliable".equals(checkpointMode) && sc.getCheckpointDir().isDefined()) {
+                rdd.checkpoint();
+                managedRDD.checkpoint = checkpointMode;
+            } else if ("local".equals(checkpointMode)) {
+                rdd.rdd().localCheckpoint();
+                managedRDD.checkpoint = checkpointMode;
+            }
+            //Spark是在第一个用到这个RDD的job结束的时候才做checkpoint的，那个时候缓存可能已经被自动释放了，
+            //所以这里立即执行一次count()，reliable模式下checkpoint的job读取的是刚刚缓存的数据
+            if (!"none".equals(managedRDD.checkpoint)) {
+                rdd.count();
+            }
+        }
+        return rdd;
+    }
+
+    /**
+     * 之后再有stages个读取这个RDD的stage成功完成，就自动释放
+     * 调用之后提交的job才会被计数，所以要在最后几个使用这个RDD的action之前调用
+     *
+     * @param name   名字
+     * @param stages 还会读取这个RDD的stage个数
+     */
+    public void releaseAfter(String name, int stages) {
+        synchronized (this) {
+            ManagedRDD managedRDD = managedRDDs.get(name);
+            if (managedRDD == null) {
+                return;
+            }
+            epoch++;
+            managedRDD.releaseEpoch = epoch;
+            managedRDD.remainingStages = stages;
+        }
+        //local property是线程级别的，之后这个线程提交的job的stage都会带着这个标记
+        sc.setLocalProperty(EPOCH_PROPERTY, String.valueOf(epoch));
+    }
+
+    /**
+     * 立即释放一个RDD，并输出它的报告
+     *
+     * @param name 名字
+     */
+    public synchronized void release(String name) {
+        ManagedRDD managedRDD = managedRDDs.remove(name);
+        if (managedRDD != null) {
+            doRelease(managedRDD);
+        }
+    }
+
+    /**
+     * 释放所有还没有释放的RDD，一个任务执行完成之后，在提交这个任务的job的线程中调用
+     * 同时清除这个线程的标记，否则下一个任务的stage还会带着这个标记
+     */
+    public synchronized void releaseAll() {
+        for (ManagedRDD managedRDD : new ArrayList<ManagedRDD>(managedRDDs.values())) {
+            managedRDDs.remove(managedRDD.name);
+            doRelease(managedRDD);
+        }
+        stageEpochs.clear();
+        sc.setLocalProperty(EPOCH_PROPERTY, null);
+    }
+
+    /**
+     * 所有还没有释放的RDD的报告
+     *
+     * @return 每个RDD一行
+     */
+    public synchronized List<String> report() {
+        Map<Integer, RDDInfo> storageInfos = storageInfos();
+        List<String> lines = new ArrayList<String>();
+        for (ManagedRDD managedRDD : managedRDDs.values()) {
+            managedRDD.snapshot(storageInfos.get(managedRDD.rdd.id()));
+            lines.add(managedRDD.toString());
+        }
+        return lines;
+    }
+
+    private void doRelease(ManagedRDD managedRDD) {
+        managedRDDsById.remove(managedRDD.rdd.id());
+        //释放之前记下占用的内存和磁盘
+        managedRDD.snapshot(storageInfos().get(managedRDD.rdd.id()));
+        managedRDD.rdd.unpersist(false);
+        System.out.println(new Date() + ": released " + managedRDD);
+    }
+
+    private Map<Integer, RDDInfo> storageInfos() {
+        Map<Integer, RDDInfo> storageInfos = new HashMap<Integer, RDDInfo>();
+        for (RDDInfo rddInfo : sc.getRDDStorageInfo()) {
+            storageInfos.put(rddInfo.id(), rddInfo);
+        }
+        return storageInfos;
+    }
+
+    @Override
+    public synchronized void onStageSubmitted(SparkListenerStageSubmitted stageSubmitted) {
+        Properties properties = stageSubmitted.properties();
+        String stageEpoch = properties != null ? properties.getProperty(EPOCH_PROPERTY) : null;
+        if (stageEpoch != null) {
+            stageEpochs.put(stageSubmitted.stageInfo().stageId(), Long.valueOf(stageEpoch));
+        }
+    }
+
+    @Override
+    public synchronized void onTaskEnd(SparkListenerTaskEnd taskEnd) {
+        TaskMetrics taskMetrics = taskEnd.taskMetrics();
+        if (taskMetrics == null || taskMetrics.updatedBlocks().isEmpty()) {
+            return;
+        }
+        //task计算出来并缓存的RDD分区，以及因为内存不够被挤出去的分区，都会出现在updatedBlocks中
+        //task计算的分区号和task自己的分区号不一定一样（比如union、coalesce之后），所以只按RDD id匹配，
+        //存储级别有效的就是这个task计算出来并缓存的（空的分区大小是0，所以不能按大小判断），
+        //存储级别是NONE的就是被挤出去的
+        for (Tuple2<BlockId, BlockStatus> updatedBlock
+                : JavaConversions.seqAsJavaList(taskMetrics.updatedBlocks().get())) {
+            if (!(updatedBlock._1 instanceof RDDBlockId)) {
+                continue;
+            }
+            RDDBlockId blockId = (RDDBlockId) updatedBlock._1;
+            ManagedRDD managedRDD = managedRDDsById.get(blockId.rddId());
+            if (managedRDD == null) {
+                continue;
+            }
+            if (updatedBlock._2.storageLevel().isValid()) {
+                managedRDD.computedPartitions++;
+            } else {
+                managedRDD.evictedPartitions++;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onStageCompleted(SparkListenerStageCompleted stageCompleted) {
+        StageInfo stageInfo = stageCompleted.stageInfo();
+        Long stageEpoch = stageEpochs.remove(stageInfo.stageId());
+        if (stageInfo.failureReason().isDefined()) {
+            return;
+        }
+
+        for (RDDInfo rddInfo : JavaConversions.seqAsJavaList(stageInfo.rddInfos())) {
+            ManagedRDD managedRDD = managedRDDsById.get(rddInfo.id());
+            if (managedRDD == null) {
+                continue;
+            }
+            managedRDD.readPartitions += rddInfo.numPartitions();
+
+            //releaseAfter()之后提交的stage才计数，计数到了就是最后一个使用这个RDD的stage
+            if (managedRDD.releaseEpoch > 0 && stageEpoch != null && stageEpoch >= managedRDD.releaseEpoch
+                    && --managedRDD.remainingStages <= 0) {
+                managedRDDs.remove(managedRDD.name);
+                doRelease(managedRDD);
+            }
+        }
+    }
+
+    /**
+     * 血统的深度：最长的依赖链上的RDD个数，已经checkpoint的RDD算作1
+     */
+    private static int lineageDepth(RDD<?> rdd) {
+        return lineageDepth(rdd, new HashMap<Integer, Integer>());
+    }
+
+    private static int lineageDepth(RDD<?> rdd, Map<Integer, Integer> depths) {
+        Integer depth = depths.get(rdd.id());
+        if (depth != null) {
+            return depth;
+        }
+        int maxParentDepth = 0;
+        if (!rdd.isCheckpointed()) {
+            for (org.apache.spark.Dependency<?> dependency : JavaConversions.seqAsJavaList(rdd.dependencies())) {
+                maxParentDepth = Math.max(maxParentDepth, lineageDepth(dependency.rdd(), depths));
+            }
+        }
+        depths.put(rdd.id(), maxParentDepth + 1);
+        return maxParentDepth + 1;
+    }
+
+    /**
+     * 被管理的RDD
+     */
+    private static class ManagedRDD {
+        private String name;
+        private RDD<?> rdd;
+        private StorageLevel storageLevel;
+        private int lineageDepth;
+        private String checkpoint = "none";
+
+        private long releaseEpoch;
+        private int remainingStages;
+
+        private long readPartitions;
+        private long computedPartitions;
+        private long evictedPartitions;
+        private int cachedPartitions;
+        private long memSize;
+        private long diskSize;
+        private long externalBlockStoreSize;
+
+        ManagedRDD(String name, RDD<?> rdd, StorageLevel storageLevel, int lineageDepth) {
+            this.name = name;
+            this.rdd = rdd;
+            this.storageLevel = storageLevel;
+            this.lineageDepth = lineageDepth;
+        }
+
+        //记下当前占用的内存和磁盘，释放之后就查不到了
+        void snapshot(RDDInfo rddInfo) {
+            if (rddInfo != null) {
+                cachedPartitions = rddInfo.numCachedPartitions();
+                memSize = rddInfo.memSize();
+                diskSize = rddInfo.diskSize();
+                externalBlockStoreSize = rddInfo.externalBlockStoreSize();
+            }
+        }
+
+        //读取的分区中，没有重新计算的比例
+        double hitRatio() {
+            return readPartitions > 0
+                    ? NumberUtils.formatDouble((double) Math.max(0L, readPartitions - computedPartitions)
+                    / readPartitions, 2) : 0D;
+        }
+
+        @Override
+        public String toString() {
+            return name + " [rdd=" + rdd.id()
+                    + ", storageLevel=" + storageLevel.description()
+                    + ", lineageDepth=" + lineageDepth
+                    + ", checkpoint=" + checkpoint
+                    + ", readPartitions=" + readPartitions
+                    + ", computedPartitions=" + computedPartitions
+                    + ", hitRatio=" + hitRatio()
+                    + ", evictedPartitions=" + evictedPartitions
+                    + ", cachedPartitions=" + cachedPartitions
+                    + ", memSize=" + memSize
+                    + ", diskSize=" + diskSize
+                    + ", externalBlockStoreSize=" + externalBlockStoreSize + "]";
+        }
+    }
+}
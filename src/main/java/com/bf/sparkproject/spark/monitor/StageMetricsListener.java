@@ -0,0 +1,243 @@
+package com.bf.sparkproject.spark.monitor;
+
+import com.bf.sparkproject.domain.StageMetrics;
+import org.apache.spark.JavaSparkListener;
+import org.apache.spark.executor.InputMetrics;
+import org.apache.spark.executor.ShuffleReadMetrics;
+import org.apache.spark.executor.ShuffleWriteMetrics;
+import org.apache.spark.executor.TaskMetrics;
+import org.apache.spark.scheduler.SparkListenerJobEnd;
+import org.apache.spark.scheduler.SparkListenerStageCompleted;
+import org.apache.spark.scheduler.SparkListenerStageSubmitted;
+import org.apache.spark.scheduler.SparkListenerTaskEnd;
+import org.apache.spark.scheduler.StageInfo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * stage运行指标收集器
+ * <p>
+ * 通过sc.sc().addSparkListener()注册到SparkContext上之后，
+ * 每个task结束的时候，都会把task的指标累加到所属stage上，stage结束的时候，再补上stage的名称和耗时
+ * <p>
+ * 注意：listener的事件是由Spark的listener bus线程异步投递的，
+ * action返回的时候，最后几个事件可能还没有处理完，所以读取指标之前，要先调用awaitJobs()等待
+ */
+public class StageMetricsListener extends JavaSparkListener {
+
+    //stageId_attemptId -> 指标
+    private Map<String, StageMetrics> stageMetrics = new LinkedHashMap<String, StageMetrics>();
+    //已经完成的stage
+    private Set<String> completedStages = new HashSet<String>();
+    //已经结束的job
+    private Set<Integer> endedJobs = new HashSet<Integer>();
+    //stageId_attemptId -> 每个task的耗时，stage结束的时候用来计算数据倾斜比例
+    private Map<String, List<Long>> taskTimes = new HashMap<String, List<Long>>();
+
+    @Override
+    public synchronized void onStageSubmitted(SparkListenerStageSubmitted stageSubmitted) {
+        StageInfo stageInfo = stageSubmitted.stageInfo();
+        getOrCreate(stageInfo.stageId(), stageInfo.attemptId());
+    }
+
+    @Override
+    public synchronized void onTaskEnd(SparkListenerTaskEnd taskEnd) {
+        String key = key(taskEnd.stageId(), taskEnd.stageAttemptId());
+        List<Long> times = taskTimes.get(key);
+        if (times == null) {
+            times = new ArrayList<Long>();
+            taskTimes.put(key, times);
+        }
+        times.add(taskEnd.taskInfo().duration());
+
+        TaskMetrics taskMetrics = taskEnd.taskMetrics();
+        if (taskMetrics == null) {
+            return;
+        }
+
+        StageMetrics metrics = getOrCreate(taskEnd.stageId(), taskEnd.stageAttemptId());
+        metrics.setExecutorRunTime(metrics.getExecutorRunTime() + taskMetrics.executorRunTime());
+        metrics.setJvmGcTime(metrics.getJvmGcTime() + taskMetrics.jvmGCTime());
+        metrics.setMemoryBytesSpilled(metrics.getMemoryBytesSpilled() + taskMetrics.memoryBytesSpilled());
+        metrics.setDiskBytesSpilled(metrics.getDiskBytesSpilled() + taskMetrics.diskBytesSpilled());
+
+        if (taskMetrics.inputMetrics().isDefined()) {
+            InputMetrics inputMetrics = taskMetrics.inputMetrics().get();
+            metrics.setInputBytes(metrics.getInputBytes() + inputMetrics.bytesRead());
+            metrics.setInputRecords(metrics.getInputRecords() + inputMetrics.recordsRead());
+        }
+        if (taskMetrics.shuffleReadMetrics().isDefined()) {
+            ShuffleReadMetrics shuffleReadMetrics = taskMetrics.shuffleReadMetrics().get();
+            metrics.setShuffleReadBytes(metrics.getShuffleReadBytes() + shuffleReadMetrics.totalBytesRead());
+            metrics.setShuffleReadRecords(metrics.getShuffleReadRecords() + shuffleReadMetrics.recordsRead());
+        }
+        if (taskMetrics.shuffleWriteMetrics().isDefined()) {
+            ShuffleWriteMetrics shuffleWriteMetrics = taskMetrics.shuffleWriteMetrics().get();
+            metrics.setShuffleWriteBytes(metrics.getShuffleWriteBytes() + shuffleWriteMetrics.shuffleBytesWritten());
+            metrics.setShuffleWriteRecords(metrics.getShuffleWriteRecords() + shuffleWriteMetrics.shuffleRecordsWritten());
+        }
+    }
+
+    @Override
+    public synchronized void onStageCompleted(SparkListenerStageCompleted stageCompleted) {
+        StageInfo stageInfo = stageCompleted.stageInfo();
+        StageMetrics metrics = getOrCreate(stageInfo.stageId(), stageInfo.attemptId());
+
+        metrics.setStageName(stageInfo.name());
+        metrics.setNumTasks(stageInfo.numTasks());
+        if (stageInfo.submissionTime().isDefined() && stageInfo.completionTime().isDefined()) {
+            long submissionTime = (Long) stageInfo.submissionTime().get();
+            long completionTime = (Long) stageInfo.completionTime().get();
+            metrics.setSubmissionTime(submissionTime);
+            metrics.setCompletionTime(completionTime);
+            metrics.setDuration(completionTime - submissionTime);
+        }
+
+        //计算数据倾斜比例：最慢的task耗时 / task耗时的中位数
+        String key = key(stageInfo.stageId(), stageInfo.attemptId());
+        List<Long> times = taskTimes.remove(key);
+        if (times != null && !times.isEmpty()) {
+            Collections.sort(times);
+            long maxTaskTime = times.get(times.size() - 1);
+            long medianTaskTime = times.get(times.size() / 2);
+            metrics.setMaxTaskTime(maxTaskTime);
+            metrics.setMedianTaskTime(medianTaskTime);
+            metrics.setSkewRatio(medianTaskTime > 0 ? (double) maxTaskTime / medianTaskTime : 0D);
+        }
+
+        completedStages.add(key);
+        onStageMetrics(metrics);
+
+        if (!retainCompletedStages()) {
+            stageMetrics.remove(key);
+            completedStages.remove(key);
+        }
+    }
+
+    /**
+     * stage完成以后，是否还要在内存中保留它的指标
+     * 常驻的driver中，如果指标已经交给onStageMetrics()处理了，就不需要再保留，否则会越积越多
+     *
+     * @return
+     */
+    protected boolean retainCompletedStages() {
+        return true;
+    }
+
+    /**
+     * 一个stage的指标收集完成之后的回调，子类可以覆盖这个方法，对指标做进一步的处理
+     *
+     * @param metrics
+     */
+    protected void onStageMetrics(StageMetrics metrics) {
+
+    }
+
+    @Override
+    public synchronized void onJobEnd(SparkListenerJobEnd jobEnd) {
+        endedJobs.add(jobEnd.jobId());
+        notifyAll();
+    }
+
+    /**
+     * 等待指定的job的结束事件都被处理完，最多等待timeoutMs毫秒
+     *
+     * @param jobIds    job id
+     * @param timeoutMs 超时时间
+     * @return 是否全部处理完
+     */
+    public synchronized boolean awaitJobs(int[] jobIds, long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        for (int jobId : jobIds) {
+            while (!endedJobs.contains(jobId)) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 获取所有已经完成的stage的指标，按照stage提交的先后顺序排列
+     *
+     * @return
+     */
+    public synchronized List<StageMetrics> getStageMetrics() {
+        List<StageMetrics> result = new ArrayList<StageMetrics>();
+        for (Map.Entry<String, StageMetrics> entry : stageMetrics.entrySet()) {
+            if (completedStages.contains(entry.getKey())) {
+                result.add(entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 清空已经收集的指标
+     */
+    public synchronized void reset() {
+        stageMetrics.clear();
+        completedStages.clear();
+        endedJobs.clear();
+        taskTimes.clear();
+    }
+
+    /**
+     * 汇总多个stage的指标
+     *
+     * @param stages
+     * @return
+     */
+    public static StageMetrics sum(Collection<StageMetrics> stages) {
+        StageMetrics total = new StageMetrics();
+        total.setStageId(-1);
+        total.setStageName("total");
+        for (StageMetrics metrics : stages) {
+            total.setNumTasks(total.getNumTasks() + metrics.getNumTasks());
+            total.setDuration(total.getDuration() + metrics.getDuration());
+            total.setExecutorRunTime(total.getExecutorRunTime() + metrics.getExecutorRunTime());
+            total.setInputBytes(total.getInputBytes() + metrics.getInputBytes());
+            total.setInputRecords(total.getInputRecords() + metrics.getInputRecords());
+            total.setShuffleReadBytes(total.getShuffleReadBytes() + metrics.getShuffleReadBytes());
+            total.setShuffleReadRecords(total.getShuffleReadRecords() + metrics.getShuffleReadRecords());
+            total.setShuffleWriteBytes(total.getShuffleWriteBytes() + metrics.getShuffleWriteBytes());
+            total.setShuffleWriteRecords(total.getShuffleWriteRecords() + metrics.getShuffleWriteRecords());
+            total.setMemoryBytesSpilled(total.getMemoryBytesSpilled() + metrics.getMemoryBytesSpilled());
+            total.setDiskBytesSpilled(total.getDiskBytesSpilled() + metrics.getDiskBytesSpilled());
+            total.setJvmGcTime(total.getJvmGcTime() + metrics.getJvmGcTime());
+        }
+        return total;
+    }
+
+    private StageMetrics getOrCreate(int stageId, int attemptId) {
+        String key = key(stageId, attemptId);
+        StageMetrics metrics = stageMetrics.get(key);
+        if (metrics == null) {
+            metrics = new StageMetrics();
+            metrics.setStageId(stageId);
+            metrics.setAttemptId(attemptId);
+            stageMetrics.put(key, metrics);
+        }
+        return metrics;
+    }
+
+    private static String key(int stageId, int attemptId) {
+        return stageId + "_" + attemptId;
+    }
+}
@@ -0,0 +1,104 @@
+package com.bf.sparkproject.spark.monitor;
+
+import com.bf.sparkproject.dao.ITaskMetricsDAO;
+import com.bf.sparkproject.dao.impl.DAOFactory;
+import com.bf.sparkproject.domain.StageMetrics;
+import org.apache.spark.scheduler.SparkListenerApplicationEnd;
+import org.apache.spark.scheduler.SparkListenerJobEnd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 将stage运行指标持久化到MySQL的task_metrics表中
+ * <p>
+ * 每个stage结束的时候，把指标打上分析任务的id，先缓存在内存中，
+ * 等到job结束（或者整个application结束）的时候，再通过JDBCHelper批量写入，避免每个stage都访问一次数据库
+ * <p>
+ * 写入是交给后台线程异步执行的：listener是在Spark的listener bus线程中回调的，所有listener共用这一个线程，
+ * MySQL一慢，事件就会积压在listener bus的队列中，队列满了之后，所有listener的事件都会被丢弃
+ * application结束的时候，最多等待FLUSH_TIMEOUT_SECONDS秒，把还没有写完的指标写完
+ * <p>
+ * 批量执行的时候，多个任务共享同一批stage，每个stage给每个任务各记一条指标
+ * <p>
+ * 各个Spark作业只要在创建SparkContext之后，调用SparkUtils.registerTaskMetricsListener()注册即可
+ */
+public class TaskMetricsPersistListener extends StageMetricsListener {
+
+    private static final long FLUSH_TIMEOUT_SECONDS = 30L;
+
+    private List<Long> taskids;
+    private List<StageMetrics> pending = new ArrayList<StageMetrics>();
+    private ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "task-metrics-writer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public TaskMetricsPersistListener(List<Long> taskids) {
+        this.taskids = taskids;
+    }
+
+    @Override
+    protected void onStageMetrics(StageMetrics metrics) {
+        for (int i = 0; i < taskids.size(); i++) {
+            StageMetrics taskMetrics = i == 0 ? metrics : metrics.copy();
+            taskMetrics.setTaskid(taskids.get(i));
+            pending.add(taskMetrics);
+        }
+    }
+
+    @Override
+    protected boolean retainCompletedStages() {
+        return false;
+    }
+
+    @Override
+    public synchronized void onJobEnd(SparkListenerJobEnd jobEnd) {
+        super.onJobEnd(jobEnd);
+        flush();
+    }
+
+    @Override
+    public synchronized void onApplicationEnd(SparkListenerApplicationEnd applicationEnd) {
+        flush();
+        writer.shutdown();
+        try {
+            writer.awaitTermination(FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 把缓存的指标交给后台线程批量写入
+     */
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        final List<StageMetrics> batch = pending;
+        pending = new ArrayList<StageMetrics>();
+
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ITaskMetricsDAO taskMetricsDAO = DAOFactory.getTaskMetricsDAO();
+                    taskMetricsDAO.insertBatch(batch);
+                } catch (Exception e) {
+                    //指标写入失败，不能影响作业本身的运行
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+}
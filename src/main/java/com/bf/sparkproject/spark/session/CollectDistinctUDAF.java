@@ -0,0 +1,91 @@
+package com.bf.sparkproject.spark.session;
+
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.expressions.MutableAggregationBuffer;
+import org.apache.spark.sql.expressions.UserDefinedAggregateFunction;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 收集某一列去重之后的所有取值，返回数组，null值会被忽略
+ * <p>
+ * 作用和Hive的collect_set一样，但是SQLContext中没有collect_set（只有HiveContext才有），
+ * 所以自己实现一个，用于DataFrame方式的session聚合中，收集session搜索过的词、点击过的品类
+ */
+public class CollectDistinctUDAF extends UserDefinedAggregateFunction {
+
+    private static final long serialVersionUID = 1L;
+
+    private DataType elementType;
+
+    /**
+     * @param elementType 被收集的列的类型
+     */
+    public CollectDistinctUDAF(DataType elementType) {
+        this.elementType = elementType;
+    }
+
+    @Override
+    public StructType inputSchema() {
+        return DataTypes.createStructType(Arrays.asList(
+                DataTypes.createStructField("value", elementType, true)));
+    }
+
+    @Override
+    public StructType bufferSchema() {
+        return DataTypes.createStructType(Arrays.asList(
+                DataTypes.createStructField("values", DataTypes.createArrayType(elementType, false), false)));
+    }
+
+    @Override
+    public DataType dataType() {
+        return DataTypes.createArrayType(elementType, false);
+    }
+
+    @Override
+    public boolean deterministic() {
+        return true;
+    }
+
+    @Override
+    public void initialize(MutableAggregationBuffer buffer) {
+        buffer.update(0, new Object[0]);
+    }
+
+    @Override
+    public void update(MutableAggregationBuffer buffer, Row input) {
+        if (input.isNullAt(0)) {
+            return;
+        }
+        List<Object> values = buffer.getList(0);
+        Object value = input.get(0);
+        //session中同一个词、同一个品类出现的次数不多，线性查找就可以了
+        if (!values.contains(value)) {
+            Object[] newValues = values.toArray(new Object[values.size() + 1]);
+            newValues[values.size()] = value;
+            buffer.update(0, newValues);
+        }
+    }
+
+    @Override
+    public void merge(MutableAggregationBuffer buffer1, Row buffer2) {
+        List<Object> values2 = buffer2.getList(0);
+        if (values2.isEmpty()) {
+            return;
+        }
+        Set<Object> values = new LinkedHashSet<Object>(buffer1.<Object>getList(0));
+        values.addAll(values2);
+        buffer1.update(0, values.toArray());
+    }
+
+    @Override
+    public Object evaluate(Row buffer) {
+        return buffer.getList(0).toArray();
+    }
+}
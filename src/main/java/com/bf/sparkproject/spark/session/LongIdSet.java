@@ -0,0 +1,108 @@
+package com.bf.sparkproject.spark.session;
+
+import com.bf.sparkproject.conf.ConfigurationManager;
+import com.bf.sparkproject.constant.Constants;
+import com.bf.sparkproject.spark.lifecycle.RDDLifecycleManager;
+import com.bf.sparkproject.util.LongBloomFilter;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.function.Function2;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 用于广播的id集合，只需要支持“是否可能包含”的判断
+ * <p>
+ * id个数不超过${session.prune.exact.limit}的时候，保存成排好序的long数组，二分查找，判断是精确的
+ * 超过的时候，改用布隆过滤器（LongBloomFilter），误判率为${session.prune.bloom.fpp}，
+ * 广播出去的数据量只有long数组的几分之一，而且构建的时候不需要把所有id都collect到driver端
+ * <p>
+ * 有误判的话，只是少过滤掉一些数据，后面还会按照完整的条件再判断一次，结果不受影响
+ */
+public class LongIdSet implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    //构建过程中缓存的id在RDDLifecycleManager中的名字
+    private static final String ID_RDD = "prune_ids";
+
+    //以下两个字段只有一个不为null
+    private long[] ids;
+    private LongBloomFilter bloomFilter;
+
+    /**
+     * 根据RDD中的id构建集合
+     *
+     * @param idRDD id，不能有重复
+     * @return
+     */
+    public static LongIdSet build(JavaRDD<Long> idRDD) {
+        //先count再collect或者聚合，要读取两遍，持久化级别由RDDLifecycleManager按配置决定
+        RDDLifecycleManager rddLifecycleManager = RDDLifecycleManager.getInstance(idRDD.context());
+        idRDD = rddLifecycleManager.persist(ID_RDD, idRDD);
+        try {
+            LongIdSet idSet = new LongIdSet();
+            long count = idRDD.count();
+
+            if (count <= ConfigurationManager.getLong(Constants.SESSION_PRUNE_EXACT_LIMIT)) {
+                List<Long> values = idRDD.collect();
+                long[] ids = new long[values.size()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = values.get(i);
+                }
+                Arrays.sort(ids);
+                idSet.ids = ids;
+            } else {
+                //每个分区构建一个布隆过滤器，再逐层合并
+                double fpp = ConfigurationManager.getDouble(Constants.SESSION_PRUNE_BLOOM_FPP);
+                idSet.bloomFilter = idRDD.treeAggregate(new LongBloomFilter(count, fpp),
+                        new Function2<LongBloomFilter, Long, LongBloomFilter>() {
+                            private static final long serialVersionUID = 1L;
+
+                            @Override
+                            public LongBloomFilter call(LongBloomFilter bloomFilter, Long id) throws Exception {
+                                bloomFilter.put(id);
+                                return bloomFilter;
+                            }
+                        },
+                        new Function2<LongBloomFilter, LongBloomFilter, LongBloomFilter>() {
+                            private static final long serialVersionUID = 1L;
+
+                            @Override
+                            public LongBloomFilter call(LongBloomFilter bloomFilter1, LongBloomFilter bloomFilter2)
+                                    throws Exception {
+                                return bloomFilter1.merge(bloomFilter2);
+                            }
+                        });
+            }
+
+            return idSet;
+        } finally {
+            rddLifecycleManager.release(ID_RDD);
+        }
+    }
+
+    /**
+     * 判断是否可能包含某个id
+     *
+     * @return false表示一定不包含
+     */
+    public boolean mightContain(long id) {
+        if (ids != null) {
+            return Arrays.binarySearch(ids, id) >= 0;
+        }
+        return bloomFilter.mightContain(id);
+    }
+
+    public boolean isExact() {
+        return ids != null;
+    }
+
+    @Override
+    public String toString() {
+        return ids != null
+                ? "exact(" + ids.length + ")"
+                : "bloom(" + bloomFilter.getNumBits() + " bits, " + bloomFilter.getNumHashFunctions() + " hashes)";
+    }
+}
@@ -0,0 +1,50 @@
+package com.bf.sparkproject.spark.session;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * RoaringBitmap的Kryo序列化器
+ * <p>
+ * Kryo默认的FieldSerializer会逐个序列化RoaringBitmap内部的container对象，还要写上类型信息
+ * 而RoaringBitmap自带的serialize()/deserialize()格式，在反序列化的时候会调用DataInput.skipBytes()，
+ * Kryo 2.21的Input.skip(long)有bug，会直接抛出Buffer underflow，Spark读shuffle数据的时候会把它当成流结束，导致数据丢失
+ * <p>
+ * 所以这里自己编码：先写元素个数，再按从小到大的顺序写相邻元素的差值，都使用变长编码
+ * session中的搜索词、品类都只有几个到几十个，序列化之后只有几个到几十个字节
+ */
+public class RoaringBitmapSerializer extends Serializer<RoaringBitmap> {
+
+    @Override
+    public void write(Kryo kryo, Output output, RoaringBitmap bitmap) {
+        output.writeInt(bitmap.getCardinality(), true);
+        IntIterator iterator = bitmap.getIntIterator();
+        int previous = 0;
+        while (iterator.hasNext()) {
+            int value = iterator.next();
+            output.writeInt(value - previous, true);
+            previous = value;
+        }
+    }
+
+    @Override
+    public RoaringBitmap read(Kryo kryo, Input input, Class<RoaringBitmap> type) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        int cardinality = input.readInt(true);
+        int value = 0;
+        for (int i = 0; i < cardinality; i++) {
+            value += input.readInt(true);
+            bitmap.add(value);
+        }
+        return bitmap;
+    }
+
+    @Override
+    public RoaringBitmap copy(Kryo kryo, RoaringBitmap original) {
+        return original.clone();
+    }
+}
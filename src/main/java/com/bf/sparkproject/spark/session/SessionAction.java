@@ -0,0 +1,257 @@
+package com.bf.sparkproject.spark.session;
+
+import com.bf.sparkproject.util.DateUtils;
+import org.apache.spark.sql.Row;
+
+import java.io.Serializable;
+
+/**
+ * 紧凑格式的用户访问行为
+ * <p>
+ * user_visit_action查询出来的Row，每个字段都是一个装箱对象，session_id是32位的字符串，action_time是19位的字符串，
+ * search_keyword也是字符串，一条行为数据在堆上要占用好几百个字节，session2ActionRDD缓存起来以后，内存压力非常大
+ * <p>
+ * 这里把一条行为数据编码成定长的基本类型字段：
+ * 1、session_id是32位十六进制的uuid，编码成两个long
+ * 2、action_time编码成秒级时间戳
+ * 3、search_keyword编码成字典编号（StringDictionary）
+ * 4、点击、下单、支付相关的字段大部分都是null，用一个null位图来标识哪些字段有值，下单和支付的id列表编码成long数组
+ * <p>
+ * 配合SessionActionSerializer，以MEMORY_ONLY_SER级别缓存的时候，每条数据只需要几十个字节
+ */
+public class SessionAction implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    //null位图中各个字段对应的位
+    static final int HAS_SEARCH_KEYWORD = 1;
+    static final int HAS_CLICK_CATEGORY_ID = 1 << 1;
+    static final int HAS_CLICK_PRODUCT_ID = 1 << 2;
+    static final int HAS_ORDER_CATEGORY_IDS = 1 << 3;
+    static final int HAS_ORDER_PRODUCT_IDS = 1 << 4;
+    static final int HAS_PAY_CATEGORY_IDS = 1 << 5;
+    static final int HAS_PAY_PRODUCT_IDS = 1 << 6;
+
+    private long sessionIdHigh;
+    private long sessionIdLow;
+    private long userId;
+    private long pageId;
+    private long actionTime;
+    private int nullBits;
+    private int searchKeywordId = StringDictionary.NO_ID;
+    private long clickCategoryId;
+    private long clickProductId;
+    private long[] orderCategoryIds;
+    private long[] orderProductIds;
+    private long[] payCategoryIds;
+    private long[] payProductIds;
+    private long cityId;
+
+    /**
+     * 将user_visit_action表中的一行数据编码成SessionAction
+     *
+     * @param row               user_visit_action表的一行数据
+     * @param keywordDictionary 搜索词字典
+     * @return
+     */
+    public static SessionAction fromRow(Row row, StringDictionary keywordDictionary) {
+        SessionAction action = new SessionAction();
+
+        //没有session_id的数据源，session id由Sessionizer按时间间隔切分之后再设置
+        if (!row.isNullAt(2)) {
+            SessionId sessionId = SessionId.parse(row.getString(2));
+            action.sessionIdHigh = sessionId.getHigh();
+            action.sessionIdLow = sessionId.getLow();
+        }
+        action.userId = row.getLong(1);
+        action.pageId = row.getLong(3);
+        action.actionTime = DateUtils.parseTimeSeconds(row.getString(4));
+        action.cityId = row.getLong(12);
+
+        if (!row.isNullAt(5)) {
+            action.searchKeywordId = keywordDictionary.encode(row.getString(5));
+            if (action.searchKeywordId != StringDictionary.NO_ID) {
+                action.nullBits |= HAS_SEARCH_KEYWORD;
+            }
+        }
+        if (!row.isNullAt(6)) {
+            action.clickCategoryId = row.getLong(6);
+            action.nullBits |= HAS_CLICK_CATEGORY_ID;
+        }
+        if (!row.isNullAt(7)) {
+            action.clickProductId = row.getLong(7);
+            action.nullBits |= HAS_CLICK_PRODUCT_ID;
+        }
+
+        action.orderCategoryIds = parseIds(row, 8);
+        action.orderProductIds = parseIds(row, 9);
+        action.payCategoryIds = parseIds(row, 10);
+        action.payProductIds = parseIds(row, 11);
+        action.nullBits |= (action.orderCategoryIds != null ? HAS_ORDER_CATEGORY_IDS : 0)
+                | (action.orderProductIds != null ? HAS_ORDER_PRODUCT_IDS : 0)
+                | (action.payCategoryIds != null ? HAS_PAY_CATEGORY_IDS : 0)
+                | (action.payProductIds != null ? HAS_PAY_PRODUCT_IDS : 0);
+
+        return action;
+    }
+
+    /**
+     * session id只有在作为key的时候才创建对象，缓存的时候只保存两个long
+     *
+     * @return
+     */
+    public SessionId getSessionId() {
+        return new SessionId(sessionIdHigh, sessionIdLow);
+    }
+
+    public boolean hasSearchKeyword() {
+        return (nullBits & HAS_SEARCH_KEYWORD) != 0;
+    }
+
+    public boolean hasClickCategoryId() {
+        return (nullBits & HAS_CLICK_CATEGORY_ID) != 0;
+    }
+
+    public boolean hasClickProductId() {
+        return (nullBits & HAS_CLICK_PRODUCT_ID) != 0;
+    }
+
+    public long getSessionIdHigh() {
+        return sessionIdHigh;
+    }
+
+    public long getSessionIdLow() {
+        return sessionIdLow;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public long getPageId() {
+        return pageId;
+    }
+
+    /**
+     * @return 秒级时间戳
+     */
+    public long getActionTime() {
+        return actionTime;
+    }
+
+    public int getSearchKeywordId() {
+        return searchKeywordId;
+    }
+
+    public long getClickCategoryId() {
+        return clickCategoryId;
+    }
+
+    public long getClickProductId() {
+        return clickProductId;
+    }
+
+    /**
+     * @return 下单品类id，没有的话返回null
+     */
+    public long[] getOrderCategoryIds() {
+        return orderCategoryIds;
+    }
+
+    public long[] getOrderProductIds() {
+        return orderProductIds;
+    }
+
+    public long[] getPayCategoryIds() {
+        return payCategoryIds;
+    }
+
+    public long[] getPayProductIds() {
+        return payProductIds;
+    }
+
+    public long getCityId() {
+        return cityId;
+    }
+
+    int getNullBits() {
+        return nullBits;
+    }
+
+    //以下几个方法给SessionActionSerializer反序列化、Sessionizer设置session id的时候使用
+
+    void setSessionId(long high, long low) {
+        this.sessionIdHigh = high;
+        this.sessionIdLow = low;
+    }
+
+    void setUserId(long userId) {
+        this.userId = userId;
+    }
+
+    void setPageId(long pageId) {
+        this.pageId = pageId;
+    }
+
+    void setActionTime(long actionTime) {
+        this.actionTime = actionTime;
+    }
+
+    void setNullBits(int nullBits) {
+        this.nullBits = nullBits;
+    }
+
+    void setSearchKeywordId(int searchKeywordId) {
+        this.searchKeywordId = searchKeywordId;
+    }
+
+    void setClickCategoryId(long clickCategoryId) {
+        this.clickCategoryId = clickCategoryId;
+    }
+
+    void setClickProductId(long clickProductId) {
+        this.clickProductId = clickProductId;
+    }
+
+    void setOrderCategoryIds(long[] orderCategoryIds) {
+        this.orderCategoryIds = orderCategoryIds;
+    }
+
+    void setOrderProductIds(long[] orderProductIds) {
+        this.orderProductIds = orderProductIds;
+    }
+
+    void setPayCategoryIds(long[] payCategoryIds) {
+        this.payCategoryIds = payCategoryIds;
+    }
+
+    void setPayProductIds(long[] payProductIds) {
+        this.payProductIds = payProductIds;
+    }
+
+    void setCityId(long cityId) {
+        this.cityId = cityId;
+    }
+
+    /**
+     * 解析逗号分隔的id列表
+     *
+     * @return 字段为null或者为空的话，返回null
+     */
+    private static long[] parseIds(Row row, int index) {
+        if (row.isNullAt(index)) {
+            return null;
+        }
+        String value = row.getString(index);
+        if (value.length() == 0) {
+            return null;
+        }
+
+        String[] splited = value.split(",");
+        long[] ids = new long[splited.length];
+        for (int i = 0; i < splited.length; i++) {
+            ids[i] = Long.valueOf(splited[i].trim());
+        }
+        return ids;
+    }
+}
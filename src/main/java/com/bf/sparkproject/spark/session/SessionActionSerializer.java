@@ -0,0 +1,106 @@
+package com.bf.sparkproject.spark.session;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * SessionAction的Kryo序列化器
+ * <p>
+ * Kryo默认的FieldSerializer会给每个字段都写上完整的8个字节，long数组还要写上类型信息
+ * 这里手工编码：
+ * 1、先写null位图，值为null的字段完全不写
+ * 2、id、时间戳这些非负数，使用变长编码，一般只需要1~5个字节
+ * 3、session_id的两个long是随机分布的，变长编码反而更长，所以直接写定长的16个字节
+ */
+public class SessionActionSerializer extends Serializer<SessionAction> {
+
+    @Override
+    public void write(Kryo kryo, Output output, SessionAction action) {
+        int nullBits = action.getNullBits();
+        output.writeByte(nullBits);
+        output.writeLong(action.getSessionIdHigh());
+        output.writeLong(action.getSessionIdLow());
+        output.writeLong(action.getUserId(), true);
+        output.writeLong(action.getPageId(), true);
+        output.writeLong(action.getActionTime(), true);
+        output.writeLong(action.getCityId(), true);
+
+        if ((nullBits & SessionAction.HAS_SEARCH_KEYWORD) != 0) {
+            output.writeInt(action.getSearchKeywordId(), true);
+        }
+        if ((nullBits & SessionAction.HAS_CLICK_CATEGORY_ID) != 0) {
+            output.writeLong(action.getClickCategoryId(), true);
+        }
+        if ((nullBits & SessionAction.HAS_CLICK_PRODUCT_ID) != 0) {
+            output.writeLong(action.getClickProductId(), true);
+        }
+        if ((nullBits & SessionAction.HAS_ORDER_CATEGORY_IDS) != 0) {
+            writeIds(output, action.getOrderCategoryIds());
+        }
+        if ((nullBits & SessionAction.HAS_ORDER_PRODUCT_IDS) != 0) {
+            writeIds(output, action.getOrderProductIds());
+        }
+        if ((nullBits & SessionAction.HAS_PAY_CATEGORY_IDS) != 0) {
+            writeIds(output, action.getPayCategoryIds());
+        }
+        if ((nullBits & SessionAction.HAS_PAY_PRODUCT_IDS) != 0) {
+            writeIds(output, action.getPayProductIds());
+        }
+    }
+
+    @Override
+    public SessionAction read(Kryo kryo, Input input, Class<SessionAction> type) {
+        SessionAction action = new SessionAction();
+
+        int nullBits = input.readByte() & 0xFF;
+        action.setNullBits(nullBits);
+        long high = input.readLong();
+        long low = input.readLong();
+        action.setSessionId(high, low);
+        action.setUserId(input.readLong(true));
+        action.setPageId(input.readLong(true));
+        action.setActionTime(input.readLong(true));
+        action.setCityId(input.readLong(true));
+
+        if ((nullBits & SessionAction.HAS_SEARCH_KEYWORD) != 0) {
+            action.setSearchKeywordId(input.readInt(true));
+        }
+        if ((nullBits & SessionAction.HAS_CLICK_CATEGORY_ID) != 0) {
+            action.setClickCategoryId(input.readLong(true));
+        }
+        if ((nullBits & SessionAction.HAS_CLICK_PRODUCT_ID) != 0) {
+            action.setClickProductId(input.readLong(true));
+        }
+        if ((nullBits & SessionAction.HAS_ORDER_CATEGORY_IDS) != 0) {
+            action.setOrderCategoryIds(readIds(input));
+        }
+        if ((nullBits & SessionAction.HAS_ORDER_PRODUCT_IDS) != 0) {
+            action.setOrderProductIds(readIds(input));
+        }
+        if ((nullBits & SessionAction.HAS_PAY_CATEGORY_IDS) != 0) {
+            action.setPayCategoryIds(readIds(input));
+        }
+        if ((nullBits & SessionAction.HAS_PAY_PRODUCT_IDS) != 0) {
+            action.setPayProductIds(readIds(input));
+        }
+
+        return action;
+    }
+
+    private static void writeIds(Output output, long[] ids) {
+        output.writeInt(ids.length, true);
+        for (long id : ids) {
+            output.writeLong(id, true);
+        }
+    }
+
+    private static long[] readIds(Input input) {
+        long[] ids = new long[input.readInt(true)];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = input.readLong(true);
+        }
+        return ids;
+    }
+}
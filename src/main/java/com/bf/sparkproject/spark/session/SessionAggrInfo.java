@@ -0,0 +1,245 @@
+package com.bf.sparkproject.spark.session;
+
+import com.bf.sparkproject.constant.Constants;
+import com.bf.sparkproject.util.DateUtils;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.Serializable;
+
+/**
+ * session粒度的聚合数据
+ * <p>
+ * 原来的聚合数据是key=value|key=value格式的连接串，每过滤一个条件，都要对整个字符串做一次split
+ * 这里改成强类型的字段，字符串类型的取值（搜索词、职业、城市、性别）都保存成字典编号，
+ * 只有在输出结果的时候，才通过toConcatString()还原成原来的连接串格式
+ * <p>
+ * 搜索词和点击品类的集合使用RoaringBitmap保存：
+ * 1、去重是O(1)的，不会像StringBuffer.contains()那样随着session变大而变成平方级别，也不会把品类1误判成品类12
+ * 2、作为combineByKey的聚合结果，同一个session在不同分区中的部分聚合结果，用bitmap的OR合并即可
+ * 3、只有几个元素的bitmap序列化之后只有十几个字节
+ */
+public class SessionAggrInfo implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private SessionId sessionId;
+    private long userId;
+    //搜索词的字典编号
+    private RoaringBitmap searchKeywordIds = new RoaringBitmap();
+    //点击品类id
+    private RoaringBitmap clickCategoryIds = new RoaringBitmap();
+    //访问步长
+    private long stepLength;
+    //session的起始时间和结束时间（秒级时间戳）
+    private long startTime = Long.MAX_VALUE;
+    private long endTime = Long.MIN_VALUE;
+
+    //以下是和用户信息join之后才有的字段
+    private int age;
+    private int professionalId = StringDictionary.NO_ID;
+    private int cityId = StringDictionary.NO_ID;
+    private int sexId = StringDictionary.NO_ID;
+
+    /**
+     * 由session的第一个访问行为创建部分聚合结果
+     *
+     * @param action 访问行为
+     * @return
+     */
+    public static SessionAggrInfo create(SessionAction action) {
+        SessionAggrInfo aggrInfo = new SessionAggrInfo();
+        aggrInfo.sessionId = action.getSessionId();
+        aggrInfo.userId = action.getUserId();
+        aggrInfo.add(action);
+        return aggrInfo;
+    }
+
+    /**
+     * 将一个访问行为累加到部分聚合结果中
+     *
+     * @param action 访问行为
+     * @return this
+     */
+    public SessionAggrInfo add(SessionAction action) {
+        //并不是每一行访问行为都有searchKeyword和clickCategoryId两个字段的
+        //只有搜索行为，是有searchKeyword字段的，只有点击品类的行为，是有clickCategoryId字段的
+        if (action.hasSearchKeyword()) {
+            searchKeywordIds.add(action.getSearchKeywordId());
+        }
+        if (action.hasClickCategoryId()) {
+            clickCategoryIds.add(toCategoryInt(action.getClickCategoryId()));
+        }
+
+        long actionTime = action.getActionTime();
+        if (actionTime < startTime) {
+            startTime = actionTime;
+        }
+        if (actionTime > endTime) {
+            endTime = actionTime;
+        }
+
+        stepLength++;
+        return this;
+    }
+
+    /**
+     * 合并同一个session的另一个部分聚合结果
+     *
+     * @param other 另一个部分聚合结果
+     * @return this
+     */
+    public SessionAggrInfo merge(SessionAggrInfo other) {
+        searchKeywordIds.or(other.searchKeywordIds);
+        clickCategoryIds.or(other.clickCategoryIds);
+        startTime = Math.min(startTime, other.startTime);
+        endTime = Math.max(endTime, other.endTime);
+        stepLength += other.stepLength;
+        return this;
+    }
+
+    /**
+     * 品类id保存在RoaringBitmap中，必须在int范围内
+     *
+     * @param categoryId 品类id
+     * @return
+     */
+    public static int toCategoryInt(long categoryId) {
+        if (categoryId < 0 || categoryId > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("category id out of range: " + categoryId);
+        }
+        return (int) categoryId;
+    }
+
+    /**
+     * 还原成key=value|key=value格式的连接串
+     *
+     * @param dictionaries 字典
+     * @return
+     */
+    public String toConcatString(SessionDictionaries dictionaries) {
+        StringBuilder keywords = new StringBuilder();
+        IntIterator keywordIterator = searchKeywordIds.getIntIterator();
+        while (keywordIterator.hasNext()) {
+            if (keywords.length() > 0) {
+                keywords.append(",");
+            }
+            keywords.append(dictionaries.getKeywords().decode(keywordIterator.next()));
+        }
+
+        StringBuilder categoryIds = new StringBuilder();
+        IntIterator categoryIterator = clickCategoryIds.getIntIterator();
+        while (categoryIterator.hasNext()) {
+            if (categoryIds.length() > 0) {
+                categoryIds.append(",");
+            }
+            categoryIds.append(categoryIterator.next());
+        }
+
+        return Constants.FIELD_SESSION_ID + "=" + sessionId + "|"
+                + Constants.FIELD_SEARCH_KEYWORDS + "=" + keywords + "|"
+                + Constants.FIELD_CLICK_CATEGORY_IDS + "=" + categoryIds + "|"
+                + Constants.FIELD_VISIT_LENGTH + "=" + getVisitLength() + "|"
+                + Constants.FIELD_STEP_LENGTH + "=" + stepLength + "|"
+                + Constants.FIELD_START_TIME + "=" + DateUtils.formatTimeSeconds(startTime) + "|"
+                + Constants.FIELD_AGE + "=" + age + "|"
+                + Constants.FIELD_PROFESSIONAL + "=" + dictionaries.getProfessionals().decode(professionalId) + "|"
+                + Constants.FIELD_CITY + "=" + dictionaries.getCities().decode(cityId) + "|"
+                + Constants.FIELD_SEX + "=" + dictionaries.getSexes().decode(sexId);
+    }
+
+    public SessionId getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(SessionId sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(long userId) {
+        this.userId = userId;
+    }
+
+    public RoaringBitmap getSearchKeywordIds() {
+        return searchKeywordIds;
+    }
+
+    public void setSearchKeywordIds(RoaringBitmap searchKeywordIds) {
+        this.searchKeywordIds = searchKeywordIds;
+    }
+
+    public RoaringBitmap getClickCategoryIds() {
+        return clickCategoryIds;
+    }
+
+    public void setClickCategoryIds(RoaringBitmap clickCategoryIds) {
+        this.clickCategoryIds = clickCategoryIds;
+    }
+
+    /**
+     * @return 访问时长（秒）
+     */
+    public long getVisitLength() {
+        return endTime - startTime;
+    }
+
+    public long getStepLength() {
+        return stepLength;
+    }
+
+    public void setStepLength(long stepLength) {
+        this.stepLength = stepLength;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(long startTime) {
+        this.startTime = startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(long endTime) {
+        this.endTime = endTime;
+    }
+
+    public int getAge() {
+        return age;
+    }
+
+    public void setAge(int age) {
+        this.age = age;
+    }
+
+    public int getProfessionalId() {
+        return professionalId;
+    }
+
+    public void setProfessionalId(int professionalId) {
+        this.professionalId = professionalId;
+    }
+
+    public int getCityId() {
+        return cityId;
+    }
+
+    public void setCityId(int cityId) {
+        this.cityId = cityId;
+    }
+
+    public int getSexId() {
+        return sexId;
+    }
+
+    public void setSexId(int sexId) {
+        this.sexId = sexId;
+    }
+}
@@ -0,0 +1,213 @@
+package com.bf.sparkproject.spark.session;
+
+import com.alibaba.fastjson.JSONObject;
+import com.bf.sparkproject.conf.ConfigurationManager;
+import com.bf.sparkproject.constant.Constants;
+import com.bf.sparkproject.spark.tuning.ParallelismTuner;
+import com.bf.sparkproject.spark.SessionAggrStatBuckets;
+import com.bf.sparkproject.spark.dimension.DimensionCache;
+import com.bf.sparkproject.util.ParamUtils;
+import org.apache.spark.sql.Column;
+import org.apache.spark.sql.DataFrame;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SQLContext;
+import org.apache.spark.sql.types.DataTypes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.apache.spark.sql.functions.*;
+
+/**
+ * DataFrame方式的session聚合、过滤和统计
+ * <p>
+ * RDD方式（UserVisitSessionAnalyzeSpark.aggregateBySession()）在查询出行为数据之后，马上就转换成了JavaRDD<Row>，
+ * 之后的聚合、join、过滤都是在Java对象上进行的，Spark SQL的Tungsten二进制行格式、代码生成都用不上
+ * <p>
+ * 这里把整个流程都用DataFrame的算子来表达，全部交给Catalyst优化和执行：
+ * 1、groupBy(session_id)，min/max(action_time)计算访问时长，count计算访问步长，
+ * 搜索词、点击品类用CollectDistinctUDAF收集成数组
+ * 2、user_info通过broadcast()提示做map join，避免shuffle
+ * 3、筛选条件转换成Column表达式（between、isin、array_contains）
+ * 4、访问时长、访问步长的区间统计，用CASE WHEN表达式在一次聚合中全部算出来，区间和RDD方式一样由SessionAggrStatBuckets定义
+ * <p>
+ * 结果的格式和RDD方式一样，通过session.aggregate.mode=dataframe开启，
+ * 可以在同样的数据上和RDD方式对比
+ * <p>
+ * 这里直接按照数据源中的session_id分组，不能和session.sessionize.enabled（数据源没有session_id，
+ * 按照不活跃的时间间隔重新切分session）同时开启：session_id为null的行为会被全部归到同一个session中，
+ * 所以同时开启的时候直接报错，而不是悄悄的算出错误的结果
+ */
+public class SessionDataFrameAnalyzer {
+
+    private SessionDataFrameAnalyzer() {
+
+    }
+
+    /**
+     * 执行session聚合、过滤和统计
+     *
+     * @param sqlContext
+     * @param taskParam  任务参数
+     * @return session聚合统计的结果连接串
+     */
+    public static String analyze(SQLContext sqlContext, JSONObject taskParam) {
+        DataFrame sessionDF = aggregateBySession(sqlContext, taskParam);
+        DataFrame filteredSessionDF = sessionDF.where(filterCondition(taskParam));
+        return aggrStat(filteredSessionDF, SessionAggrStatBuckets.forTask(taskParam));
+    }
+
+    /**
+     * 对行为数据按session粒度进行聚合，并关联上用户信息
+     *
+     * @param sqlContext
+     * @param taskParam  任务参数
+     * @return 列：session_id, user_id, start_time, end_time, visit_length, step_length,
+     * search_keywords, click_category_ids, age, professional, city, sex
+     */
+    public static DataFrame aggregateBySession(SQLContext sqlContext, JSONObject taskParam) {
+        if (ConfigurationManager.getBoolean(Constants.SESSION_SESSIONIZE_ENABLED)) {
+            throw new IllegalStateException(Constants.SESSION_AGGREGATE_MODE + "=dataframe cannot be used with "
+                    + Constants.SESSION_SESSIONIZE_ENABLED + "=true");
+        }
+        String startDate = ParamUtils.getParam(taskParam, Constants.PARAM_START_DATE);
+        String endDate = ParamUtils.getParam(taskParam, Constants.PARAM_END_DATE);
+
+        //groupBy、join的shuffle分区数按照日期范围内的数据量调整，在aggrStat()中生成物理计划的时候生效
+        ParallelismTuner.tune(sqlContext, startDate, endDate);
+
+        DataFrame actionDF = sqlContext.table(Constants.TABLE_USER_VISIT_ACTION)
+                .where(col("date").geq(startDate).and(col("date").leq(endDate)))
+                .select(col("session_id"), col("user_id"),
+                        unix_timestamp(col("action_time")).as("action_time"),
+                        col("search_keyword"), col("click_category_id"));
+
+        CollectDistinctUDAF collectKeywords = new CollectDistinctUDAF(DataTypes.StringType);
+        CollectDistinctUDAF collectCategoryIds = new CollectDistinctUDAF(DataTypes.LongType);
+
+        //一个session只属于一个用户，user_id直接取first
+        DataFrame sessionDF = actionDF.groupBy("session_id")
+                .agg(first("user_id").as("user_id"),
+                        min("action_time").as("start_time"),
+                        max("action_time").as("end_time"),
+                        count(lit(1)).as("step_length"),
+                        collectKeywords.apply(col("search_keyword")).as("search_keywords"),
+                        collectCategoryIds.apply(col("click_category_id")).as("click_category_ids"))
+                .withColumn("visit_length", col("end_time").minus(col("start_time")));
+
+        DataFrame userInfoDF = DimensionCache.getInstance()
+                .getTable(sqlContext, Constants.TABLE_USER_INFO)
+                .select(col("user_id").as("info_user_id"), col("age"), col("professional"), col("city"), col("sex"));
+
+        //user_info相对于行为数据很小，提示优化器做broadcast join
+        return sessionDF.join(broadcast(userInfoDF), sessionDF.col("user_id").equalTo(col("info_user_id")))
+                .drop("info_user_id");
+    }
+
+    /**
+     * 将任务参数中的筛选条件转换成Column表达式
+     * 判断的语义和SessionFilter一样，字段为null的时候，比较的结果也是null，where会把它当作false
+     *
+     * @param taskParam 任务参数
+     * @return
+     */
+    public static Column filterCondition(JSONObject taskParam) {
+        Column condition = lit(true);
+
+        String startAge = ParamUtils.getParam(taskParam, Constants.PARAM_START_AGE);
+        String endAge = ParamUtils.getParam(taskParam, Constants.PARAM_END_AGE);
+        if (startAge != null && endAge != null) {
+            condition = condition.and(col("age").between(Integer.valueOf(startAge), Integer.valueOf(endAge)));
+        }
+
+        String professionals = ParamUtils.getParam(taskParam, Constants.PARAM_PROFESSIONALS);
+        if (professionals != null) {
+            condition = condition.and(col("professional").isin((Object[]) professionals.split(",")));
+        }
+
+        String cities = ParamUtils.getParam(taskParam, Constants.PARAM_CITIES);
+        if (cities != null) {
+            condition = condition.and(col("city").isin((Object[]) cities.split(",")));
+        }
+
+        String sex = ParamUtils.getParam(taskParam, Constants.PARAM_SEX);
+        if (sex != null) {
+            condition = condition.and(col("sex").isin((Object[]) sex.split(",")));
+        }
+
+        //搜索词、点击品类：session的数组中包含任何一个指定的取值，即通过
+        String keywords = ParamUtils.getParam(taskParam, Constants.PARAM_KEYWORDS);
+        if (keywords != null) {
+            List<Object> values = new ArrayList<Object>();
+            for (String keyword : keywords.split(",")) {
+                values.add(keyword);
+            }
+            condition = condition.and(arrayContainsAny("search_keywords", values));
+        }
+
+        String categoryIds = ParamUtils.getParam(taskParam, Constants.PARAM_CATEGORY_IDS);
+        if (categoryIds != null) {
+            List<Object> values = new ArrayList<Object>();
+            for (String categoryId : categoryIds.split(",")) {
+                try {
+                    values.add(Long.valueOf(categoryId.trim()));
+                } catch (NumberFormatException e) {
+                    //不是数字的品类id，不可能匹配
+                }
+            }
+            condition = condition.and(arrayContainsAny("click_category_ids", values));
+        }
+
+        return condition;
+    }
+
+    /**
+     * 统计session总数，以及各个访问时长、访问步长区间的session数，只需要一次聚合
+     *
+     * @param sessionDF 过滤之后的session数据
+     * @param buckets   统计区间
+     * @return 和SessionAggrStatBuckets.toConcatString()格式一样的连接串
+     */
+    public static String aggrStat(DataFrame sessionDF, SessionAggrStatBuckets buckets) {
+        //每个区间对应一个sum(CASE WHEN 下界 <= x AND x < 上界 THEN 1 ELSE 0 END)
+        List<Column> periods = new ArrayList<Column>();
+        periods.addAll(periodConditions(col("visit_length"), buckets.getVisitLengthEdges()));
+        periods.addAll(periodConditions(col("step_length"), buckets.getStepLengthEdges()));
+
+        Column[] aggregates = new Column[periods.size()];
+        for (int i = 0; i < aggregates.length; i++) {
+            aggregates[i] = sum(when(periods.get(i), 1).otherwise(0));
+        }
+        //没有分组的聚合只有一行结果，用collect()执行，使用ParallelismTuner固定的分区数
+        Row row = ParallelismTuner.plan(sessionDF.agg(count(lit(1)), aggregates)).collect()[0];
+
+        long[] counts = new long[buckets.size()];
+        for (int i = 0; i < counts.length; i++) {
+            //没有任何session的时候，sum的结果是null
+            counts[i] = row.isNullAt(i) ? 0L : row.getLong(i);
+        }
+        return buckets.toConcatString(counts);
+    }
+
+    //区间[edges[i], edges[i+1])对应的条件，最后一个区间没有上限
+    private static List<Column> periodConditions(Column value, long[] edges) {
+        List<Column> conditions = new ArrayList<Column>();
+        for (int i = 0; i < edges.length; i++) {
+            Column condition = value.geq(edges[i]);
+            if (i + 1 < edges.length) {
+                condition = condition.and(value.lt(edges[i + 1]));
+            }
+            conditions.add(condition);
+        }
+        return conditions;
+    }
+
+    //数组列中包含任何一个指定的取值
+    private static Column arrayContainsAny(String columnName, List<Object> values) {
+        Column condition = lit(false);
+        for (Object value : values) {
+            condition = condition.or(array_contains(col(columnName), value));
+        }
+        return condition;
+    }
+}
@@ -0,0 +1,106 @@
+package com.bf.sparkproject.spark.session;
+
+import com.alibaba.fastjson.JSONObject;
+import com.bf.sparkproject.constant.Constants;
+import com.bf.sparkproject.spark.dimension.DimensionCache;
+import com.bf.sparkproject.util.ParamUtils;
+import org.apache.spark.sql.DataFrame;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SQLContext;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * session分析作业用到的所有字符串字典
+ * <p>
+ * 搜索词来自user_visit_action，职业、城市、性别来自user_info
+ * 每次运行作业的时候，在driver端构建一次，然后作为一个整体广播出去，
+ * 整个流程中（聚合、join、过滤、统计）都只使用int类型的编号，只有在输出结果的时候才还原成字符串
+ */
+public class SessionDictionaries implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private StringDictionary keywords;
+    private StringDictionary professionals;
+    private StringDictionary cities;
+    private StringDictionary sexes;
+
+    public SessionDictionaries(StringDictionary keywords,
+                               StringDictionary professionals,
+                               StringDictionary cities,
+                               StringDictionary sexes) {
+        this.keywords = keywords;
+        this.professionals = professionals;
+        this.cities = cities;
+        this.sexes = sexes;
+    }
+
+    /**
+     * 构建字典
+     * 只查询需要的列，对于parquet这样的列式存储，扫描的代价很小；user_info直接从维度表缓存中读取
+     *
+     * @param sqlContext
+     * @param taskParam  任务参数，搜索词只需要日期范围内出现过的
+     * @return
+     */
+    public static SessionDictionaries build(SQLContext sqlContext, JSONObject taskParam) {
+        String startDate = ParamUtils.getParam(taskParam, Constants.PARAM_START_DATE);
+        String endDate = ParamUtils.getParam(taskParam, Constants.PARAM_END_DATE);
+
+        String sql = "select distinct search_keyword from user_visit_action "
+                + "where date >='" + startDate + "' and date <= '" + endDate + "' "
+                + "and search_keyword is not null";
+        return build(sqlContext, collect(sqlContext.sql(sql)));
+    }
+
+    /**
+     * 使用已知的搜索词构建字典
+     * 比如从session索引中查询的时候，搜索词直接从索引中读取，不需要再去扫描user_visit_action
+     *
+     * @param sqlContext
+     * @param keywordValues 所有的搜索词
+     * @return
+     */
+    public static SessionDictionaries build(SQLContext sqlContext, Collection<String> keywordValues) {
+        StringDictionary keywords = StringDictionary.build(keywordValues);
+
+        DataFrame userInfoDF = DimensionCache.getInstance().getTable(sqlContext, Constants.TABLE_USER_INFO);
+        StringDictionary professionals = StringDictionary.build(
+                collect(userInfoDF.select("professional").distinct()));
+        StringDictionary cities = StringDictionary.build(collect(userInfoDF.select("city").distinct()));
+        StringDictionary sexes = StringDictionary.build(collect(userInfoDF.select("sex").distinct()));
+
+        return new SessionDictionaries(keywords, professionals, cities, sexes);
+    }
+
+    public StringDictionary getKeywords() {
+        return keywords;
+    }
+
+    public StringDictionary getProfessionals() {
+        return professionals;
+    }
+
+    public StringDictionary getCities() {
+        return cities;
+    }
+
+    public StringDictionary getSexes() {
+        return sexes;
+    }
+
+    //收集单列的查询结果
+    private static List<String> collect(DataFrame df) {
+        List<String> values = new ArrayList<String>();
+        for (Row row : df.collect()) {
+            if (!row.isNullAt(0)) {
+                values.add(row.getString(0));
+            }
+        }
+        return values;
+    }
+}
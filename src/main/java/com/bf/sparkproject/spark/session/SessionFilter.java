@@ -0,0 +1,221 @@
+package com.bf.sparkproject.spark.session;
+
+import com.alibaba.fastjson.JSONObject;
+import com.bf.sparkproject.constant.Constants;
+import com.bf.sparkproject.util.ParamUtils;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * 编译好的session筛选条件
+ * <p>
+ * 原来的做法是把筛选参数拼接成连接串，每个session、每个条件都用ValidUtils去split两个字符串再逐个比较
+ * 这里在driver端把任务参数一次性编译好：职业、城市、性别都通过字典转换成编号，
+ * 排好序之后，在executor端只需要做二分查找
+ * 搜索词和点击品类是多值的，筛选条件编译成RoaringBitmap，和session的bitmap做交集判断
+ * <p>
+ * 判断的语义和ValidUtils保持一致：
+ * 1、某个条件没有指定，直接通过
+ * 2、指定了条件，但是session对应的字段没有值，不通过
+ * 3、指定的取值在字典中不存在，说明不可能有session匹配，不通过
+ */
+public class SessionFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    //matchAction()的返回值中，各个条件对应的位
+    public static final int MATCH_KEYWORD = 1;
+    public static final int MATCH_CATEGORY = 1 << 1;
+
+    private Integer startAge;
+    private Integer endAge;
+    //以下数组为null，表示没有指定该条件
+    private int[] professionalIds;
+    private int[] cityIds;
+    private int[] sexIds;
+    private RoaringBitmap keywordIds;
+    private RoaringBitmap categoryIds;
+
+    /**
+     * 根据任务参数编译筛选条件
+     *
+     * @param taskParam    任务参数
+     * @param dictionaries 字典
+     * @return
+     */
+    public static SessionFilter compile(JSONObject taskParam, SessionDictionaries dictionaries) {
+        SessionFilter filter = new SessionFilter();
+
+        String startAge = ParamUtils.getParam(taskParam, Constants.PARAM_START_AGE);
+        String endAge = ParamUtils.getParam(taskParam, Constants.PARAM_END_AGE);
+        if (startAge != null && endAge != null) {
+            filter.startAge = Integer.valueOf(startAge);
+            filter.endAge = Integer.valueOf(endAge);
+        }
+
+        filter.professionalIds = encode(ParamUtils.getParam(taskParam, Constants.PARAM_PROFESSIONALS),
+                dictionaries.getProfessionals());
+        filter.cityIds = encode(ParamUtils.getParam(taskParam, Constants.PARAM_CITIES),
+                dictionaries.getCities());
+        filter.sexIds = encode(ParamUtils.getParam(taskParam, Constants.PARAM_SEX),
+                dictionaries.getSexes());
+        int[] keywordIds = encode(ParamUtils.getParam(taskParam, Constants.PARAM_KEYWORDS),
+                dictionaries.getKeywords());
+        if (keywordIds != null) {
+            filter.keywordIds = RoaringBitmap.bitmapOf(keywordIds);
+        }
+
+        String categoryIds = ParamUtils.getParam(taskParam, Constants.PARAM_CATEGORY_IDS);
+        if (categoryIds != null) {
+            filter.categoryIds = new RoaringBitmap();
+            for (String value : categoryIds.split(",")) {
+                try {
+                    long categoryId = Long.valueOf(value.trim());
+                    if (categoryId >= 0 && categoryId <= Integer.MAX_VALUE) {
+                        filter.categoryIds.add((int) categoryId);
+                    }
+                } catch (NumberFormatException e) {
+                    //不是数字的品类id，不可能匹配
+                }
+            }
+        }
+
+        return filter;
+    }
+
+    /**
+     * 判断session是否符合筛选条件
+     *
+     * @param aggrInfo session的聚合数据（必须已经和用户信息join过）
+     * @return
+     */
+    public boolean accept(SessionAggrInfo aggrInfo) {
+        if (!acceptUser(aggrInfo.getAge(), aggrInfo.getProfessionalId(), aggrInfo.getCityId(), aggrInfo.getSexId())) {
+            return false;
+        }
+
+        //按照搜索词进行过滤，session搜索过的词中，有任何一个在筛选条件中，即通过
+        if (keywordIds != null && !intersects(aggrInfo.getSearchKeywordIds(), keywordIds)) {
+            return false;
+        }
+
+        //按照点击品类id进行过滤
+        if (categoryIds != null && !intersects(aggrInfo.getClickCategoryIds(), categoryIds)) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * 判断用户信息是否符合年龄、职业、城市、性别的筛选条件
+     *
+     * @param age            年龄
+     * @param professionalId 职业编号
+     * @param cityId         城市编号
+     * @param sexId          性别编号
+     * @return
+     */
+    public boolean acceptUser(int age, int professionalId, int cityId, int sexId) {
+        //按照年龄范围进行过滤（startAge,endAge）
+        if (startAge != null && (age < startAge || age > endAge)) {
+            return false;
+        }
+
+        //按照职业范围进行过滤（professionals）
+        if (professionalIds != null && Arrays.binarySearch(professionalIds, professionalId) < 0) {
+            return false;
+        }
+
+        //按照城市范围进行过滤(cities)
+        if (cityIds != null && Arrays.binarySearch(cityIds, cityId) < 0) {
+            return false;
+        }
+
+        //按照性别进行过滤
+        if (sexIds != null && Arrays.binarySearch(sexIds, sexId) < 0) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * 是否指定了用户相关的筛选条件（年龄、职业、城市、性别）
+     */
+    public boolean hasUserCondition() {
+        return startAge != null || professionalIds != null || cityIds != null || sexIds != null;
+    }
+
+    /**
+     * 指定了哪些行为相关的筛选条件（搜索词、点击品类）
+     *
+     * @return MATCH_KEYWORD、MATCH_CATEGORY的组合，0表示都没有指定
+     */
+    public int actionConditions() {
+        return (keywordIds != null ? MATCH_KEYWORD : 0) | (categoryIds != null ? MATCH_CATEGORY : 0);
+    }
+
+    /**
+     * 判断单条行为满足了哪些行为相关的筛选条件
+     * 一个session满足了搜索词（或者品类）条件，当且仅当它至少有一条行为满足该条件
+     *
+     * @param action 行为数据
+     * @return MATCH_KEYWORD、MATCH_CATEGORY的组合
+     */
+    public int matchAction(SessionAction action) {
+        int matches = 0;
+        if (keywordIds != null && action.hasSearchKeyword() && keywordIds.contains(action.getSearchKeywordId())) {
+            matches |= MATCH_KEYWORD;
+        }
+        if (categoryIds != null && action.hasClickCategoryId()) {
+            long categoryId = action.getClickCategoryId();
+            if (categoryId >= 0 && categoryId <= Integer.MAX_VALUE && categoryIds.contains((int) categoryId)) {
+                matches |= MATCH_CATEGORY;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * 将逗号分隔的参数值通过字典转换成排好序的编号
+     * 字典中不存在的取值会被丢弃
+     */
+    private static int[] encode(String param, StringDictionary dictionary) {
+        if (param == null) {
+            return null;
+        }
+
+        String[] splited = param.split(",");
+        int[] ids = new int[splited.length];
+        int size = 0;
+        for (String value : splited) {
+            int id = dictionary.encode(value);
+            if (id != StringDictionary.NO_ID) {
+                ids[size++] = id;
+            }
+        }
+        ids = Arrays.copyOf(ids, size);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * 判断两个bitmap是否有交集
+     * 遍历元素较少的那个，在另一个里面查找，不需要像RoaringBitmap.and()那样创建新的bitmap
+     */
+    private static boolean intersects(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap smaller = a.getCardinality() <= b.getCardinality() ? a : b;
+        RoaringBitmap larger = smaller == a ? b : a;
+        IntIterator iterator = smaller.getIntIterator();
+        while (iterator.hasNext()) {
+            if (larger.contains(iterator.next())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,116 @@
+package com.bf.sparkproject.spark.session;
+
+import java.io.Serializable;
+
+/**
+ * 128位的session id
+ * <p>
+ * session_id原本是32位十六进制的uuid字符串，作为shuffle的key的时候，
+ * 每次都要序列化32个字符、逐字符计算hashCode、逐字符比较equals
+ * 这里把它打包成两个long，序列化固定16个字节，hashCode和equals都只需要几条指令
+ * <p>
+ * 只有在输出结果的时候，才通过toString()还原成原始的字符串
+ */
+public final class SessionId implements Serializable, Comparable<SessionId> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final long high;
+    private final long low;
+
+    public SessionId(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * 解析32位十六进制的session_id字符串
+     *
+     * @param sessionId session_id字符串
+     * @return
+     */
+    public static SessionId parse(String sessionId) {
+        if (sessionId == null || sessionId.length() != 32) {
+            throw new IllegalArgumentException("session_id is not a 32-digit hex string: " + sessionId);
+        }
+        return new SessionId(parseHex(sessionId, 0), parseHex(sessionId, 16));
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    /**
+     * 散列值
+     * uuid本身是随机的，但是这里不直接截取低位，而是把两个long混合之后再做一次finalizer，
+     * 这样即使session id不是随机生成的（比如按用户和时间生成的），分区也是均匀的
+     */
+    @Override
+    public int hashCode() {
+        long h = high * 0x9E3779B97F4A7C15L ^ low;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SessionId)) {
+            return false;
+        }
+        SessionId other = (SessionId) obj;
+        return high == other.high && low == other.low;
+    }
+
+    @Override
+    public int compareTo(SessionId other) {
+        if (high != other.high) {
+            return high < other.high ? -1 : 1;
+        }
+        if (low != other.low) {
+            return low < other.low ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * 还原成32位十六进制的session_id字符串
+     */
+    @Override
+    public String toString() {
+        char[] chars = new char[32];
+        formatHex(high, chars, 0);
+        formatHex(low, chars, 16);
+        return new String(chars);
+    }
+
+    //解析16位十六进制字符，Long.parseLong()无法处理最高位为1的情况，所以这里逐位计算
+    private static long parseHex(String str, int start) {
+        long value = 0L;
+        for (int i = start; i < start + 16; i++) {
+            int digit = Character.digit(str.charAt(i), 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("session_id is not a 32-digit hex string: " + str);
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private static void formatHex(long value, char[] chars, int start) {
+        for (int i = start + 15; i >= start; i--) {
+            chars[i] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+}
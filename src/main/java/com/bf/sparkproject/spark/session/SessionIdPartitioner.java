@@ -0,0 +1,42 @@
+package com.bf.sparkproject.spark.session;
+
+import org.apache.spark.Partitioner;
+
+/**
+ * 按SessionId分区的分区器
+ * <p>
+ * 和HashPartitioner的效果一样，只是直接使用SessionId混合过的散列值，不需要经过通用的Object.hashCode()分派，
+ * 并且同一个分区器的多个RDD之间做join/cogroup的时候，Spark可以识别出它们的分区方式相同，不会再做一次shuffle
+ */
+public class SessionIdPartitioner extends Partitioner {
+
+    private static final long serialVersionUID = 1L;
+
+    private int partitions;
+
+    public SessionIdPartitioner(int partitions) {
+        this.partitions = partitions;
+    }
+
+    @Override
+    public int numPartitions() {
+        return partitions;
+    }
+
+    @Override
+    public int getPartition(Object key) {
+        int mod = key.hashCode() % partitions;
+        return mod < 0 ? mod + partitions : mod;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof SessionIdPartitioner
+                && ((SessionIdPartitioner) obj).partitions == partitions;
+    }
+
+    @Override
+    public int hashCode() {
+        return partitions;
+    }
+}
@@ -0,0 +1,30 @@
+package com.bf.sparkproject.spark.session;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * SessionId的Kryo序列化器，固定写16个字节
+ */
+public class SessionIdSerializer extends Serializer<SessionId> {
+
+    public SessionIdSerializer() {
+        //SessionId是不可变的，copy的时候直接返回原对象即可
+        setImmutable(true);
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, SessionId sessionId) {
+        output.writeLong(sessionId.getHigh());
+        output.writeLong(sessionId.getLow());
+    }
+
+    @Override
+    public SessionId read(Kryo kryo, Input input, Class<SessionId> type) {
+        long high = input.readLong();
+        long low = input.readLong();
+        return new SessionId(high, low);
+    }
+}
@@ -0,0 +1,43 @@
+package com.bf.sparkproject.spark.session;
+
+import com.bf.sparkproject.spark.streaming.DailyAggrStat;
+import com.bf.sparkproject.spark.streaming.EventTimeBucketer;
+import com.bf.sparkproject.spark.streaming.OpenSession;
+import com.bf.sparkproject.spark.streaming.OpenSessionSerializer;
+import com.bf.sparkproject.spark.streaming.StreamDeduplicator;
+import com.bf.sparkproject.util.LongBloomFilter;
+import com.esotericsoftware.kryo.Kryo;
+import org.apache.spark.serializer.KryoRegistrator;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * session分析作业的Kryo注册器
+ * <p>
+ * 注册过的类，序列化的时候只写一个int类型的编号，不用写完整的类名
+ * 通过spark.kryo.registrator参数配置：
+ * conf.set("spark.kryo.registrator", SessionKryoRegistrator.class.getName())
+ */
+public class SessionKryoRegistrator implements KryoRegistrator {
+
+    @Override
+    public void registerClasses(Kryo kryo) {
+        kryo.register(SessionAction.class, new SessionActionSerializer());
+        kryo.register(SessionId.class, new SessionIdSerializer());
+        kryo.register(SessionAggrInfo.class);
+        kryo.register(Sessionizer.UserTimeKey.class);
+        kryo.register(OpenSession.class, new OpenSessionSerializer());
+        kryo.register(RoaringBitmap.class, new RoaringBitmapSerializer());
+        kryo.register(StringDictionary.class);
+        kryo.register(SessionDictionaries.class);
+        kryo.register(SessionFilter.class);
+        kryo.register(SessionPruner.class);
+        kryo.register(LongIdSet.class);
+        kryo.register(LongBloomFilter.class);
+        kryo.register(LongBloomFilter[].class);
+        kryo.register(StreamDeduplicator.DedupState.class);
+        kryo.register(EventTimeBucketer.BucketKey.class);
+        kryo.register(DailyAggrStat.class);
+        kryo.register(int[].class);
+        kryo.register(long[].class);
+    }
+}
@@ -0,0 +1,190 @@
+package com.bf.sparkproject.spark.session;
+
+import com.bf.sparkproject.conf.ConfigurationManager;
+import com.bf.sparkproject.constant.Constants;
+import com.bf.sparkproject.spark.dimension.DimensionCache;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.api.java.function.Function2;
+import org.apache.spark.api.java.function.PairFunction;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SQLContext;
+import scala.Tuple2;
+
+import java.io.Serializable;
+
+/**
+ * session聚合之前的行为数据裁剪
+ * <p>
+ * 原来的流程是：日期范围内所有session的所有行为，都要经过一次shuffle聚合成session，再和user_info做一次join，
+ * 最后才由SessionFilter把不符合条件的session过滤掉。筛选条件越严格，前面白白shuffle的数据就越多
+ * <p>
+ * 这里在driver端根据编译好的筛选条件，在聚合之前先算出哪些行为可能属于符合条件的session：
+ * 1、指定了年龄、职业、城市、性别：从缓存的user_info中找出符合条件的user_id
+ * 2、指定了搜索词、点击品类：只取出满足条件的那部分行为，按session id做一次很小的shuffle（半连接），
+ * 找出搜索词条件、品类条件都满足的session
+ * 两个集合都以LongIdSet的形式广播出去（个数少的时候是精确集合，多的时候是布隆过滤器），
+ * 不在集合中的行为，在聚合之前就直接丢弃
+ * <p>
+ * 裁剪只会多留，不会少留，聚合之后仍然由SessionFilter按照完整的条件判断，所以结果和不裁剪是一样的
+ */
+public class SessionPruner implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    //为null表示不按该维度裁剪
+    private LongIdSet userIds;
+    private LongIdSet sessionIds;
+
+    /**
+     * 裁剪计划是否需要读取行为数据
+     * 只有开启了裁剪，并且有搜索词、品类条件的时候，plan()才会先扫描一遍行为数据，行为数据才会被读取两次
+     *
+     * @param sessionFilter 编译好的筛选条件
+     * @return
+     */
+    public static boolean readsActions(SessionFilter sessionFilter) {
+        return ConfigurationManager.getBoolean(Constants.SESSION_PRUNE_ENABLED)
+                && sessionFilter.actionConditions() != 0;
+    }
+
+    /**
+     * 根据筛选条件生成裁剪器
+     *
+     * @param sc
+     * @param sqlContext
+     * @param sessionFilter         编译好的筛选条件
+     * @param dictionariesBroadcast 字典
+     * @param session2ActionRDD     行为数据，会被扫描一次，最好已经缓存
+     * @return 裁剪功能被关闭，或者没有任何可以用来裁剪的条件的话，返回null
+     */
+    public static SessionPruner plan(JavaSparkContext sc,
+                                     SQLContext sqlContext,
+                                     final SessionFilter sessionFilter,
+                                     final Broadcast<SessionDictionaries> dictionariesBroadcast,
+                                     JavaRDD<SessionAction> session2ActionRDD) {
+        if (!ConfigurationManager.getBoolean(Constants.SESSION_PRUNE_ENABLED)) {
+            return null;
+        }
+
+        final int actionConditions = sessionFilter.actionConditions();
+        if (!sessionFilter.hasUserCondition() && actionConditions == 0) {
+            return null;
+        }
+
+        SessionPruner pruner = new SessionPruner();
+
+        //符合用户条件的user_id，判断逻辑和aggregateBySession()中join用户信息之后的一样
+        if (sessionFilter.hasUserCondition()) {
+            JavaRDD<Long> userIdRDD = DimensionCache.getInstance()
+                    .getTable(sqlContext, Constants.TABLE_USER_INFO)
+                    .javaRDD()
+                    .filter(new Function<Row, Boolean>() {
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        public Boolean call(Row row) throws Exception {
+                            SessionDictionaries dictionaries = dictionariesBroadcast.value();
+                            return sessionFilter.acceptUser(row.getInt(3),
+                                    dictionaries.getProfessionals().encode(row.getString(4)),
+                                    dictionaries.getCities().encode(row.getString(5)),
+                                    dictionaries.getSexes().encode(row.getString(6)));
+                        }
+                    })
+                    .map(new Function<Row, Long>() {
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        public Long call(Row row) throws Exception {
+                            return row.getLong(0);
+                        }
+                    });
+            pruner.userIds = LongIdSet.build(userIdRDD);
+        }
+
+        //半连接：只有满足了搜索词或者品类条件的行为才会参与shuffle，每个session只剩下一个int
+        if (actionConditions != 0) {
+            final Broadcast<SessionPruner> userPrunerBroadcast = sc.broadcast(pruner);
+            JavaRDD<Long> sessionIdRDD = session2ActionRDD
+                    .filter(new Function<SessionAction, Boolean>() {
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        public Boolean call(SessionAction action) throws Exception {
+                            return sessionFilter.matchAction(action) != 0
+                                    && userPrunerBroadcast.value().accept(action);
+                        }
+                    })
+                    .mapToPair(new PairFunction<SessionAction, SessionId, Integer>() {
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        public Tuple2<SessionId, Integer> call(SessionAction action) throws Exception {
+                            return new Tuple2<SessionId, Integer>(action.getSessionId(),
+                                    sessionFilter.matchAction(action));
+                        }
+                    })
+                    .reduceByKey(new Function2<Integer, Integer, Integer>() {
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        public Integer call(Integer matches1, Integer matches2) throws Exception {
+                            return matches1 | matches2;
+                        }
+                    })
+                    //搜索词和品类都指定了的话，两个条件都要满足
+                    .filter(new Function<Tuple2<SessionId, Integer>, Boolean>() {
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        public Boolean call(Tuple2<SessionId, Integer> tuple) throws Exception {
+                            return tuple._2 == actionConditions;
+                        }
+                    })
+                    .map(new Function<Tuple2<SessionId, Integer>, Long>() {
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        public Long call(Tuple2<SessionId, Integer> tuple) throws Exception {
+                            return fingerprint(tuple._1.getHigh(), tuple._1.getLow());
+                        }
+                    });
+            pruner.sessionIds = LongIdSet.build(sessionIdRDD);
+            userPrunerBroadcast.unpersist(false);
+        }
+
+        return pruner;
+    }
+
+    /**
+     * 判断行为是否可能属于符合条件的session
+     *
+     * @param action 行为数据
+     * @return false表示该行为所属的session一定不符合条件
+     */
+    public boolean accept(SessionAction action) {
+        if (userIds != null && !userIds.mightContain(action.getUserId())) {
+            return false;
+        }
+        if (sessionIds != null
+                && !sessionIds.mightContain(fingerprint(action.getSessionIdHigh(), action.getSessionIdLow()))) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionPruner(userIds=" + userIds + ", sessionIds=" + sessionIds + ")";
+    }
+
+    /**
+     * 把128位的session id压缩成一个long，放进LongIdSet
+     * 不同的session id有极小的概率得到同样的值，这只会让裁剪多留下几条行为，不影响结果
+     */
+    private static long fingerprint(long high, long low) {
+        return high * 0x9E3779B97F4A7C15L + low;
+    }
+}
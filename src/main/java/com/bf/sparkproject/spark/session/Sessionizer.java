@@ -0,0 +1,202 @@
+package com.bf.sparkproject.spark.session;
+
+import org.apache.spark.Partitioner;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.function.FlatMapFunction;
+import org.apache.spark.api.java.function.PairFunction;
+import scala.Tuple2;
+
+import java.io.Serializable;
+import java.util.Iterator;
+
+/**
+ * 按照不活跃的时间间隔切分session
+ * <p>
+ * 有些数据源的行为数据没有session_id，只有user_id和action_time，这时候session需要自己切分：
+ * 同一个用户按时间排序之后，相邻两次行为的间隔超过session.sessionize.gap.seconds，就开始一个新的session
+ * <p>
+ * 如果按user_id做groupByKey，再在内存中对每个用户的行为排序，行为特别多的用户（比如爬虫）会把一个task的内存撑爆
+ * 这里使用二次排序：
+ * 1、key是(user_id, action_time)组成的UserTimeKey，分区器只按user_id分区，同一个用户的行为都在同一个分区中
+ * 2、repartitionAndSortWithinPartitions在shuffle的同时按key排序，排序由ExternalSorter完成，内存不够的时候溢写到磁盘
+ * 3、排好序之后，同一个用户的行为是连续的，并且按时间升序，一次流式遍历就可以切分出session，不需要把任何一个用户的行为放在内存中
+ * <p>
+ * 切分出来的session id是紧凑的：高64位是user_id，低64位是session第一次行为的秒级时间戳，
+ * 同一个用户的不同session开始时间一定不同，所以session id是唯一的；SessionId的散列值会混合两个long，分区仍然是均匀的
+ * 输出的仍然是SessionAction，后面的聚合、缓存、索引都不需要任何改动
+ */
+public class Sessionizer {
+
+    /**
+     * 切分session
+     *
+     * @param actionRDD  行为数据，原有的session id会被替换掉
+     * @param gapSeconds 不活跃的时间间隔（秒），相邻两次行为的间隔超过它，就切分成两个session
+     * @return 设置好session id的行为数据，分区数和输入一样
+     */
+    public static JavaRDD<SessionAction> sessionize(JavaRDD<SessionAction> actionRDD, final long gapSeconds) {
+        return actionRDD.mapToPair(new PairFunction<SessionAction, UserTimeKey, SessionAction>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Tuple2<UserTimeKey, SessionAction> call(SessionAction action) throws Exception {
+                return new Tuple2<UserTimeKey, SessionAction>(
+                        new UserTimeKey(action.getUserId(), action.getActionTime()), action);
+            }
+        }).repartitionAndSortWithinPartitions(
+                new UserIdPartitioner(actionRDD.partitions().size())
+        ).mapPartitions(new FlatMapFunction<Iterator<Tuple2<UserTimeKey, SessionAction>>, SessionAction>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Iterable<SessionAction> call(final Iterator<Tuple2<UserTimeKey, SessionAction>> iterator)
+                    throws Exception {
+                return new Iterable<SessionAction>() {
+                    @Override
+                    public Iterator<SessionAction> iterator() {
+                        return new SessionIterator(iterator, gapSeconds);
+                    }
+                };
+            }
+        });
+    }
+
+    /**
+     * 在按(user_id, action_time)排好序的行为上流式的切分session，只保存上一次行为的用户和时间
+     */
+    static class SessionIterator implements Iterator<SessionAction> {
+
+        private Iterator<Tuple2<UserTimeKey, SessionAction>> iterator;
+        private long gapSeconds;
+        private boolean first = true;
+        private long lastUserId;
+        private long lastActionTime;
+        private long sessionStartTime;
+
+        SessionIterator(Iterator<Tuple2<UserTimeKey, SessionAction>> iterator, long gapSeconds) {
+            this.iterator = iterator;
+            this.gapSeconds = gapSeconds;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public SessionAction next() {
+            SessionAction action = iterator.next()._2;
+            long userId = action.getUserId();
+            long actionTime = action.getActionTime();
+            if (first || userId != lastUserId || actionTime - lastActionTime > gapSeconds) {
+                sessionStartTime = actionTime;
+                first = false;
+            }
+            lastUserId = userId;
+            lastActionTime = actionTime;
+            //shuffle读出来的对象是新反序列化的，直接修改不会影响别的RDD
+            action.setSessionId(userId, sessionStartTime);
+            return action;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * 二次排序的key：先按user_id，再按action_time排序
+     */
+    public static final class UserTimeKey implements Serializable, Comparable<UserTimeKey> {
+
+        private static final long serialVersionUID = 1L;
+
+        private long userId;
+        private long actionTime;
+
+        //给Kryo反序列化使用
+        private UserTimeKey() {
+
+        }
+
+        public UserTimeKey(long userId, long actionTime) {
+            this.userId = userId;
+            this.actionTime = actionTime;
+        }
+
+        public long getUserId() {
+            return userId;
+        }
+
+        public long getActionTime() {
+            return actionTime;
+        }
+
+        @Override
+        public int compareTo(UserTimeKey other) {
+            if (userId != other.userId) {
+                return userId < other.userId ? -1 : 1;
+            }
+            if (actionTime != other.actionTime) {
+                return actionTime < other.actionTime ? -1 : 1;
+            }
+            return 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (userId ^ (userId >>> 32)) * 31 + (int) (actionTime ^ (actionTime >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof UserTimeKey)) {
+                return false;
+            }
+            UserTimeKey other = (UserTimeKey) obj;
+            return userId == other.userId && actionTime == other.actionTime;
+        }
+    }
+
+    /**
+     * 只按UserTimeKey中的user_id分区，同一个用户的所有行为都在同一个分区中
+     */
+    static class UserIdPartitioner extends Partitioner {
+
+        private static final long serialVersionUID = 1L;
+
+        private int partitions;
+
+        UserIdPartitioner(int partitions) {
+            this.partitions = partitions;
+        }
+
+        @Override
+        public int numPartitions() {
+            return partitions;
+        }
+
+        @Override
+        public int getPartition(Object key) {
+            //user_id往往是连续的，混合一下再取模
+            long h = ((UserTimeKey) key).getUserId() * 0x9E3779B97F4A7C15L;
+            int mod = (int) (h ^ (h >>> 32)) % partitions;
+            return mod < 0 ? mod + partitions : mod;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof UserIdPartitioner
+                    && ((UserIdPartitioner) obj).partitions == partitions;
+        }
+
+        @Override
+        public int hashCode() {
+            return partitions;
+        }
+    }
+}
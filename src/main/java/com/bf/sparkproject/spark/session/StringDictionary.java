@@ -0,0 +1,92 @@
+package com.bf.sparkproject.spark.session;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 字符串字典
+ * <p>
+ * 搜索词这类取值有限、但是重复出现非常多次的字符串，在每一条行为数据里都保存一份String对象，是很浪费内存的
+ * 所以在driver端先把所有出现过的取值收集起来，排序后编上号，做成字典，再广播出去
+ * 行为数据里面只保存int类型的编号，需要输出的时候再通过字典还原成字符串
+ * <p>
+ * 字典在构建完以后是只读的，所以可以被多个task线程安全的共享
+ */
+public class StringDictionary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 字典中不存在的取值（包括null）的编号
+     */
+    public static final int NO_ID = -1;
+
+    private String[] values;
+    private transient volatile Map<String, Integer> ids;
+
+    private StringDictionary(String[] values) {
+        this.values = values;
+    }
+
+    /**
+     * 根据所有的取值构建字典
+     * 重复的取值和null会被忽略，取值按字典序编号，保证同样的数据构建出来的字典是一样的
+     *
+     * @param values 所有的取值
+     * @return
+     */
+    public static StringDictionary build(Collection<String> values) {
+        TreeSet<String> sorted = new TreeSet<String>();
+        for (String value : values) {
+            if (value != null) {
+                sorted.add(value);
+            }
+        }
+        return new StringDictionary(sorted.toArray(new String[sorted.size()]));
+    }
+
+    /**
+     * 编码
+     *
+     * @param value 字符串取值
+     * @return 编号，字典中不存在的话，返回NO_ID
+     */
+    public int encode(String value) {
+        if (value == null) {
+            return NO_ID;
+        }
+        Integer id = index().get(value);
+        return id != null ? id : NO_ID;
+    }
+
+    /**
+     * 解码
+     *
+     * @param id 编号
+     * @return 字符串取值，编号不存在的话，返回null
+     */
+    public String decode(int id) {
+        return id >= 0 && id < values.length ? values[id] : null;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    //反向索引不参与序列化，在executor端第一次编码的时候才构建
+    //多个task线程同时构建也没有关系，结果都是一样的
+    private Map<String, Integer> index() {
+        Map<String, Integer> map = ids;
+        if (map == null) {
+            map = new HashMap<String, Integer>(values.length * 2);
+            for (int i = 0; i < values.length; i++) {
+                map.put(values[i], i);
+            }
+            ids = map;
+        }
+        return map;
+    }
+}
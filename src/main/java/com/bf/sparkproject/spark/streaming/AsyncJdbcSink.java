@@ -0,0 +1,315 @@
+package com.bf.sparkproject.spark.streaming;
+
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.function.FlatMapFunction;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.api.java.function.Function2;
+import org.apache.spark.streaming.api.java.JavaDStream;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 有界的异步MySQL写入
+ * <p>
+ * 原来每个batch把结果collect到driver端，同步写入MySQL，MySQL一变慢，batch的处理时间就跟着变长，
+ * 后面的batch排队等待，越积越多，最后整个作业被拖垮
+ * <p>
+ * 这里每个executor（JVM）中每个sink有一个有界的写入队列和一个后台写入线程：
+ * 1、task把这个分区的结果放入队列就返回，不等待写入完成；后台线程每次从队列中取出一批，通过DAO批量写入，
+ * 使用的仍然是JDBCHelper的连接池
+ * 2、队列中已经有同一个key的记录的话，直接合并（比如总数取较大的），不占用新的位置，
+ * MySQL慢的时候，同一个key连续几个batch的更新只需要写一次
+ * 3、队列满了，task阻塞等待，batch的处理时间变长，开启了spark.streaming.backpressure.enabled的话，
+ * Spark Streaming的速率控制器会据此降低从Kafka读取的速率，而不是让batch无限制的积压
+ * 4、每个batch在driver端输出写入队列的指标：放入的记录数、合并的记录数、阻塞的时间、队列深度、写入延迟
+ * <p>
+ * 放入队列的记录在写入之前只在executor的内存中，executor异常退出会丢失；正常退出的时候，由shutdown hook写完剩下的记录
+ * 写入失败的处理和JDBCHelper一样，只打印异常
+ * <p>
+ * 失败重试的task、推测执行的task、driver从checkpoint恢复之后重新计算的batch，会把同一批记录再放入一次，
+ * 可能放入另一个executor的队列，所以Writer必须是幂等的：写入总数而不是增量，按记录的key覆盖写入或者只保留较大的值
+ */
+public class AsyncJdbcSink<V> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    //每个executor中的写入队列，按sink名称区分
+    private static final Map<String, WriteQueue<?>> QUEUES = new HashMap<String, WriteQueue<?>>();
+
+    private String name;
+    private int capacity;
+    private int batchSize;
+    private Writer<V> writer;
+    private Coalescer<V> coalescer;
+
+    /**
+     * @param name      名称，一个executor中同名的sink共享一个写入队列
+     * @param capacity  队列中最多有多少条记录
+     * @param batchSize 每次批量写入的最大记录数
+     * @param writer    写入MySQL
+     * @param coalescer 同一个key的记录的合并方式
+     */
+    public AsyncJdbcSink(String name, int capacity, int batchSize, Writer<V> writer, Coalescer<V> coalescer) {
+        this.name = name;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.writer = writer;
+        this.coalescer = coalescer;
+    }
+
+    /**
+     * 每个batch把记录放入所在executor的写入队列
+     *
+     * @param values
+     */
+    public void sink(JavaDStream<V> values) {
+        final AsyncJdbcSink<V> sink = this;
+        values.foreachRDD(new Function<JavaRDD<V>, Void>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Void call(JavaRDD<V> rdd) throws Exception {
+                //放入的记录数、合并的记录数、阻塞的毫秒数之和，队列深度、写入延迟的最大值
+                double[] metrics = rdd.mapPartitions(new FlatMapFunction<Iterator<V>, double[]>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public Iterable<double[]> call(Iterator<V> iterator) throws Exception {
+                        WriteQueue<V> queue = sink.queue();
+                        long offered = 0L;
+                        long coalesced = 0L;
+                        long blockedNanos = 0L;
+                        while (iterator.hasNext()) {
+                            long start = System.nanoTime();
+                            if (queue.put(iterator.next())) {
+                                coalesced++;
+                            }
+                            blockedNanos += System.nanoTime() - start;
+                            offered++;
+                        }
+                        return Collections.singletonList(new double[]{offered, coalesced,
+                                blockedNanos / 1000000D, queue.size(), queue.getWriteLatencyMillis()});
+                    }
+                }).fold(new double[5], new Function2<double[], double[], double[]>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public double[] call(double[] metrics1, double[] metrics2) throws Exception {
+                        return new double[]{metrics1[0] + metrics2[0], metrics1[1] + metrics2[1],
+                                metrics1[2] + metrics2[2], Math.max(metrics1[3], metrics2[3]),
+                                Math.max(metrics1[4], metrics2[4])};
+                    }
+                });
+                System.out.println(new Date() + ": async sink " + name + " offered=" + (long) metrics[0]
+                        + ", coalesced=" + (long) metrics[1] + ", blocked ms=" + (long) metrics[2]
+                        + ", queue depth=" + (long) metrics[3] + ", write latency ms=" + (long) metrics[4]);
+                return null;
+            }
+        });
+    }
+
+    //所在executor的写入队列，第一次使用的时候创建
+    @SuppressWarnings("unchecked")
+    private WriteQueue<V> queue() {
+        synchronized (QUEUES) {
+            WriteQueue<V> queue = (WriteQueue<V>) QUEUES.get(name);
+            if (queue == null) {
+                queue = new WriteQueue<V>(name, capacity, batchSize, writer, coalescer);
+                QUEUES.put(name, queue);
+            }
+            return queue;
+        }
+    }
+
+    /**
+     * 批量写入MySQL，通常就是调用一个DAO方法
+     */
+    public interface Writer<V> extends Serializable {
+
+        void write(List<V> values);
+    }
+
+    /**
+     * 队列中同一个key的记录的合并方式
+     */
+    public interface Coalescer<V> extends Serializable {
+
+        /**
+         * 记录的key，队列中同一个key只保留一条记录
+         */
+        Object key(V value);
+
+        /**
+         * @param pending 队列中还没有写入的记录
+         * @param update  新放入的记录
+         * @return 合并之后的记录
+         */
+        V coalesce(V pending, V update);
+    }
+
+    /**
+     * 一个executor中一个sink的写入队列和后台写入线程
+     * 队列按放入的顺序写入，同一个key的记录只由这一个线程写入，写入的顺序和放入的顺序一致
+     */
+    static class WriteQueue<V> implements Runnable {
+
+        //写入延迟的平滑系数，最近一次写入占的比重
+        private static final double LATENCY_WEIGHT = 0.2D;
+
+        private String name;
+        private int capacity;
+        private int batchSize;
+        private Writer<V> writer;
+        private Coalescer<V> coalescer;
+        //还没有写入的记录，key -> 记录，按第一次放入的顺序
+        private LinkedHashMap<Object, V> pending = new LinkedHashMap<Object, V>();
+        //正在写入的记录数，写完之前也算在队列深度中
+        private int writing;
+        private volatile double writeLatencyMillis;
+        private Thread thread;
+        //drain()之后后台线程不再取出新的记录
+        private boolean stopped;
+
+        WriteQueue(String name, int capacity, int batchSize, Writer<V> writer, Coalescer<V> coalescer) {
+            this.name = name;
+            this.capacity = capacity;
+            this.batchSize = batchSize;
+            this.writer = writer;
+            this.coalescer = coalescer;
+
+            thread = new Thread(this, "async-jdbc-sink-" + name);
+            thread.setDaemon(true);
+            thread.start();
+            //executor正常退出的时候，写完剩下的记录
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            }));
+        }
+
+        /**
+         * 放入一条记录，队列满了的话阻塞等待
+         *
+         * @return 是否和队列中同一个key的记录合并了
+         */
+        synchronized boolean put(V value) throws InterruptedException {
+            Object key = coalescer.key(value);
+            V existing = pending.get(key);
+            if (existing != null) {
+                pending.put(key, coalescer.coalesce(existing, value));
+                return true;
+            }
+            while (pending.size() + writing >= capacity) {
+                wait();
+            }
+            //等待的过程中，同一个key可能已经被写入了，也可能又被放入了
+            existing = pending.get(key);
+            pending.put(key, existing != null ? coalescer.coalesce(existing, value) : value);
+            notifyAll();
+            return existing != null;
+        }
+
+        synchronized int size() {
+            return pending.size() + writing;
+        }
+
+        double getWriteLatencyMillis() {
+            return writeLatencyMillis;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    List<V> values = take();
+                    if (values == null) {
+                        return;
+                    }
+                    write(values);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    //不能让一次写入失败把后台线程搞挂，后面的记录还要继续写
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        //取出最多batchSize条记录，没有记录的时候等待，停止之后返回null
+        private synchronized List<V> take() throws InterruptedException {
+            while (pending.isEmpty() && !stopped) {
+                wait();
+            }
+            if (stopped) {
+                return null;
+            }
+            List<V> values = new ArrayList<V>(Math.min(batchSize, pending.size()));
+            Iterator<V> iterator = pending.values().iterator();
+            while (iterator.hasNext() && values.size() < batchSize) {
+                values.add(iterator.next());
+                iterator.remove();
+            }
+            writing = values.size();
+            return values;
+        }
+
+        private void write(List<V> values) {
+            long start = System.nanoTime();
+            try {
+                writer.write(values);
+            } finally {
+                double latencyMillis = (System.nanoTime() - start) / 1000000D;
+                writeLatencyMillis = writeLatencyMillis == 0D ? latencyMillis
+                        : writeLatencyMillis * (1 - LATENCY_WEIGHT) + latencyMillis * LATENCY_WEIGHT;
+                synchronized (this) {
+                    writing = 0;
+                    //队列有了空位，唤醒阻塞的task
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * 同步写完队列中剩下的记录
+         * 先让后台线程停止并等它写完正在写的那一批，再由当前线程按顺序写入，
+         * 否则剩下的记录可能比后台线程正在写的同一个key的较早的记录先写入
+         */
+        void drain() {
+            synchronized (this) {
+                stopped = true;
+                notifyAll();
+            }
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                //等不到后台线程写完的话，不能保证写入的顺序，剩下的记录放弃
+                Thread.currentThread().interrupt();
+                return;
+            }
+            while (true) {
+                List<V> values;
+                synchronized (this) {
+                    if (pending.isEmpty()) {
+                        break;
+                    }
+                    values = new ArrayList<V>(pending.values());
+                    pending.clear();
+                    //队列有了空位，唤醒阻塞的task
+                    notifyAll();
+                }
+                System.out.println(new Date() + ": async sink " + name + " draining " + values.size() + " rows");
+                writer.write(values);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.bf.sparkproject.spark.streaming;
+
+import java.io.Serializable;
+
+/**
+ * 实时session聚合统计中，一天到目前为止的统计结果的状态
+ * <p>
+ * MySQL中保存的是每天每个统计项的总数，而不是每个batch的增量：task失败重试、推测执行的task、
+ * driver从checkpoint恢复之后重新计算的batch，都会把同一个batch的结果再写一遍，写入的是同一个总数，不会重复计数
+ * 1、updateStateByKey按日期保存总数，每个batch关闭的session的统计结果累加进去，这个batch有新增的日期标记为updated，
+ * 只有这些日期写入MySQL
+ * 2、连续多少个batch没有新增，就从状态中删除，状态中只保留最近几天
+ * <p>
+ * 日期是状态的key，这里也保存一份，第一次出现的日期没有原来的状态，只能从新增的统计结果中知道是哪一天
+ */
+public class DailyAggrStat implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String date;
+    private long[] counts;
+    private boolean updated;
+    private int idleBatches;
+
+    /**
+     * @param date   session开始的日期（yyyy-MM-dd）
+     * @param counts 每个统计项的session数量，顺序和SessionAggrStatBuckets.getKeys()一致
+     */
+    public DailyAggrStat(String date, long[] counts) {
+        this.date = date;
+        this.counts = counts;
+        this.updated = true;
+    }
+
+    /**
+     * 累加同一天新增的统计结果，累加之后空闲的batch数清零
+     *
+     * @param other
+     * @return this
+     */
+    public DailyAggrStat merge(DailyAggrStat other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        updated = true;
+        idleBatches = 0;
+        return this;
+    }
+
+    /**
+     * 这个batch没有新增的统计结果
+     *
+     * @param retentionBatches 连续多少个batch没有新增就删除
+     * @return 是否要从状态中删除
+     */
+    public boolean idle(int retentionBatches) {
+        updated = false;
+        idleBatches++;
+        return idleBatches >= retentionBatches;
+    }
+
+    public String getDate() {
+        return date;
+    }
+
+    public long[] getCounts() {
+        return counts;
+    }
+
+    /**
+     * 这个batch是否有新增的统计结果
+     */
+    public boolean isUpdated() {
+        return updated;
+    }
+}
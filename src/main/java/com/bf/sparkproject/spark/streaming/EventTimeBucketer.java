@@ -0,0 +1,376 @@
+package com.bf.sparkproject.spark.streaming;
+
+import org.apache.spark.Accumulator;
+import org.apache.spark.AccumulatorParam;
+import org.apache.spark.HashPartitioner;
+import org.apache.spark.Partitioner;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.api.java.function.Function2;
+import org.apache.spark.api.java.function.PairFunction;
+import org.apache.spark.storage.StorageLevel;
+import org.apache.spark.streaming.Time;
+import org.apache.spark.streaming.api.java.JavaPairDStream;
+import scala.Tuple2;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按事件时间分钟计数，支持迟到的数据
+ * <p>
+ * Spark Streaming 1.5的window是按处理时间划分的，数据晚到一会儿，就被算到了后面的分钟里，
+ * 分钟级的趋势是错的，只能等离线作业第二天重新跑一遍来修正
+ * <p>
+ * 这里按(key, 事件发生的分钟)计数：
+ * 1、水位线 = 目前为止见过的最大事件时间 - 允许的迟到时间，只会前进，不会后退
+ * 2、水位线之后的分钟都是打开的，计数保存在状态中，迟到的数据只要还在允许的迟到时间之内，就累加到它真正所属的分钟上
+ * 3、水位线越过了某一分钟，这一分钟就关闭了，从状态中删除；之后再来的这一分钟的数据太迟了，直接丢弃，只记录个数
+ * 4、每个batch输出这个batch中有变化的分钟，值是这一分钟到目前为止的总数，直接覆盖写入MySQL，
+ * 迟到的数据到了，对应分钟的那一行就被修正，不需要重新跑离线作业
+ * <p>
+ * 水位线只会前进，一条时间戳错误（比如客户端时钟不准）的事件就可能把它推到很远的将来，之后所有正常的数据都会被当成太迟的丢弃，
+ * 所以事件时间超过了batch时间 + 允许的超前时间的，当作无效数据丢弃，只记录个数，也不参与水位线的计算
+ * <p>
+ * updateStateByKey的函数中拿不到全局的水位线，所以状态是在driver端的transform中自己维护的一个RDD：
+ * 每个batch和新的计数union之后按同一个分区器reduceByKey，再过滤掉关闭的分钟；
+ * 状态的lineage每个batch都会变长，每隔几个batch做一次checkpoint
+ * <p>
+ * transform是在生成batch的时候执行的，batch积压的时候，前面的batch的job可能还没有执行，
+ * 所以transform中只构建RDD，不执行任何action，也不释放任何RDD：
+ * 1、这个batch中最大的事件时间，在计数的时候通过累加器收集
+ * 2、每个batch注册一个输出操作，先计算出这个batch的结果（缓存起来，调用者的输出操作直接使用），
+ * 然后再释放上一个batch的状态，并按照累加器推进水位线，所以水位线比事件晚一个batch
+ * <p>
+ * 水位线会随着DStream的checkpoint一起保存，状态RDD不会；作业启动的时候，由StateLoader从结果表中恢复还打开的分钟，
+ * 没有checkpoint的全新启动，不知道水位线，按照batch时间 - 允许的迟到时间估算；
+ * 重启时重放的batch如果之前已经写入过结果表，这个batch的数据会被多算一次
+ */
+public class EventTimeBucketer {
+
+    private static final long SECONDS_PER_MINUTE = 60L;
+
+    /**
+     * 按事件时间分钟计数
+     *
+     * @param events                 key -> 事件时间（秒级时间戳）
+     * @param allowedLatenessSeconds 允许的迟到时间（秒）
+     * @param maxFutureSeconds       事件时间最多允许超前batch时间多少秒
+     * @param partitions             状态的分区数
+     * @param checkpointBatches      每隔几个batch对状态做一次checkpoint
+     * @param stateLoader            作业启动的时候恢复状态
+     * @return 每个batch中有变化的分钟，值是这一分钟到目前为止的总数
+     */
+    public static JavaPairDStream<BucketKey, Long> bucket(JavaPairDStream<Long, Long> events,
+                                                          long allowedLatenessSeconds,
+                                                          long maxFutureSeconds,
+                                                          int partitions,
+                                                          int checkpointBatches,
+                                                          StateLoader stateLoader) {
+        BucketTransform transform = new BucketTransform(allowedLatenessSeconds, maxFutureSeconds, partitions,
+                checkpointBatches, stateLoader);
+        JavaPairDStream<BucketKey, Long> changedBuckets = events.transformToPair(transform);
+        //BatchCompletedFunction和调用者的输出操作都要读取，缓存起来，batch结束之后由Spark Streaming自动释放
+        changedBuckets.persist(StorageLevel.MEMORY_ONLY_SER());
+        changedBuckets.foreachRDD(new BatchCompletedFunction(transform));
+        return changedBuckets;
+    }
+
+    /**
+     * 分钟的起始时间（秒级时间戳）
+     */
+    public static long minuteStart(long minute) {
+        return minute * SECONDS_PER_MINUTE;
+    }
+
+    //事件时间所在的分钟，负数的时间戳也要向下取整
+    static long minuteOf(long seconds) {
+        long minute = seconds / SECONDS_PER_MINUTE;
+        return seconds % SECONDS_PER_MINUTE < 0 ? minute - 1 : minute;
+    }
+
+    //水位线所在的分钟还是打开的，之前的分钟都关闭了；还没有水位线的话，所有的分钟都是打开的
+    static long openMinute(long watermark) {
+        return watermark == Long.MIN_VALUE ? Long.MIN_VALUE : minuteOf(watermark);
+    }
+
+    //事件所在的分钟已经关闭了，太迟了
+    static boolean isLate(long eventTime, long openMinute) {
+        return minuteOf(eventTime) < openMinute;
+    }
+
+    //事件时间超前batch时间太多，当作无效数据
+    static boolean isFuture(long eventTime, long batchSeconds, long maxFutureSeconds) {
+        return eventTime > batchSeconds + maxFutureSeconds;
+    }
+
+    //按照目前为止最大的事件时间推进水位线，只会前进，不会后退
+    static long advanceWatermark(long watermark, long maxEventTime, long allowedLatenessSeconds) {
+        return maxEventTime == Long.MIN_VALUE ? watermark : Math.max(watermark, maxEventTime - allowedLatenessSeconds);
+    }
+
+    /**
+     * 在driver端生成每个batch的时候执行一次，构建这个batch的计数和新的状态
+     */
+    private static class BucketTransform
+            implements Function2<JavaPairRDD<Long, Long>, Time, JavaPairRDD<BucketKey, Long>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private long allowedLatenessSeconds;
+        private long maxFutureSeconds;
+        private int checkpointBatches;
+        private StateLoader stateLoader;
+        private Partitioner partitioner;
+        //水位线（秒级时间戳），随着DStream的checkpoint保存
+        //在BatchCompletedFunction中推进，在生成下一个batch的时候读取
+        private volatile long watermark = Long.MIN_VALUE;
+
+        //以下字段只在driver端的内存中，作业重启之后重新创建
+        private transient JavaPairRDD<BucketKey, Long> state;
+        //batch时间 -> 这个batch之前的状态，这个batch的结果算出来之后释放
+        private transient Map<Time, JavaPairRDD<BucketKey, Long>> previousStates;
+        private transient Accumulator<Long> maxEventTime;
+        private transient Accumulator<Integer> lateEvents;
+        private transient Accumulator<Integer> futureEvents;
+        private transient long batches;
+
+        BucketTransform(long allowedLatenessSeconds, long maxFutureSeconds, int partitions, int checkpointBatches,
+                        StateLoader stateLoader) {
+            this.allowedLatenessSeconds = allowedLatenessSeconds;
+            this.maxFutureSeconds = maxFutureSeconds;
+            this.checkpointBatches = checkpointBatches;
+            this.stateLoader = stateLoader;
+            this.partitioner = new HashPartitioner(partitions);
+        }
+
+        @Override
+        public synchronized JavaPairRDD<BucketKey, Long> call(JavaPairRDD<Long, Long> events, Time time)
+                throws Exception {
+            JavaSparkContext sc = JavaSparkContext.fromSparkContext(events.context());
+            if (previousStates == null) {
+                previousStates = new HashMap<Time, JavaPairRDD<BucketKey, Long>>();
+                maxEventTime = sc.accumulator(Long.MIN_VALUE, new MaxParam());
+                lateEvents = sc.accumulator(0);
+                futureEvents = sc.accumulator(0);
+            }
+
+            final long batchSeconds = time.milliseconds() / 1000L;
+            //水位线所在分钟之前的分钟都关闭了
+            final long openMinute = openMinute(watermark);
+
+            //作业启动之后的第一个batch，从结果表中恢复还打开的分钟
+            if (state == null) {
+                state = loadState(sc, openMinute != Long.MIN_VALUE
+                        ? openMinute : minuteOf(batchSeconds - allowedLatenessSeconds));
+            }
+
+            //这个batch的计数，太迟的数据、超前太多的无效数据直接丢弃
+            final long maxFutureSeconds = this.maxFutureSeconds;
+            final Accumulator<Long> maxEventTime = this.maxEventTime;
+            final Accumulator<Integer> lateEvents = this.lateEvents;
+            final Accumulator<Integer> futureEvents = this.futureEvents;
+            JavaPairRDD<BucketKey, Long> batchCounts = events.filter(new Function<Tuple2<Long, Long>, Boolean>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public Boolean call(Tuple2<Long, Long> event) throws Exception {
+                    if (isFuture(event._2, batchSeconds, maxFutureSeconds)) {
+                        futureEvents.add(1);
+                        return false;
+                    }
+                    if (isLate(event._2, openMinute)) {
+                        lateEvents.add(1);
+                        return false;
+                    }
+                    maxEventTime.add(event._2);
+                    return true;
+                }
+            }).mapToPair(new PairFunction<Tuple2<Long, Long>, BucketKey, Long>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public Tuple2<BucketKey, Long> call(Tuple2<Long, Long> event) throws Exception {
+                    return new Tuple2<BucketKey, Long>(new BucketKey(event._1, minuteOf(event._2)), 1L);
+                }
+            }).reduceByKey(partitioner, new SumFunction());
+
+            //合并到状态中，关闭的分钟从状态中删除
+            JavaPairRDD<BucketKey, Long> newState = state.union(batchCounts)
+                    .reduceByKey(partitioner, new SumFunction())
+                    .filter(new Function<Tuple2<BucketKey, Long>, Boolean>() {
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        public Boolean call(Tuple2<BucketKey, Long> bucket) throws Exception {
+                            return bucket._1.getMinute() >= openMinute;
+                        }
+                    });
+            //状态被逐出的话，要沿着lineage重新计算，所以内存不够的时候写到磁盘
+            newState.persist(StorageLevel.MEMORY_AND_DISK_SER());
+            if (++batches % checkpointBatches == 0) {
+                newState.checkpoint();
+            }
+            previousStates.put(time, state);
+            state = newState;
+
+            //有变化的分钟，输出总数；两边的分区器一样，join不需要shuffle
+            return newState.join(batchCounts).mapValues(new Function<Tuple2<Long, Long>, Long>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public Long call(Tuple2<Long, Long> counts) throws Exception {
+                    return counts._1;
+                }
+            });
+        }
+
+        /**
+         * 这个batch的结果已经算出来了：释放这个batch之前的状态，推进水位线
+         *
+         * @param time           batch时间
+         * @param changedBuckets 有变化的分钟数
+         */
+        synchronized void batchCompleted(Time time, long changedBuckets) {
+            JavaPairRDD<BucketKey, Long> previousState = previousStates != null ? previousStates.remove(time) : null;
+            if (previousState != null) {
+                previousState.unpersist(false);
+            }
+            if (maxEventTime == null) {
+                return;
+            }
+
+            //累加器是从作业启动开始的最大值，水位线只会前进
+            watermark = advanceWatermark(watermark, maxEventTime.value(), allowedLatenessSeconds);
+            System.out.println(new Date() + ": event time watermark=" + watermark
+                    + ", changed buckets=" + changedBuckets
+                    + ", late events dropped=" + lateEvents.value()
+                    + ", future events dropped=" + futureEvents.value());
+        }
+
+        //作业启动或者重启的时候，从结果表中恢复还打开的分钟
+        private JavaPairRDD<BucketKey, Long> loadState(JavaSparkContext sc, long openMinute) {
+            List<Tuple2<BucketKey, Long>> buckets = stateLoader.load(openMinute);
+            System.out.println(new Date() + ": event time buckets restored=" + buckets.size());
+            return sc.parallelizePairs(buckets).partitionBy(partitioner);
+        }
+    }
+
+    /**
+     * 每个batch的输出操作，在调用者的输出操作之前执行
+     * 先计算出这个batch有变化的分钟，新的状态随之计算出来并缓存，之后才可以释放上一个batch的状态
+     */
+    private static class BatchCompletedFunction implements Function2<JavaPairRDD<BucketKey, Long>, Time, Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private BucketTransform transform;
+
+        BatchCompletedFunction(BucketTransform transform) {
+            this.transform = transform;
+        }
+
+        @Override
+        public Void call(JavaPairRDD<BucketKey, Long> changedBuckets, Time time) throws Exception {
+            transform.batchCompleted(time, changedBuckets.count());
+            return null;
+        }
+    }
+
+    /**
+     * 求最大值的累加器
+     */
+    private static class MaxParam implements AccumulatorParam<Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Long addAccumulator(Long max1, Long max2) {
+            return Math.max(max1, max2);
+        }
+
+        @Override
+        public Long addInPlace(Long max1, Long max2) {
+            return Math.max(max1, max2);
+        }
+
+        @Override
+        public Long zero(Long initialValue) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private static class SumFunction implements Function2<Long, Long, Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Long call(Long count1, Long count2) throws Exception {
+            return count1 + count2;
+        }
+    }
+
+    /**
+     * 作业重启之后，恢复状态
+     */
+    public interface StateLoader extends Serializable {
+
+        /**
+         * @param fromMinute 从哪一分钟开始（包含）
+         * @return 这一分钟以及之后每个key每分钟的计数
+         */
+        List<Tuple2<BucketKey, Long>> load(long fromMinute);
+    }
+
+    /**
+     * (key, 事件发生的分钟)
+     */
+    public static final class BucketKey implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private long key;
+        //分钟数，也就是秒级时间戳 / 60
+        private long minute;
+
+        //给Kryo反序列化使用
+        private BucketKey() {
+
+        }
+
+        public BucketKey(long key, long minute) {
+            this.key = key;
+            this.minute = minute;
+        }
+
+        public long getKey() {
+            return key;
+        }
+
+        public long getMinute() {
+            return minute;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = key * 0x9E3779B97F4A7C15L ^ minute;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof BucketKey)) {
+                return false;
+            }
+            BucketKey other = (BucketKey) obj;
+            return key == other.key && minute == other.minute;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.bf.sparkproject.spark.streaming;
+
+import com.bf.sparkproject.spark.session.SessionAggrInfo;
+import com.bf.sparkproject.util.DateUtils;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.Serializable;
+
+/**
+ * 实时session分析中，一个还没有关闭的session的状态
+ * <p>
+ * 同时在线的session可能有几百万个，状态要尽量小，只保存统计需要的字段：
+ * 1、开始和最后一次行为的秒级时间戳，它们的差就是访问时长
+ * 2、访问步长
+ * 3、搜索词和点击品类的RoaringBitmap，只有几个元素的时候序列化之后只有几个字节
+ * 4、连续多少个batch没有新的行为，超过空闲超时对应的batch数，session就关闭
+ * <p>
+ * 状态以MEMORY_ONLY_SER级别缓存，配合OpenSessionSerializer，每个session只需要几十个字节
+ * session id是状态的key，不保存在状态中
+ */
+public class OpenSession implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long startTime = Long.MAX_VALUE;
+    private long lastTime = Long.MIN_VALUE;
+    private int stepLength;
+    private RoaringBitmap searchKeywordIds = new RoaringBitmap();
+    private RoaringBitmap clickCategoryIds = new RoaringBitmap();
+    private int idleBatches;
+    private boolean closed;
+
+    /**
+     * 由一个访问行为创建session状态
+     *
+     * @param actionTime      秒级时间戳
+     * @param searchKeywordId 搜索词的编号，没有的话为null
+     * @param clickCategoryId 点击品类id，没有的话为null
+     * @return
+     */
+    public static OpenSession of(long actionTime, Integer searchKeywordId, Long clickCategoryId) {
+        OpenSession session = new OpenSession();
+        session.startTime = actionTime;
+        session.lastTime = actionTime;
+        session.stepLength = 1;
+        if (searchKeywordId != null) {
+            session.searchKeywordIds.add(searchKeywordId);
+        }
+        if (clickCategoryId != null) {
+            session.clickCategoryIds.add(SessionAggrInfo.toCategoryInt(clickCategoryId));
+        }
+        return session;
+    }
+
+    /**
+     * 合并同一个session的另一部分行为，合并之后空闲的batch数清零
+     *
+     * @param other
+     * @return this
+     */
+    public OpenSession merge(OpenSession other) {
+        startTime = Math.min(startTime, other.startTime);
+        lastTime = Math.max(lastTime, other.lastTime);
+        stepLength += other.stepLength;
+        searchKeywordIds.or(other.searchKeywordIds);
+        clickCategoryIds.or(other.clickCategoryIds);
+        idleBatches = 0;
+        return this;
+    }
+
+    /**
+     * 这个batch没有新的行为
+     *
+     * @param timeoutBatches 空闲超时对应的batch数
+     * @return 是否已经超时，超时的话session被标记为关闭
+     */
+    public boolean idle(int timeoutBatches) {
+        idleBatches++;
+        if (idleBatches >= timeoutBatches) {
+            closed = true;
+        }
+        return closed;
+    }
+
+    /**
+     * 访问时长（秒）
+     */
+    public long getVisitLength() {
+        return lastTime - startTime;
+    }
+
+    /**
+     * session开始的日期（yyyy-MM-dd）
+     */
+    public String getStartDate() {
+        return DateUtils.formatTimeSeconds(startTime).substring(0, 10);
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getLastTime() {
+        return lastTime;
+    }
+
+    public int getStepLength() {
+        return stepLength;
+    }
+
+    public RoaringBitmap getSearchKeywordIds() {
+        return searchKeywordIds;
+    }
+
+    public RoaringBitmap getClickCategoryIds() {
+        return clickCategoryIds;
+    }
+
+    public int getIdleBatches() {
+        return idleBatches;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    //以下几个方法给OpenSessionSerializer反序列化的时候使用
+
+    void setTimes(long startTime, long lastTime) {
+        this.startTime = startTime;
+        this.lastTime = lastTime;
+    }
+
+    void setStepLength(int stepLength) {
+        this.stepLength = stepLength;
+    }
+
+    void setSearchKeywordIds(RoaringBitmap searchKeywordIds) {
+        this.searchKeywordIds = searchKeywordIds;
+    }
+
+    void setClickCategoryIds(RoaringBitmap clickCategoryIds) {
+        this.clickCategoryIds = clickCategoryIds;
+    }
+
+    void setIdleBatches(int idleBatches) {
+        this.idleBatches = idleBatches;
+    }
+
+    void setClosed(boolean closed) {
+        this.closed = closed;
+    }
+}
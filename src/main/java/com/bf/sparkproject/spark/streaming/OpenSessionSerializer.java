@@ -0,0 +1,44 @@
+package com.bf.sparkproject.spark.streaming;
+
+import com.bf.sparkproject.spark.session.RoaringBitmapSerializer;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * OpenSession的Kryo序列化器
+ * <p>
+ * 1、开始时间使用变长编码，最后一次行为的时间只写和开始时间的差值，一般只有1~3个字节
+ * 2、访问步长、空闲的batch数和关闭标记合并写成变长的int
+ * 3、两个bitmap使用RoaringBitmapSerializer的格式
+ * 一个只有几次行为的session，序列化之后只有十几个字节
+ */
+public class OpenSessionSerializer extends Serializer<OpenSession> {
+
+    private RoaringBitmapSerializer bitmapSerializer = new RoaringBitmapSerializer();
+
+    @Override
+    public void write(Kryo kryo, Output output, OpenSession session) {
+        output.writeLong(session.getStartTime(), true);
+        output.writeLong(session.getLastTime() - session.getStartTime(), true);
+        output.writeInt(session.getStepLength(), true);
+        output.writeInt((session.getIdleBatches() << 1) | (session.isClosed() ? 1 : 0), true);
+        bitmapSerializer.write(kryo, output, session.getSearchKeywordIds());
+        bitmapSerializer.write(kryo, output, session.getClickCategoryIds());
+    }
+
+    @Override
+    public OpenSession read(Kryo kryo, Input input, Class<OpenSession> type) {
+        OpenSession session = new OpenSession();
+        long startTime = input.readLong(true);
+        session.setTimes(startTime, startTime + input.readLong(true));
+        session.setStepLength(input.readInt(true));
+        int idle = input.readInt(true);
+        session.setIdleBatches(idle >>> 1);
+        session.setClosed((idle & 1) != 0);
+        session.setSearchKeywordIds(bitmapSerializer.read(kryo, input, null));
+        session.setClickCategoryIds(bitmapSerializer.read(kryo, input, null));
+        return session;
+    }
+}
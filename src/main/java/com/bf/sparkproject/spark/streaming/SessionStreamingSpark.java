@@ -0,0 +1,575 @@
+package com.bf.sparkproject.spark.streaming;
+
+import com.alibaba.fastjson.JSONObject;
+import com.bf.sparkproject.conf.ConfigurationManager;
+import com.bf.sparkproject.constant.Constants;
+import com.bf.sparkproject.dao.impl.DAOFactory;
+import com.bf.sparkproject.domain.ProductClickTrend;
+import com.bf.sparkproject.domain.SessionAggrStatRealtime;
+import com.bf.sparkproject.spark.SessionAggrStatBuckets;
+import com.bf.sparkproject.spark.session.SessionId;
+import com.bf.sparkproject.spark.session.SessionIdPartitioner;
+import com.bf.sparkproject.spark.session.SessionKryoRegistrator;
+import com.bf.sparkproject.util.DateUtils;
+import com.bf.sparkproject.util.SparkUtils;
+import com.google.common.base.Optional;
+import kafka.serializer.StringDecoder;
+import org.apache.spark.HashPartitioner;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.FlatMapFunction;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.api.java.function.Function2;
+import org.apache.spark.api.java.function.PairFlatMapFunction;
+import org.apache.spark.api.java.function.PairFunction;
+import org.apache.spark.storage.StorageLevel;
+import org.apache.spark.streaming.Durations;
+import org.apache.spark.streaming.api.java.JavaDStream;
+import org.apache.spark.streaming.api.java.JavaPairDStream;
+import org.apache.spark.streaming.api.java.JavaPairInputDStream;
+import org.apache.spark.streaming.api.java.JavaStreamingContext;
+import org.apache.spark.streaming.kafka.KafkaUtils;
+import scala.Tuple2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 实时session分析Spark Streaming作业
+ * <p>
+ * 离线作业每天统计一次前一天的session访问时长、访问步长分布，这里从Kafka实时读取访问行为，
+ * 在session关闭的时候，就把它计入同样的统计区间，每天的总数写入MySQL的session_aggr_stat_realtime表
+ * <p>
+ * Kafka中的每条消息是一条访问行为，字段和user_visit_action表一样，按顺序用\t分隔，空字段或者null表示没有值
+ * 开启了streaming.dedup.enabled的话，消息先经过StreamDeduplicator去重
+ * 开启了streaming.click.trend.enabled的话，还会按事件时间统计每个商品每分钟的点击次数，写入product_click_trend表
+ * <p>
+ * 1、updateStateByKey按session id保存还没有关闭的session（OpenSession），每个batch把新的行为合并进去
+ * 2、一个session连续streaming.session.idle.timeout.seconds没有新的行为，就被标记为关闭，
+ * 在这个batch中输出，下一个batch从状态中删除；关闭之后同一个session id又有新的行为的话，当成一个新的session
+ * 空闲时间是按batch数计算的（处理时间），不依赖行为数据中的时间，数据延迟或者回放的时候也不会误关闭
+ * 3、关闭的session按开始日期计入SessionAggrStatBuckets，区间和离线作业一致
+ * 4、updateStateByKey按日期累加每天的总数（DailyAggrStat），每个batch只把有新增的日期的总数写入MySQL，
+ * 写入的是总数而不是增量，同一个batch重复写入的时候不会重复计数
+ * <p>
+ * 结果通过AsyncJdbcSink在executor端异步写入MySQL，写入队列满了的时候，由backpressure降低读取Kafka的速率
+ * <p>
+ * 实时作业没有离线的搜索词字典，搜索词的编号使用字符串的散列值，只用于去重，不需要还原
+ * updateStateByKey需要checkpoint目录，通过streaming.checkpoint.dir配置
+ */
+public class SessionStreamingSpark {
+
+    //每天的总数在状态中保留的天数，session很少会持续一天以上
+    private static final int AGGR_STAT_RETENTION_DAYS = 2;
+
+    public static void main(String[] args) throws Exception {
+        int batchSeconds = ConfigurationManager.getInteger(Constants.STREAMING_BATCH_SECONDS);
+
+        SparkConf conf = new SparkConf()
+                .setAppName(Constants.SPARK_APP_NAME_SESSION_STREAMING)
+                .set("spark.serializer", "org.apache.spark.serializer.KryoSerializer")
+                .set("spark.kryo.registrator", SessionKryoRegistrator.class.getName())
+                //MySQL写入变慢、batch处理时间变长的时候，自动降低从Kafka读取的速率
+                .set("spark.streaming.backpressure.enabled",
+                        ConfigurationManager.getProperty(Constants.STREAMING_BACKPRESSURE_ENABLED))
+                //速率控制器还没有估算出速率之前（比如第一个batch），每个分区每秒最多读取的消息数
+                .set("spark.streaming.kafka.maxRatePerPartition",
+                        ConfigurationManager.getProperty(Constants.STREAMING_KAFKA_MAX_RATE_PER_PARTITION))
+                .setMaster("local[2]");
+        SparkUtils.setMaster(conf);
+
+        JavaStreamingContext jssc = new JavaStreamingContext(conf, Durations.seconds(batchSeconds));
+        jssc.checkpoint(ConfigurationManager.getProperty(Constants.STREAMING_CHECKPOINT_DIR));
+
+        //使用Direct方式读取Kafka，offset由Spark Streaming自己管理，不需要Receiver
+        Map<String, String> kafkaParams = new HashMap<String, String>();
+        kafkaParams.put("metadata.broker.list",
+                ConfigurationManager.getProperty(Constants.KAFKA_METADATA_BROKER_LIST));
+        Set<String> topics = new HashSet<String>();
+        for (String topic : ConfigurationManager.getProperty(Constants.KAFKA_TOPICS).split(",")) {
+            topics.add(topic.trim());
+        }
+        JavaPairInputDStream<String, String> messages = KafkaUtils.createDirectStream(jssc,
+                String.class, String.class, StringDecoder.class, StringDecoder.class, kafkaParams, topics);
+        JavaDStream<String> lines = messages.map(new Function<Tuple2<String, String>, String>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public String call(Tuple2<String, String> message) throws Exception {
+                return message._2;
+            }
+        });
+
+        //at-least-once的数据源会有重复的消息，先用按时间分片的布隆过滤器去重
+        if (ConfigurationManager.getBoolean(Constants.STREAMING_DEDUP_ENABLED)) {
+            long sliceSeconds = ConfigurationManager.getLong(Constants.STREAMING_DEDUP_SLICE_SECONDS);
+            long retentionSeconds = ConfigurationManager.getLong(Constants.STREAMING_DEDUP_RETENTION_SECONDS);
+            lines = StreamDeduplicator.dedup(lines,
+                    ConfigurationManager.getInteger(Constants.STREAMING_DEDUP_PARTITIONS),
+                    (int) Math.max(1, (sliceSeconds + batchSeconds - 1) / batchSeconds),
+                    (int) Math.max(1, (retentionSeconds + sliceSeconds - 1) / sliceSeconds),
+                    ConfigurationManager.getLong(Constants.STREAMING_DEDUP_EXPECTED_PER_SLICE),
+                    ConfigurationManager.getDouble(Constants.STREAMING_DEDUP_FPP));
+        }
+
+        //空闲超时换算成batch数，不足一个batch的按一个batch算
+        long idleTimeoutSeconds = ConfigurationManager.getLong(Constants.STREAMING_SESSION_IDLE_TIMEOUT_SECONDS);
+        int timeoutBatches = (int) Math.max(1, (idleTimeoutSeconds + batchSeconds - 1) / batchSeconds);
+
+        SessionAggrStatBuckets buckets = SessionAggrStatBuckets.forTask(new JSONObject());
+        JavaDStream<OpenSession> closedSessions = closeSessions(lines, timeoutBatches,
+                jssc.sparkContext().defaultParallelism());
+        //每天的总数在状态中保留两天，作业重启的时候从MySQL中读取这两天的总数
+        JavaDStream<DailyAggrStat> dailyStats = accumulateByDate(aggrStatByDate(closedSessions, buckets),
+                (int) (AGGR_STAT_RETENTION_DAYS * 24 * 3600 / batchSeconds),
+                jssc.sparkContext().defaultParallelism(),
+                loadDailyAggrStats(jssc.sparkContext(), buckets, DateUtils.getDateBefore(AGGR_STAT_RETENTION_DAYS)));
+        persistAggrStat(dailyStats, buckets);
+
+        //商品点击趋势，按事件时间分钟计数，迟到的数据修正对应的分钟
+        if (ConfigurationManager.getBoolean(Constants.STREAMING_CLICK_TREND_ENABLED)) {
+            //访问行为要读两遍，缓存起来
+            lines.cache();
+            JavaPairDStream<EventTimeBucketer.BucketKey, Long> clickTrend = EventTimeBucketer.bucket(
+                    clickEvents(lines),
+                    ConfigurationManager.getLong(Constants.STREAMING_CLICK_TREND_ALLOWED_LATENESS_SECONDS),
+                    ConfigurationManager.getLong(Constants.STREAMING_CLICK_TREND_MAX_FUTURE_SECONDS),
+                    ConfigurationManager.getInteger(Constants.STREAMING_CLICK_TREND_PARTITIONS),
+                    ConfigurationManager.getInteger(Constants.STREAMING_CLICK_TREND_CHECKPOINT_BATCHES),
+                    new ProductClickTrendLoader());
+            persistClickTrend(clickTrend);
+        }
+
+        jssc.start();
+        jssc.awaitTermination();
+        jssc.close();
+    }
+
+    /**
+     * 按session id维护还没有关闭的session，输出每个batch中关闭的session
+     *
+     * @param lines          访问行为
+     * @param timeoutBatches 连续多少个batch没有新的行为，session就关闭
+     * @param partitions     状态的分区数
+     * @return 每个batch中关闭的session
+     */
+    public static JavaDStream<OpenSession> closeSessions(JavaDStream<String> lines,
+                                                         final int timeoutBatches,
+                                                         int partitions) {
+        JavaPairDStream<SessionId, OpenSession> actions = lines.flatMapToPair(
+                new PairFlatMapFunction<String, SessionId, OpenSession>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public Iterable<Tuple2<SessionId, OpenSession>> call(String line) throws Exception {
+                        Tuple2<SessionId, OpenSession> action = parseAction(line);
+                        return action != null
+                                ? Collections.singletonList(action)
+                                : Collections.<Tuple2<SessionId, OpenSession>>emptyList();
+                    }
+                });
+
+        //同一个batch中同一个session的行为先在map端合并，状态更新的时候每个session只有一个值
+        JavaPairDStream<SessionId, OpenSession> sessionStates = actions.reduceByKey(
+                new Function2<OpenSession, OpenSession, OpenSession>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public OpenSession call(OpenSession session1, OpenSession session2) throws Exception {
+                        return session1.merge(session2);
+                    }
+                }).updateStateByKey(
+                new Function2<List<OpenSession>, Optional<OpenSession>, Optional<OpenSession>>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public Optional<OpenSession> call(List<OpenSession> values, Optional<OpenSession> state)
+                            throws Exception {
+                        //上一个batch已经关闭并输出过的session，不再保留
+                        OpenSession session = state.isPresent() && !state.get().isClosed() ? state.get() : null;
+                        if (values.isEmpty()) {
+                            if (session == null) {
+                                return Optional.absent();
+                            }
+                            session.idle(timeoutBatches);
+                            return Optional.of(session);
+                        }
+                        for (OpenSession value : values) {
+                            session = session == null ? value : session.merge(value);
+                        }
+                        return Optional.of(session);
+                    }
+                }, new SessionIdPartitioner(partitions));
+
+        //状态序列化之后缓存，每个session只占几十个字节；反序列化出来的是新对象，在上面直接修改也不会影响上一个batch的状态
+        sessionStates.persist(StorageLevel.MEMORY_ONLY_SER());
+
+        return sessionStates.filter(new Function<Tuple2<SessionId, OpenSession>, Boolean>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Boolean call(Tuple2<SessionId, OpenSession> tuple) throws Exception {
+                return tuple._2.isClosed();
+            }
+        }).map(new Function<Tuple2<SessionId, OpenSession>, OpenSession>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public OpenSession call(Tuple2<SessionId, OpenSession> tuple) throws Exception {
+                return tuple._2;
+            }
+        });
+    }
+
+    /**
+     * 把关闭的session按开始日期计入统计区间
+     *
+     * @param closedSessions 关闭的session
+     * @param buckets        统计区间
+     * @return 日期 -> 这个batch新增的统计结果
+     */
+    public static JavaPairDStream<String, long[]> aggrStatByDate(JavaDStream<OpenSession> closedSessions,
+                                                                 final SessionAggrStatBuckets buckets) {
+        return closedSessions.mapPartitionsToPair(
+                new PairFlatMapFunction<Iterator<OpenSession>, String, long[]>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public Iterable<Tuple2<String, long[]>> call(Iterator<OpenSession> iterator) throws Exception {
+                        //先在分区内按日期计数，每个分区每天只输出一个数组
+                        Map<String, long[]> date2Counts = new HashMap<String, long[]>();
+                        while (iterator.hasNext()) {
+                            OpenSession session = iterator.next();
+                            String date = session.getStartDate();
+                            long[] counts = date2Counts.get(date);
+                            if (counts == null) {
+                                counts = new long[buckets.size()];
+                                date2Counts.put(date, counts);
+                            }
+                            buckets.add(counts, session.getVisitLength(), session.getStepLength());
+                        }
+
+                        List<Tuple2<String, long[]>> result = new ArrayList<Tuple2<String, long[]>>();
+                        for (Map.Entry<String, long[]> entry : date2Counts.entrySet()) {
+                            result.add(new Tuple2<String, long[]>(entry.getKey(), entry.getValue()));
+                        }
+                        return result;
+                    }
+                }).reduceByKey(new Function2<long[], long[], long[]>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public long[] call(long[] counts1, long[] counts2) throws Exception {
+                for (int i = 0; i < counts1.length; i++) {
+                    counts1[i] += counts2[i];
+                }
+                return counts1;
+            }
+        });
+    }
+
+    /**
+     * 把每个batch新增的统计结果累加到每天的总数上
+     *
+     * @param date2Counts      日期 -> 这个batch新增的统计结果
+     * @param retentionBatches 一天连续多少个batch没有新增，就从状态中删除
+     * @param partitions       状态的分区数
+     * @param initialStats     作业启动的时候，MySQL中已有的每天的总数
+     * @return 这个batch有新增的日期，以及这一天到目前为止的总数
+     */
+    public static JavaDStream<DailyAggrStat> accumulateByDate(JavaPairDStream<String, long[]> date2Counts,
+                                                              final int retentionBatches,
+                                                              int partitions,
+                                                              JavaPairRDD<String, DailyAggrStat> initialStats) {
+        return date2Counts.mapToPair(new PairFunction<Tuple2<String, long[]>, String, DailyAggrStat>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Tuple2<String, DailyAggrStat> call(Tuple2<String, long[]> tuple) throws Exception {
+                return new Tuple2<String, DailyAggrStat>(tuple._1, new DailyAggrStat(tuple._1, tuple._2));
+            }
+        }).updateStateByKey(new Function2<List<DailyAggrStat>, Optional<DailyAggrStat>, Optional<DailyAggrStat>>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Optional<DailyAggrStat> call(List<DailyAggrStat> values, Optional<DailyAggrStat> state)
+                    throws Exception {
+                DailyAggrStat stat = state.isPresent() ? state.get() : null;
+                if (values.isEmpty()) {
+                    if (stat == null || stat.idle(retentionBatches)) {
+                        return Optional.absent();
+                    }
+                    return Optional.of(stat);
+                }
+                for (DailyAggrStat value : values) {
+                    stat = stat == null ? value : stat.merge(value);
+                }
+                return Optional.of(stat);
+            }
+        }, new HashPartitioner(partitions), initialStats).filter(
+                new Function<Tuple2<String, DailyAggrStat>, Boolean>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public Boolean call(Tuple2<String, DailyAggrStat> tuple) throws Exception {
+                        return tuple._2.isUpdated();
+                    }
+                }).map(new Function<Tuple2<String, DailyAggrStat>, DailyAggrStat>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public DailyAggrStat call(Tuple2<String, DailyAggrStat> tuple) throws Exception {
+                return tuple._2;
+            }
+        });
+    }
+
+    /**
+     * 从MySQL中读取某一天以及之后每天的总数，作为状态的初始值
+     * 作业重启之后状态是空的，不读取的话，总数从0开始，再写入MySQL的时候会被greatest()忽略，直到超过原来的总数
+     *
+     * @param sc       JavaSparkContext
+     * @param buckets  统计区间
+     * @param fromDate 日期（yyyy-MM-dd）
+     * @return 日期 -> 这一天的总数
+     */
+    private static JavaPairRDD<String, DailyAggrStat> loadDailyAggrStats(JavaSparkContext sc,
+                                                                         SessionAggrStatBuckets buckets,
+                                                                         String fromDate) {
+        String[] keys = buckets.getKeys();
+        Map<String, Integer> keyIndexes = new HashMap<String, Integer>();
+        for (int i = 0; i < keys.length; i++) {
+            keyIndexes.put(keys[i], i);
+        }
+
+        Map<String, long[]> date2Counts = new HashMap<String, long[]>();
+        for (SessionAggrStatRealtime sessionAggrStat :
+                DAOFactory.getSessionAggrStatRealtimeDAO().findSince(fromDate)) {
+            //统计区间的配置改过的话，不认识的统计项忽略
+            Integer index = keyIndexes.get(sessionAggrStat.getStatKey());
+            if (index == null) {
+                continue;
+            }
+            long[] counts = date2Counts.get(sessionAggrStat.getDate());
+            if (counts == null) {
+                counts = new long[keys.length];
+                date2Counts.put(sessionAggrStat.getDate(), counts);
+            }
+            counts[index] = sessionAggrStat.getSessionCount();
+        }
+
+        List<Tuple2<String, DailyAggrStat>> initialStats = new ArrayList<Tuple2<String, DailyAggrStat>>();
+        for (Map.Entry<String, long[]> entry : date2Counts.entrySet()) {
+            initialStats.add(new Tuple2<String, DailyAggrStat>(entry.getKey(),
+                    new DailyAggrStat(entry.getKey(), entry.getValue())));
+        }
+        System.out.println(new Date() + ": loaded session aggr stat of " + initialStats.size()
+                + " days since " + fromDate);
+        return sc.parallelizePairs(initialStats);
+    }
+
+    /**
+     * 每个batch把有新增的日期的总数写入MySQL
+     * 在executor端放入异步写入队列，同一天同一个统计项在队列中只保留较大的总数，MySQL慢的时候，连续几个batch只需要写一次
+     * 写入的是总数，同一个batch重复写入不会重复计数
+     *
+     * @param dailyStats
+     * @param buckets
+     */
+    private static void persistAggrStat(JavaDStream<DailyAggrStat> dailyStats,
+                                        final SessionAggrStatBuckets buckets) {
+        JavaDStream<SessionAggrStatRealtime> sessionAggrStats = dailyStats.flatMap(
+                new FlatMapFunction<DailyAggrStat, SessionAggrStatRealtime>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public Iterable<SessionAggrStatRealtime> call(DailyAggrStat dailyStat) throws Exception {
+                        List<SessionAggrStatRealtime> sessionAggrStats = new ArrayList<SessionAggrStatRealtime>();
+                        String[] keys = buckets.getKeys();
+                        for (int i = 0; i < keys.length; i++) {
+                            SessionAggrStatRealtime sessionAggrStat = new SessionAggrStatRealtime();
+                            sessionAggrStat.setDate(dailyStat.getDate());
+                            sessionAggrStat.setStatKey(keys[i]);
+                            sessionAggrStat.setSessionCount(dailyStat.getCounts()[i]);
+                            sessionAggrStats.add(sessionAggrStat);
+                        }
+                        return sessionAggrStats;
+                    }
+                });
+
+        new AsyncJdbcSink<SessionAggrStatRealtime>("session_aggr_stat_realtime",
+                ConfigurationManager.getInteger(Constants.STREAMING_SINK_QUEUE_CAPACITY),
+                ConfigurationManager.getInteger(Constants.STREAMING_SINK_BATCH_SIZE),
+                new AsyncJdbcSink.Writer<SessionAggrStatRealtime>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public void write(List<SessionAggrStatRealtime> values) {
+                        DAOFactory.getSessionAggrStatRealtimeDAO().upsert(values);
+                    }
+                },
+                new AsyncJdbcSink.Coalescer<SessionAggrStatRealtime>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public Object key(SessionAggrStatRealtime value) {
+                        return value.getDate() + "_" + value.getStatKey();
+                    }
+
+                    @Override
+                    public SessionAggrStatRealtime coalesce(SessionAggrStatRealtime pending,
+                                                            SessionAggrStatRealtime update) {
+                        //总数只增不减，重放的batch放入的是较早的总数
+                        return update.getSessionCount() >= pending.getSessionCount() ? update : pending;
+                    }
+                }).sink(sessionAggrStats);
+    }
+
+    /**
+     * 商品点击事件
+     *
+     * @param lines 访问行为
+     * @return 点击的商品id -> 点击时间（秒级时间戳）
+     */
+    public static JavaPairDStream<Long, Long> clickEvents(JavaDStream<String> lines) {
+        return lines.flatMapToPair(new PairFlatMapFunction<String, Long, Long>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Iterable<Tuple2<Long, Long>> call(String line) throws Exception {
+                Tuple2<Long, Long> click = parseClick(line);
+                return click != null
+                        ? Collections.singletonList(click)
+                        : Collections.<Tuple2<Long, Long>>emptyList();
+            }
+        });
+    }
+
+    /**
+     * 每个batch把有变化的分钟的点击次数覆盖写入MySQL
+     * 在executor端放入异步写入队列，同一个商品同一分钟在队列中只保留最大的总次数
+     *
+     * @param clickTrend
+     */
+    private static void persistClickTrend(JavaPairDStream<EventTimeBucketer.BucketKey, Long> clickTrend) {
+        JavaDStream<ProductClickTrend> productClickTrends = clickTrend.map(
+                new Function<Tuple2<EventTimeBucketer.BucketKey, Long>, ProductClickTrend>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public ProductClickTrend call(Tuple2<EventTimeBucketer.BucketKey, Long> tuple) throws Exception {
+                        ProductClickTrend productClickTrend = new ProductClickTrend();
+                        productClickTrend.setClickMinute(formatMinute(tuple._1.getMinute()));
+                        productClickTrend.setProductId(tuple._1.getKey());
+                        productClickTrend.setClickCount(tuple._2);
+                        return productClickTrend;
+                    }
+                });
+
+        new AsyncJdbcSink<ProductClickTrend>("product_click_trend",
+                ConfigurationManager.getInteger(Constants.STREAMING_SINK_QUEUE_CAPACITY),
+                ConfigurationManager.getInteger(Constants.STREAMING_SINK_BATCH_SIZE),
+                new AsyncJdbcSink.Writer<ProductClickTrend>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public void write(List<ProductClickTrend> values) {
+                        DAOFactory.getProductClickTrendDAO().upsert(values);
+                    }
+                },
+                new AsyncJdbcSink.Coalescer<ProductClickTrend>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public Object key(ProductClickTrend value) {
+                        return value.getClickMinute() + "_" + value.getProductId();
+                    }
+
+                    @Override
+                    public ProductClickTrend coalesce(ProductClickTrend pending, ProductClickTrend update) {
+                        return update.getClickCount() > pending.getClickCount() ? update : pending;
+                    }
+                }).sink(productClickTrends);
+    }
+
+    /**
+     * 作业重启之后，从product_click_trend表中恢复还打开的分钟
+     */
+    private static class ProductClickTrendLoader implements EventTimeBucketer.StateLoader {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public List<Tuple2<EventTimeBucketer.BucketKey, Long>> load(long fromMinute) {
+            List<Tuple2<EventTimeBucketer.BucketKey, Long>> buckets =
+                    new ArrayList<Tuple2<EventTimeBucketer.BucketKey, Long>>();
+            for (ProductClickTrend productClickTrend :
+                    DAOFactory.getProductClickTrendDAO().findSince(formatMinute(fromMinute))) {
+                long minute = DateUtils.parseTimeSeconds(productClickTrend.getClickMinute() + ":00") / 60;
+                buckets.add(new Tuple2<EventTimeBucketer.BucketKey, Long>(
+                        new EventTimeBucketer.BucketKey(productClickTrend.getProductId(), minute),
+                        productClickTrend.getClickCount()));
+            }
+            return buckets;
+        }
+    }
+
+    //分钟格式化成yyyy-MM-dd HH:mm
+    private static String formatMinute(long minute) {
+        return DateUtils.formatTimeSeconds(EventTimeBucketer.minuteStart(minute)).substring(0, 16);
+    }
+
+    /**
+     * 解析一条商品点击
+     *
+     * @param line user_visit_action的字段，用\t分隔
+     * @return 点击的商品id -> 点击时间（秒级时间戳），不是商品点击或者格式不对的话返回null
+     */
+    static Tuple2<Long, Long> parseClick(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length < 8 || isNull(fields[4]) || isNull(fields[7])) {
+            return null;
+        }
+        try {
+            return new Tuple2<Long, Long>(Long.valueOf(fields[7]), DateUtils.parseTimeSeconds(fields[4]));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 解析一条访问行为
+     *
+     * @param line user_visit_action的字段，用\t分隔
+     * @return session id -> 只有这一个行为的session，格式不对的话返回null
+     */
+    static Tuple2<SessionId, OpenSession> parseAction(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length < 7 || isNull(fields[2]) || isNull(fields[4])) {
+            return null;
+        }
+        try {
+            SessionId sessionId = SessionId.parse(fields[2]);
+            long actionTime = DateUtils.parseTimeSeconds(fields[4]);
+            Integer searchKeywordId = isNull(fields[5]) ? null : fields[5].hashCode() & Integer.MAX_VALUE;
+            Long clickCategoryId = isNull(fields[6]) ? null : Long.valueOf(fields[6]);
+            return new Tuple2<SessionId, OpenSession>(sessionId,
+                    OpenSession.of(actionTime, searchKeywordId, clickCategoryId));
+        } catch (IllegalArgumentException e) {
+            //脏数据直接丢弃，不能让一条消息把整个流处理作业搞挂
+            return null;
+        }
+    }
+
+    private static boolean isNull(String field) {
+        return field.isEmpty() || "null".equals(field);
+    }
+}
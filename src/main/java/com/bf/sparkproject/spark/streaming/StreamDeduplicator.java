@@ -0,0 +1,306 @@
+package com.bf.sparkproject.spark.streaming;
+
+import com.bf.sparkproject.util.LongBloomFilter;
+import com.google.common.base.Optional;
+import org.apache.spark.HashPartitioner;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.function.FlatMapFunction2;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.api.java.function.Function2;
+import org.apache.spark.api.java.function.Function3;
+import org.apache.spark.api.java.function.PairFunction;
+import org.apache.spark.storage.StorageLevel;
+import org.apache.spark.streaming.Time;
+import org.apache.spark.streaming.api.java.JavaDStream;
+import org.apache.spark.streaming.api.java.JavaPairDStream;
+import scala.Tuple2;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 实时数据的去重
+ * <p>
+ * Kafka的数据源是at-least-once的，生产端重试、消费端失败重放，同一条消息都可能出现多次，
+ * 重复的访问行为会让session的访问步长变大，统计结果偏高
+ * 精确去重要保存窗口内所有消息的id，数据量越大，状态越大，早晚会把内存撑爆
+ * <p>
+ * 这里使用按时间分片的布隆过滤器：
+ * 1、每条消息的id是整条消息的64位散列值，按id分到固定个数的去重分区中，同一条消息一定落在同一个分区
+ * 2、每个分区的状态是一组布隆过滤器，每个过滤器对应一个时间片（比如10分钟），一共保留retention / slice个（比如1个小时）
+ * 当前时间片写满了，就清空最老的那个过滤器，作为新的当前时间片，最老的消息自然过期
+ * 3、一条消息在任何一个时间片的过滤器中可能存在，或者在这个batch中已经出现过，就认为是重复的，丢弃
+ * 状态通过updateStateByKey保存，会随着checkpoint一起持久化，作业重启之后去重的窗口不会丢
+ * <p>
+ * 状态中只有布隆过滤器和计数，不保存消息本身，消息不会被序列化进状态、也不会被checkpoint：
+ * 1、消息先按去重分区partitionBy，缓存起来，状态只用消息的id更新，因为分区方式一样，更新状态的cogroup不需要再shuffle
+ * 2、这个batch通过去重的id先写入单独的pending过滤器，下一个batch开始的时候，才合并进当前时间片的过滤器，
+ * 所以更新之后的状态中，时间片的过滤器仍然是这个batch之前的样子
+ * 3、再用zipPartitions把缓存的消息和更新之后的状态按分区对齐，用同样的规则（不在时间片的过滤器中，并且是这个batch中第一次出现）
+ * 逐条判断，输出通过去重的消息，判断的结果和更新状态时完全一样，和消息的顺序无关
+ * <p>
+ * 内存只由配置决定：去重分区数 * (时间片个数 + 1) * 每个时间片的过滤器大小，和数据量无关
+ * 去重的并行度就是去重分区数，每个分区预计的消息数是总数除以分区数，所以增加分区数不会增加内存
+ * 数据量超过了每个时间片预计的消息数，误判率会升高（重复判断变多，误删正常的消息），
+ * 所以每个batch都会按过滤器实际置位的比例计算出当前的误判率，和输入、丢弃的消息数一起输出
+ * 时间片是按batch数计算的（处理时间），和SessionStreamingSpark的空闲超时一样
+ */
+public class StreamDeduplicator {
+
+    /**
+     * 去重
+     *
+     * @param events           消息
+     * @param partitions       去重分区数
+     * @param sliceBatches     每个时间片有几个batch
+     * @param slices           保留几个时间片
+     * @param expectedPerSlice 每个分区每个时间片预计的消息数
+     * @param fpp              期望的误判率
+     * @return 去重之后的消息
+     */
+    public static JavaDStream<String> dedup(JavaDStream<String> events,
+                                            int partitions,
+                                            final int sliceBatches,
+                                            final int slices,
+                                            final long expectedPerSlice,
+                                            final double fpp) {
+        final int dedupPartitions = partitions;
+        final HashPartitioner partitioner = new HashPartitioner(partitions);
+
+        //按去重分区划分好的消息，更新状态和输出消息都要读取，缓存起来
+        JavaPairDStream<Integer, String> partitionedEvents = events.mapToPair(
+                new PairFunction<String, Integer, String>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public Tuple2<Integer, String> call(String event) throws Exception {
+                        int partition = (int) ((eventId(event) & Long.MAX_VALUE) % dedupPartitions);
+                        return new Tuple2<Integer, String>(partition, event);
+                    }
+                }).transformToPair(new Function<JavaPairRDD<Integer, String>, JavaPairRDD<Integer, String>>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public JavaPairRDD<Integer, String> call(JavaPairRDD<Integer, String> rdd) throws Exception {
+                return rdd.partitionBy(partitioner);
+            }
+        });
+        partitionedEvents.persist(StorageLevel.MEMORY_ONLY_SER());
+
+        //状态只用消息的id更新，mapValues保留了分区方式
+        JavaPairDStream<Integer, DedupState> states = partitionedEvents.mapValues(new Function<String, Long>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Long call(String event) throws Exception {
+                return eventId(event);
+            }
+        }).updateStateByKey(new Function2<List<Long>, Optional<DedupState>, Optional<DedupState>>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Optional<DedupState> call(List<Long> ids, Optional<DedupState> state) throws Exception {
+                DedupState dedupState = state.isPresent()
+                        ? state.get() : new DedupState(slices, expectedPerSlice, fpp);
+                dedupState.nextBatch(sliceBatches);
+                Set<Long> batchIds = new HashSet<Long>();
+                for (Long id : ids) {
+                    dedupState.offer(id, batchIds);
+                }
+                return Optional.of(dedupState);
+            }
+        }, partitioner);
+
+        //去重的指标：输入、丢弃的消息数，以及各个分区中最高的误判率
+        states.foreachRDD(new Function<JavaPairRDD<Integer, DedupState>, Void>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Void call(JavaPairRDD<Integer, DedupState> rdd) throws Exception {
+                //输入、丢弃的消息数在double的53位精度之内都是精确的
+                double[] metrics = rdd.map(new Function<Tuple2<Integer, DedupState>, double[]>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public double[] call(Tuple2<Integer, DedupState> tuple) throws Exception {
+                        DedupState dedupState = tuple._2;
+                        return new double[]{dedupState.input, dedupState.dropped,
+                                dedupState.getFalsePositiveRate()};
+                    }
+                }).fold(new double[3], new Function2<double[], double[], double[]>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public double[] call(double[] metrics1, double[] metrics2) throws Exception {
+                        return new double[]{metrics1[0] + metrics2[0], metrics1[1] + metrics2[1],
+                                Math.max(metrics1[2], metrics2[2])};
+                    }
+                });
+                System.out.println(new Date() + ": dedup input=" + (long) metrics[0]
+                        + ", dropped=" + (long) metrics[1] + ", fpp=" + metrics[2]);
+                return null;
+            }
+        });
+
+        //消息和状态的分区方式一样，第i个分区的消息对应第i个分区的状态，不需要shuffle
+        return partitionedEvents.transformWith(states, new Function3<JavaPairRDD<Integer, String>,
+                JavaPairRDD<Integer, DedupState>, Time, JavaRDD<String>>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public JavaRDD<String> call(JavaPairRDD<Integer, String> eventRDD,
+                                        JavaPairRDD<Integer, DedupState> stateRDD,
+                                        Time time) throws Exception {
+                return eventRDD.zipPartitions(stateRDD, new AcceptFunction());
+            }
+        });
+    }
+
+    /**
+     * 按照更新之后的状态，输出一个分区中通过去重的消息
+     */
+    private static class AcceptFunction implements FlatMapFunction2<Iterator<Tuple2<Integer, String>>,
+            Iterator<Tuple2<Integer, DedupState>>, String> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Iterable<String> call(Iterator<Tuple2<Integer, String>> events,
+                                     Iterator<Tuple2<Integer, DedupState>> states) throws Exception {
+            //一个分区中的状态只有一个（去重分区数和分区数一样），这里不依赖这一点
+            Map<Integer, DedupState> dedupStates = new HashMap<Integer, DedupState>();
+            while (states.hasNext()) {
+                Tuple2<Integer, DedupState> state = states.next();
+                dedupStates.put(state._1, state._2);
+            }
+
+            Map<Integer, Set<Long>> batchIds = new HashMap<Integer, Set<Long>>();
+            List<String> accepted = new ArrayList<String>();
+            while (events.hasNext()) {
+                Tuple2<Integer, String> event = events.next();
+                Set<Long> ids = batchIds.get(event._1);
+                if (ids == null) {
+                    ids = new HashSet<Long>();
+                    batchIds.put(event._1, ids);
+                }
+                if (dedupStates.get(event._1).accepts(eventId(event._2), ids)) {
+                    accepted.add(event._2);
+                }
+            }
+            return accepted;
+        }
+    }
+
+    /**
+     * 消息的id：整条消息的64位FNV-1a散列值，再做一次混淆
+     * 64位的散列值，一个小时几十亿条消息碰撞的概率也可以忽略
+     */
+    static long eventId(String event) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < event.length(); i++) {
+            hash ^= event.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * 一个去重分区的状态
+     */
+    public static class DedupState implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        //按时间片轮转的布隆过滤器，current是当前时间片
+        private LongBloomFilter[] filters;
+        private int current;
+        private int batchesInSlice;
+        //这个batch通过去重的id，下一个batch开始的时候合并进当前时间片
+        private LongBloomFilter pending;
+        private long input;
+        private long dropped;
+
+        //给Kryo反序列化使用
+        private DedupState() {
+
+        }
+
+        DedupState(int slices, long expectedPerSlice, double fpp) {
+            filters = new LongBloomFilter[slices];
+            for (int i = 0; i < slices; i++) {
+                filters[i] = new LongBloomFilter(expectedPerSlice, fpp);
+            }
+            pending = new LongBloomFilter(expectedPerSlice, fpp);
+        }
+
+        /**
+         * 开始一个新的batch：上一个batch通过去重的id合并进当前时间片，
+         * 当前时间片满了的话，再清空最老的时间片，作为新的当前时间片
+         */
+        void nextBatch(int sliceBatches) {
+            filters[current].merge(pending);
+            pending.clear();
+            if (++batchesInSlice > sliceBatches) {
+                current = (current + 1) % filters.length;
+                filters[current].clear();
+                batchesInSlice = 1;
+            }
+            input = 0;
+            dropped = 0;
+        }
+
+        /**
+         * 更新状态：判断一条消息，通过去重的话，记入pending
+         *
+         * @param id       消息的id
+         * @param batchIds 这个batch中已经出现过的id
+         * @return 消息是否通过了去重
+         */
+        boolean offer(long id, Set<Long> batchIds) {
+            input++;
+            if (!accepts(id, batchIds)) {
+                dropped++;
+                return false;
+            }
+            pending.put(id);
+            return true;
+        }
+
+        /**
+         * 消息是否通过去重：不在任何一个时间片的过滤器中，并且在这个batch中第一次出现
+         * 只读取时间片的过滤器，不读取pending，更新状态之前和之后判断的结果一样
+         *
+         * @param id       消息的id
+         * @param batchIds 这个batch中已经出现过的id，判断之后会加入
+         */
+        boolean accepts(long id, Set<Long> batchIds) {
+            for (LongBloomFilter filter : filters) {
+                if (filter.mightContain(id)) {
+                    return false;
+                }
+            }
+            return batchIds.add(id);
+        }
+
+        /**
+         * 一条新消息被误判成重复的概率，任何一个时间片误判都算
+         */
+        double getFalsePositiveRate() {
+            double notFalsePositive = 1D;
+            for (LongBloomFilter filter : filters) {
+                notFalsePositive *= 1D - filter.getFalsePositiveRate();
+            }
+            return 1D - notFalsePositive;
+        }
+    }
+}
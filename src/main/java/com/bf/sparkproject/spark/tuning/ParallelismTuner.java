@@ -0,0 +1,267 @@
+package com.bf.sparkproject.spark.tuning;
+
+import com.bf.sparkproject.conf.ConfigurationManager;
+import com.bf.sparkproject.constant.Constants;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.parquet.hadoop.Footer;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.sql.DataFrame;
+import org.apache.spark.sql.SQLContext;
+import org.apache.spark.sql.catalyst.plans.logical.LogicalPlan;
+import org.apache.spark.sql.execution.datasources.LogicalRelation;
+import org.apache.spark.sql.sources.HadoopFsRelation;
+import scala.collection.JavaConversions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按照输入数据量自动调整并行度
+ * <p>
+ * 原来spark.default.parallelism在main函数里写死成100，Spark SQL扫描的task数由文件的split决定，
+ * 1天的任务和90天的任务用的是同样的并行度：1天的时候每个task只处理几MB，调度的开销比计算还大；
+ * 90天的时候每个task要处理几个GB，内存放不下，只能不停的溢写
+ * <p>
+ * 这里在扫描行为数据之前，根据日期范围内的数据量估算出合适的分区数：
+ * 1、数据量：user_visit_action按date分区存储（Hive表或者partitionBy("date")写出的Parquet），
+ * 统计日期范围内每个date=yyyy-MM-dd目录下文件的大小；Parquet文件还会读取footer，得到精确的行数
+ * 表的根目录优先使用tuning.action.table.path，没有配置的话，从表的逻辑计划中找HadoopFsRelation的路径
+ * 2、分区数 = 数据量 / tuning.target.bytes.per.task，不少于tuning.min.partitions和集群的默认并行度，
+ * 不多于tuning.max.partitions
+ * 3、同一个分区数用于：扫描之后的重分区、session聚合的shuffle、DataFrame方式的shuffle
+ * <p>
+ * 分区数保存在SparkContext的local property中，只对当前线程可见，不会写入共享的SQLContext配置：
+ * 批量执行的时候，多个日期范围的组是并发执行的，如果直接修改spark.sql.shuffle.partitions，
+ * 一个组的查询就可能用上另一个组的分区数
+ * DataFrame方式的查询通过plan()固定分区数：Spark SQL是在生成物理计划的时候读取spark.sql.shuffle.partitions的，
+ * 读取的是当前线程的SQLSession中的配置（SQLContext按线程保存session，没有单独设置的线程共用默认的session），
+ * 所以给当前线程换上一个复制出来的session，在其中设置分区数，生成这个查询的物理计划，然后马上换回原来的session，
+ * 共享的配置始终没有修改，其他线程同时生成的物理计划不受影响；之后执行这个查询的时候不会再读取配置
+ * <p>
+ * 扫描之后的分区数离目标差得不多的话，就不调整；分区太多的话，用coalesce合并，不需要shuffle；
+ * 分区太少的话，才用repartition，多一次shuffle，换后面encode、聚合的map端有足够的并行度
+ * <p>
+ * 估算不出数据量的时候（比如内存中的临时表），什么都不调整，和原来一样
+ */
+public class ParallelismTuner {
+
+    private static final String SHUFFLE_PARTITIONS = "spark.sql.shuffle.partitions";
+    //session聚合的shuffle分区数，由aggregateBySession()和plan()读取，0表示没有调整
+    //保存在SparkContext的local property中，只对当前线程可见，并发分析不同日期范围的时候互不覆盖
+    private static final String AGGREGATE_PARTITIONS = "sparkproject.aggregate.partitions";
+
+    /**
+     * 根据日期范围内的数据量，调整当前线程的session聚合、DataFrame查询的分区数
+     *
+     * @param sqlContext
+     * @param startDate  开始日期
+     * @param endDate    结束日期
+     * @return 分区数，估算不出数据量或者没有开启的话，返回0
+     */
+    public static int tune(SQLContext sqlContext, String startDate, String endDate) {
+        InputEstimate estimate = null;
+        if (ConfigurationManager.getBoolean(Constants.TUNING_ENABLED)) {
+            try {
+                estimate = estimate(sqlContext, startDate, endDate);
+            } catch (IOException e) {
+                //估算只是为了调优，失败了就按默认的并行度执行
+                e.printStackTrace();
+            }
+        }
+
+        if (estimate == null) {
+            sqlContext.sparkContext().setLocalProperty(AGGREGATE_PARTITIONS, "0");
+            return 0;
+        }
+
+        long targetBytes = ConfigurationManager.getLong(Constants.TUNING_TARGET_BYTES_PER_TASK);
+        int minPartitions = Math.max(ConfigurationManager.getInteger(Constants.TUNING_MIN_PARTITIONS),
+                sqlContext.sparkContext().defaultParallelism());
+        int maxPartitions = Math.max(ConfigurationManager.getInteger(Constants.TUNING_MAX_PARTITIONS), minPartitions);
+        long partitions = (estimate.bytes + targetBytes - 1) / targetBytes;
+        int tunedPartitions = (int) Math.max(minPartitions, Math.min(maxPartitions, partitions));
+
+        sqlContext.sparkContext().setLocalProperty(AGGREGATE_PARTITIONS, String.valueOf(tunedPartitions));
+        System.out.println(new Date() + ": " + startDate + " ~ " + endDate + " " + estimate
+                + ", partitions=" + tunedPartitions);
+        return tunedPartitions;
+    }
+
+    /**
+     * 将扫描出来的RDD调整到目标分区数附近
+     *
+     * @param rdd
+     * @param partitions 目标分区数，0表示不调整
+     * @return
+     */
+    public static <T> JavaRDD<T> resize(JavaRDD<T> rdd, int partitions) {
+        if (partitions <= 0) {
+            return rdd;
+        }
+        int currentPartitions = rdd.partitions().size();
+        if (currentPartitions > partitions * 2) {
+            return rdd.coalesce(partitions);
+        }
+        if (currentPartitions * 2 < partitions) {
+            return rdd.repartition(partitions);
+        }
+        return rdd;
+    }
+
+    /**
+     * session聚合的shuffle分区数
+     *
+     * @param sqlContext
+     * @return 没有调整过的话，返回默认并行度
+     */
+    public static int aggregatePartitions(SQLContext sqlContext) {
+        int partitions = tunedPartitions(sqlContext);
+        return partitions > 0 ? partitions : sqlContext.sparkContext().defaultParallelism();
+    }
+
+    /**
+     * 按照当前线程的分区数，生成DataFrame查询的物理计划，之后执行的时候，shuffle都使用这个分区数
+     * 必须对最终执行action的那个DataFrame调用，并且用它的collect()执行：
+     * first()、count()这些action会生成一个新的DataFrame，重新生成物理计划
+     *
+     * @param df
+     * @return 同一个DataFrame，没有调整过分区数的话，什么都不做，按SQLContext的配置执行
+     */
+    public static DataFrame plan(DataFrame df) {
+        int partitions = tunedPartitions(df.sqlContext());
+        if (partitions <= 0) {
+            return df;
+        }
+        SQLContext sqlContext = df.sqlContext();
+        //复制当前线程的配置，只在副本中修改分区数，只对当前线程可见
+        SQLContext.SQLSession previousSession = sqlContext.currentSession();
+        SQLContext.SQLSession session = sqlContext.createSession();
+        for (Map.Entry<String, String> conf : JavaConversions.mapAsJavaMap(sqlContext.getAllConfs()).entrySet()) {
+            session.conf().setConfString(conf.getKey(), conf.getValue());
+        }
+        session.conf().setConfString(SHUFFLE_PARTITIONS, String.valueOf(partitions));
+        sqlContext.setSession(session);
+        try {
+            df.queryExecution().executedPlan();
+        } finally {
+            sqlContext.setSession(previousSession);
+        }
+        return df;
+    }
+
+    //当前线程调整过的分区数，没有调整过的话，返回0
+    private static int tunedPartitions(SQLContext sqlContext) {
+        String aggregatePartitions = sqlContext.sparkContext().getLocalProperty(AGGREGATE_PARTITIONS);
+        return aggregatePartitions == null ? 0 : Integer.parseInt(aggregatePartitions);
+    }
+
+    /**
+     * 估算日期范围内行为数据的大小和行数
+     *
+     * @return 找不到表的存储路径的话，返回null
+     */
+    static InputEstimate estimate(SQLContext sqlContext, String startDate, String endDate) throws IOException {
+        Path root = tablePath(sqlContext);
+        if (root == null) {
+            return null;
+        }
+        Configuration conf = sqlContext.sparkContext().hadoopConfiguration();
+        FileSystem fs = root.getFileSystem(conf);
+        if (!fs.exists(root)) {
+            return null;
+        }
+
+        //按date分区的话，只统计日期范围内的分区；没有分区的话，只能以整个表的大小为上限
+        List<FileStatus> files = new ArrayList<FileStatus>();
+        FileStatus[] dateDirs = fs.globStatus(new Path(root, "date=*"));
+        if (dateDirs == null || dateDirs.length == 0) {
+            listFiles(fs, root, files);
+        } else {
+            for (FileStatus dateDir : dateDirs) {
+                String date = dateDir.getPath().getName().substring("date=".length());
+                if (date.compareTo(startDate) >= 0 && date.compareTo(endDate) <= 0) {
+                    listFiles(fs, dateDir.getPath(), files);
+                }
+            }
+        }
+
+        InputEstimate estimate = new InputEstimate();
+        boolean parquet = !files.isEmpty();
+        for (FileStatus file : files) {
+            estimate.bytes += file.getLen();
+            parquet &= file.getPath().getName().endsWith(".parquet");
+        }
+
+        //Parquet的footer中有每个row group的行数，只读footer，不读数据
+        if (parquet) {
+            estimate.rows = 0;
+            for (Footer footer : ParquetFileReader.readAllFootersInParallel(conf, files, false)) {
+                for (BlockMetaData block : footer.getParquetMetadata().getBlocks()) {
+                    estimate.rows += block.getRowCount();
+                }
+            }
+        }
+        estimate.files = files.size();
+        return estimate;
+    }
+
+    //目录下所有的数据文件，_SUCCESS、_metadata、.crc这些以_和.开头的文件不算
+    private static void listFiles(FileSystem fs, Path dir, List<FileStatus> files) throws IOException {
+        RemoteIterator<LocatedFileStatus> iterator = fs.listFiles(dir, true);
+        while (iterator.hasNext()) {
+            LocatedFileStatus file = iterator.next();
+            String name = file.getPath().getName();
+            if (!name.startsWith("_") && !name.startsWith(".")) {
+                files.add(file);
+            }
+        }
+    }
+
+    //行为数据表的根目录
+    private static Path tablePath(SQLContext sqlContext) {
+        String tablePath = ConfigurationManager.getProperty(Constants.TUNING_ACTION_TABLE_PATH);
+        if (tablePath != null && !tablePath.isEmpty()) {
+            return new Path(tablePath);
+        }
+        return findRelationPath(sqlContext.table(Constants.TABLE_USER_VISIT_ACTION).queryExecution().analyzed());
+    }
+
+    private static Path findRelationPath(LogicalPlan plan) {
+        if (plan instanceof LogicalRelation && ((LogicalRelation) plan).relation() instanceof HadoopFsRelation) {
+            String[] paths = ((HadoopFsRelation) ((LogicalRelation) plan).relation()).paths();
+            return paths.length == 1 ? new Path(paths[0]) : null;
+        }
+        for (LogicalPlan child : JavaConversions.seqAsJavaList(plan.children())) {
+            Path path = findRelationPath(child);
+            if (path != null) {
+                return path;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 输入数据量的估算结果
+     */
+    static class InputEstimate {
+        private long bytes;
+        //不是Parquet文件的话，行数未知，为-1
+        private long rows = -1;
+        private int files;
+
+        @Override
+        public String toString() {
+            return "input [bytes=" + bytes + ", rows=" + rows + ", files=" + files + "]";
+        }
+    }
+}
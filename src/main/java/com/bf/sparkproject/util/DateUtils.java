@@ -2,8 +2,11 @@ package com.bf.sparkproject.util;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
 
 /**
  * 日期时间工具类
@@ -117,6 +120,45 @@ public class DateUtils {
         return DATE_FORMAT.format(date);
     }
 
+    /**
+     * 获取若干天之前的日期（yyyy-MM-dd）
+     *
+     * @param days 天数
+     * @return 若干天之前的日期
+     */
+    public static String getDateBefore(int days) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(new Date());
+        cal.add(Calendar.DAY_OF_YEAR, -days);
+
+        Date date = cal.getTime();
+
+        return DATE_FORMAT.format(date);
+    }
+
+    /**
+     * 获取两个日期之间的所有日期（yyyy-MM-dd），包括起始日期和结束日期
+     *
+     * @param startDate 起始日期
+     * @param endDate   结束日期
+     * @return 所有日期，起始日期在结束日期之后的话，返回空列表
+     */
+    public static List<String> getDatesBetween(String startDate, String endDate) {
+        List<String> dates = new ArrayList<String>();
+        try {
+            Calendar cal = Calendar.getInstance();
+            cal.setTime(DATE_FORMAT.parse(startDate));
+            Date end = DATE_FORMAT.parse(endDate);
+            while (!cal.getTime().after(end)) {
+                dates.add(DATE_FORMAT.format(cal.getTime()));
+                cal.add(Calendar.DAY_OF_YEAR, 1);
+            }
+        } catch (ParseException e) {
+            e.printStackTrace();
+        }
+        return dates;
+    }
+
     /**
      * 格式化日期（yyyy-MM-dd）
      *
@@ -152,4 +194,126 @@ public class DateUtils {
         return null;
 
     }
+
+    /**
+     * 解析字符串时间（yyyy-MM-dd HH:mm:ss），返回秒级时间戳
+     * <p>
+     * 这个方法在每一条访问行为上都要调用，所以没有使用SimpleDateFormat，而是直接按位置读取数字，
+     * 没有任何对象创建，并且是线程安全的（SimpleDateFormat不是线程安全的，同一个executor中的多个task会互相干扰）
+     * 格式严格检查：长度、分隔符、每一位都必须是数字，月、日、时、分、秒必须在合法的范围之内，
+     * 否则抛出IllegalArgumentException，由调用方决定丢弃还是失败，不会返回一个错误的时间
+     *
+     * @param time 时间
+     * @return 秒级时间戳
+     */
+    public static long parseTimeSeconds(String time) {
+        if (time == null || time.length() != 19
+                || time.charAt(4) != '-' || time.charAt(7) != '-' || time.charAt(10) != ' '
+                || time.charAt(13) != ':' || time.charAt(16) != ':') {
+            throw new IllegalArgumentException("invalid time: " + time);
+        }
+
+        int year = digits(time, 0, 4);
+        int month = digits(time, 5, 2);
+        int day = digits(time, 8, 2);
+        int hour = digits(time, 11, 2);
+        int minute = digits(time, 14, 2);
+        int second = digits(time, 17, 2);
+        if (month < 1 || month > 12 || day < 1 || day > daysOfMonth(year, month)
+                || hour > 23 || minute > 59 || second > 59) {
+            throw new IllegalArgumentException("invalid time: " + time);
+        }
+
+        long localSeconds = daysFromCivil(year, month, day) * SECONDS_PER_DAY
+                + hour * 3600L + minute * 60L + second;
+        //本地时间转换成UTC时间戳，要减去时区的偏移量
+        long offset = TIME_ZONE.getOffset((localSeconds - TIME_ZONE.getRawOffset() / 1000) * 1000) / 1000;
+        return localSeconds - offset;
+    }
+
+    /**
+     * 格式化秒级时间戳（yyyy-MM-dd HH:mm:ss）
+     * 和parseTimeSeconds()一样，不使用SimpleDateFormat，线程安全
+     *
+     * @param seconds 秒级时间戳
+     * @return 格式化后的时间
+     */
+    public static String formatTimeSeconds(long seconds) {
+        long localSeconds = seconds + TIME_ZONE.getOffset(seconds * 1000) / 1000;
+        long days = floorDiv(localSeconds, SECONDS_PER_DAY);
+        int secondOfDay = (int) (localSeconds - days * SECONDS_PER_DAY);
+
+        //由天数计算年月日，算法来自Howard Hinnant的civil_from_days
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+
+        char[] chars = new char[19];
+        fill(chars, 0, year, 4);
+        chars[4] = '-';
+        fill(chars, 5, month, 2);
+        chars[7] = '-';
+        fill(chars, 8, day, 2);
+        chars[10] = ' ';
+        fill(chars, 11, secondOfDay / 3600, 2);
+        chars[13] = ':';
+        fill(chars, 14, secondOfDay / 60 % 60, 2);
+        chars[16] = ':';
+        fill(chars, 17, secondOfDay % 60, 2);
+        return new String(chars);
+    }
+
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60L;
+    private static final TimeZone TIME_ZONE = TimeZone.getDefault();
+
+    //由年月日计算距离1970-01-01的天数，算法来自Howard Hinnant的days_from_civil
+    private static long daysFromCivil(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yoe = y - era * 400;
+        long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    private static int daysOfMonth(int year, int month) {
+        if (month == 2) {
+            boolean leap = year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+            return leap ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    private static int digits(String str, int start, int length) {
+        int value = 0;
+        for (int i = start; i < start + length; i++) {
+            char c = str.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("invalid time: " + str);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static void fill(char[] chars, int start, int value, int length) {
+        for (int i = start + length - 1; i >= start; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static long floorDiv(long x, long y) {
+        long r = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            r--;
+        }
+        return r;
+    }
 }
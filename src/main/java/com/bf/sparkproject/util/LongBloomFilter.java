@@ -0,0 +1,132 @@
+package com.bf.sparkproject.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * long类型key的布隆过滤器
+ * <p>
+ * 判断结果只有两种：一定不存在，或者可能存在（有一定的误判率）
+ * 每个元素只占用几个bit，比如误判率1%的时候，每个元素大约只需要9.6个bit，而用long数组保存需要64个bit
+ * <p>
+ * 多个布隆过滤器只要大小和hash函数个数一样，就可以通过merge()按位OR合并，
+ * 所以可以在每个分区中分别构建，再合并成一个（RDD.treeAggregate）
+ * <p>
+ * hash采用双重散列：对key做两次不同的混淆，得到h1、h2，第i个hash函数就是 h1 + i * h2
+ */
+public class LongBloomFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long[] bits;
+    private long numBits;
+    private int numHashFunctions;
+
+    //给Kryo反序列化使用
+    private LongBloomFilter() {
+
+    }
+
+    /**
+     * 构造布隆过滤器
+     *
+     * @param expectedInsertions 预计插入的元素个数
+     * @param fpp                期望的误判率，比如0.01
+     */
+    public LongBloomFilter(long expectedInsertions, double fpp) {
+        if (fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("fpp must be in (0, 1): " + fpp);
+        }
+        long n = Math.max(expectedInsertions, 1);
+        //最优的bit数 m = -n * ln(p) / (ln2)^2，最优的hash函数个数 k = m / n * ln2
+        long m = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        m = Math.max(64, (m + 63) / 64 * 64);
+        this.bits = new long[(int) (m / 64)];
+        this.numBits = m;
+        this.numHashFunctions = Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+    }
+
+    /**
+     * 插入元素
+     */
+    public void put(long key) {
+        long h1 = mix(key);
+        long h2 = mix(key ^ 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < numHashFunctions; i++) {
+            long index = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+            bits[(int) (index >>> 6)] |= 1L << index;
+        }
+    }
+
+    /**
+     * 判断元素是否可能存在
+     *
+     * @return false表示一定不存在，true表示可能存在
+     */
+    public boolean mightContain(long key) {
+        long h1 = mix(key);
+        long h2 = mix(key ^ 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < numHashFunctions; i++) {
+            long index = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+            if ((bits[(int) (index >>> 6)] & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 合并另一个布隆过滤器，两个过滤器必须是用同样的参数构造的
+     *
+     * @param other 另一个布隆过滤器
+     * @return 当前对象
+     */
+    public LongBloomFilter merge(LongBloomFilter other) {
+        if (numBits != other.numBits || numHashFunctions != other.numHashFunctions) {
+            throw new IllegalArgumentException("cannot merge bloom filters of different sizes");
+        }
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] |= other.bits[i];
+        }
+        return this;
+    }
+
+    /**
+     * 清空所有的bit，大小和hash函数个数不变，可以重复使用，不需要重新分配内存
+     */
+    public void clear() {
+        Arrays.fill(bits, 0L);
+    }
+
+    /**
+     * 按照当前置位的比例计算的误判率：一个不存在的元素，k个bit恰好都已经被置位的概率
+     * 插入的元素超过预计的个数以后，实际的误判率会比构造时期望的误判率高，这里反映的是实际的情况
+     *
+     * @return
+     */
+    public double getFalsePositiveRate() {
+        long setBits = 0;
+        for (long word : bits) {
+            setBits += Long.bitCount(word);
+        }
+        return Math.pow((double) setBits / numBits, numHashFunctions);
+    }
+
+    public long getNumBits() {
+        return numBits;
+    }
+
+    public int getNumHashFunctions() {
+        return numHashFunctions;
+    }
+
+    //MurmurHash3的64位finalizer，让key的每一位都能影响到hash值的每一位
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
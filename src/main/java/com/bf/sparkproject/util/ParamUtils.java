@@ -5,6 +5,9 @@ import com.alibaba.fastjson.JSONObject;
 import com.bf.sparkproject.conf.ConfigurationManager;
 import com.bf.sparkproject.constant.Constants;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * 参数工具类
  *
@@ -66,4 +69,24 @@ public class ParamUtils {
         return null;
     }
 
+    /**
+     * 从命令行参数中提取多个任务ID，用于批量执行
+     * @param args
+     * @return 不是数字的参数会被忽略
+     */
+    public static List<Long> getTaskIdsFromArgs(String[] args) {
+        List<Long> taskIds = new ArrayList<Long>();
+        if (args == null) {
+            return taskIds;
+        }
+        for (String arg : args) {
+            try {
+                taskIds.add(Long.valueOf(arg));
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+            }
+        }
+        return taskIds;
+    }
+
 }
@@ -1,11 +1,17 @@
 package com.bf.sparkproject.util;
 
 import com.bf.sparkproject.MockData;
+import com.bf.sparkproject.MockDataGenerator;
 import com.bf.sparkproject.conf.ConfigurationManager;
 import com.bf.sparkproject.constant.Constants;
+import com.bf.sparkproject.spark.monitor.TaskMetricsPersistListener;
 import org.apache.spark.SparkConf;
+import org.apache.spark.SparkContext;
 import org.apache.spark.api.java.JavaSparkContext;
 import org.apache.spark.sql.SQLContext;
+import org.apache.spark.sql.hive.HiveContext;
+
+import java.util.List;
 
 /**
  * Spark工具类
@@ -23,19 +29,48 @@ public class SparkUtils {
         }
     }
 
+    /**
+     * 获取SQLContext
+     * 如果spark.local设置为true，那么就创建SQLContext；否则，创建HiveContext
+     *
+     * @param sc
+     * @return
+     */
+    public static SQLContext getSQLContext(SparkContext sc) {
+        Boolean local = ConfigurationManager.getBoolean(Constants.SPARK_LOCAL);
+        if (local) {
+            return new SQLContext(sc);
+        } else {
+            return new HiveContext(sc);
+        }
+    }
+
     /**
      * 生成模拟数据
      * 如果spark.local的配置设置为true，则生成模拟数据，否则不生成
+     * 如果mock.scalable的配置设置为true，则在executor端分布式的生成大数据量的模拟数据
      * @param sc
      * @param sqlContext
      */
     public static void mockData(JavaSparkContext sc, SQLContext sqlContext) {
         Boolean local = ConfigurationManager.getBoolean(Constants.SPARK_LOCAL);
         if(local){
-            MockData.mock(sc,sqlContext);
+            if (ConfigurationManager.getBoolean(Constants.MOCK_SCALABLE)) {
+                MockDataGenerator.fromConfig().mock(sc, sqlContext,
+                        ConfigurationManager.getProperty(Constants.MOCK_PARQUET_PATH));
+            } else {
+                MockData.mock(sc,sqlContext);
+            }
         }
 
     }
 
-
+    /**
+     * 注册stage运行指标收集器，作业运行过程中每个stage的指标都会写入task_metrics表
+     * @param sc
+     * @param taskids 分析任务id，批量执行的时候是共享这些stage的所有任务
+     */
+    public static void registerTaskMetricsListener(JavaSparkContext sc, List<Long> taskids) {
+        sc.sc().addSparkListener(new TaskMetricsPersistListener(taskids));
+    }
 }
@@ -69,8 +69,10 @@ public class StringUtils {
                                                   String delimiter, String field) {
         String[] fields = str.split(delimiter);
         for (String concatField : fields) {
-            String fieldName = concatField.split("=")[0];
-            String fieldValue = concatField.split("=")[1];
+            //值为空的字段，比如searchKeywords=，也要能正常切分
+            String[] nameAndValue = concatField.split("=", 2);
+            String fieldName = nameAndValue[0];
+            String fieldValue = nameAndValue.length > 1 ? nameAndValue[1] : "";
             if (fieldName.equals(field)) {
                 return fieldValue;
             }
@@ -0,0 +1,130 @@
+package com.bf.sparkproject.spark;
+
+import com.bf.sparkproject.constant.Constants;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * session聚合统计的区间划分
+ */
+public class SessionAggrStatBucketsTest extends TestCase {
+
+    private static final long[] EDGES = new long[]{1, 4, 7, 10, 31, 61, 181, 601, 1801};
+
+    public void testEachEdgeStartsItsBucket() {
+        for (int i = 0; i < EDGES.length; i++) {
+            assertEquals(i, SessionAggrStatBuckets.bucketOf(EDGES, EDGES[i]));
+            assertEquals(i - 1, SessionAggrStatBuckets.bucketOf(EDGES, EDGES[i] - 1));
+        }
+    }
+
+    public void testBelowFirstEdge() {
+        assertEquals(-1, SessionAggrStatBuckets.bucketOf(EDGES, 0L));
+        assertEquals(-1, SessionAggrStatBuckets.bucketOf(EDGES, -5L));
+        assertEquals(-1, SessionAggrStatBuckets.bucketOf(EDGES, Long.MIN_VALUE));
+    }
+
+    public void testAboveLastEdge() {
+        int last = EDGES.length - 1;
+        assertEquals(last, SessionAggrStatBuckets.bucketOf(EDGES, EDGES[last] + 1));
+        assertEquals(last, SessionAggrStatBuckets.bucketOf(EDGES, Long.MAX_VALUE));
+    }
+
+    public void testBetweenEdges() {
+        for (int i = 0; i + 1 < EDGES.length; i++) {
+            long middle = (EDGES[i] + EDGES[i + 1]) / 2;
+            assertEquals(i, SessionAggrStatBuckets.bucketOf(EDGES, middle));
+            assertEquals(i, SessionAggrStatBuckets.bucketOf(EDGES, EDGES[i + 1] - 1));
+        }
+    }
+
+    public void testSingleEdge() {
+        long[] edges = new long[]{10};
+        assertEquals(-1, SessionAggrStatBuckets.bucketOf(edges, 9L));
+        assertEquals(0, SessionAggrStatBuckets.bucketOf(edges, 10L));
+        assertEquals(0, SessionAggrStatBuckets.bucketOf(edges, 11L));
+    }
+
+    public void testMatchesLinearScanForAnyEdgeCount() {
+        Random random = new Random(3);
+        for (int n = 1; n <= 20; n++) {
+            long[] edges = new long[n];
+            long edge = random.nextInt(5);
+            for (int i = 0; i < n; i++) {
+                edge += 1 + random.nextInt(10);
+                edges[i] = edge;
+            }
+            for (long value = -2; value <= edge + 2; value++) {
+                assertEquals(Arrays.toString(edges) + " " + value,
+                        linearBucketOf(edges, value), SessionAggrStatBuckets.bucketOf(edges, value));
+            }
+        }
+    }
+
+    public void testDefaultsMatchTheOriginalRanges() {
+        SessionAggrStatBuckets buckets = SessionAggrStatBuckets.defaults();
+        String[] keys = buckets.getKeys();
+        for (long visitLength = -10; visitLength <= 4000; visitLength++) {
+            int index = buckets.visitLengthIndex(visitLength);
+            assertEquals("visit length " + visitLength,
+                    originalVisitLengthKey(visitLength), index >= 0 ? keys[index] : null);
+        }
+        for (long stepLength = -10; stepLength <= 200; stepLength++) {
+            int index = buckets.stepLengthIndex(stepLength);
+            assertEquals("step length " + stepLength,
+                    originalStepLengthKey(stepLength), index >= 0 ? keys[index] : null);
+        }
+    }
+
+    private static int linearBucketOf(long[] edges, long value) {
+        int bucket = -1;
+        for (int i = 0; i < edges.length && edges[i] <= value; i++) {
+            bucket = i;
+        }
+        return bucket;
+    }
+
+    //原来的访问时长区间划分
+    private static String originalVisitLengthKey(long visitLength) {
+        if (visitLength >= 1 && visitLength <= 3) {
+            return Constants.TIME_PERIOD_1s_3s;
+        } else if (visitLength >= 4 && visitLength <= 6) {
+            return Constants.TIME_PERIOD_4s_6s;
+        } else if (visitLength >= 7 && visitLength <= 9) {
+            return Constants.TIME_PERIOD_7s_9s;
+        } else if (visitLength >= 10 && visitLength <= 30) {
+            return Constants.TIME_PERIOD_10s_30s;
+        } else if (visitLength > 30 && visitLength <= 60) {
+            return Constants.TIME_PERIOD_30s_60s;
+        } else if (visitLength > 60 && visitLength <= 180) {
+            return Constants.TIME_PERIOD_1m_3m;
+        } else if (visitLength > 180 && visitLength <= 600) {
+            return Constants.TIME_PERIOD_3m_10m;
+        } else if (visitLength > 600 && visitLength <= 1800) {
+            return Constants.TIME_PERIOD_10m_30m;
+        } else if (visitLength > 1800) {
+            return Constants.TIME_PERIOD_30m;
+        }
+        return null;
+    }
+
+    //原来的访问步长区间划分
+    private static String originalStepLengthKey(long stepLength) {
+        if (stepLength >= 1 && stepLength <= 3) {
+            return Constants.STEP_PERIOD_1_3;
+        } else if (stepLength >= 4 && stepLength <= 6) {
+            return Constants.STEP_PERIOD_4_6;
+        } else if (stepLength >= 7 && stepLength <= 9) {
+            return Constants.STEP_PERIOD_7_9;
+        } else if (stepLength >= 10 && stepLength <= 30) {
+            return Constants.STEP_PERIOD_10_30;
+        } else if (stepLength > 30 && stepLength <= 60) {
+            return Constants.STEP_PERIOD_30_60;
+        } else if (stepLength > 60) {
+            return Constants.STEP_PERIOD_60;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,123 @@
+package com.bf.sparkproject.spark;
+
+import com.bf.sparkproject.constant.Constants;
+import junit.framework.TestCase;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * session聚合统计的sketch
+ */
+public class SessionStatSketchTest extends TestCase {
+
+    private static final int PRECISION = 14;
+
+    public void testMergedQuantilesAreExactAndMonotonic() throws Exception {
+        Random random = new Random(7);
+        int sessions = 50000;
+        long[] visitLengths = new long[sessions];
+        long[] stepLengths = new long[sessions];
+
+        //模拟多个分区，每个分区的分布不一样，最后在driver端合并
+        SessionStatSketch[] partitions = new SessionStatSketch[8];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new SessionStatSketch(PRECISION);
+        }
+        for (int i = 0; i < sessions; i++) {
+            int partition = i % partitions.length;
+            //长尾分布，大部分session很短，少数很长
+            visitLengths[i] = random.nextInt(10) < 9
+                    ? random.nextInt(60 * (partition + 1)) : random.nextInt(3600);
+            stepLengths[i] = random.nextInt(10) < 9 ? random.nextInt(10) : random.nextInt(100);
+            partitions[partition].add(visitLengths[i], stepLengths[i], i % 1000, null);
+        }
+
+        SessionStatSketch merged = partitions[0].emptyCopy();
+        for (SessionStatSketch partition : partitions) {
+            merged.merge(roundTrip(partition));
+        }
+        Map<String, Double> stats = parse(merged.toConcatString());
+
+        Arrays.sort(visitLengths);
+        Arrays.sort(stepLengths);
+        assertEquals((double) exactQuantile(visitLengths, 0.5), stats.get(Constants.VISIT_LENGTH_P50));
+        assertEquals((double) exactQuantile(visitLengths, 0.95), stats.get(Constants.VISIT_LENGTH_P95));
+        assertEquals((double) exactQuantile(visitLengths, 0.99), stats.get(Constants.VISIT_LENGTH_P99));
+        assertEquals((double) exactQuantile(stepLengths, 0.5), stats.get(Constants.STEP_LENGTH_P50));
+        assertEquals((double) exactQuantile(stepLengths, 0.95), stats.get(Constants.STEP_LENGTH_P95));
+        assertEquals((double) exactQuantile(stepLengths, 0.99), stats.get(Constants.STEP_LENGTH_P99));
+
+        assertTrue(stats.get(Constants.VISIT_LENGTH_P50) <= stats.get(Constants.VISIT_LENGTH_P95));
+        assertTrue(stats.get(Constants.VISIT_LENGTH_P95) <= stats.get(Constants.VISIT_LENGTH_P99));
+        assertTrue(stats.get(Constants.STEP_LENGTH_P50) <= stats.get(Constants.STEP_LENGTH_P95));
+        assertTrue(stats.get(Constants.STEP_LENGTH_P95) <= stats.get(Constants.STEP_LENGTH_P99));
+    }
+
+    public void testSmallInputs() {
+        SessionStatSketch sketch = new SessionStatSketch(PRECISION);
+        Map<String, Double> stats = parse(sketch.toConcatString());
+        assertEquals(0D, stats.get(Constants.VISIT_LENGTH_P50));
+        assertEquals(0D, stats.get(Constants.STEP_LENGTH_P99));
+        assertEquals(0D, stats.get(Constants.DISTINCT_USERS));
+
+        sketch.add(42L, 3L, 1L, null);
+        stats = parse(sketch.toConcatString());
+        assertEquals(42D, stats.get(Constants.VISIT_LENGTH_P50));
+        assertEquals(42D, stats.get(Constants.VISIT_LENGTH_P99));
+        assertEquals(3D, stats.get(Constants.STEP_LENGTH_P95));
+    }
+
+    public void testDistinctCounts() throws Exception {
+        SessionStatSketch sketch = new SessionStatSketch(PRECISION);
+        for (int i = 0; i < 3000; i++) {
+            sketch.add(1L, 1L, i % 500, RoaringBitmap.bitmapOf(i % 7));
+        }
+        Map<String, Double> stats = parse(roundTrip(sketch).toConcatString());
+        assertEquals(500D, stats.get(Constants.DISTINCT_USERS));
+        assertEquals(7D, stats.get(Constants.DISTINCT_KEYWORDS));
+    }
+
+    public void testValueCounterGrows() {
+        SessionStatSketch.ValueCounter counter = new SessionStatSketch.ValueCounter();
+        for (long value = 10000; value > 0; value--) {
+            counter.add(value, 2L);
+        }
+        assertEquals(20000L, counter.total());
+        long[] quantiles = counter.quantiles(new double[]{0.0, 0.5, 1.0});
+        assertEquals(1L, quantiles[0]);
+        assertEquals(5000L, quantiles[1]);
+        assertEquals(10000L, quantiles[2]);
+    }
+
+    //nearest-rank：排序之后第ceil(q * n)个值
+    private static long exactQuantile(long[] sorted, double quantile) {
+        int rank = Math.max(1, (int) Math.ceil(quantile * sorted.length));
+        return sorted[rank - 1];
+    }
+
+    private static Map<String, Double> parse(String concatString) {
+        Map<String, Double> stats = new HashMap<String, Double>();
+        for (String field : concatString.split("\\|")) {
+            String[] keyValue = field.split("=");
+            stats.put(keyValue[0], Double.valueOf(keyValue[1]));
+        }
+        return stats;
+    }
+
+    private static SessionStatSketch roundTrip(SessionStatSketch sketch) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(sketch);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        return (SessionStatSketch) in.readObject();
+    }
+}
@@ -0,0 +1,156 @@
+package com.bf.sparkproject.spark.dimension;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * 内存映射的维度文件
+ */
+public class MappedDimensionFileTest extends TestCase {
+
+    //值：4字节的int + 2 + 10字节的字符串
+    private static final int VALUE_WIDTH = 16;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private File file;
+
+    @Override
+    protected void setUp() throws IOException {
+        file = File.createTempFile("dimension", ".dim");
+        file.deleteOnExit();
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    public void testRoundTrip() throws IOException {
+        String[][] pools = {{"male", "female"}, {}, {"北京", "上海", ""}};
+        MappedDimensionFile.Writer writer = new MappedDimensionFile.Writer(
+                new FileOutputStream(file), VALUE_WIDTH, pools);
+        long[] keys = {Long.MIN_VALUE, -5L, 0L, 1L, 7L, 1000000007L, Long.MAX_VALUE};
+        for (int i = 0; i < keys.length; i++) {
+            writer.add(keys[i], value(i, i % 3 == 0 ? null : "名字" + i));
+        }
+        assertEquals(Long.valueOf(Long.MAX_VALUE), writer.getLastKey());
+        writer.close();
+
+        MappedDimensionFile dimensionFile = MappedDimensionFile.open(file);
+        assertEquals(keys.length, dimensionFile.size());
+        assertEquals(2, dimensionFile.getPool(0).length);
+        assertEquals("female", dimensionFile.getPool(0)[1]);
+        assertEquals(0, dimensionFile.getPool(1).length);
+        assertEquals("上海", dimensionFile.getPool(2)[1]);
+        assertEquals("", dimensionFile.getPool(2)[2]);
+        for (int i = 0; i < keys.length; i++) {
+            long record = dimensionFile.find(keys[i]);
+            assertEquals(i, record);
+            assertEquals(i, dimensionFile.getInt(record, 0));
+            assertEquals(i % 3 == 0 ? null : "名字" + i, dimensionFile.getString(record, 4));
+        }
+        assertEquals(-1L, dimensionFile.find(2L));
+        assertEquals(-1L, dimensionFile.find(-6L));
+        assertEquals(-1L, dimensionFile.find(Long.MAX_VALUE - 1));
+    }
+
+    public void testEmptyFile() throws IOException {
+        new MappedDimensionFile.Writer(new FileOutputStream(file), VALUE_WIDTH, new String[0][]).close();
+        MappedDimensionFile dimensionFile = MappedDimensionFile.open(file);
+        assertEquals(0L, dimensionFile.size());
+        assertEquals(-1L, dimensionFile.find(0L));
+    }
+
+    public void testEmptyAndMaxLengthStrings() throws IOException {
+        MappedDimensionFile.Writer writer = new MappedDimensionFile.Writer(
+                new FileOutputStream(file), VALUE_WIDTH, new String[0][]);
+        writer.add(1L, value(0, ""));
+        writer.add(2L, value(0, "0123456789"));
+        writer.close();
+        MappedDimensionFile dimensionFile = MappedDimensionFile.open(file);
+        assertEquals("", dimensionFile.getString(0, 4));
+        assertEquals("0123456789", dimensionFile.getString(1, 4));
+    }
+
+    public void testRejectsUnorderedOrDuplicateKeys() throws IOException {
+        MappedDimensionFile.Writer writer = new MappedDimensionFile.Writer(
+                new FileOutputStream(file), VALUE_WIDTH, new String[0][]);
+        writer.add(5L, value(0, null));
+        try {
+            writer.add(5L, value(0, null));
+            fail("should reject duplicate key");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+        try {
+            writer.add(4L, value(0, null));
+            fail("should reject descending key");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+        try {
+            writer.add(6L, new byte[VALUE_WIDTH - 1]);
+            fail("should reject wrong value width");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+        writer.close();
+    }
+
+    public void testRejectsTooLongString() {
+        try {
+            MappedDimensionFile.Writer.putString(new byte[VALUE_WIDTH], 4, "01234567890".getBytes(UTF_8), 10);
+            fail("should reject string longer than the field");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+        try {
+            MappedDimensionFile.Writer.putString(new byte[40000], 0, new byte[Short.MAX_VALUE + 1], 39998);
+            fail("should reject string whose length does not fit in the length field");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    public void testRejectsCorruptFiles() throws IOException {
+        MappedDimensionFile.Writer writer = new MappedDimensionFile.Writer(
+                new FileOutputStream(file), VALUE_WIDTH, new String[0][]);
+        writer.add(1L, value(1, "a"));
+        writer.close();
+
+        //截断最后一条记录
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(randomAccessFile.length() - 1);
+        randomAccessFile.close();
+        try {
+            MappedDimensionFile.open(file);
+            fail("should reject truncated file");
+        } catch (IOException e) {
+            //expected
+        }
+
+        //magic不对
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.writeInt(0);
+        randomAccessFile.close();
+        try {
+            MappedDimensionFile.open(file);
+            fail("should reject file without magic");
+        } catch (IOException e) {
+            //expected
+        }
+    }
+
+    private static byte[] value(int number, String string) {
+        byte[] value = new byte[VALUE_WIDTH];
+        ByteBuffer.wrap(value).putInt(0, number);
+        MappedDimensionFile.Writer.putString(value, 4, string == null ? null : string.getBytes(UTF_8), 10);
+        return value;
+    }
+}
@@ -0,0 +1,35 @@
+package com.bf.sparkproject.spark.session;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * 测试用的Kryo编码、解码
+ * <p>
+ * 和作业中一样，Kryo注册SessionKryoRegistrator中的类和序列化器
+ */
+public final class KryoRoundTrip {
+
+    private KryoRoundTrip() {
+    }
+
+    public static Kryo newKryo() {
+        Kryo kryo = new Kryo();
+        new SessionKryoRegistrator().registerClasses(kryo);
+        return kryo;
+    }
+
+    public static byte[] write(Kryo kryo, Object value) {
+        Output output = new Output(64, -1);
+        kryo.writeObject(output, value);
+        return output.toBytes();
+    }
+
+    /**
+     * 编码之后再解码，返回解码出来的对象
+     */
+    public static <T> T roundTrip(Kryo kryo, T value, Class<T> type) {
+        return kryo.readObject(new Input(write(kryo, value)), type);
+    }
+}
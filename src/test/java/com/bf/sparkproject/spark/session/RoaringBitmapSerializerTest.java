@@ -0,0 +1,72 @@
+package com.bf.sparkproject.spark.session;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import junit.framework.TestCase;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.Random;
+
+/**
+ * RoaringBitmap的Kryo编码
+ */
+public class RoaringBitmapSerializerTest extends TestCase {
+
+    private Kryo kryo;
+
+    @Override
+    protected void setUp() {
+        kryo = KryoRoundTrip.newKryo();
+    }
+
+    public void testEmpty() {
+        assertEquals(new RoaringBitmap(), roundTrip(new RoaringBitmap()));
+    }
+
+    public void testSmallSet() {
+        assertEquals(RoaringBitmap.bitmapOf(0, 1, 3, 1000, 70000),
+                roundTrip(RoaringBitmap.bitmapOf(0, 1, 3, 1000, 70000)));
+    }
+
+    public void testExtremeValues() {
+        //RoaringBitmap按无符号整数排序，负数排在最后，差值会溢出
+        RoaringBitmap bitmap = RoaringBitmap.bitmapOf(0, Integer.MAX_VALUE, Integer.MIN_VALUE, -1);
+        assertEquals(bitmap, roundTrip(bitmap));
+    }
+
+    public void testRandomAndDenseSets() {
+        Random random = new Random(7);
+        for (int i = 0; i < 50; i++) {
+            RoaringBitmap bitmap = new RoaringBitmap();
+            int size = random.nextInt(5000);
+            for (int j = 0; j < size; j++) {
+                bitmap.add(i % 2 == 0 ? random.nextInt() : random.nextInt(size + 1));
+            }
+            assertEquals(bitmap, roundTrip(bitmap));
+        }
+    }
+
+    public void testSeveralBitmapsInOneStream() {
+        RoaringBitmap first = RoaringBitmap.bitmapOf(1, 2, 3);
+        RoaringBitmap second = RoaringBitmap.bitmapOf(5);
+        Output output = new Output(64, -1);
+        kryo.writeObject(output, first);
+        kryo.writeObject(output, second);
+        Input input = new Input(output.toBytes());
+        assertEquals(first, kryo.readObject(input, RoaringBitmap.class));
+        assertEquals(second, kryo.readObject(input, RoaringBitmap.class));
+        assertEquals(output.position(), input.position());
+    }
+
+    public void testCopyIsIndependent() {
+        RoaringBitmap original = RoaringBitmap.bitmapOf(1, 2);
+        RoaringBitmap copy = kryo.copy(original);
+        copy.add(3);
+        assertEquals(RoaringBitmap.bitmapOf(1, 2), original);
+    }
+
+    private RoaringBitmap roundTrip(RoaringBitmap bitmap) {
+        return KryoRoundTrip.roundTrip(kryo, bitmap, RoaringBitmap.class);
+    }
+}
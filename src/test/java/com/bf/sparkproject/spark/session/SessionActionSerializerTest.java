@@ -0,0 +1,101 @@
+package com.bf.sparkproject.spark.session;
+
+import com.esotericsoftware.kryo.Kryo;
+import junit.framework.TestCase;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+
+import java.util.Arrays;
+
+/**
+ * SessionAction的Kryo编码
+ */
+public class SessionActionSerializerTest extends TestCase {
+
+    private Kryo kryo;
+    private StringDictionary keywords;
+
+    @Override
+    protected void setUp() {
+        kryo = KryoRoundTrip.newKryo();
+        keywords = StringDictionary.build(Arrays.asList("火锅", "温泉", "蛋糕"));
+    }
+
+    public void testRoundTripAllFields() {
+        Row row = RowFactory.create("2018-04-09", 17L, "f0e1d2c3b4a5968778695a4b3c2d1e0f", 3L,
+                "2018-04-09 10:00:05", "温泉", 12L, 345L, "1,2", "7", "3,4,5", "", 9L);
+        SessionAction action = SessionAction.fromRow(row, keywords);
+        SessionAction copy = roundTrip(action);
+
+        assertSameAction(action, copy);
+        assertEquals("f0e1d2c3b4a5968778695a4b3c2d1e0f", copy.getSessionId().toString());
+        assertTrue(copy.hasSearchKeyword());
+        assertEquals("温泉", keywords.decode(copy.getSearchKeywordId()));
+        assertNull(copy.getPayProductIds());
+    }
+
+    public void testRoundTripNullFields() {
+        Row row = RowFactory.create("2018-04-09", 1L, null, 1L, "2018-04-09 10:00:05",
+                null, null, null, null, null, null, null, 0L);
+        SessionAction copy = roundTrip(SessionAction.fromRow(row, keywords));
+
+        assertEquals(0, copy.getNullBits());
+        assertFalse(copy.hasSearchKeyword());
+        assertFalse(copy.hasClickCategoryId());
+        assertFalse(copy.hasClickProductId());
+        assertNull(copy.getOrderCategoryIds());
+        assertEquals(0L, copy.getSessionIdHigh());
+        assertEquals(0L, copy.getSessionIdLow());
+    }
+
+    public void testUnknownKeywordIsNull() {
+        Row row = RowFactory.create("2018-04-09", 1L, "00000000000000000000000000000001", 1L,
+                "2018-04-09 10:00:05", "不在字典中", null, null, null, null, null, null, 0L);
+        SessionAction copy = roundTrip(SessionAction.fromRow(row, keywords));
+        assertFalse(copy.hasSearchKeyword());
+    }
+
+    public void testExtremeValues() {
+        SessionAction action = new SessionAction();
+        action.setSessionId(Long.MIN_VALUE, -1L);
+        action.setUserId(Long.MAX_VALUE);
+        action.setPageId(0L);
+        action.setActionTime(-1L);
+        action.setCityId(Long.MIN_VALUE);
+        action.setNullBits(SessionAction.HAS_SEARCH_KEYWORD | SessionAction.HAS_CLICK_CATEGORY_ID
+                | SessionAction.HAS_ORDER_CATEGORY_IDS | SessionAction.HAS_PAY_PRODUCT_IDS);
+        action.setSearchKeywordId(Integer.MAX_VALUE);
+        action.setClickCategoryId(-5L);
+        action.setOrderCategoryIds(new long[0]);
+        action.setPayProductIds(new long[]{Long.MAX_VALUE, Long.MIN_VALUE, 0L});
+
+        assertSameAction(action, roundTrip(action));
+    }
+
+    private SessionAction roundTrip(SessionAction action) {
+        return KryoRoundTrip.roundTrip(kryo, action, SessionAction.class);
+    }
+
+    private static void assertSameAction(SessionAction expected, SessionAction actual) {
+        assertEquals(expected.getNullBits(), actual.getNullBits());
+        assertEquals(expected.getSessionIdHigh(), actual.getSessionIdHigh());
+        assertEquals(expected.getSessionIdLow(), actual.getSessionIdLow());
+        assertEquals(expected.getUserId(), actual.getUserId());
+        assertEquals(expected.getPageId(), actual.getPageId());
+        assertEquals(expected.getActionTime(), actual.getActionTime());
+        assertEquals(expected.getCityId(), actual.getCityId());
+        if (expected.hasSearchKeyword()) {
+            assertEquals(expected.getSearchKeywordId(), actual.getSearchKeywordId());
+        }
+        if (expected.hasClickCategoryId()) {
+            assertEquals(expected.getClickCategoryId(), actual.getClickCategoryId());
+        }
+        if (expected.hasClickProductId()) {
+            assertEquals(expected.getClickProductId(), actual.getClickProductId());
+        }
+        assertTrue(Arrays.equals(expected.getOrderCategoryIds(), actual.getOrderCategoryIds()));
+        assertTrue(Arrays.equals(expected.getOrderProductIds(), actual.getOrderProductIds()));
+        assertTrue(Arrays.equals(expected.getPayCategoryIds(), actual.getPayCategoryIds()));
+        assertTrue(Arrays.equals(expected.getPayProductIds(), actual.getPayProductIds()));
+    }
+}
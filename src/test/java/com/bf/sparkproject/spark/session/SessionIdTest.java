@@ -0,0 +1,57 @@
+package com.bf.sparkproject.spark.session;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import junit.framework.TestCase;
+
+import java.util.UUID;
+
+/**
+ * SessionId的解析、还原和Kryo编码
+ */
+public class SessionIdTest extends TestCase {
+
+    public void testParseAndToString() {
+        for (int i = 0; i < 1000; i++) {
+            String sessionId = UUID.randomUUID().toString().replace("-", "");
+            assertEquals(sessionId, SessionId.parse(sessionId).toString());
+        }
+        assertEquals("ffffffffffffffff0000000000000000",
+                new SessionId(-1L, 0L).toString());
+        assertEquals(new SessionId(-1L, 0L), SessionId.parse("FFFFFFFFFFFFFFFF0000000000000000"));
+    }
+
+    public void testRejectsMalformedSessionId() {
+        String[] sessionIds = {null, "", "abc", "f0e1d2c3b4a5968778695a4b3c2d1e0", "f0e1d2c3b4a5968778695a4b3c2d1e0ff",
+                "g0e1d2c3b4a5968778695a4b3c2d1e0f", "f0e1d2c3-4a5968778695a4b3c2d1e0f"};
+        for (String sessionId : sessionIds) {
+            try {
+                SessionId.parse(sessionId);
+                fail("should reject " + sessionId);
+            } catch (IllegalArgumentException e) {
+                //expected
+            }
+        }
+    }
+
+    public void testOrderingIsSigned() {
+        assertTrue(new SessionId(-1L, 0L).compareTo(new SessionId(0L, 0L)) < 0);
+        assertTrue(new SessionId(0L, 1L).compareTo(new SessionId(0L, 0L)) > 0);
+        assertEquals(0, new SessionId(5L, 6L).compareTo(new SessionId(5L, 6L)));
+        assertEquals(new SessionId(5L, 6L).hashCode(), new SessionId(5L, 6L).hashCode());
+    }
+
+    public void testKryoRoundTrip() {
+        Kryo kryo = KryoRoundTrip.newKryo();
+        SessionId[] sessionIds = {new SessionId(0L, 0L), new SessionId(Long.MIN_VALUE, Long.MAX_VALUE),
+                SessionId.parse("f0e1d2c3b4a5968778695a4b3c2d1e0f")};
+        for (SessionId sessionId : sessionIds) {
+            assertEquals(sessionId, KryoRoundTrip.roundTrip(kryo, sessionId, SessionId.class));
+
+            //序列化器本身固定写16个字节
+            Output raw = new Output(32, -1);
+            new SessionIdSerializer().write(kryo, raw, sessionId);
+            assertEquals(16, raw.position());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.bf.sparkproject.spark.session;
+
+import junit.framework.TestCase;
+import scala.Tuple2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 按不活跃的时间间隔切分session
+ * <p>
+ * 输入和shuffle之后一样，按(user_id, action_time)排好序
+ */
+public class SessionizerTest extends TestCase {
+
+    private static final long GAP = 1800L;
+    private static final long START = 1523239200L;
+
+    public void testSingleActionIsItsOwnSession() {
+        List<SessionAction> actions = sessionize(action(7L, START));
+        assertEquals(1, actions.size());
+        assertEquals(new SessionId(7L, START), actions.get(0).getSessionId());
+    }
+
+    public void testGapAtTheLimitStaysInTheSession() {
+        //间隔正好等于session.sessionize.gap.seconds，不切分
+        List<SessionAction> actions = sessionize(action(7L, START), action(7L, START + GAP),
+                action(7L, START + 2 * GAP));
+        assertEquals(Arrays.asList(START, START, START), sessionStarts(actions));
+    }
+
+    public void testGapOverTheLimitStartsANewSession() {
+        List<SessionAction> actions = sessionize(action(7L, START), action(7L, START + GAP + 1),
+                action(7L, START + GAP + 2), action(7L, START + 3 * GAP + 3));
+        assertEquals(Arrays.asList(START, START + GAP + 1, START + GAP + 1, START + 3 * GAP + 3),
+                sessionStarts(actions));
+    }
+
+    public void testGapIsMeasuredFromTheLastActionNotTheSessionStart() {
+        //每次间隔都不超过上限，session可以比上限长很多
+        List<SessionAction> actions = sessionize(action(7L, START), action(7L, START + GAP),
+                action(7L, START + 2 * GAP), action(7L, START + 3 * GAP));
+        for (SessionAction action : actions) {
+            assertEquals(new SessionId(7L, START), action.getSessionId());
+        }
+    }
+
+    public void testEqualTimestampsStayInOneSession() {
+        List<SessionAction> actions = sessionize(action(7L, START), action(7L, START), action(7L, START),
+                action(7L, START + GAP + 1), action(7L, START + GAP + 1));
+        assertEquals(Arrays.asList(START, START, START, START + GAP + 1, START + GAP + 1),
+                sessionStarts(actions));
+    }
+
+    public void testNewUserStartsANewSession() {
+        //两个用户的行为时间重叠，也不能合并成一个session
+        List<SessionAction> actions = sessionize(action(7L, START), action(7L, START + 10),
+                action(8L, START + 10), action(8L, START + 20));
+        assertEquals(new SessionId(7L, START), actions.get(1).getSessionId());
+        assertEquals(new SessionId(8L, START + 10), actions.get(2).getSessionId());
+        assertEquals(new SessionId(8L, START + 10), actions.get(3).getSessionId());
+    }
+
+    public void testUserTimeKeyOrdering() {
+        Sessionizer.UserTimeKey key = new Sessionizer.UserTimeKey(7L, START);
+        assertEquals(0, key.compareTo(new Sessionizer.UserTimeKey(7L, START)));
+        assertTrue(key.compareTo(new Sessionizer.UserTimeKey(7L, START + 1)) < 0);
+        assertTrue(key.compareTo(new Sessionizer.UserTimeKey(8L, START - 1000)) < 0);
+        assertTrue(key.compareTo(new Sessionizer.UserTimeKey(-1L, Long.MAX_VALUE)) > 0);
+    }
+
+    public void testPartitionerKeepsAUserInOnePartition() {
+        Sessionizer.UserIdPartitioner partitioner = new Sessionizer.UserIdPartitioner(7);
+        for (long userId = -100; userId <= 100; userId++) {
+            int partition = partitioner.getPartition(new Sessionizer.UserTimeKey(userId, 0L));
+            assertTrue(partition >= 0 && partition < 7);
+            assertEquals(partition, partitioner.getPartition(new Sessionizer.UserTimeKey(userId, START)));
+        }
+    }
+
+    private static SessionAction action(long userId, long actionTime) {
+        SessionAction action = new SessionAction();
+        action.setUserId(userId);
+        action.setActionTime(actionTime);
+        return action;
+    }
+
+    private static List<SessionAction> sessionize(SessionAction... actions) {
+        List<Tuple2<Sessionizer.UserTimeKey, SessionAction>> sorted =
+                new ArrayList<Tuple2<Sessionizer.UserTimeKey, SessionAction>>();
+        for (SessionAction action : actions) {
+            sorted.add(new Tuple2<Sessionizer.UserTimeKey, SessionAction>(
+                    new Sessionizer.UserTimeKey(action.getUserId(), action.getActionTime()), action));
+        }
+        List<SessionAction> result = new ArrayList<SessionAction>();
+        Iterator<SessionAction> iterator = new Sessionizer.SessionIterator(sorted.iterator(), GAP);
+        while (iterator.hasNext()) {
+            result.add(iterator.next());
+        }
+        return result;
+    }
+
+    private static List<Long> sessionStarts(List<SessionAction> actions) {
+        List<Long> starts = new ArrayList<Long>();
+        for (SessionAction action : actions) {
+            assertEquals(action.getUserId(), action.getSessionIdHigh());
+            starts.add(action.getSessionIdLow());
+        }
+        return starts;
+    }
+}
@@ -0,0 +1,180 @@
+package com.bf.sparkproject.spark.streaming;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AsyncJdbcSink的写入队列
+ * <p>
+ * 记录是"key=value"形式的字符串，同一个key的记录合并的时候取新的
+ * 第一次写入会阻塞，直到调用release()，用来模拟MySQL变慢
+ */
+public class AsyncJdbcSinkTest extends TestCase {
+
+    private static final long TIMEOUT_SECONDS = 10L;
+
+    private final List<List<String>> written = new ArrayList<List<String>>();
+    private final CountDownLatch firstWriteStarted = new CountDownLatch(1);
+    private final CountDownLatch firstWriteReleased = new CountDownLatch(1);
+
+    public void testCoalescesPendingRecordsWithTheSameKey() throws Exception {
+        AsyncJdbcSink.WriteQueue<String> queue = newQueue(10, 10);
+        assertFalse(queue.put("a=1"));
+        assertTrue(firstWriteStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        //a=1正在写入，新的a=2不能合并进去，只能和队列中的记录合并
+        assertFalse(queue.put("a=2"));
+        assertFalse(queue.put("b=1"));
+        assertTrue(queue.put("a=3"));
+        assertTrue(queue.put("b=2"));
+        assertEquals(3, queue.size());
+
+        release();
+        queue.drain();
+        assertEquals(Arrays.asList(Arrays.asList("a=1"), Arrays.asList("a=3", "b=2")), written());
+    }
+
+    public void testPutBlocksWhenQueueIsFull() throws Exception {
+        final AsyncJdbcSink.WriteQueue<String> queue = newQueue(2, 10);
+        queue.put("a=1");
+        assertTrue(firstWriteStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        //正在写入的记录也占用队列的位置
+        queue.put("b=1");
+        assertEquals(2, queue.size());
+        //同一个key的记录直接合并，不需要新的位置，队列满了也不阻塞
+        assertTrue(queue.put("b=2"));
+
+        final CountDownLatch putDone = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queue.put("c=1");
+                    putDone.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        producer.start();
+        assertFalse(putDone.await(200L, TimeUnit.MILLISECONDS));
+
+        release();
+        assertTrue(putDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        queue.drain();
+        assertEquals(Arrays.asList("a=1", "b=2", "c=1"), flatten(written()));
+    }
+
+    public void testTakesAtMostBatchSizeRecords() throws Exception {
+        AsyncJdbcSink.WriteQueue<String> queue = newQueue(10, 2);
+        queue.put("a=1");
+        assertTrue(firstWriteStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        queue.put("b=1");
+        queue.put("c=1");
+        queue.put("d=1");
+        release();
+        waitUntilEmpty(queue);
+        queue.drain();
+        assertEquals(Arrays.asList(Arrays.asList("a=1"), Arrays.asList("b=1", "c=1"), Arrays.asList("d=1")),
+                written());
+    }
+
+    public void testDrainWaitsForTheCurrentWrite() throws Exception {
+        final AsyncJdbcSink.WriteQueue<String> queue = newQueue(10, 10);
+        queue.put("a=1");
+        assertTrue(firstWriteStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        queue.put("a=2");
+        queue.put("b=1");
+
+        Thread drainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queue.drain();
+            }
+        });
+        drainer.start();
+        //后台线程还在写a=1，剩下的a=2不能先写
+        drainer.join(200L);
+        assertTrue(drainer.isAlive());
+        assertTrue(written().isEmpty());
+
+        release();
+        drainer.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        assertFalse(drainer.isAlive());
+        assertEquals(Arrays.asList(Arrays.asList("a=1"), Arrays.asList("a=2", "b=1")), written());
+        assertEquals(0, queue.size());
+    }
+
+    public void testDrainWritesEverythingWhenIdle() throws Exception {
+        AsyncJdbcSink.WriteQueue<String> queue = newQueue(10, 10);
+        release();
+        queue.put("a=1");
+        waitUntilEmpty(queue);
+        queue.drain();
+        assertEquals(Arrays.asList("a=1"), flatten(written()));
+    }
+
+    private AsyncJdbcSink.WriteQueue<String> newQueue(int capacity, int batchSize) {
+        return new AsyncJdbcSink.WriteQueue<String>(getName(), capacity, batchSize,
+                new AsyncJdbcSink.Writer<String>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public void write(List<String> values) {
+                        firstWriteStarted.countDown();
+                        try {
+                            firstWriteReleased.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        synchronized (written) {
+                            written.add(new ArrayList<String>(values));
+                        }
+                    }
+                },
+                new AsyncJdbcSink.Coalescer<String>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public Object key(String value) {
+                        return value.substring(0, value.indexOf('='));
+                    }
+
+                    @Override
+                    public String coalesce(String pending, String update) {
+                        return update;
+                    }
+                });
+    }
+
+    private void release() {
+        firstWriteReleased.countDown();
+    }
+
+    private List<List<String>> written() {
+        synchronized (written) {
+            return new ArrayList<List<String>>(written);
+        }
+    }
+
+    private static List<String> flatten(List<List<String>> batches) {
+        List<String> values = new ArrayList<String>();
+        for (List<String> batch : batches) {
+            values.addAll(batch);
+        }
+        return values;
+    }
+
+    private static void waitUntilEmpty(AsyncJdbcSink.WriteQueue<String> queue) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (queue.size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(0, queue.size());
+    }
+}
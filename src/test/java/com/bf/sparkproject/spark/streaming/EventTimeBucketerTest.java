@@ -0,0 +1,88 @@
+package com.bf.sparkproject.spark.streaming;
+
+import com.bf.sparkproject.util.DateUtils;
+import junit.framework.TestCase;
+
+/**
+ * 事件时间分钟的划分、水位线，以及哪些事件被丢弃
+ */
+public class EventTimeBucketerTest extends TestCase {
+
+    private static final long LATENESS = 120L;
+    private static final long MAX_FUTURE = 300L;
+
+    public void testMinuteBoundaries() {
+        long minuteStart = DateUtils.parseTimeSeconds("2018-04-09 10:05:00");
+        long minute = EventTimeBucketer.minuteOf(minuteStart);
+        assertEquals(minuteStart, EventTimeBucketer.minuteStart(minute));
+        assertEquals(minute, EventTimeBucketer.minuteOf(minuteStart + 59));
+        assertEquals(minute + 1, EventTimeBucketer.minuteOf(minuteStart + 60));
+        assertEquals(minute - 1, EventTimeBucketer.minuteOf(minuteStart - 1));
+    }
+
+    public void testNegativeTimestampsRoundDown() {
+        assertEquals(0L, EventTimeBucketer.minuteOf(0L));
+        assertEquals(0L, EventTimeBucketer.minuteOf(59L));
+        assertEquals(-1L, EventTimeBucketer.minuteOf(-1L));
+        assertEquals(-1L, EventTimeBucketer.minuteOf(-60L));
+        assertEquals(-2L, EventTimeBucketer.minuteOf(-61L));
+    }
+
+    public void testNothingIsLateBeforeTheFirstWatermark() {
+        long openMinute = EventTimeBucketer.openMinute(Long.MIN_VALUE);
+        assertEquals(Long.MIN_VALUE, openMinute);
+        assertFalse(EventTimeBucketer.isLate(0L, openMinute));
+        assertFalse(EventTimeBucketer.isLate(-3600L, openMinute));
+    }
+
+    public void testLateEventsAreDecidedByMinute() {
+        //水位线在10:05:30，10:05这一分钟还是打开的
+        long watermark = DateUtils.parseTimeSeconds("2018-04-09 10:05:30");
+        long openMinute = EventTimeBucketer.openMinute(watermark);
+
+        assertFalse(EventTimeBucketer.isLate(watermark, openMinute));
+        assertFalse(EventTimeBucketer.isLate(DateUtils.parseTimeSeconds("2018-04-09 10:05:00"), openMinute));
+        assertFalse(EventTimeBucketer.isLate(DateUtils.parseTimeSeconds("2018-04-09 10:06:00"), openMinute));
+        assertTrue(EventTimeBucketer.isLate(DateUtils.parseTimeSeconds("2018-04-09 10:04:59"), openMinute));
+        assertTrue(EventTimeBucketer.isLate(DateUtils.parseTimeSeconds("2018-04-09 09:00:00"), openMinute));
+    }
+
+    public void testWatermarkOnMinuteBoundary() {
+        long watermark = DateUtils.parseTimeSeconds("2018-04-09 10:05:00");
+        long openMinute = EventTimeBucketer.openMinute(watermark);
+        assertFalse(EventTimeBucketer.isLate(watermark, openMinute));
+        assertTrue(EventTimeBucketer.isLate(watermark - 1, openMinute));
+    }
+
+    public void testFutureEventsAreBoundedByBatchTime() {
+        long batchSeconds = DateUtils.parseTimeSeconds("2018-04-09 10:00:00");
+        assertFalse(EventTimeBucketer.isFuture(batchSeconds, batchSeconds, MAX_FUTURE));
+        assertFalse(EventTimeBucketer.isFuture(batchSeconds + MAX_FUTURE, batchSeconds, MAX_FUTURE));
+        assertTrue(EventTimeBucketer.isFuture(batchSeconds + MAX_FUTURE + 1, batchSeconds, MAX_FUTURE));
+        assertTrue(EventTimeBucketer.isFuture(DateUtils.parseTimeSeconds("2030-01-01 00:00:00"),
+                batchSeconds, MAX_FUTURE));
+    }
+
+    public void testWatermarkOnlyMovesForward() {
+        long maxEventTime = DateUtils.parseTimeSeconds("2018-04-09 10:05:00");
+        long watermark = EventTimeBucketer.advanceWatermark(Long.MIN_VALUE, maxEventTime, LATENESS);
+        assertEquals(maxEventTime - LATENESS, watermark);
+
+        //没有新的事件，或者最大事件时间变小了，水位线不动
+        assertEquals(watermark, EventTimeBucketer.advanceWatermark(watermark, Long.MIN_VALUE, LATENESS));
+        assertEquals(watermark, EventTimeBucketer.advanceWatermark(watermark, maxEventTime - 600, LATENESS));
+        assertEquals(Long.MIN_VALUE, EventTimeBucketer.advanceWatermark(Long.MIN_VALUE, Long.MIN_VALUE, LATENESS));
+
+        assertEquals(maxEventTime + 60 - LATENESS,
+                EventTimeBucketer.advanceWatermark(watermark, maxEventTime + 60, LATENESS));
+    }
+
+    public void testEventWithinLatenessIsKept() {
+        //最大事件时间10:05:00，允许迟到2分钟，10:03:00这一分钟还是打开的，10:02:59已经关闭了
+        long maxEventTime = DateUtils.parseTimeSeconds("2018-04-09 10:05:00");
+        long openMinute = EventTimeBucketer.openMinute(
+                EventTimeBucketer.advanceWatermark(Long.MIN_VALUE, maxEventTime, LATENESS));
+        assertFalse(EventTimeBucketer.isLate(DateUtils.parseTimeSeconds("2018-04-09 10:03:00"), openMinute));
+        assertTrue(EventTimeBucketer.isLate(DateUtils.parseTimeSeconds("2018-04-09 10:02:59"), openMinute));
+    }
+}
@@ -0,0 +1,66 @@
+package com.bf.sparkproject.spark.streaming;
+
+import com.bf.sparkproject.spark.session.KryoRoundTrip;
+import com.esotericsoftware.kryo.Kryo;
+import junit.framework.TestCase;
+
+/**
+ * OpenSession的Kryo编码
+ */
+public class OpenSessionSerializerTest extends TestCase {
+
+    private Kryo kryo;
+
+    @Override
+    protected void setUp() {
+        kryo = KryoRoundTrip.newKryo();
+    }
+
+    public void testSingleAction() {
+        OpenSession session = OpenSession.of(1523239200L, null, null);
+        assertSameSession(session, roundTrip(session));
+    }
+
+    public void testMergedIdleSession() {
+        OpenSession session = OpenSession.of(1523239200L, 3, 12L)
+                .merge(OpenSession.of(1523239205L, 7, null))
+                .merge(OpenSession.of(1523239100L, null, 99L));
+        session.idle(10);
+        session.idle(10);
+        assertSameSession(session, roundTrip(session));
+    }
+
+    public void testClosedSession() {
+        OpenSession session = OpenSession.of(0L, Integer.MAX_VALUE, (long) Integer.MAX_VALUE);
+        assertTrue(session.idle(1));
+        assertSameSession(session, roundTrip(session));
+    }
+
+    public void testEmptySessionWithSentinelTimes() {
+        //还没有合并任何行为的session，开始、结束时间是两个极值，差值会溢出
+        OpenSession session = new OpenSession();
+        assertSameSession(session, roundTrip(session));
+    }
+
+    public void testDeserializedStateIsIndependent() {
+        OpenSession session = OpenSession.of(100L, 1, 1L);
+        OpenSession copy = roundTrip(session);
+        copy.merge(OpenSession.of(200L, 2, 2L));
+        assertEquals(1, session.getStepLength());
+        assertEquals(1, session.getSearchKeywordIds().getCardinality());
+    }
+
+    private OpenSession roundTrip(OpenSession session) {
+        return KryoRoundTrip.roundTrip(kryo, session, OpenSession.class);
+    }
+
+    private static void assertSameSession(OpenSession expected, OpenSession actual) {
+        assertEquals(expected.getStartTime(), actual.getStartTime());
+        assertEquals(expected.getLastTime(), actual.getLastTime());
+        assertEquals(expected.getStepLength(), actual.getStepLength());
+        assertEquals(expected.getIdleBatches(), actual.getIdleBatches());
+        assertEquals(expected.isClosed(), actual.isClosed());
+        assertEquals(expected.getSearchKeywordIds(), actual.getSearchKeywordIds());
+        assertEquals(expected.getClickCategoryIds(), actual.getClickCategoryIds());
+    }
+}
@@ -0,0 +1,97 @@
+package com.bf.sparkproject.spark.streaming;
+
+import com.bf.sparkproject.util.DateUtils;
+import junit.framework.TestCase;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * 未关闭session的合并、空闲计数和超时关闭
+ */
+public class OpenSessionTest extends TestCase {
+
+    private static final long START = DateUtils.parseTimeSeconds("2018-04-09 10:00:00");
+
+    public void testSingleAction() {
+        OpenSession session = OpenSession.of(START, 3, 12L);
+        assertEquals(0L, session.getVisitLength());
+        assertEquals(1, session.getStepLength());
+        assertEquals(RoaringBitmap.bitmapOf(3), session.getSearchKeywordIds());
+        assertEquals(RoaringBitmap.bitmapOf(12), session.getClickCategoryIds());
+        assertEquals(0, session.getIdleBatches());
+        assertFalse(session.isClosed());
+    }
+
+    public void testActionWithoutKeywordOrCategory() {
+        OpenSession session = OpenSession.of(START, null, null);
+        assertTrue(session.getSearchKeywordIds().isEmpty());
+        assertTrue(session.getClickCategoryIds().isEmpty());
+    }
+
+    public void testMergeDoesNotDependOnArrivalOrder() {
+        //乱序到达的行为，开始时间取最早的，最后一次行为取最晚的
+        OpenSession inOrder = OpenSession.of(START, 3, null)
+                .merge(OpenSession.of(START + 5, 7, null))
+                .merge(OpenSession.of(START + 105, null, 99L));
+        OpenSession outOfOrder = OpenSession.of(START + 105, null, 99L)
+                .merge(OpenSession.of(START, 3, null))
+                .merge(OpenSession.of(START + 5, 7, null));
+
+        for (OpenSession session : new OpenSession[]{inOrder, outOfOrder}) {
+            assertEquals(START, session.getStartTime());
+            assertEquals(START + 105, session.getLastTime());
+            assertEquals(105L, session.getVisitLength());
+            assertEquals(3, session.getStepLength());
+            assertEquals(RoaringBitmap.bitmapOf(3, 7), session.getSearchKeywordIds());
+            assertEquals(RoaringBitmap.bitmapOf(99), session.getClickCategoryIds());
+        }
+    }
+
+    public void testRepeatedKeywordsAreCountedOnce() {
+        OpenSession session = OpenSession.of(START, 3, 12L)
+                .merge(OpenSession.of(START + 1, 3, 12L))
+                .merge(OpenSession.of(START + 2, 3, 12L));
+        assertEquals(3, session.getStepLength());
+        assertEquals(1, session.getSearchKeywordIds().getCardinality());
+        assertEquals(1, session.getClickCategoryIds().getCardinality());
+    }
+
+    public void testClosesAfterTimeoutBatches() {
+        OpenSession session = OpenSession.of(START, null, null);
+        assertFalse(session.idle(3));
+        assertFalse(session.idle(3));
+        assertFalse(session.isClosed());
+        assertTrue(session.idle(3));
+        assertTrue(session.isClosed());
+        assertEquals(3, session.getIdleBatches());
+    }
+
+    public void testNewActionResetsIdleBatches() {
+        OpenSession session = OpenSession.of(START, null, null);
+        session.idle(3);
+        session.idle(3);
+        session.merge(OpenSession.of(START + 60, null, null));
+        assertEquals(0, session.getIdleBatches());
+
+        //重新开始计数，还要连续3个空闲的batch才关闭
+        assertFalse(session.idle(3));
+        assertFalse(session.idle(3));
+        assertTrue(session.idle(3));
+    }
+
+    public void testStartDateIsTheDayOfTheFirstAction() {
+        //跨过零点的session算在开始的那一天
+        OpenSession session = OpenSession.of(DateUtils.parseTimeSeconds("2018-04-09 23:59:50"), null, null)
+                .merge(OpenSession.of(DateUtils.parseTimeSeconds("2018-04-10 00:00:20"), null, null));
+        assertEquals("2018-04-09", session.getStartDate());
+        assertEquals(30L, session.getVisitLength());
+    }
+
+    public void testRejectsCategoryIdOutOfIntRange() {
+        try {
+            OpenSession.of(START, null, (long) Integer.MAX_VALUE + 1);
+            fail("should reject category id out of int range");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+}
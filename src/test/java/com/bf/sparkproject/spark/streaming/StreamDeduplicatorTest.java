@@ -0,0 +1,90 @@
+package com.bf.sparkproject.spark.streaming;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 去重状态：布隆过滤器的轮转和去重的判断
+ * <p>
+ * 和StreamDeduplicator中一样，每个batch先调用nextBatch()，再逐条offer()
+ */
+public class StreamDeduplicatorTest extends TestCase {
+
+    //2个时间片，每个时间片2个batch
+    private static final int SLICES = 2;
+    private static final int SLICE_BATCHES = 2;
+
+    private StreamDeduplicator.DedupState state;
+
+    @Override
+    protected void setUp() {
+        state = new StreamDeduplicator.DedupState(SLICES, 1000L, 0.001D);
+    }
+
+    public void testFreshIdsAreAccepted() {
+        assertEquals(Arrays.asList(1L, 2L, 3L), batch(1L, 2L, 3L));
+        assertEquals(Arrays.asList(4L, 5L), batch(4L, 5L));
+    }
+
+    public void testDuplicateWithinBatch() {
+        assertEquals(Arrays.asList(1L, 2L), batch(1L, 2L, 1L, 1L));
+        assertEquals(Arrays.asList(3L), batch(2L, 3L, 3L));
+    }
+
+    public void testDuplicateInLaterBatchesOfTheWindow() {
+        assertEquals(Arrays.asList(1L), batch(1L));
+        //下一个batch开始的时候，1合并进当前时间片
+        assertEquals(Arrays.asList(2L), batch(1L, 2L));
+        //时间片轮转了一次，1所在的时间片成了较老的时间片，还没有被清空
+        assertEquals(Arrays.asList(3L), batch(1L, 3L));
+        assertEquals(new ArrayList<Long>(), batch(1L, 2L, 3L));
+    }
+
+    public void testDuplicateAcceptedAgainAfterRotation() {
+        assertEquals(Arrays.asList(1L), batch(1L));
+        batch();
+        batch();
+        batch();
+        //又轮转了一次，1所在的时间片被清空，重新作为当前时间片，1过期了
+        assertEquals(Arrays.asList(1L), batch(1L));
+        //重新通过之后，又在窗口中了
+        assertEquals(new ArrayList<Long>(), batch(1L));
+    }
+
+    public void testAcceptsMatchesOfferAfterUpdate() {
+        batch(1L, 2L);
+        state.nextBatch(SLICE_BATCHES);
+        Set<Long> offerIds = new HashSet<Long>();
+        List<Boolean> offered = new ArrayList<Boolean>();
+        for (long id : new long[]{2L, 3L, 3L, 4L}) {
+            offered.add(state.offer(id, offerIds));
+        }
+
+        //输出的时候用更新之后的状态再判断一遍，结果要和更新状态时一样
+        Set<Long> outputIds = new HashSet<Long>();
+        List<Boolean> accepted = new ArrayList<Boolean>();
+        for (long id : new long[]{2L, 3L, 3L, 4L}) {
+            accepted.add(state.accepts(id, outputIds));
+        }
+        assertEquals(Arrays.asList(false, true, false, true), offered);
+        assertEquals(offered, accepted);
+    }
+
+    //一个batch：轮转，然后逐条判断，返回通过去重的id
+    private List<Long> batch(long... ids) {
+        state.nextBatch(SLICE_BATCHES);
+        Set<Long> batchIds = new HashSet<Long>();
+        List<Long> accepted = new ArrayList<Long>();
+        for (long id : ids) {
+            if (state.offer(id, batchIds)) {
+                accepted.add(id);
+            }
+        }
+        return accepted;
+    }
+}
@@ -0,0 +1,58 @@
+package com.bf.sparkproject.util;
+
+import junit.framework.TestCase;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * DateUtils中秒级时间戳的解析和格式化
+ */
+public class DateUtilsTest extends TestCase {
+
+    public void testRoundTrip() throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        Random random = new Random(7);
+        for (int i = 0; i < 10000; i++) {
+            //1900年到2100年之间的随机时间
+            long seconds = -2208988800L + (long) (random.nextDouble() * 6311433600L);
+            String time = format.format(new Date(seconds * 1000));
+            assertEquals(time, DateUtils.formatTimeSeconds(seconds));
+            assertEquals(seconds, DateUtils.parseTimeSeconds(time));
+        }
+    }
+
+    public void testMatchesSimpleDateFormat() throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        String[] times = {"1970-01-01 00:00:00", "1969-12-31 23:59:59", "2000-02-29 12:00:00",
+                "2018-04-09 23:59:59", "2100-12-31 00:00:01"};
+        for (String time : times) {
+            assertEquals(time, format.parse(time).getTime() / 1000, DateUtils.parseTimeSeconds(time));
+            assertEquals(time, DateUtils.formatTimeSeconds(DateUtils.parseTimeSeconds(time)));
+        }
+    }
+
+    public void testRejectsMalformedTime() {
+        String[] times = {null, "", "2018-04-09", "2018-04-09 12:00", "2018-04-09 12:00:00.0",
+                "2018-04-09T12:00:00", "2018/04/09 12:00:00", "2018-04-09 12:ab:00", "2018-04-0a 12:00:00",
+                "9999-99-99 99:99:99", "2018-00-09 12:00:00", "2018-13-09 12:00:00", "2018-04-00 12:00:00",
+                "2018-04-31 12:00:00", "2018-02-29 12:00:00", "1900-02-29 12:00:00", "2018-04-09 24:00:00",
+                "2018-04-09 12:60:00", "2018-04-09 12:00:60", "-018-04-09 12:00:00"};
+        for (String time : times) {
+            try {
+                DateUtils.parseTimeSeconds(time);
+                fail("should reject " + time);
+            } catch (IllegalArgumentException e) {
+                //expected
+            }
+        }
+    }
+
+    public void testLeapDay() {
+        assertEquals("2000-02-29 00:00:00",
+                DateUtils.formatTimeSeconds(DateUtils.parseTimeSeconds("2000-02-29 00:00:00")));
+        assertEquals("2016-02-29 23:59:59",
+                DateUtils.formatTimeSeconds(DateUtils.parseTimeSeconds("2016-02-29 23:59:59")));
+    }
+}
@@ -0,0 +1,127 @@
+package com.bf.sparkproject.util;
+
+import com.bf.sparkproject.spark.session.SessionKryoRegistrator;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+/**
+ * 布隆过滤器
+ */
+public class LongBloomFilterTest extends TestCase {
+
+    public void testNoFalseNegatives() {
+        LongBloomFilter filter = new LongBloomFilter(10000, 0.01);
+        Random random = new Random(7);
+        long[] keys = new long[10000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextLong();
+            filter.put(keys[i]);
+        }
+        for (long key : keys) {
+            assertTrue(filter.mightContain(key));
+        }
+        assertTrue(filter.mightContain(keys[0]));
+    }
+
+    public void testFalsePositiveRateNearTarget() {
+        LongBloomFilter filter = new LongBloomFilter(10000, 0.01);
+        for (long key = 0; key < 10000; key++) {
+            filter.put(key);
+        }
+        int falsePositives = 0;
+        for (long key = 10000; key < 110000; key++) {
+            if (filter.mightContain(key)) {
+                falsePositives++;
+            }
+        }
+        double observed = falsePositives / 100000D;
+        assertTrue("observed fpp " + observed, observed < 0.02);
+        //按置位比例估算的误判率和实际的误判率是同一个量级
+        assertEquals(observed, filter.getFalsePositiveRate(), 0.005);
+    }
+
+    public void testEmptyAndClear() {
+        LongBloomFilter filter = new LongBloomFilter(100, 0.01);
+        assertEquals(0D, filter.getFalsePositiveRate());
+        assertFalse(filter.mightContain(42L));
+        filter.put(42L);
+        assertTrue(filter.mightContain(42L));
+        filter.clear();
+        assertFalse(filter.mightContain(42L));
+        assertEquals(0D, filter.getFalsePositiveRate());
+    }
+
+    public void testMerge() {
+        LongBloomFilter left = new LongBloomFilter(1000, 0.01);
+        LongBloomFilter right = new LongBloomFilter(1000, 0.01);
+        left.put(1L);
+        right.put(2L);
+        left.merge(right);
+        assertTrue(left.mightContain(1L));
+        assertTrue(left.mightContain(2L));
+        try {
+            left.merge(new LongBloomFilter(100000, 0.01));
+            fail("should reject filters of different sizes");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    public void testRejectsInvalidFpp() {
+        double[] fpps = {0D, 1D, -0.1D, 1.5D};
+        for (double fpp : fpps) {
+            try {
+                new LongBloomFilter(100, fpp);
+                fail("should reject fpp " + fpp);
+            } catch (IllegalArgumentException e) {
+                //expected
+            }
+        }
+    }
+
+    public void testKryoRoundTrip() {
+        Kryo kryo = new Kryo();
+        new SessionKryoRegistrator().registerClasses(kryo);
+        LongBloomFilter filter = filterOf(1L, Long.MIN_VALUE, Long.MAX_VALUE);
+        Output output = new Output(1024, -1);
+        kryo.writeObject(output, filter);
+        assertSameFilter(filter, kryo.readObject(new Input(output.toBytes()), LongBloomFilter.class));
+    }
+
+    public void testJavaSerializationRoundTrip() throws Exception {
+        LongBloomFilter filter = filterOf(1L, Long.MIN_VALUE, Long.MAX_VALUE);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(filter);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertSameFilter(filter, (LongBloomFilter) in.readObject());
+    }
+
+    private static LongBloomFilter filterOf(long... keys) {
+        LongBloomFilter filter = new LongBloomFilter(1000, 0.01);
+        for (long key : keys) {
+            filter.put(key);
+        }
+        return filter;
+    }
+
+    private static void assertSameFilter(LongBloomFilter expected, LongBloomFilter actual) {
+        assertEquals(expected.getNumBits(), actual.getNumBits());
+        assertEquals(expected.getNumHashFunctions(), actual.getNumHashFunctions());
+        assertEquals(expected.getFalsePositiveRate(), actual.getFalsePositiveRate());
+        for (long key = -1000; key < 1000; key++) {
+            assertEquals(expected.mightContain(key), actual.mightContain(key));
+        }
+        assertTrue(actual.mightContain(Long.MIN_VALUE));
+        assertTrue(actual.mightContain(Long.MAX_VALUE));
+    }
+}